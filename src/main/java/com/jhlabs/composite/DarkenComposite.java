@@ -29,24 +29,32 @@ public final class DarkenComposite extends RGBComposite {
         return new Context(extraAlpha, srcColorModel, dstColorModel);
     }
 
-    static class Context extends RGBCompositeContext {
+    static class Context extends PackedCompositeContext {
         public Context(float alpha, ColorModel srcColorModel, ColorModel dstColorModel) {
             super(alpha, srcColorModel, dstColorModel);
         }
 
         @Override
-        public void composeRGB(int[] src, int[] dst, float alpha) {
-            int w = src.length;
-
-            for (int i = 0; i < w; i += 4) {
-                int sr = src[i];
-                int dir = dst[i];
-                int sg = src[i + 1];
-                int dig = dst[i + 1];
-                int sb = src[i + 2];
-                int dib = dst[i + 2];
-                int sa = src[i + 3];
-                int dia = dst[i + 3];
+        protected void composeRow(int[] src, int srcPos,
+                                  int[] dstIn, int dstInPos,
+                                  int[] dstOut, int dstOutPos,
+                                  int width, float alpha) {
+            for (int i = 0; i < width; i++) {
+                int s = src[srcPos + i];
+                int d = dstIn[dstInPos + i];
+                int sa = s >>> 24;
+                if (sa == 0) {
+                    // a transparent source pixel doesn't change the destination
+                    dstOut[dstOutPos + i] = d;
+                    continue;
+                }
+                int sr = (s >> 16) & 0xFF;
+                int sg = (s >> 8) & 0xFF;
+                int sb = s & 0xFF;
+                int dir = (d >> 16) & 0xFF;
+                int dig = (d >> 8) & 0xFF;
+                int dib = d & 0xFF;
+                int dia = d >>> 24;
 
                 int dor = dir < sr ? dir : sr;
                 int dog = dig < sg ? dig : sg;
@@ -55,10 +63,10 @@ public final class DarkenComposite extends RGBComposite {
                 float a = alpha * sa / 255.0f;
                 float ac = 1 - a;
 
-                dst[i] = (int) (a * dor + ac * dir);
-                dst[i + 1] = (int) (a * dog + ac * dig);
-                dst[i + 2] = (int) (a * dob + ac * dib);
-                dst[i + 3] = (int) (sa * alpha + dia * ac);
+                dstOut[dstOutPos + i] = pack((int) (sa * alpha + dia * ac),
+                    (int) (a * dor + ac * dir),
+                    (int) (a * dog + ac * dig),
+                    (int) (a * dob + ac * dib));
             }
         }
     }
@@ -29,24 +29,32 @@ public final class OverlayComposite extends RGBComposite {
         return new Context(extraAlpha, srcColorModel, dstColorModel);
     }
 
-    static class Context extends RGBCompositeContext {
+    static class Context extends PackedCompositeContext {
         public Context(float alpha, ColorModel srcColorModel, ColorModel dstColorModel) {
             super(alpha, srcColorModel, dstColorModel);
         }
 
         @Override
-        public void composeRGB(int[] src, int[] dst, float alpha) {
-            int w = src.length;
-
-            for (int i = 0; i < w; i += 4) {
-                int sr = src[i];
-                int dir = dst[i];
-                int sg = src[i + 1];
-                int dig = dst[i + 1];
-                int sb = src[i + 2];
-                int dib = dst[i + 2];
-                int sa = src[i + 3];
-                int dia = dst[i + 3];
+        protected void composeRow(int[] src, int srcPos,
+                                  int[] dstIn, int dstInPos,
+                                  int[] dstOut, int dstOutPos,
+                                  int width, float alpha) {
+            for (int i = 0; i < width; i++) {
+                int s = src[srcPos + i];
+                int d = dstIn[dstInPos + i];
+                int sa = s >>> 24;
+                if (sa == 0) {
+                    // a transparent source pixel doesn't change the destination
+                    dstOut[dstOutPos + i] = d;
+                    continue;
+                }
+                int sr = (s >> 16) & 0xFF;
+                int sg = (s >> 8) & 0xFF;
+                int sb = s & 0xFF;
+                int dir = (d >> 16) & 0xFF;
+                int dig = (d >> 8) & 0xFF;
+                int dib = d & 0xFF;
+                int dia = d >>> 24;
 
                 int dor;
                 int t;
@@ -79,22 +87,10 @@ public final class OverlayComposite extends RGBComposite {
                 float a = alpha * sa / 255.0f;
                 float ac = 1 - a;
 
-                int newRed = (int) (a * dor + ac * dir);
-                int newGreen = (int) (a * dog + ac * dig);
-                int newBlue = (int) (a * dob + ac * dib);
-                int newAlpha = (int) (sa * alpha + dia * ac);
-
-//                if(alpha == 1.0f) {
-                dst[i] = newRed;
-                dst[i + 1] = newGreen;
-                dst[i + 2] = newBlue;
-                dst[i + 3] = newAlpha;
-//                } else {
-//                    dst[i] = PixelUtils.clamp(newRed);
-//                    dst[i + 1] = PixelUtils.clamp(newGreen);
-//                    dst[i + 2] = PixelUtils.clamp(newBlue);
-//                    dst[i + 3] = PixelUtils.clamp(newAlpha);
-//                }
+                dstOut[dstOutPos + i] = pack((int) (sa * alpha + dia * ac),
+                    (int) (a * dor + ac * dir),
+                    (int) (a * dog + ac * dig),
+                    (int) (a * dob + ac * dib));
             }
         }
     }
@@ -16,9 +16,14 @@ limitations under the License.
 
 package com.jhlabs.composite;
 
+import pixelitor.ThreadPool;
+import pixelitor.utils.ProgressTracker;
+
 import java.awt.*;
 import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
 import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
 import java.awt.image.WritableRaster;
 
 public abstract class RGBComposite implements Composite {
@@ -58,7 +63,7 @@ public abstract class RGBComposite implements Composite {
     }
 
     public abstract static class RGBCompositeContext implements CompositeContext {
-        private final float alpha;
+        protected final float alpha;
 //        private final ColorModel srcColorModel;
 //        private final ColorModel dstColorModel;
 
@@ -88,6 +93,12 @@ public abstract class RGBComposite implements Composite {
             return a < 0 ? 0 : a > 255 ? 255 : a;
         }
 
+        // Packs the components in the same way as the sample model
+        // in setPixels, which ignores the bits outside the 0..255 range
+        static int pack(int a, int r, int g, int b) {
+            return (a & 0xFF) << 24 | (r & 0xFF) << 16 | (g & 0xFF) << 8 | (b & 0xFF);
+        }
+
         public abstract void composeRGB(int[] src, int[] dst, float alpha);
 
         @Override
@@ -116,4 +127,87 @@ public abstract class RGBComposite implements Composite {
             }
         }
     }
+
+    /**
+     * A context that blends the packed pixels of int-based ARGB rasters
+     * directly, without unpacking them into component arrays. Every
+     * subclass has its own specialized row loop, so there is no virtual
+     * call per pixel, and the large areas are blended in parallel bands.
+     * The results are the same as with the component arrays.
+     */
+    public abstract static class PackedCompositeContext extends RGBCompositeContext {
+        protected PackedCompositeContext(float alpha, ColorModel srcColorModel, ColorModel dstColorModel) {
+            super(alpha, srcColorModel, dstColorModel);
+        }
+
+        /**
+         * Blends a row of packed ARGB source pixels into the destination.
+         * It's called concurrently for different rows, therefore
+         * it must not modify the state of the context.
+         */
+        protected abstract void composeRow(int[] src, int srcPos,
+                                           int[] dstIn, int dstInPos,
+                                           int[] dstOut, int dstOutPos,
+                                           int width, float alpha);
+
+        @Override
+        public void compose(Raster src, Raster dstIn, WritableRaster dstOut) {
+            if (!isPackedARGB(src) || !isPackedARGB(dstIn) || !isPackedARGB(dstOut)) {
+                super.compose(src, dstIn, dstOut);
+                return;
+            }
+
+            float alpha = this.alpha;
+            int width = dstOut.getWidth();
+            int height = dstOut.getHeight();
+
+            // The rows are copied into scratch arrays instead of accessing
+            // the data buffers directly, because that would prevent Java2D
+            // from accelerating the drawing of the images.
+            ThreadPool.processBands(width, height, (startY, endY) -> {
+                int[] srcRow = new int[width];
+                int[] dstRow = new int[width];
+                for (int y = startY; y < endY; y++) {
+                    src.getDataElements(src.getMinX(), src.getMinY() + y, width, 1, srcRow);
+                    dstIn.getDataElements(dstIn.getMinX(), dstIn.getMinY() + y, width, 1, dstRow);
+                    composeRow(srcRow, 0, dstRow, 0, dstRow, 0, width, alpha);
+                    dstOut.setDataElements(dstOut.getMinX(), dstOut.getMinY() + y, width, 1, dstRow);
+                }
+            }, ProgressTracker.NULL_TRACKER);
+        }
+
+        // The component arrays are used only for rasters that are not
+        // int-packed, and they are blended by packing them temporarily.
+        @Override
+        public void composeRGB(int[] src, int[] dst, float alpha) {
+            int numPixels = Math.min(src.length, dst.length) / 4;
+            int[] packedSrc = new int[numPixels];
+            int[] packedDst = new int[numPixels];
+            for (int p = 0, i = 0; p < numPixels; p++, i += 4) {
+                packedSrc[p] = pack(src[i + 3], src[i], src[i + 1], src[i + 2]);
+                packedDst[p] = pack(dst[i + 3], dst[i], dst[i + 1], dst[i + 2]);
+            }
+
+            composeRow(packedSrc, 0, packedDst, 0, packedDst, 0, numPixels, alpha);
+
+            for (int p = 0, i = 0; p < numPixels; p++, i += 4) {
+                int rgb = packedDst[p];
+                dst[i] = (rgb >> 16) & 0xFF;
+                dst[i + 1] = (rgb >> 8) & 0xFF;
+                dst[i + 2] = rgb & 0xFF;
+                dst[i + 3] = rgb >>> 24;
+            }
+        }
+
+        private static boolean isPackedARGB(Raster raster) {
+            if (raster.getDataBuffer() instanceof DataBufferInt
+                && raster.getSampleModel() instanceof SinglePixelPackedSampleModel sm) {
+                int[] masks = sm.getBitMasks();
+                return masks.length == 4
+                    && masks[0] == 0xFF_00_00 && masks[1] == 0xFF_00
+                    && masks[2] == 0xFF && masks[3] == 0xFF_00_00_00;
+            }
+            return false;
+        }
+    }
 }
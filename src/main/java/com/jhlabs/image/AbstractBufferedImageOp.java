@@ -76,6 +76,15 @@ public abstract class AbstractBufferedImageOp implements BufferedImageOp, Clonea
         }
     }
 
+    /**
+     * Returns the distance (in pixels) from which the source pixels
+     * can influence a destination pixel, or -1 if a destination pixel
+     * can depend on any source pixel, or on the size of the image.
+     */
+    public int getInputMargin() {
+        return -1;
+    }
+
     //  ******* End of Pixelitor-specific stuff *******
 
     @Override
@@ -6,11 +6,19 @@
 
 package pd;
 
+import pixelitor.ThreadPool;
+
 import java.awt.Color;
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferByte;
 import java.io.*;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 /**
  * Class AnimatedGifEncoder - Encodes a GIF file consisting of one or more
@@ -26,6 +34,12 @@ import java.io.*;
  *     e.finish();
  * </pre>
  *
+ * The color quantization and the LZW compression of the frames run in
+ * parallel on the thread pool, but the frames are always written in the
+ * order in which they were added, so the output is deterministic. If the
+ * disposal method allows it, only the changed rectangle of each frame
+ * is encoded.
+ *
  * No copyright asserted on the source code of this class. May be used for any
  * purpose, however, refer to the Unisys LZW patent for restrictions on use of
  * the associated LZWEncoder class. Please forward any corrections to
@@ -35,28 +49,69 @@ import java.io.*;
  * @version 1.03 November 2003
  */
 public class AnimatedGifEncoder {
+    // the maximum number of frames that are encoded at the same time,
+    // which also limits the memory used by the frames waiting to be written
+    private static final int MAX_PENDING_FRAMES = 2 * Runtime.getRuntime().availableProcessors() + 1;
+
+    private static final int DISPOSE_NOT_SPECIFIED = 0;
+    private static final int DISPOSE_DO_NOT_DISPOSE = 1;
+
     private int width; // image size
     private int height;
     private Color transparent = null; // transparent color if given
-    private int transIndex; // transparent index in color table
     private int repeat = -1; // no repeat
     private int delay = 0; // frame delay (hundredths)
     private boolean started = false; // ready to output frames
     private OutputStream out;
-    private BufferedImage image; // current frame
-    private byte[] pixels; // BGR byte array from frame
-    private byte[] indexedPixels; // converted frame indexed to palette
-    private int colorDepth; // number of bit planes
-    private byte[] colorTab; // RGB palette
-    private final boolean[] usedEntry = new boolean[256]; // active palette entries
-    private int palSize = 7; // color table size (bits-1)
     private int dispose = -1; // disposal code (-1 = use default)
     private boolean closeStream = false; // close stream when finished
-    private boolean firstFrame = true;
+    private boolean firstFrame = true; // the next written frame is the first
+    private boolean firstAdded = true; // the next added frame is the first
     private boolean sizeSet = false; // if false, get size from first frame
     private int sample = 10; // default sample interval for quantizer
+    private boolean globalPalette = false; // use the first frame's palette for all frames
     private File file;
 
+    private byte[] prevPixels; // BGR pixels of the previously added frame
+    private FrameSettings prevSettings;
+    private Future<Palette> globalPaletteFuture; // only in global palette mode
+    private final Deque<Future<EncodedFrame>> pendingFrames = new ArrayDeque<>();
+
+    /**
+     * A color table together with the quantizer that can map colors to it.
+     */
+    private record Palette(NeuQuant quantizer, byte[] colorTab) {
+        static Palette create(byte[] bgrPixels, int sample) {
+            NeuQuant nq = new NeuQuant(bgrPixels, bgrPixels.length, sample);
+            byte[] colorTab = nq.process(); // create reduced palette
+            // convert map from BGR to RGB
+            for (int i = 0; i < colorTab.length; i += 3) {
+                byte temp = colorTab[i];
+                colorTab[i] = colorTab[i + 2];
+                colorTab[i + 2] = temp;
+            }
+            return new Palette(nq, colorTab);
+        }
+    }
+
+    /**
+     * The settings in effect when a frame was added.
+     */
+    private record FrameSettings(int delay, int dispose, Color transparent, int sample) {
+        // whether the unchanged pixels can be left out of the frame,
+        // because the previous frame remains visible under it
+        boolean allowsSubImages() {
+            return transparent == null && dispose <= DISPOSE_DO_NOT_DISPOSE;
+        }
+    }
+
+    /**
+     * A frame that is ready to be written.
+     */
+    private record EncodedFrame(Rectangle bounds, byte[] localColorTab,
+                                int transIndex, byte[] lzwData, FrameSettings settings) {
+    }
+
     /**
      * Sets the delay time between each frame, or changes it for subsequent frames
      * (applies to last frame added).
@@ -107,9 +162,19 @@ public class AnimatedGifEncoder {
     }
 
     /**
-     * Adds next GIF frame. The frame is not written immediately, but is actually
-     * deferred until the next frame is received so that timing data can be
-     * inserted. Invoking <code>finish()</code> flushes all frames. If
+     * If true, the palette calculated for the first frame is used for all
+     * frames, which is faster and makes the file smaller, but the colors
+     * of the later frames can be less accurate. Must be invoked before the
+     * first image is added.
+     */
+    public void setGlobalPalette(boolean globalPalette) {
+        this.globalPalette = globalPalette;
+    }
+
+    /**
+     * Adds next GIF frame. The frame is encoded in the background, and it is
+     * written after all the previously added frames. Invoking
+     * <code>finish()</code> flushes all frames. If
      * <code>setSize</code> was not invoked, the size of the first image is used
      * for all subsequent frames.
      *
@@ -120,35 +185,39 @@ public class AnimatedGifEncoder {
         if ((im == null) || !started) {
             return false;
         }
-        boolean ok = true;
+        if (!sizeSet) {
+            // use first frame's size
+            setSize(im.getWidth(), im.getHeight());
+        }
+        byte[] pixels = getImagePixels(im); // convert to correct format if necessary
+        var settings = new FrameSettings(delay, dispose, transparent, sample);
+
+        // only the changed pixels are encoded if the previous
+        // frame remains visible under this one
+        byte[] prev = null;
+        if (prevSettings != null && prevSettings.allowsSubImages() && settings.allowsSubImages()) {
+            prev = prevPixels;
+        }
+        prevPixels = pixels;
+        prevSettings = settings;
+        if (firstAdded && globalPalette) {
+            globalPaletteFuture = ThreadPool.submit2(() -> Palette.create(pixels, settings.sample()));
+        }
+        firstAdded = false;
+
+        Future<Palette> sharedPalette = globalPaletteFuture;
+        int w = width;
+        int h = height;
+        byte[] finalPrev = prev;
+        pendingFrames.addLast(ThreadPool.submit2(() ->
+            encodeFrame(pixels, finalPrev, w, h, settings, sharedPalette)));
+
         try {
-            if (!sizeSet) {
-                // use first frame's size
-                setSize(im.getWidth(), im.getHeight());
-            }
-            image = im;
-            getImagePixels(); // convert to correct format if necessary
-            analyzePixels(); // build color table & map pixels
-            if (firstFrame) {
-                writeLSD(); // logical screen descriptior
-                writePalette(); // global color table
-                if (repeat >= 0) {
-                    // use NS app extension to indicate reps
-                    writeNetscapeExt();
-                }
-            }
-            writeGraphicCtrlExt(); // write graphic control extension
-            writeImageDesc(); // image descriptor
-            if (!firstFrame) {
-                writePalette(); // local color table
-            }
-            writePixels(); // encode and write pixel data
-            firstFrame = false;
+            writeFinishedFrames(false);
         } catch (IOException e) {
-            ok = false;
+            return false;
         }
-
-        return ok;
+        return true;
     }
 
     /**
@@ -161,6 +230,7 @@ public class AnimatedGifEncoder {
         }
         started = false;
         try {
+            writeFinishedFrames(true);
             out.write(0x3b); // gif trailer
             out.flush();
             if (closeStream) {
@@ -168,20 +238,30 @@ public class AnimatedGifEncoder {
             }
         } catch (IOException e) {
             throw new UncheckedIOException(e);
+        } finally {
+            reset();
         }
+    }
 
-        // reset for subsequent use
-        transIndex = 0;
+    // reset for subsequent use
+    private void reset() {
         out = null;
-        image = null;
-        pixels = null;
-        indexedPixels = null;
-        colorTab = null;
+        prevPixels = null;
+        prevSettings = null;
+        globalPaletteFuture = null;
+        pendingFrames.clear();
         closeStream = false;
         firstFrame = true;
+        firstAdded = true;
     }
 
     public void cancel() {
+        // the frames that are not written yet are not needed
+        for (Future<EncodedFrame> frame : pendingFrames) {
+            frame.cancel(true);
+        }
+        pendingFrames.clear();
+
         boolean ok = true;
         try {
             finish();
@@ -230,7 +310,7 @@ public class AnimatedGifEncoder {
      * @param h int frame width.
      */
     private void setSize(int w, int h) {
-        if (started && !firstFrame) {
+        if (started && !firstAdded) {
             return;
         }
         width = w;
@@ -286,45 +366,178 @@ public class AnimatedGifEncoder {
     }
 
     /**
-     * Analyzes image colors and creates color map.
+     * Writes the encoded frames in order. If waitForAll is false, then
+     * it only waits if there are too many frames being encoded.
+     */
+    private void writeFinishedFrames(boolean waitForAll) throws IOException {
+        while (!pendingFrames.isEmpty()) {
+            Future<EncodedFrame> next = pendingFrames.peekFirst();
+            if (!waitForAll && !next.isDone() && pendingFrames.size() < MAX_PENDING_FRAMES) {
+                return;
+            }
+            EncodedFrame frame;
+            try {
+                frame = next.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+            pendingFrames.removeFirst();
+            writeFrame(frame);
+        }
+    }
+
+    private void writeFrame(EncodedFrame frame) throws IOException {
+        if (firstFrame) {
+            byte[] globalColorTab = frame.localColorTab() != null
+                ? frame.localColorTab()
+                : getGlobalPalette().colorTab();
+            writeLSD(); // logical screen descriptior
+            writePalette(globalColorTab); // global color table
+            if (repeat >= 0) {
+                // use NS app extension to indicate reps
+                writeNetscapeExt();
+            }
+        }
+        writeGraphicCtrlExt(frame); // write graphic control extension
+
+        // the first frame always uses the global color table
+        boolean hasLocalColorTab = !firstFrame && frame.localColorTab() != null;
+        writeImageDesc(frame.bounds(), hasLocalColorTab); // image descriptor
+        if (hasLocalColorTab) {
+            writePalette(frame.localColorTab()); // local color table
+        }
+        out.write(frame.lzwData()); // the encoded pixel data
+        firstFrame = false;
+    }
+
+    private Palette getGlobalPalette() {
+        try {
+            return globalPaletteFuture.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Quantizes and compresses the changed part of a frame.
+     * Runs on a pool thread, and it doesn't access the encoder's fields.
      */
-    private void analyzePixels() {
-        int len = pixels.length;
-        int nPix = len / 3;
-        indexedPixels = new byte[nPix];
-        NeuQuant nq = new NeuQuant(pixels, len, sample);
-        // initialize quantizer
-        colorTab = nq.process(); // create reduced palette
-        // convert map from BGR to RGB
-        for (int i = 0; i < colorTab.length; i += 3) {
-            byte temp = colorTab[i];
-            colorTab[i] = colorTab[i + 2];
-            colorTab[i + 2] = temp;
-            usedEntry[i / 3] = false;
-        }
-        // map image pixels to new palette
+    private static EncodedFrame encodeFrame(byte[] pixels, byte[] prev,
+                                            int width, int height,
+                                            FrameSettings settings,
+                                            Future<Palette> sharedPalette) throws Exception {
+        Rectangle bounds = new Rectangle(0, 0, width, height);
+        if (prev != null) {
+            bounds = findChangedBounds(prev, pixels, width, height);
+        }
+        byte[] region = crop(pixels, width, bounds);
+
+        Palette palette;
+        byte[] localColorTab;
+        if (sharedPalette != null) {
+            palette = sharedPalette.get();
+            localColorTab = null;
+        } else {
+            palette = Palette.create(region, settings.sample());
+            localColorTab = palette.colorTab();
+        }
+
+        // map image pixels to the palette
+        int nPix = region.length / 3;
+        byte[] indexedPixels = new byte[nPix];
+        boolean[] usedEntry = new boolean[256];
+        NeuQuant nq = palette.quantizer();
         int k = 0;
         for (int i = 0; i < nPix; i++) {
-            int index = nq.map(pixels[k++] & 0xff, pixels[k++] & 0xff, pixels[k++] & 0xff);
+            int index = nq.map(region[k++] & 0xff, region[k++] & 0xff, region[k++] & 0xff);
             usedEntry[index] = true;
             indexedPixels[i] = (byte) index;
         }
-        pixels = null;
-        colorDepth = 8;
-        palSize = 7;
+
         // get closest match to transparent color if specified
-        if (transparent != null) {
-            transIndex = findClosest(transparent);
+        int transIndex = 0;
+        if (settings.transparent() != null) {
+            transIndex = findClosest(settings.transparent(), palette.colorTab(), usedEntry);
         }
+
+        var lzwData = new ByteArrayOutputStream(nPix / 2 + 64);
+        new LZWEncoder(bounds.width, bounds.height, indexedPixels, 8).encode(lzwData);
+
+        return new EncodedFrame(bounds, localColorTab, transIndex, lzwData.toByteArray(), settings);
     }
 
     /**
-     * Returns index of palette color closest to c
+     * Returns the bounding rectangle of the pixels that differ between
+     * the two frames. If nothing changed, a single pixel is returned,
+     * because a frame can't be empty.
+     */
+    private static Rectangle findChangedBounds(byte[] prev, byte[] curr, int width, int height) {
+        int rowLength = width * 3;
+
+        int top = 0;
+        while (top < height && rowEquals(prev, curr, top * rowLength, rowLength)) {
+            top++;
+        }
+        if (top == height) {
+            return new Rectangle(0, 0, 1, 1);
+        }
+        int bottom = height - 1;
+        while (bottom > top && rowEquals(prev, curr, bottom * rowLength, rowLength)) {
+            bottom--;
+        }
+
+        int left = width;
+        int right = -1;
+        for (int y = top; y <= bottom; y++) {
+            int rowStart = y * rowLength;
+            int x = 0;
+            while (x < left && pixelEquals(prev, curr, rowStart + x * 3)) {
+                x++;
+            }
+            left = x;
+            x = width - 1;
+            while (x > right && pixelEquals(prev, curr, rowStart + x * 3)) {
+                x--;
+            }
+            right = x;
+        }
+        return new Rectangle(left, top, right - left + 1, bottom - top + 1);
+    }
+
+    private static boolean rowEquals(byte[] a, byte[] b, int offset, int length) {
+        return Arrays.equals(a, offset, offset + length, b, offset, offset + length);
+    }
+
+    private static boolean pixelEquals(byte[] a, byte[] b, int i) {
+        return a[i] == b[i] && a[i + 1] == b[i + 1] && a[i + 2] == b[i + 2];
+    }
+
+    /**
+     * Returns the BGR pixels of the given rectangle.
      */
-    private int findClosest(Color c) {
-        if (colorTab == null) {
-            return -1;
+    private static byte[] crop(byte[] pixels, int width, Rectangle r) {
+        if (r.x == 0 && r.y == 0 && r.width == width && r.height * width * 3 == pixels.length) {
+            return pixels;
+        }
+        byte[] region = new byte[r.width * r.height * 3];
+        int regionRowLength = r.width * 3;
+        for (int y = 0; y < r.height; y++) {
+            int srcPos = ((r.y + y) * width + r.x) * 3;
+            System.arraycopy(pixels, srcPos, region, y * regionRowLength, regionRowLength);
         }
+        return region;
+    }
+
+    /**
+     * Returns index of palette color closest to c
+     */
+    private static int findClosest(Color c, byte[] colorTab, boolean[] usedEntry) {
         int r = c.getRed();
         int g = c.getGreen();
         int b = c.getBlue();
@@ -347,9 +560,10 @@ public class AnimatedGifEncoder {
     }
 
     /**
-     * Extracts image pixels into byte array "pixels"
+     * Returns the image pixels as a BGR byte array, which
+     * is a copy, because the frame is encoded later
      */
-    private void getImagePixels() {
+    private byte[] getImagePixels(BufferedImage image) {
         int w = image.getWidth();
         int h = image.getHeight();
         int type = image.getType();
@@ -358,28 +572,34 @@ public class AnimatedGifEncoder {
             BufferedImage temp = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
             Graphics2D g = temp.createGraphics();
             g.drawImage(image, 0, 0, null);
-            image = temp;
+            g.dispose();
+            return ((DataBufferByte) temp.getRaster().getDataBuffer()).getData();
         }
-        pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        return ((DataBufferByte) image.getRaster().getDataBuffer()).getData().clone();
     }
 
     /**
      * Writes Graphic Control Extension
      */
-    private void writeGraphicCtrlExt() throws IOException {
+    private void writeGraphicCtrlExt(EncodedFrame frame) throws IOException {
+        FrameSettings settings = frame.settings();
         out.write(0x21); // extension introducer
         out.write(0xf9); // GCE label
         out.write(4); // data block size
         int transp, disp;
-        if (transparent == null) {
+        if (settings.transparent() == null) {
             transp = 0;
-            disp = 0; // dispose = no action
+            disp = DISPOSE_NOT_SPECIFIED; // dispose = no action
         } else {
             transp = 1;
             disp = 2; // force clear if using transparent color
         }
-        if (dispose >= 0) {
-            disp = dispose & 7; // user override
+        if (settings.dispose() >= 0) {
+            disp = settings.dispose() & 7; // user override
+        }
+        if (disp == DISPOSE_NOT_SPECIFIED && settings.allowsSubImages()) {
+            // the sub-image of the next frame is drawn over this one
+            disp = DISPOSE_DO_NOT_DISPOSE;
         }
         disp <<= 2;
 
@@ -389,31 +609,31 @@ public class AnimatedGifEncoder {
                 0 | // 7 user input - 0 = none
                 transp); // 8 transparency flag
 
-        writeShort(delay); // delay x 1/100 sec
-        out.write(transIndex); // transparent color index
+        writeShort(settings.delay()); // delay x 1/100 sec
+        out.write(frame.transIndex()); // transparent color index
         out.write(0); // block terminator
     }
 
     /**
      * Writes Image Descriptor
      */
-    private void writeImageDesc() throws IOException {
+    private void writeImageDesc(Rectangle bounds, boolean hasLocalColorTab) throws IOException {
         out.write(0x2c); // image separator
-        writeShort(0); // image position x,y = 0,0
-        writeShort(0);
-        writeShort(width); // image size
-        writeShort(height);
+        writeShort(bounds.x); // image position x,y
+        writeShort(bounds.y);
+        writeShort(bounds.width); // image size
+        writeShort(bounds.height);
         // packed fields
-        if (firstFrame) {
-            // no LCT - GCT is used for first (or only) frame
-            out.write(0);
-        } else {
+        if (hasLocalColorTab) {
             // specify normal LCT
             out.write(0x80 | // 1 local color table 1=yes
                     0 | // 2 interlace - 0=no
                     0 | // 3 sorted - 0=no
                     0 | // 4-5 reserved
-                    palSize); // 6-8 size of color table
+                    7); // 6-8 size of color table
+        } else {
+            // no LCT - GCT is used
+            out.write(0);
         }
     }
 
@@ -428,7 +648,7 @@ public class AnimatedGifEncoder {
         out.write((0x80 | // 1 : global color table flag = 1 (gct used)
                 0x70 | // 2-4 : color resolution = 7
                 0x00 | // 5 : gct sort flag = 0
-                palSize)); // 6-8 : gct size
+                7)); // 6-8 : gct size
 
         out.write(0); // background color index
         out.write(0); // pixel aspect ratio - assume 1:1
@@ -451,7 +671,7 @@ public class AnimatedGifEncoder {
     /**
      * Writes color table
      */
-    private void writePalette() throws IOException {
+    private void writePalette(byte[] colorTab) throws IOException {
         out.write(colorTab, 0, colorTab.length);
         int n = (3 * 256) - colorTab.length;
         for (int i = 0; i < n; i++) {
@@ -459,14 +679,6 @@ public class AnimatedGifEncoder {
         }
     }
 
-    /**
-     * Encodes and writes pixel data
-     */
-    private void writePixels() throws IOException {
-        LZWEncoder encoder = new LZWEncoder(width, height, indexedPixels, colorDepth);
-        encoder.encode(out);
-    }
-
     /**
      * Write 16-bit value to output stream, LSB first
      */
@@ -80,14 +80,17 @@ public class Canvas implements Serializable, Debuggable {
 
     /**
      * Changes the size using values given in image space.
+     * The view can be null for compositions processed without a GUI.
      */
     public void resize(int newWidth, int newHeight, View view, boolean notify) {
         width = newWidth;
         height = newHeight;
 
         thumbDimension = null; // invalidate cache
-        recalcCoSize(view, notify); // update the component space values
-        activeCanvasSizeChanged(this);
+        if (view != null) {
+            recalcCoSize(view, notify); // update the component space values
+            activeCanvasSizeChanged(this);
+        }
     }
 
     /**
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB_PRE;
+
+/**
+ * Caches the zoomed rendering of the composite image in fixed-size
+ * tiles of device pixels, so that a repaint only has to draw the
+ * cached tiles intersecting the clip, and only the tiles that were
+ * never rendered (for example, after scrolling) or that were
+ * invalidated by a change of the composite have to be resampled.
+ * <p>
+ * The tiles are positioned relative to the canvas origin,
+ * therefore they remain valid while the view is scrolled.
+ * They are rendered with the rendering hints of the view's graphics,
+ * and they are discarded if these hints change.
+ */
+class CompositeTileCache {
+    private static final int TILE_SIZE = 256;
+
+    // the initial limit is 16 MB of tiles, but it's raised if
+    // necessary to twice the number of tiles drawn at once,
+    // so that the visible tiles are never evicted by a repaint
+    private static final int MIN_MAX_TILES = 64;
+    private int maxTiles = MIN_MAX_TILES;
+
+    private final double scaleX;
+    private final double scaleY;
+
+    // the rendering hints used for the cached tiles
+    private RenderingHints hints;
+
+    // the least recently used tiles are evicted first
+    private final Map<Long, BufferedImage> tiles =
+        new LinkedHashMap<>(MIN_MAX_TILES, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, BufferedImage> eldest) {
+                if (size() > maxTiles) {
+                    eldest.getValue().flush();
+                    return true;
+                }
+                return false;
+            }
+        };
+
+    private CompositeTileCache(double scaleX, double scaleY) {
+        this.scaleX = scaleX;
+        this.scaleY = scaleY;
+    }
+
+    /**
+     * Returns true if the tiles can be used with the given image-space
+     * to device-space transform: only if it's a scaling followed by an
+     * integer translation, because otherwise the tiles wouldn't be
+     * aligned with the device pixels.
+     */
+    static boolean canBeUsedWith(AffineTransform at) {
+        int type = at.getType();
+        if ((type & ~(AffineTransform.TYPE_TRANSLATION
+            | AffineTransform.TYPE_MASK_SCALE)) != 0) {
+            return false; // rotation, flip, shear or general transform
+        }
+        if (at.getScaleX() <= 0 || at.getScaleY() <= 0) {
+            return false;
+        }
+        return at.getTranslateX() == Math.rint(at.getTranslateX())
+            && at.getTranslateY() == Math.rint(at.getTranslateY());
+    }
+
+    static CompositeTileCache forTransform(AffineTransform at) {
+        return new CompositeTileCache(at.getScaleX(), at.getScaleY());
+    }
+
+    boolean matches(AffineTransform at) {
+        return at.getScaleX() == scaleX && at.getScaleY() == scaleY;
+    }
+
+    /**
+     * Draws the tiles intersecting the clip of the given image-space
+     * graphics, rendering the missing tiles with the given renderer,
+     * which receives a tile-sized graphics transformed into image space.
+     */
+    void draw(Graphics2D g, int imgWidth, int imgHeight, Consumer<Graphics2D> renderer) {
+        AffineTransform imageSpace = g.getTransform();
+        assert matches(imageSpace);
+
+        RenderingHints currentHints = g.getRenderingHints();
+        if (!currentHints.equals(hints)) {
+            flush(); // the interpolation or antialiasing has changed
+            hints = currentHints;
+        }
+
+        // switch to device space, with the canvas origin at (0, 0)
+        g.setTransform(AffineTransform.getTranslateInstance(
+            imageSpace.getTranslateX(), imageSpace.getTranslateY()));
+
+        int deviceWidth = (int) Math.ceil(imgWidth * scaleX);
+        int deviceHeight = (int) Math.ceil(imgHeight * scaleY);
+        Rectangle area = new Rectangle(0, 0, deviceWidth, deviceHeight);
+        Rectangle clip = g.getClipBounds();
+        if (clip != null) {
+            area = area.intersection(clip);
+        }
+
+        if (!area.isEmpty()) {
+            int firstCol = area.x / TILE_SIZE;
+            int firstRow = area.y / TILE_SIZE;
+            int lastCol = (area.x + area.width - 1) / TILE_SIZE;
+            int lastRow = (area.y + area.height - 1) / TILE_SIZE;
+            int numTiles = (lastCol - firstCol + 1) * (lastRow - firstRow + 1);
+            maxTiles = Math.max(maxTiles, 2 * numTiles);
+
+            for (int row = firstRow; row <= lastRow; row++) {
+                for (int col = firstCol; col <= lastCol; col++) {
+                    BufferedImage tile = getTile(col, row, renderer);
+                    g.drawImage(tile, col * TILE_SIZE, row * TILE_SIZE, null);
+                }
+            }
+        }
+
+        g.setTransform(imageSpace);
+    }
+
+    private BufferedImage getTile(int col, int row, Consumer<Graphics2D> renderer) {
+        long key = toKey(col, row);
+        BufferedImage tile = tiles.get(key);
+        if (tile == null) {
+            tile = new BufferedImage(TILE_SIZE, TILE_SIZE, TYPE_INT_ARGB_PRE);
+            Graphics2D tg = tile.createGraphics();
+            tg.setRenderingHints(hints);
+            tg.setClip(0, 0, TILE_SIZE, TILE_SIZE);
+            tg.translate(-col * TILE_SIZE, -row * TILE_SIZE);
+            tg.scale(scaleX, scaleY);
+            renderer.accept(tg);
+            tg.dispose();
+            tiles.put(key, tile);
+        }
+        return tile;
+    }
+
+    /**
+     * Discards the tiles affected by the given image-space region.
+     */
+    void invalidate(Rectangle region) {
+        if (tiles.isEmpty()) {
+            return;
+        }
+
+        // the resampling can spread a change into the neighboring pixels
+        int x1 = (int) Math.floor(region.x * scaleX) - 2;
+        int y1 = (int) Math.floor(region.y * scaleY) - 2;
+        int x2 = (int) Math.ceil((region.x + region.width) * scaleX) + 2;
+        int y2 = (int) Math.ceil((region.y + region.height) * scaleY) + 2;
+
+        int firstCol = Math.max(0, Math.floorDiv(x1, TILE_SIZE));
+        int firstRow = Math.max(0, Math.floorDiv(y1, TILE_SIZE));
+        int lastCol = Math.floorDiv(x2, TILE_SIZE);
+        int lastRow = Math.floorDiv(y2, TILE_SIZE);
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int col = firstCol; col <= lastCol; col++) {
+                BufferedImage tile = tiles.remove(toKey(col, row));
+                if (tile != null) {
+                    tile.flush();
+                }
+            }
+        }
+    }
+
+    void flush() {
+        for (BufferedImage tile : tiles.values()) {
+            tile.flush();
+        }
+        tiles.clear();
+    }
+
+    private static long toKey(int col, int row) {
+        return ((long) col << 32) | (row & 0xFFFF_FFFFL);
+    }
+}
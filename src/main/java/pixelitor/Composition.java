@@ -42,6 +42,7 @@ import pixelitor.tools.util.PPoint;
 import pixelitor.tools.util.PRectangle;
 import pixelitor.utils.ImageUtils;
 import pixelitor.utils.Messages;
+import pixelitor.utils.MipmapPyramid;
 import pixelitor.utils.Shapes;
 import pixelitor.utils.Utils;
 import pixelitor.utils.debug.DebugNode;
@@ -59,9 +60,13 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.function.Consumer;
 import java.util.stream.Stream;
 
+import static java.awt.RenderingHints.KEY_INTERPOLATION;
+import static java.awt.RenderingHints.VALUE_INTERPOLATION_BILINEAR;
+import static java.awt.RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR;
 import static java.lang.String.format;
 import static pixelitor.io.FileUtils.stripExtension;
 import static pixelitor.layers.LayerAdder.Position.ABOVE_ACTIVE;
@@ -82,6 +87,9 @@ public class Composition implements Serializable, ImageSource, LayerHolder {
     @Serial
     private static final long serialVersionUID = 1L;
 
+    // the granularity of the partial composite image updates
+    private static final int DIRTY_TILE_SIZE = 64;
+
     private static long debugCounter = 0;
 
     private String name;
@@ -125,6 +133,35 @@ public class Composition implements Serializable, ImageSource, LayerHolder {
 
     private transient BufferedImage compositeImage;
 
+    // true if the composite image was allocated by this composition,
+    // and not shared with a layer, so it can be updated in place
+    private transient boolean compositeImageOwned;
+
+    // true if the composite image was returned to code that could keep
+    // it (or use it on another thread), so it must not be updated in place
+    private transient boolean compositeImageShared;
+
+    // the part of the composite image that must be recalculated
+    // before it's used again, or null if it's up-to-date
+    private transient Rectangle dirtyRegion;
+
+    // not null while a single layer is edited interactively
+    private transient LayerStackCache stackCache;
+
+    // the downscaled versions of the composite image used at low zoom levels
+    private transient MipmapPyramid mipmap;
+
+    // the zoomed tiles of the composite image drawn by the view
+    private transient CompositeTileCache tileCache;
+
+    // a preview of the composite image that is shown while the
+    // layer pixels of a lazily opened file are still being loaded
+    private transient BufferedImage loadingPreview;
+
+    // set if the pixels of some layers of a lazily opened file
+    // couldn't be loaded, then the composition can't be saved
+    private transient volatile Throwable loadingError;
+
     private transient View view;
 
     private transient Selection selection;
@@ -195,6 +232,12 @@ public class Composition implements Serializable, ImageSource, LayerHolder {
     private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
         // Initialize transient variables
         compositeImage = null; // will be set when needed
+        dirtyRegion = null;
+        stackCache = null;
+        mipmap = null;
+        tileCache = null;
+        loadingPreview = null;
+        loadingError = null;
         file = null; // will be set later
         fileTime = 0;
         debugName = null; // will be set later
@@ -1067,7 +1110,9 @@ public class Composition implements Serializable, ImageSource, LayerHolder {
                 duplicateActiveLayer();
             }
 
-            getActiveMaskOrLayer().startMovement();
+            Layer layer = getActiveMaskOrLayer();
+            layer.startMovement();
+            startInteractiveEditing(layer);
         }
         if (mode.movesSelection()) {
             if (selection != null) {
@@ -1091,6 +1136,7 @@ public class Composition implements Serializable, ImageSource, LayerHolder {
     public void endMovement(MoveMode mode) {
         PixelitorEdit layerEdit = null;
         if (mode.movesLayer()) {
+            endInteractiveEditing();
             Layer layer = getActiveMaskOrLayer();
             // The layer edit will be null if an adjustment
             // layer without a mask was moved.
@@ -1154,7 +1200,18 @@ public class Composition implements Serializable, ImageSource, LayerHolder {
     }
 
     public void repaintRegion(PPoint start, PPoint end, double thickness) {
-        invalidateImageCache();
+        // the adjustment layers with a limited reach (such as a blur) spread the change
+        thickness += Math.max(0, ImageUtils.calcRegionMargin(layerList));
+
+        double minX = Math.min(start.getImX(), end.getImX()) - thickness;
+        double minY = Math.min(start.getImY(), end.getImY()) - thickness;
+        double maxX = Math.max(start.getImX(), end.getImX()) + thickness;
+        double maxY = Math.max(start.getImY(), end.getImY()) + thickness;
+        Rectangle region = new Rectangle2D.Double(
+            minX, minY, maxX - minX, maxY - minY).getBounds();
+        invalidateImageCache(region);
+        HistogramsPanel.regionChangedIn(this, region);
+
         if (view != null) { // it might not be opened during image reloading
             view.repaintRegion(start, end, thickness);
             view.repaintNavigator(false);
@@ -1162,7 +1219,16 @@ public class Composition implements Serializable, ImageSource, LayerHolder {
     }
 
     public void repaintRegion(PRectangle area) {
-        invalidateImageCache();
+        Rectangle region = area.getIm().getBounds();
+        int margin = ImageUtils.calcRegionMargin(layerList);
+        if (margin > 0) {
+            region.grow(margin, margin);
+            if (view != null) {
+                area = PRectangle.fromIm(region, view);
+            }
+        }
+        invalidateImageCache(region);
+        HistogramsPanel.regionChangedIn(this, region);
         if (view != null) { // it might not be opened during image reloading
             view.repaintRegion(area);
             view.repaintNavigator(false);
@@ -1403,7 +1469,9 @@ public class Composition implements Serializable, ImageSource, LayerHolder {
         if (paths != null) {
             paths.imCoordsChanged(at);
         }
-        Tools.imCoordsChanged(at, view);
+        if (view != null) { // null only for batch processing without a GUI
+            Tools.imCoordsChanged(at, view);
+        }
     }
 
     /**
@@ -1417,21 +1485,226 @@ public class Composition implements Serializable, ImageSource, LayerHolder {
     }
 
     /**
-     * Returns the (canvas-sized) composite image.
+     * Returns the (canvas-sized) composite image. The returned image
+     * isn't changed later, so it can be kept, or used on other threads.
      */
     public BufferedImage getCompositeImage() {
+        BufferedImage img = getUpToDateCompositeImage();
+        compositeImageShared = true;
+        return img;
+    }
+
+    /**
+     * Returns a copy of the given region of the composite image. Unlike
+     * {@link #getCompositeImage()}, it doesn't share the composite image,
+     * so the following edits can still update it in place.
+     */
+    public BufferedImage copyCompositeRegion(Rectangle region) {
+        return ImageUtils.copySubImage(getUpToDateCompositeImage(), region);
+    }
+
+    /**
+     * Returns the composite image without sharing it, so that it can
+     * still be updated in place. The returned image can be used only
+     * until the next change of the composition, and only on the EDT.
+     */
+    private BufferedImage getUpToDateCompositeImage() {
         if (compositeImage == null) {
-            compositeImage = ImageUtils.calcComposite(layerList, canvas);
-            assert compositeImage != null;
+            calcCompositeImage();
+        } else if (dirtyRegion != null) {
+            updateDirtyRegion();
         }
         return compositeImage;
     }
 
+    private void calcCompositeImage() {
+        if (stackCache != null && layerList.contains(stackCache.getEditedLayer())) {
+            compositeImage = stackCache.calcComposite(layerList, canvas);
+            compositeImageOwned = true;
+            compositeImageShared = false;
+            dirtyRegion = null;
+            return;
+        }
+
+        compositeImage = ImageUtils.calcComposite(layerList, canvas);
+        assert compositeImage != null;
+
+        // with a single layer, calcComposite might return
+        // an image that shares its pixels with the layer
+        compositeImageOwned = layerList.size() > 1
+            && compositeImage.getType() == BufferedImage.TYPE_INT_ARGB_PRE;
+        compositeImageShared = false;
+        dirtyRegion = null;
+    }
+
+    private void updateDirtyRegion() {
+        Rectangle region = dirtyRegion;
+        dirtyRegion = null;
+
+        if (mipmap != null) {
+            mipmap.invalidate(region);
+        }
+        if (tileCache != null) {
+            tileCache.invalidate(region);
+        }
+
+        if (!compositeImageOwned || !ImageUtils.supportsRegionalCompositing(layerList)) {
+            if (!compositeImageShared) {
+                compositeImage.flush();
+            }
+            calcCompositeImage();
+            return;
+        }
+
+        if (compositeImageShared) {
+            // copy on write: the shared image must not change
+            compositeImage = ImageUtils.copyImage(compositeImage);
+            compositeImageShared = false;
+            if (mipmap != null) {
+                mipmap.replaceBase(compositeImage);
+            }
+        }
+        ImageUtils.recalcCompositeRegion(layerList, compositeImage, region);
+    }
+
+    /**
+     * Draws the composite image on the given image-space graphics
+     * for the given zoom scaling. At low zoom levels a downscaled
+     * version is drawn, and only within the clip of the graphics.
+     */
+    public void drawCompositeImage(Graphics2D g, double scaling) {
+        if (drawLoadingPreview(g)) {
+            return;
+        }
+        BufferedImage img = getUpToDateCompositeImage();
+        if (scaling > 0.5 || !MipmapPyramid.isSupported(img)) {
+            g.drawImage(img, 0, 0, null);
+            return;
+        }
+        if (mipmap == null || mipmap.getBase() != img) {
+            // the composite image was reallocated
+            flushMipmap();
+            mipmap = new MipmapPyramid(img);
+        }
+        mipmap.draw(g, scaling);
+    }
+
+    /**
+     * Draws the composite image like {@link #drawCompositeImage(Graphics2D, double)},
+     * but reuses the already zoomed tiles of the composite image, and
+     * only the tiles intersecting the clip of the graphics are drawn.
+     */
+    public void drawCompositeTiles(Graphics2D g, double scaling) {
+        if (drawLoadingPreview(g)) {
+            return;
+        }
+        AffineTransform at = g.getTransform();
+        boolean unscaled = at.getScaleX() == 1.0 && at.getScaleY() == 1.0;
+        if (unscaled || !CompositeTileCache.canBeUsedWith(at)) {
+            // an unscaled image is drawn fast enough without tiles
+            flushTileCache();
+            drawCompositeImage(g, scaling);
+            return;
+        }
+
+        if (tileCache == null || !tileCache.matches(at)) {
+            flushTileCache();
+            tileCache = CompositeTileCache.forTransform(at);
+        }
+
+        // update the composite first, because this invalidates the changed tiles
+        getUpToDateCompositeImage();
+        tileCache.draw(g, canvas.getWidth(), canvas.getHeight(),
+            tileGraphics -> drawCompositeImage(tileGraphics, scaling));
+    }
+
+    /**
+     * Shows the given preview (if not null) instead of the composite image
+     * until the given loading of the layer pixels finishes. This allows
+     * showing a lazily opened file before all its layers are loaded.
+     * If the loading fails, the composition is marked as broken.
+     */
+    public void showPreviewWhileLoading(BufferedImage preview, CompletableFuture<?> loading) {
+        loadingPreview = preview;
+        loading.whenCompleteAsync((result, e) -> {
+            if (e != null) {
+                layerLoadingFailed(e instanceof CompletionException ? e.getCause() : e);
+            }
+            loadingPreview = null;
+            update();
+        }, onEDT);
+    }
+
+    /**
+     * Marks this composition as broken, because the pixels of some of
+     * its layers couldn't be loaded. Such a composition can't be saved,
+     * because the blank layers would overwrite the pixels in the file.
+     * Can be called on any thread, the error is reported only once.
+     */
+    public void layerLoadingFailed(Throwable cause) {
+        synchronized (this) {
+            if (loadingError != null) {
+                return;
+            }
+            loadingError = cause;
+        }
+        onEDT.execute(() -> Messages.showError("Loading Error", format(
+            "<html>Some layers of <b>%s</b> couldn't be loaded:<br>%s"
+                + "<br><br>The missing layers are empty, and the image can't be saved.",
+            getName(), cause.getMessage())));
+    }
+
+    /**
+     * Returns true if the composition can be saved, otherwise
+     * it shows an error message and returns false.
+     */
+    public boolean checkCanBeSaved() {
+        if (loadingError != null) {
+            Messages.showError("Can't Save", format(
+                "<html><b>%s</b> can't be saved, because some of its layers couldn't be loaded.",
+                getName()));
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Draws the loading preview scaled to the canvas, if there is one,
+     * and if the composite image wasn't already calculated anyway.
+     */
+    private boolean drawLoadingPreview(Graphics2D g) {
+        if (loadingPreview == null || compositeImage != null) {
+            return false;
+        }
+        Object oldHint = g.getRenderingHint(KEY_INTERPOLATION);
+        g.setRenderingHint(KEY_INTERPOLATION, VALUE_INTERPOLATION_BILINEAR);
+        g.drawImage(loadingPreview, 0, 0, canvas.getWidth(), canvas.getHeight(), null);
+        g.setRenderingHint(KEY_INTERPOLATION,
+            oldHint != null ? oldHint : VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+        return true;
+    }
+
+    private void flushTileCache() {
+        if (tileCache != null) {
+            tileCache.flush();
+            tileCache = null;
+        }
+    }
+
+    private void flushMipmap() {
+        if (mipmap != null) {
+            mipmap.flush();
+            mipmap = null;
+        }
+    }
+
     @Override
     public BufferedImage getImage() {
-        BufferedImage image = getCompositeImage();
+        BufferedImage image = getUpToDateCompositeImage();
         if (image.isAlphaPremultiplied() || ImageUtils.isSubImage(image)) {
             image = ImageUtils.copyTo(BufferedImage.TYPE_INT_ARGB, image);
+        } else {
+            compositeImageShared = true;
         }
 
         return image;
@@ -1443,10 +1716,85 @@ public class Composition implements Serializable, ImageSource, LayerHolder {
      */
     @Override
     public void invalidateImageCache() {
-        if (compositeImage != null) {
+        if (compositeImage != null && !compositeImageShared) {
             compositeImage.flush();
         }
         compositeImage = null;
+        dirtyRegion = null;
+
+        // also needed if the recalculated composite is the same
+        // image object, because a layer's image can be shared
+        flushMipmap();
+        flushTileCache();
+    }
+
+    /**
+     * Signals that until {@link #endInteractiveEditing()} is called,
+     * only the given layer (or its mask) will change, so that the
+     * layers below and above it can be pre-merged into cached images.
+     * <p>
+     * It's used when the whole edited layer changes at every step (moving,
+     * filter previews). The painting tools don't start a session, because
+     * their strokes invalidate only the painted regions, and then only
+     * the dirty tiles of the composite image are recomposited, while the
+     * cached images would have to be rebuilt for the whole canvas.
+     */
+    public void startInteractiveEditing(Layer layer) {
+        endInteractiveEditing();
+
+        Layer topLevelLayer = layer instanceof LayerMask mask ? mask.getOwner() : layer;
+        while (topLevelLayer.getHolder() != this) {
+            if (topLevelLayer.getHolder() instanceof Layer holderLayer) {
+                topLevelLayer = holderLayer;
+            } else {
+                return; // not in this composition
+            }
+        }
+
+        // with fewer layers there's nothing to gain
+        if (layerList.size() > 2) {
+            stackCache = new LayerStackCache(topLevelLayer);
+        }
+    }
+
+    /**
+     * Ends the session started by {@link #startInteractiveEditing(Layer)}.
+     */
+    public void endInteractiveEditing() {
+        if (stackCache != null) {
+            stackCache.flush();
+            stackCache = null;
+        }
+    }
+
+    /**
+     * Signals that only the given region (in image space) of the
+     * composite image has changed, so that the next time
+     * getCompositeImage() is called, the rest of the image can be reused.
+     */
+    @Override
+    public void invalidateImageCache(Rectangle region) {
+        if (compositeImage == null) {
+            return; // will be fully recalculated anyway
+        }
+
+        // extend the region to whole tiles, so that the successive
+        // small regions of a brush stroke are merged into stable blocks
+        int x1 = Math.floorDiv(region.x - 1, DIRTY_TILE_SIZE) * DIRTY_TILE_SIZE;
+        int y1 = Math.floorDiv(region.y - 1, DIRTY_TILE_SIZE) * DIRTY_TILE_SIZE;
+        int x2 = Math.floorDiv(region.x + region.width + 1, DIRTY_TILE_SIZE) * DIRTY_TILE_SIZE + DIRTY_TILE_SIZE;
+        int y2 = Math.floorDiv(region.y + region.height + 1, DIRTY_TILE_SIZE) * DIRTY_TILE_SIZE + DIRTY_TILE_SIZE;
+        Rectangle tiles = new Rectangle(x1, y1, x2 - x1, y2 - y1)
+            .intersection(canvas.getBounds());
+        if (tiles.isEmpty()) {
+            return;
+        }
+
+        if (dirtyRegion == null) {
+            dirtyRegion = tiles;
+        } else {
+            dirtyRegion.add(tiles);
+        }
     }
 
     @Override
@@ -1618,6 +1966,10 @@ public class Composition implements Serializable, ImageSource, LayerHolder {
                                              boolean addToRecentMenus) {
         assert calledOnEDT() : threadInfo();
 
+        if (!checkCanBeSaved()) {
+            return CompletableFuture.completedFuture(null);
+        }
+
         FileFormat format = saveSettings.format();
         Runnable saveTask = format.createSaveTask(this, saveSettings);
         FileFormat.setLastSaved(format);
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor;
+
+import pixelitor.layers.BlendingMode;
+import pixelitor.layers.Layer;
+import pixelitor.utils.ImageUtils;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB_PRE;
+
+/**
+ * Caches the pre-merged images of the layers below and above a layer
+ * that is edited interactively (moved or previewed with a filter),
+ * so that a composite update has to blend only three images.
+ * <p>
+ * The cached images are valid only while no other layer changes,
+ * which is guaranteed by the interactive editing session, but
+ * changes in the layer structure (order, visibility, blending
+ * mode, opacity) are also detected as a safety measure.
+ */
+class LayerStackCache {
+    private final Layer editedLayer;
+
+    // the composite of the layers below the edited layer,
+    // or null if there are no visible layers below
+    private BufferedImage belowImage;
+
+    // the pre-merged layers above the edited layer, or null if they
+    // can't be pre-merged because of their blending modes
+    private BufferedImage aboveImage;
+
+    private boolean hasVisibleBelow;
+    private List<Object> signature;
+
+    LayerStackCache(Layer editedLayer) {
+        this.editedLayer = editedLayer;
+    }
+
+    Layer getEditedLayer() {
+        return editedLayer;
+    }
+
+    /**
+     * Calculates the composite image, using the cached
+     * images of the layers below and above the edited layer.
+     */
+    BufferedImage calcComposite(List<Layer> layers, Canvas canvas) {
+        int index = layers.indexOf(editedLayer);
+        assert index != -1;
+
+        List<Object> currentSignature = calcSignature(layers);
+        if (!currentSignature.equals(signature)) {
+            rebuild(layers, index, canvas);
+            signature = currentSignature;
+        }
+
+        var compositeImg = new BufferedImage(
+            canvas.getWidth(), canvas.getHeight(), TYPE_INT_ARGB_PRE);
+        Graphics2D g = compositeImg.createGraphics();
+        if (belowImage != null) {
+            g.setComposite(AlphaComposite.Src);
+            g.drawImage(belowImage, 0, 0, null);
+            g.setComposite(AlphaComposite.SrcOver);
+        }
+
+        if (editedLayer.isVisible()) {
+            BufferedImage result = editedLayer.applyLayer(g, compositeImg, !hasVisibleBelow);
+            if (result != null) {
+                compositeImg = result;
+                g.dispose();
+                g = compositeImg.createGraphics();
+            }
+        }
+
+        if (aboveImage != null) {
+            g.setComposite(AlphaComposite.SrcOver);
+            g.drawImage(aboveImage, 0, 0, null);
+            g.dispose();
+            return compositeImg;
+        }
+
+        boolean firstVisibleLayer = !hasVisibleBelow && !editedLayer.isVisible();
+        return ImageUtils.applyLayers(layers.subList(index + 1, layers.size()),
+            compositeImg, g, firstVisibleLayer);
+    }
+
+    private void rebuild(List<Layer> layers, int index, Canvas canvas) {
+        flush();
+
+        List<Layer> below = layers.subList(0, index);
+        hasVisibleBelow = below.stream().anyMatch(Layer::isVisible);
+        if (hasVisibleBelow) {
+            // copied, because calcComposite might return a layer's own image
+            belowImage = ImageUtils.copyImage(ImageUtils.calcComposite(below, canvas));
+        }
+
+        List<Layer> above = layers.subList(index + 1, layers.size());
+        if (canPremerge(above)) {
+            aboveImage = ImageUtils.copyImage(ImageUtils.calcComposite(above, canvas));
+        }
+    }
+
+    /**
+     * The layers above can be pre-merged only if they are all applied
+     * with the normal blending mode, and none of them transforms the
+     * pixels below it, because only then is their result independent
+     * of what is below.
+     */
+    private static boolean canPremerge(List<Layer> above) {
+        boolean hasVisible = false;
+        for (Layer layer : above) {
+            if (layer.isVisible()) {
+                if (layer.getBlendingMode() != BlendingMode.NORMAL
+                    || layer.transformsPixelsBelow()) {
+                    return false;
+                }
+                hasVisible = true;
+            }
+        }
+        return hasVisible;
+    }
+
+    private static List<Object> calcSignature(List<Layer> layers) {
+        List<Object> signature = new ArrayList<>(layers.size() * 4);
+        for (Layer layer : layers) {
+            signature.add(layer);
+            signature.add(layer.isVisible());
+            signature.add(layer.getBlendingMode());
+            signature.add(layer.getOpacity());
+        }
+        return signature;
+    }
+
+    void flush() {
+        if (belowImage != null) {
+            belowImage.flush();
+            belowImage = null;
+        }
+        if (aboveImage != null) {
+            aboveImage.flush();
+            aboveImage = null;
+        }
+        signature = null;
+    }
+}
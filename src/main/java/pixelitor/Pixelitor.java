@@ -19,6 +19,7 @@ package pixelitor;
 
 import com.bric.util.JVM;
 import net.jafama.FastMath;
+import pixelitor.automate.BatchCommandLine;
 import pixelitor.colors.FgBgColors;
 import pixelitor.filters.util.Filters;
 import pixelitor.gui.*;
@@ -63,6 +64,12 @@ public class Pixelitor {
     }
 
     public static void main(String[] args) {
+        boolean batchMode = BatchCommandLine.isBatchMode(args);
+        if (batchMode) {
+            // the batch processing doesn't need a display
+            System.setProperty("java.awt.headless", "true");
+        }
+
         // the app can be put into development mode by
         // adding -Dpixelitor.development=true to the command line
         if ("true".equals(System.getProperty("pixelitor.development"))) {
@@ -80,6 +87,10 @@ public class Pixelitor {
         }
         Language.load();
 
+        if (batchMode) {
+            System.exit(BatchCommandLine.run(args));
+        }
+
         System.setProperty("com.apple.mrj.application.apple.menu.about.name", "Pixelitor");
 
 //        System.setProperty("sun.java2d.uiScale", "1.5");
@@ -22,7 +22,11 @@ import pixelitor.utils.Messages;
 import pixelitor.utils.ProgressTracker;
 
 import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A thread pool for parallel execution on multiple CPU cores
@@ -33,6 +37,21 @@ public class ThreadPool {
     private static final ExecutorService pool =
         Executors.newFixedThreadPool(NUM_CORES);
 
+    // a separate work-stealing pool for the band-based processing,
+    // so that band tasks never wait behind the tasks of the fixed pool
+    private static final ForkJoinPool bandPool = new ForkJoinPool(NUM_CORES);
+
+    // bands are never made smaller than this number of pixels,
+    // because for cheap operations the scheduling overhead would dominate
+    private static final int MIN_PIXELS_PER_BAND = 16 * 1024;
+
+    // the number of bands per core to aim for, so that
+    // work stealing can even out the uneven band costs
+    private static final int BANDS_PER_CORE = 4;
+
+    // how often the waiting thread reports the progress
+    private static final long PROGRESS_POLL_MILLIS = 20;
+
     private ThreadPool() {
     }
 
@@ -65,7 +84,10 @@ public class ThreadPool {
 
                 // not completely accurate to count here, but good enough in practice
                 pt.unitDone();
-            } catch (InterruptedException | ExecutionException e) {
+            } catch (InterruptedException e) {
+                futures.forEach(f -> f.cancel(false));
+                throw interrupted(pt);
+            } catch (ExecutionException e) {
                 Messages.showException(e);
             }
         }
@@ -79,7 +101,12 @@ public class ThreadPool {
             try {
                 future.get();
                 pt.unitDone();
-            } catch (InterruptedException | ExecutionException e) {
+            } catch (InterruptedException e) {
+                for (var f : futures) {
+                    f.cancel(false);
+                }
+                throw interrupted(pt);
+            } catch (ExecutionException e) {
                 Messages.showException(e);
             }
         }
@@ -101,11 +128,179 @@ public class ThreadPool {
 
                 pt.unitDone();
             }
-        } catch (InterruptedException | ExecutionException e) {
+        } catch (InterruptedException e) {
+            for (var f : futures) {
+                f.cancel(false);
+            }
+            throw interrupted(pt);
+        } catch (ExecutionException e) {
             Messages.showException(e);
         }
     }
 
+    // Keeps the interrupted status, and signals to the caller that
+    // the work was abandoned (for example a superseded filter preview).
+    // The tracker is finished here, because the filter won't finish it.
+    private static CancellationException interrupted(ProgressTracker pt) {
+        pt.finished();
+        Thread.currentThread().interrupt();
+        return new CancellationException("interrupted while waiting");
+    }
+
+    /**
+     * Waits for a task that is a part of an IO operation,
+     * and rethrows its failure as an {@link IOException}.
+     */
+    public static <T> T getIOResult(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioe) {
+                throw ioe;
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    // Rethrows the failure of a band task on the calling thread, like the
+    // inline and nested paths, so that the callers can report it instead
+    // of continuing with a partially written destination.
+    private static RuntimeException failed(ExecutionException e, ProgressTracker pt) {
+        pt.finished();
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException re) {
+            return re;
+        }
+        if (cause instanceof Error error) {
+            throw error;
+        }
+        return new CompletionException(cause);
+    }
+
+    /**
+     * Processes the rows of an image in parallel, in horizontal bands.
+     * The band height is adapted to the image size, the bands are
+     * distributed with work stealing, and the calling thread blocks
+     * only once, until all bands are done. The progress is reported
+     * to the given {@link ProgressTracker} (one unit for each row)
+     * from the calling thread, as the bands complete.
+     * <p>
+     * If the calling thread is interrupted while waiting, the bands that
+     * haven't started yet are skipped, and a {@link CancellationException}
+     * is thrown. This allows the filter previews to abandon superseded runs.
+     * If a band task fails, its exception is rethrown on the calling thread.
+     */
+    public static void processBands(int width, int height, BandTask task, ProgressTracker pt) {
+        assert pt != null;
+        if (height <= 0) {
+            return;
+        }
+
+        int bandHeight = calcBandHeight(width, height);
+        if (bandHeight >= height) {
+            // not worth splitting
+            task.processBand(0, height);
+            pt.unitsDone(height);
+            return;
+        }
+
+        AtomicInteger rowsDone = new AtomicInteger();
+        AtomicBoolean cancelled = new AtomicBoolean();
+        BandAction action = new BandAction(task, 0, height, bandHeight, rowsDone, cancelled);
+
+        if (ForkJoinTask.inForkJoinPool()) {
+            // called from a band task: help with the work instead of blocking
+            action.invoke();
+            pt.unitsDone(height);
+            return;
+        }
+
+        bandPool.execute(action);
+        int reported = 0;
+        while (true) {
+            try {
+                action.get(PROGRESS_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                break;
+            } catch (TimeoutException e) {
+                int done = rowsDone.get();
+                if (done > reported) {
+                    pt.unitsDone(done - reported);
+                    reported = done;
+                }
+            } catch (InterruptedException e) {
+                cancelled.set(true);
+                throw interrupted(pt);
+            } catch (ExecutionException e) {
+                throw failed(e, pt);
+            }
+        }
+        if (height > reported) {
+            pt.unitsDone(height - reported);
+        }
+    }
+
+    /**
+     * Returns the height of the bands used by {@link #processBands}.
+     */
+    static int calcBandHeight(int width, int height) {
+        int minRows = Math.max(1, MIN_PIXELS_PER_BAND / Math.max(1, width));
+        int targetRows = Math.max(1, height / (NUM_CORES * BANDS_PER_CORE));
+        return Math.max(minRows, targetRows);
+    }
+
+    /**
+     * The work done on a horizontal band of rows.
+     */
+    @FunctionalInterface
+    public interface BandTask {
+        /**
+         * Processes the rows from startY (inclusive) to endY (exclusive).
+         */
+        void processBand(int startY, int endY);
+    }
+
+    /**
+     * Recursively splits a row range into halves until
+     * it's not larger than the band height.
+     */
+    private static class BandAction extends RecursiveAction {
+        private final BandTask task;
+        private final int startY;
+        private final int endY;
+        private final int bandHeight;
+        private final AtomicInteger rowsDone;
+        private final AtomicBoolean cancelled;
+
+        BandAction(BandTask task, int startY, int endY, int bandHeight,
+                   AtomicInteger rowsDone, AtomicBoolean cancelled) {
+            this.task = task;
+            this.startY = startY;
+            this.endY = endY;
+            this.bandHeight = bandHeight;
+            this.rowsDone = rowsDone;
+            this.cancelled = cancelled;
+        }
+
+        @Override
+        protected void compute() {
+            if (cancelled.get()) {
+                return;
+            }
+            int numRows = endY - startY;
+            if (numRows <= bandHeight) {
+                task.processBand(startY, endY);
+                rowsDone.addAndGet(numRows);
+                return;
+            }
+            int midY = startY + numRows / 2;
+            invokeAll(new BandAction(task, startY, midY, bandHeight, rowsDone, cancelled),
+                new BandAction(task, midY, endY, bandHeight, rowsDone, cancelled));
+        }
+    }
+
     public static Executor getExecutor() {
         return pool;
     }
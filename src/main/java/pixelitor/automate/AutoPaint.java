@@ -34,7 +34,6 @@ import pixelitor.utils.Rnd;
 
 import java.awt.Color;
 import java.awt.geom.Path2D;
-import java.awt.image.BufferedImage;
 import java.util.SplittableRandom;
 
 import static pixelitor.colors.FgBgColors.*;
@@ -71,7 +70,9 @@ public class AutoPaint {
     private static void autoPaint(Drawable dr, AutoPaintSettings settings) {
         assert calledOnEDT() : threadInfo();
 
-        BufferedImage backupImage = dr.getSelectedSubImage(true);
+        // the edit backs up the pixels before the painting
+        var edit = new ImageEdit("Auto Paint", dr.getComp(),
+            dr, dr.getSelectedSubImage(false), false);
         String msg = "Auto Paint with " + settings.getTool().getName();
         ProgressHandler progressHandler = Messages.startProgress(msg, settings.getNumStrokes());
 
@@ -84,8 +85,7 @@ public class AutoPaint {
             Messages.showException(e);
         } finally {
             History.setIgnoreEdits(false);
-            History.add(new ImageEdit("Auto Paint", dr.getComp(),
-                dr, backupImage, false));
+            History.add(edit);
 
             progressHandler.stopProgress();
             Messages.showPlainInStatusBar(msg + "finished.");
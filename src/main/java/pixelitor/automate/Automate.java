@@ -17,25 +17,25 @@
 
 package pixelitor.automate;
 
-import pixelitor.Composition;
-import pixelitor.Views;
 import pixelitor.compactions.CompAction;
 import pixelitor.gui.PixelitorWindow;
-import pixelitor.gui.View;
 import pixelitor.gui.utils.GUIUtils;
-import pixelitor.io.*;
+import pixelitor.io.Dirs;
+import pixelitor.io.FileFormat;
+import pixelitor.io.FileUtils;
 import pixelitor.utils.Messages;
 
 import javax.swing.*;
+import java.awt.EventQueue;
 import java.io.File;
 import java.util.List;
-import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
 
 import static java.lang.String.format;
 import static javax.swing.JOptionPane.WARNING_MESSAGE;
 import static pixelitor.utils.Threads.calledOnEDT;
 import static pixelitor.utils.Threads.calledOutsideEDT;
-import static pixelitor.utils.Threads.onEDT;
 import static pixelitor.utils.Threads.threadInfo;
 
 /**
@@ -48,7 +48,6 @@ public class Automate {
     private static final String OVERWRITE_CANCEL = "Cancel Processing";
 
     private static volatile boolean overwriteAll = false;
-    private static volatile boolean stopProcessing = false;
 
     private Automate() {
     }
@@ -58,6 +57,24 @@ public class Automate {
      * with the given {@link CompAction}.
      */
     public static void processFiles(CompAction action, String dialogTitle) {
+        processFiles(() -> action, dialogTitle);
+    }
+
+    /**
+     * Processes each file in the input directory with the actions created by
+     * the given factory. The files are processed in parallel without views,
+     * and each worker thread gets its own action.
+     */
+    public static void processFiles(Supplier<CompAction> actionFactory, String dialogTitle) {
+        processFiles(actionFactory, Runtime.getRuntime().availableProcessors(), dialogTitle);
+    }
+
+    /**
+     * Like {@link #processFiles(Supplier, String)}, but with
+     * at most the given number of worker threads.
+     */
+    public static void processFiles(Supplier<CompAction> actionFactory,
+                                    int numThreads, String dialogTitle) {
         assert calledOnEDT() : threadInfo();
 
         File openDir = Dirs.getLastOpen();
@@ -70,101 +87,83 @@ public class Automate {
             return;
         }
 
-        stopProcessing = false;
+        overwriteAll = false;
+        var processor = new BatchProcessor(actionFactory, FileFormat.getLastSaved(), saveDir);
+        processor.setNumThreads(numThreads);
+        processor.setOverwriteCheck(file -> confirmOverwrite(file, processor));
+
         var pm = GUIUtils.createPercentageProgressMonitor(dialogTitle);
-        var worker = new SwingWorker<Void, Void>() {
+        var worker = new SwingWorker<BatchProcessor.Summary, Void>() {
+            @Override
+            public BatchProcessor.Summary doInBackground() {
+                return processFilesInBackground(inputFiles, processor, pm);
+            }
+
             @Override
-            public Void doInBackground() {
-                return processFilesInBackground(inputFiles, action, saveDir, pm);
-            } // end of doInBackground
+            protected void done() {
+                pm.close();
+                try {
+                    showErrors(get());
+                } catch (InterruptedException | ExecutionException e) {
+                    Messages.showException(e);
+                }
+            }
         };
         worker.execute();
     }
 
-    private static Void processFilesInBackground(List<File> inputFiles,
-                                                 CompAction action,
-                                                 File saveDir,
-                                                 ProgressMonitor monitor) {
+    private static BatchProcessor.Summary processFilesInBackground(List<File> inputFiles,
+                                                                  BatchProcessor processor,
+                                                                  ProgressMonitor monitor) {
         assert calledOutsideEDT() : "on EDT";
 
-        overwriteAll = false;
-
-        for (int i = 0, numFiles = inputFiles.size(); i < numFiles; i++) {
-            if (monitor.isCanceled() || stopProcessing) {
-                break;
+        int numFiles = inputFiles.size();
+        monitor.setNote("Processing " + numFiles + " files");
+        return processor.process(inputFiles, numFinished -> EventQueue.invokeLater(() -> {
+            if (monitor.isCanceled()) {
+                processor.cancel();
             }
-
-            monitor.setProgress((int) (i * 100.0 / numFiles));
-            monitor.setNote("Processing " + (i + 1) + " of " + numFiles);
-
-            processFile(inputFiles.get(i), action, saveDir);
-        }
-        monitor.close();
-        return null;
+            monitor.setProgress((int) (numFinished * 100.0 / numFiles));
+            monitor.setNote("Finished " + numFinished + " of " + numFiles);
+        }));
     }
 
-    private static void processFile(File file, CompAction action, File saveDir) {
-        assert calledOutsideEDT() : "on EDT";
-        IO.openFileAsync(file, false)
-            .thenComposeAsync(action::process, onEDT)
-            .thenComposeAsync(comp -> saveAndClose(comp, saveDir), onEDT)
-            .exceptionally(Messages::showExceptionOnEDT)
-            .join();
+    private static void showErrors(BatchProcessor.Summary summary) {
+        if (summary.hasErrors()) {
+            String msg = "<html>The following files could not be processed:<br>"
+                + String.join("<br>", summary.errors());
+            Messages.showError("Batch Processing Errors", msg);
+        }
     }
 
-    private static CompletableFuture<Void> saveAndClose(Composition comp, File lastSaveDir) {
-        assert calledOnEDT() : threadInfo();
-
-        var format = FileFormat.getLastSaved();
-        File file = calcOutputFile(comp, lastSaveDir, format);
-
-        // so that it doesn't ask to save again after we just saved it
-        comp.setDirty(false);
-
-        var saveSettings = new SaveSettings.Simple(format, file);
-        CompletableFuture<Void> retVal = null;
-
-        View view = comp.getView();
-        assert view != null : "no view for " + comp.getName();
-
-        if (file.exists() && !overwriteAll) {
-            String answer = showOverwriteWarningDialog(file);
-
-            switch (answer) {
-                case OVERWRITE_YES:
-                    retVal = comp.saveAsync(saveSettings, false);
-                    break;
-                case OVERWRITE_YES_ALL:
-                    retVal = comp.saveAsync(saveSettings, false);
-                    overwriteAll = true;
-                    break;
-                case OVERWRITE_NO:
-                    // do nothing
-                    break;
-                case OVERWRITE_CANCEL:
-                    Views.warnAndClose(view);
-                    stopProcessing = true;
-                    return CompletableFuture.completedFuture(null);
-                default:
-                    throw new IllegalStateException("Unexpected value: " + answer);
-            }
-        } else { // the file doesn't exist or "overwrite all" was selected previously
-            view.paintImmediately();
-            retVal = comp.saveAsync(saveSettings, false);
+    /**
+     * Asks the user whether the given file can be overwritten.
+     * Called on the worker threads, but only one dialog is shown at a time.
+     */
+    private static synchronized boolean confirmOverwrite(File file, BatchProcessor processor) {
+        if (overwriteAll) {
+            return true;
         }
-        Views.warnAndClose(view);
-        stopProcessing = false;
-        if (retVal != null) {
-            return retVal;
-        } else {
-            return CompletableFuture.completedFuture(null);
+        if (processor.isCanceled()) {
+            return false;
         }
-    }
 
-    private static File calcOutputFile(Composition comp, File lastSaveDir, FileFormat format) {
-        String inFileName = comp.getFile().getName();
-        String outFileName = FileUtils.replaceExt(inFileName, format.toString());
-        return new File(lastSaveDir, outFileName);
+        String[] answer = new String[1];
+        GUIUtils.invokeAndWait(() -> answer[0] = showOverwriteWarningDialog(file));
+
+        return switch (answer[0]) {
+            case OVERWRITE_YES -> true;
+            case OVERWRITE_YES_ALL -> {
+                overwriteAll = true;
+                yield true;
+            }
+            case OVERWRITE_NO -> false;
+            case OVERWRITE_CANCEL -> {
+                processor.cancel();
+                yield false;
+            }
+            default -> throw new IllegalStateException("Unexpected value: " + answer[0]);
+        };
     }
 
     private static String showOverwriteWarningDialog(File outputFile) {
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.automate;
+
+import pixelitor.compactions.CompAction;
+import pixelitor.compactions.Resize;
+import pixelitor.filters.Filter;
+import pixelitor.io.FileFormat;
+import pixelitor.io.FileUtils;
+import pixelitor.utils.ConsoleMessageHandler;
+import pixelitor.utils.Messages;
+
+import java.awt.Dimension;
+import java.io.File;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Supplier;
+
+/**
+ * The command-line entry point of the batch processing, which
+ * can run on servers without a display. For example:
+ * <pre>
+ * java -jar pixelitor.jar --batch --resize 800x600 --filter JHGaussianBlur --format jpg in out
+ * </pre>
+ * If both a resize and a filter are given, the resizing comes first.
+ * The filters are specified by their class names, and they run
+ * with their default settings.
+ */
+public class BatchCommandLine {
+    public static final String BATCH_OPTION = "--batch";
+
+    // the packages searched for filters given by their simple class names
+    private static final String[] FILTER_PACKAGES = {"pixelitor.filters.",
+        "pixelitor.filters.jhlabsproxies.", "pixelitor.filters.convolve.",
+        "pixelitor.filters.lookup.", "pixelitor.filters.levels.",
+        "pixelitor.filters.curves.", "pixelitor.filters.gmic."};
+
+    private static final String USAGE = """
+        Usage: pixelitor --batch [options] <input dir> <output dir>
+        Options:
+          --resize <W>x<H>   resize to fit into the given box
+          --filter <class>   run the filter with the given class name
+          --format <ext>     the output format (default: png)
+          --threads <n>      the number of files processed at the same time
+          --memory <MB>      the memory budget of the parallel processing""";
+
+    /**
+     * The parsed command-line arguments. The resize box and the filter name
+     * are null, the number of threads and the memory budget are zero if not given.
+     */
+    record Options(Dimension resizeBox, String filterName, FileFormat format,
+                   int numThreads, long memoryBudget, File inputDir, File outputDir) {
+    }
+
+    private BatchCommandLine() {
+        // static utility methods only
+    }
+
+    public static boolean isBatchMode(String[] args) {
+        return args.length > 0 && args[0].equals(BATCH_OPTION);
+    }
+
+    /**
+     * Runs the batch processing described by the
+     * given arguments, and returns the exit code.
+     */
+    public static int run(String[] args) {
+        Messages.setHandler(new ConsoleMessageHandler());
+
+        Options options;
+        try {
+            options = parse(args);
+        } catch (IllegalArgumentException e) { // including NumberFormatException
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            return 2;
+        }
+
+        Supplier<CompAction> actionFactory;
+        try {
+            actionFactory = createActionFactory(options);
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            System.err.println("The filter " + options.filterName() + " could not be created: " + e);
+            return 2;
+        }
+
+        File outputDir = options.outputDir();
+        if (!outputDir.exists() && !outputDir.mkdirs()) {
+            System.err.println("Could not create " + outputDir);
+            return 1;
+        }
+
+        var processor = new BatchProcessor(actionFactory, options.format(), outputDir);
+        if (options.numThreads() > 0) {
+            processor.setNumThreads(options.numThreads());
+        }
+        if (options.memoryBudget() > 0) {
+            processor.setMemoryBudget(options.memoryBudget());
+        }
+
+        List<File> inputFiles = FileUtils.listSupportedInputFilesIn(options.inputDir());
+        int numFiles = inputFiles.size();
+        long startTime = System.nanoTime();
+        var summary = processor.process(inputFiles, numFinished ->
+            System.out.printf("Finished %d of %d%n", numFinished, numFiles));
+        long totalMillis = (System.nanoTime() - startTime) / 1_000_000;
+
+        summary.errors().forEach(error -> System.err.println("Failed: " + error));
+        System.out.printf("Processed %d files, skipped %d, failed %d in %d ms.%n",
+            summary.numProcessed(), summary.numSkipped(), summary.errors().size(), totalMillis);
+
+        return summary.hasErrors() ? 1 : 0;
+    }
+
+    /**
+     * Parses the arguments following the batch option.
+     *
+     * @throws IllegalArgumentException if the arguments are not valid
+     */
+    static Options parse(String[] args) {
+        Dimension resizeBox = null;
+        String filterName = null;
+        FileFormat format = FileFormat.PNG;
+        int numThreads = 0;
+        long memoryBudget = 0;
+        File inputDir = null;
+        File outputDir = null;
+
+        for (int i = 1; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "--resize" -> resizeBox = parseSize(nextArg(args, ++i, arg));
+                case "--filter" -> filterName = nextArg(args, ++i, arg);
+                case "--format" -> {
+                    String ext = nextArg(args, ++i, arg);
+                    format = FileFormat.fromExtension(ext).orElseThrow(() ->
+                        new IllegalArgumentException("Unsupported output format: " + ext));
+                }
+                case "--threads" -> {
+                    numThreads = Integer.parseInt(nextArg(args, ++i, arg));
+                    if (numThreads < 1) {
+                        throw new IllegalArgumentException("Invalid number of threads: " + numThreads);
+                    }
+                }
+                case "--memory" -> {
+                    long megaBytes = Long.parseLong(nextArg(args, ++i, arg));
+                    if (megaBytes < 1) {
+                        throw new IllegalArgumentException("Invalid memory budget: " + megaBytes);
+                    }
+                    memoryBudget = megaBytes * 1024 * 1024;
+                }
+                default -> {
+                    if (arg.startsWith("--")) {
+                        throw new IllegalArgumentException("Unknown option: " + arg);
+                    } else if (inputDir == null) {
+                        inputDir = new File(arg);
+                    } else if (outputDir == null) {
+                        outputDir = new File(arg);
+                    } else {
+                        throw new IllegalArgumentException("Unexpected argument: " + arg);
+                    }
+                }
+            }
+        }
+        if (inputDir == null || outputDir == null) {
+            throw new IllegalArgumentException("The input and output directories must be given.");
+        }
+        if (!inputDir.isDirectory()) {
+            throw new IllegalArgumentException(inputDir + " is not a directory.");
+        }
+        if (resizeBox == null && filterName == null) {
+            throw new IllegalArgumentException("Either --resize or --filter must be given.");
+        }
+        return new Options(resizeBox, filterName, format, numThreads, memoryBudget, inputDir, outputDir);
+    }
+
+    private static String nextArg(String[] args, int index, String option) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException("Missing value for " + option);
+        }
+        return args[index];
+    }
+
+    private static Dimension parseSize(String size) {
+        String[] parts = size.toLowerCase(Locale.ROOT).split("x");
+        if (parts.length != 2) {
+            throw new IllegalArgumentException("Invalid size: " + size);
+        }
+        int width = Integer.parseInt(parts[0].trim());
+        int height = Integer.parseInt(parts[1].trim());
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid size: " + size);
+        }
+        return new Dimension(width, height);
+    }
+
+    private static Supplier<CompAction> createActionFactory(Options options)
+        throws ReflectiveOperationException {
+        Dimension box = options.resizeBox();
+        Resize resize = box == null ? null : new Resize(box.width, box.height, true);
+        String filterName = options.filterName();
+        if (filterName == null) {
+            return () -> resize;
+        }
+
+        Class<? extends Filter> filterClass = findFilterClass(filterName);
+        // fail early if the filter can't be instantiated
+        filterClass.getDeclaredConstructor().newInstance();
+
+        return () -> {
+            Filter filter;
+            try {
+                filter = filterClass.getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException(e);
+            }
+            CompAction filterAction = BatchFilterWizard.createFilterAction(filter);
+            if (resize == null) {
+                return filterAction;
+            }
+            return comp -> resize.process(comp).thenCompose(filterAction::process);
+        };
+    }
+
+    private static Class<? extends Filter> findFilterClass(String name) throws ClassNotFoundException {
+        if (name.contains(".")) {
+            return Class.forName(name).asSubclass(Filter.class);
+        }
+        for (String pkg : FILTER_PACKAGES) {
+            try {
+                return Class.forName(pkg + name).asSubclass(Filter.class);
+            } catch (ClassNotFoundException e) {
+                // try the next package
+            }
+        }
+        throw new ClassNotFoundException(name);
+    }
+}
@@ -21,6 +21,7 @@ import pixelitor.compactions.CompAction;
 import pixelitor.filters.Filter;
 import pixelitor.layers.Drawable;
 
+import java.awt.image.BufferedImage;
 import java.util.concurrent.CompletableFuture;
 
 import static pixelitor.FilterContext.BATCH_AUTOMATE;
@@ -49,11 +50,37 @@ public class BatchFilterWizard extends Wizard {
     protected void finalAction() {
         var dialogTitle = "Batch Filter Progress";
 
-        CompAction batchFilterAction = comp -> {
-            comp.getActiveDrawable().startFilter(filter, BATCH_AUTOMATE);
+        // the files are processed in parallel, each worker with its own copy,
+        // and if the filter can't be copied, there is only one worker
+        Filter settings = filter;
+        if (settings.copy() == settings) {
+            Automate.processFiles(() -> createFilterAction(settings), 1, dialogTitle);
+        } else {
+            Automate.processFiles(() -> createFilterAction(settings.copy()), dialogTitle);
+        }
+    }
+
+    /**
+     * Returns an action that runs the given filter on the active layer
+     * of a composition. It doesn't need a view, and it can run
+     * outside the EDT. Unlike {@link Drawable#runFilter}, it doesn't
+     * handle the filter errors, so that a failed file is reported
+     * instead of being saved without the filter.
+     */
+    static CompAction createFilterAction(Filter filter) {
+        return comp -> {
+            Drawable dr = comp.getActiveDrawable();
+            if (dr == null) {
+                throw new IllegalStateException("the active layer of "
+                    + comp.getName() + " can't be filtered");
+            }
+            BufferedImage dest = filter.transformImage(dr.getFilterSourceImage());
+            if (dest == null) {
+                throw new IllegalStateException(filter.getName() + " returned no image");
+            }
+            dr.filterWithoutDialogFinished(dest, BATCH_AUTOMATE, filter.getName());
             return CompletableFuture.completedFuture(comp);
         };
-        Automate.processFiles(batchFilterAction, dialogTitle);
     }
 
     @Override
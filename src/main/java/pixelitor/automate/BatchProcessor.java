@@ -0,0 +1,250 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.automate;
+
+import pixelitor.Composition;
+import pixelitor.compactions.CompAction;
+import pixelitor.io.FileFormat;
+import pixelitor.io.FileUtils;
+import pixelitor.io.SaveSettings;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Applies a {@link CompAction} to a list of files without opening
+ * them in views, so it can also run in headless mode.
+ * <p>
+ * Several files are processed concurrently, but a file is started only
+ * if its estimated memory need fits into the remaining memory budget.
+ * Every worker thread gets its own action from the factory, because
+ * the filters are not thread-safe.
+ */
+public class BatchProcessor {
+    // the number of image-sized buffers that can be alive at the
+    // same time for a layer: the source, the result and the composite
+    private static final int WORKING_COPIES = 3;
+
+    // multi-layered files don't have a cheap way to find out their
+    // size, so their memory need is guessed from the compressed size
+    private static final int COMPRESSION_RATIO_GUESS = 4;
+
+    private final Supplier<CompAction> actionFactory;
+    private final FileFormat outputFormat;
+    private final File outputDir;
+
+    private int numThreads = Runtime.getRuntime().availableProcessors();
+    private long memoryBudget = Runtime.getRuntime().maxMemory() / 2;
+    private Predicate<File> overwriteCheck = file -> true;
+
+    private volatile boolean canceled = false;
+
+    /**
+     * The outcome of processing all files.
+     */
+    public record Summary(int numProcessed, int numSkipped, List<String> errors) {
+        public boolean hasErrors() {
+            return !errors.isEmpty();
+        }
+    }
+
+    public BatchProcessor(Supplier<CompAction> actionFactory, FileFormat outputFormat, File outputDir) {
+        this.actionFactory = actionFactory;
+        this.outputFormat = outputFormat;
+        this.outputDir = outputDir;
+    }
+
+    public void setNumThreads(int numThreads) {
+        if (numThreads < 1) {
+            throw new IllegalArgumentException("numThreads = " + numThreads);
+        }
+        this.numThreads = numThreads;
+    }
+
+    public void setMemoryBudget(long memoryBudget) {
+        if (memoryBudget < 1) {
+            throw new IllegalArgumentException("memoryBudget = " + memoryBudget);
+        }
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * Sets the predicate deciding whether an existing output file
+     * can be overwritten. It's called on the worker threads.
+     */
+    public void setOverwriteCheck(Predicate<File> overwriteCheck) {
+        this.overwriteCheck = overwriteCheck;
+    }
+
+    /**
+     * The files that are not started yet will be skipped.
+     */
+    public void cancel() {
+        canceled = true;
+    }
+
+    public boolean isCanceled() {
+        return canceled;
+    }
+
+    /**
+     * Processes the given files, and returns when all of them are finished.
+     * The given consumer receives the number of finished files after each file.
+     */
+    public Summary process(List<File> inputFiles, IntConsumer progress) {
+        // the budget is counted in kilobytes, so that it fits into the permits
+        int budgetKB = (int) Math.min(Integer.MAX_VALUE, memoryBudget / 1024);
+        Semaphore memory = new Semaphore(budgetKB, true);
+
+        ThreadLocal<CompAction> actions = ThreadLocal.withInitial(actionFactory);
+        AtomicInteger numFinished = new AtomicInteger();
+        AtomicInteger numProcessed = new AtomicInteger();
+        AtomicInteger numSkipped = new AtomicInteger();
+        List<String> errors = Collections.synchronizedList(new ArrayList<>());
+
+        int poolSize = Math.min(numThreads, Math.max(1, inputFiles.size()));
+        AtomicInteger threadCounter = new AtomicInteger();
+        ExecutorService workers = Executors.newFixedThreadPool(poolSize, r -> {
+            Thread thread = new Thread(r, "Batch Worker " + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        List<CompletableFuture<Void>> futures = new ArrayList<>(inputFiles.size());
+        for (File file : inputFiles) {
+            futures.add(CompletableFuture.runAsync(() -> {
+                try {
+                    if (canceled) {
+                        numSkipped.incrementAndGet();
+                    } else if (processFile(file, actions.get(), memory, budgetKB)) {
+                        numProcessed.incrementAndGet();
+                    } else {
+                        numSkipped.incrementAndGet();
+                    }
+                } catch (Throwable e) {
+                    errors.add(file.getName() + ": " + describe(e));
+                }
+                progress.accept(numFinished.incrementAndGet());
+            }, workers));
+        }
+
+        try {
+            CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).join();
+        } finally {
+            workers.shutdown();
+        }
+
+        return new Summary(numProcessed.get(), numSkipped.get(), List.copyOf(errors));
+    }
+
+    /**
+     * Returns false if the file was skipped.
+     */
+    private boolean processFile(File file, CompAction action,
+                                Semaphore memory, int budgetKB) throws InterruptedException {
+        File outFile = calcOutputFile(file);
+        if (outFile.exists() && !overwriteCheck.test(outFile)) {
+            return false;
+        }
+
+        // a file that doesn't fit into the whole budget still runs, but alone
+        int neededKB = (int) Math.min(budgetKB, estimateMemory(file) / 1024 + 1);
+        memory.acquire(neededKB);
+        try {
+            if (canceled) {
+                return false;
+            }
+            FileFormat inputFormat = FileFormat.fromFile(file).orElseThrow(() ->
+                new IllegalArgumentException("unsupported file type"));
+            Composition comp = inputFormat.readSync(file);
+            if (comp == null) {
+                throw new IllegalStateException("the file could not be read");
+            }
+
+            Composition result = action.process(comp).join();
+            if (result == null) {
+                throw new IllegalStateException("the processing failed");
+            }
+
+            var saveSettings = new SaveSettings.Simple(outputFormat, outFile);
+            outputFormat.createSaveTask(result, saveSettings).run();
+            return true;
+        } finally {
+            memory.release(neededKB);
+        }
+    }
+
+    File calcOutputFile(File inputFile) {
+        String outFileName = FileUtils.replaceExt(inputFile.getName(), outputFormat.toString());
+        return new File(outputDir, outFileName);
+    }
+
+    /**
+     * Estimates the memory needed for processing the given file in bytes.
+     */
+    private static long estimateMemory(File file) {
+        if (FileUtils.hasMultiLayerExtension(file)) {
+            return file.length() * COMPRESSION_RATIO_GUESS * WORKING_COPIES;
+        }
+        try (ImageInputStream iis = ImageIO.createImageInputStream(file)) {
+            if (iis != null) {
+                Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+                if (readers.hasNext()) {
+                    ImageReader reader = readers.next();
+                    try {
+                        // reads only the header, not the pixels
+                        reader.setInput(iis, true, true);
+                        return 4L * reader.getWidth(0) * reader.getHeight(0) * WORKING_COPIES;
+                    } finally {
+                        reader.dispose();
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // fall through to the guess, the reading will report the real problem
+        }
+        return file.length() * COMPRESSION_RATIO_GUESS * WORKING_COPIES;
+    }
+
+    private static String describe(Throwable e) {
+        // unwrap the exceptions of the futures
+        while (e.getCause() != null && (e instanceof CompletionException
+            || e instanceof UncheckedIOException)) {
+            e = e.getCause();
+        }
+        String msg = e.getMessage();
+        return msg == null ? e.getClass().getSimpleName() : msg;
+    }
+}
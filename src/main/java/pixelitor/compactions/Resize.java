@@ -71,6 +71,13 @@ public class Resize implements CompAction {
 
         var targetSize = calcTargetSize(oldCanvas);
 
+        if (oldComp.getView() == null) {
+            // batch processing without a GUI: there is
+            // no undo, so the composition can be resized in place
+            return resizeLayers(oldComp, targetSize)
+                .thenApply(comp -> resizeCanvasWithoutView(comp, targetSize));
+        }
+
         // The resizing runs outside the EDT to allow the progress bar animation
         // to update, and to enable the parallel resizing of multiple layers.
         var progressHandler = Messages.startProgress("Resizing", -1);
@@ -87,8 +94,8 @@ public class Resize implements CompAction {
     }
 
     private Dimension calcTargetSize(Canvas oldCanvas) {
-        int canvasCurrHeight = oldCanvas.getWidth();
-        int canvasCurrWidth = oldCanvas.getHeight();
+        int canvasCurrWidth = oldCanvas.getWidth();
+        int canvasCurrHeight = oldCanvas.getHeight();
 
         // it's important to use local copies of the final global
         // variables, otherwise batch resize in box gets different
@@ -155,6 +162,15 @@ public class Resize implements CompAction {
         return newComp;
     }
 
+    private static Composition resizeCanvasWithoutView(Composition comp, Dimension newCanvasSize) {
+        Canvas canvas = comp.getCanvas();
+        var canvasTransform = canvas.createImTransformToSize(newCanvasSize);
+        comp.imCoordsChanged(canvasTransform, false, null);
+        canvas.resize(newCanvasSize.width, newCanvasSize.height, null, false);
+        comp.invalidateImageCache();
+        return comp;
+    }
+
     private static CompletableFuture<Composition> resizeLayers(Composition comp, Dimension newSize) {
         // This could be called on the EDT or on another thread. The layers
         // themselves are resized in parallel using the thread pool's threads.
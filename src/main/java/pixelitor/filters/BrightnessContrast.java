@@ -23,6 +23,7 @@ import pixelitor.utils.ImageUtils;
 
 import java.awt.image.BufferedImage;
 import java.io.Serial;
+import java.util.function.IntUnaryOperator;
 
 import static pixelitor.gui.GUIText.BRIGHTNESS;
 import static pixelitor.utils.Texts.i18n;
@@ -30,7 +31,7 @@ import static pixelitor.utils.Texts.i18n;
 /**
  * The Brightness/Contrast filter
  */
-public class BrightnessContrast extends ParametrizedFilter {
+public class BrightnessContrast extends ParametrizedFilter implements PointAdjustment {
     private static final String CONTRAST = i18n("contrast");
     public static final String NAME = BRIGHTNESS + "/" + CONTRAST;
 
@@ -54,10 +55,25 @@ public class BrightnessContrast extends ParametrizedFilter {
 
     @Override
     public BufferedImage transform(BufferedImage src, BufferedImage dest) {
-        if (brightnessParam.isZero() && contrastParam.isZero()) {
+        IntUnaryOperator kernel = createPixelKernel(src.isAlphaPremultiplied());
+        if (kernel == null) {
             return src;
         }
 
+        // transform the image
+        int[] srcData = ImageUtils.getPixelArray(src);
+        int[] destData = ImageUtils.getPixelArray(dest);
+        PointAdjustment.filterPixels(kernel, srcData, destData, src.getWidth());
+
+        return dest;
+    }
+
+    @Override
+    public IntUnaryOperator createPixelKernel(boolean premultiplied) {
+        if (brightnessParam.isZero() && contrastParam.isZero()) {
+            return null;
+        }
+
         // prepare brightness
         double brightnessValue = brightnessParam.getValue() / 10.0;
         double pow = -brightnessValue + 1;
@@ -84,31 +100,28 @@ public class BrightnessContrast extends ParametrizedFilter {
             lookup[i] = PixelUtils.clamp((int) lookupValue);
         }
 
-        // transform the image
-        int[] srcData = ImageUtils.getPixelArray(src);
-        int[] destData = ImageUtils.getPixelArray(dest);
-        for (int i = 0; i < destData.length; i++) {
-            int rgb = srcData[i];
-
+        return rgb -> {
 //            int a = (rgb >>> 24) & 0xFF;
             int a = rgb & 0xFF_00_00_00;
 
             if (a == 0) {
-                destData[i] = 0; // for premultiplied images
-            } else {
-                int r = (rgb >>> 16) & 0xFF;
-                int g = (rgb >>> 8) & 0xFF;
-                int b = rgb & 0xFF;
+                return 0; // for premultiplied images
+            }
+            int r = (rgb >>> 16) & 0xFF;
+            int g = (rgb >>> 8) & 0xFF;
+            int b = rgb & 0xFF;
 
-                r = lookup[r];
-                g = lookup[g];
-                b = lookup[b];
+            r = lookup[r];
+            g = lookup[g];
+            b = lookup[b];
 
-                destData[i] = a | r << 16 | g << 8 | b;
-            }
-        }
+            return a | r << 16 | g << 8 | b;
+        };
+    }
 
-        return dest;
+    @Override
+    public int getInputMargin() {
+        return 0;
     }
 
     @Override
@@ -28,6 +28,7 @@ import java.awt.image.BandCombineOp;
 import java.awt.image.BufferedImage;
 import java.io.Serial;
 import java.util.function.BooleanSupplier;
+import java.util.function.IntUnaryOperator;
 
 import static pixelitor.filters.gui.RandomizePolicy.IGNORE_RANDOMIZE;
 import static pixelitor.gui.utils.SliderSpinner.TextPosition.NONE;
@@ -36,7 +37,7 @@ import static pixelitor.utils.Texts.i18n;
 /**
  * The "Channel Mixer" filter.
  */
-public class ChannelMixer extends ParametrizedFilter {
+public class ChannelMixer extends ParametrizedFilter implements PointAdjustment {
     public static final String NAME = i18n("channel_mixer");
 
     @Serial
@@ -197,6 +198,39 @@ public class ChannelMixer extends ParametrizedFilter {
 
     @Override
     public BufferedImage transform(BufferedImage src, BufferedImage dest) {
+        float[][] matrix = getMatrix();
+        if (matrix == null) {
+            return src;
+        }
+
+        boolean packedInt = ImageUtils.hasPackedIntArray(src);
+        if (packedInt) {
+            int[] srcData = ImageUtils.getPixelArray(src);
+            int[] destData = ImageUtils.getPixelArray(dest);
+
+            PointAdjustment.filterPixels(createMixer(matrix),
+                srcData, destData, src.getWidth());
+        } else { // not packed int
+            var bandCombineOp = new BandCombineOp(matrix, null);
+            var srcRaster = src.getRaster();
+            var destRaster = dest.getRaster();
+            bandCombineOp.filter(srcRaster, destRaster);
+        }
+
+        return dest;
+    }
+
+    @Override
+    public IntUnaryOperator createPixelKernel(boolean premultiplied) {
+        float[][] matrix = getMatrix();
+        return matrix == null ? null : createMixer(matrix);
+    }
+
+    /**
+     * Returns the mixing matrix for the current settings,
+     * or null if the filter doesn't change the image.
+     */
+    private float[][] getMatrix() {
         float rfr = (float) redFromRed.getPercentage();
         float rfg = (float) redFromGreen.getPercentage();
         float rfb = (float) redFromBlue.getPercentage();
@@ -212,46 +246,50 @@ public class ChannelMixer extends ParametrizedFilter {
         if (rfr == 1.0f && rfg == 0.0f && rfb == 0.0f
             && gfr == 0.0f && gfg == 1.0f && gfb == 0.0f
             && bfr == 0.0f && bfg == 0.0f && bfb == 1.0f) {
-            return src;
+            return null;
         }
 
-        boolean packedInt = ImageUtils.hasPackedIntArray(src);
-        if (packedInt) {
-            int[] srcData = ImageUtils.getPixelArray(src);
-            int[] destData = ImageUtils.getPixelArray(dest);
+        return new float[][]{
+            {rfr, rfg, rfb},
+            {gfr, gfg, gfb},
+            {bfr, bfg, bfb}
+        };
+    }
 
-            int length = srcData.length;
-            assert length == destData.length;
+    private static IntUnaryOperator createMixer(float[][] matrix) {
+        float rfr = matrix[0][0];
+        float rfg = matrix[0][1];
+        float rfb = matrix[0][2];
 
-            for (int i = 0; i < length; i++) {
-                int rgb = srcData[i];
-                int a = rgb & 0xFF_00_00_00;
-                int r = (rgb >>> 16) & 0xFF;
-                int g = (rgb >>> 8) & 0xFF;
-                int b = rgb & 0xFF;
+        float gfr = matrix[1][0];
+        float gfg = matrix[1][1];
+        float gfb = matrix[1][2];
 
-                int newRed = (int) (rfr * r + rfg * g + rfb * b);
-                int newGreen = (int) (gfr * r + gfg * g + gfb * b);
-                int newBlue = (int) (bfr * r + bfg * g + bfb * b);
+        float bfr = matrix[2][0];
+        float bfg = matrix[2][1];
+        float bfb = matrix[2][2];
 
-                newRed = PixelUtils.clamp(newRed);
-                newGreen = PixelUtils.clamp(newGreen);
-                newBlue = PixelUtils.clamp(newBlue);
+        return rgb -> {
+            int a = rgb & 0xFF_00_00_00;
+            int r = (rgb >>> 16) & 0xFF;
+            int g = (rgb >>> 8) & 0xFF;
+            int b = rgb & 0xFF;
 
-                destData[i] = a | newRed << 16 | newGreen << 8 | newBlue;
-            }
-        } else { // not packed int
-            var bandCombineOp = new BandCombineOp(new float[][]{
-                {rfr, rfg, rfb},
-                {gfr, gfg, gfb},
-                {bfr, bfg, bfb}
-            }, null);
-            var srcRaster = src.getRaster();
-            var destRaster = dest.getRaster();
-            bandCombineOp.filter(srcRaster, destRaster);
-        }
+            int newRed = (int) (rfr * r + rfg * g + rfb * b);
+            int newGreen = (int) (gfr * r + gfg * g + gfb * b);
+            int newBlue = (int) (bfr * r + bfg * g + bfb * b);
 
-        return dest;
+            newRed = PixelUtils.clamp(newRed);
+            newGreen = PixelUtils.clamp(newGreen);
+            newBlue = PixelUtils.clamp(newBlue);
+
+            return a | newRed << 16 | newGreen << 8 | newBlue;
+        };
+    }
+
+    @Override
+    public int getInputMargin() {
+        return 0;
     }
 
     // Replace the adjustment listeners with custom versions that
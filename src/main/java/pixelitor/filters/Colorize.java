@@ -25,6 +25,7 @@ import pixelitor.utils.ImageUtils;
 import java.awt.Color;
 import java.awt.image.BufferedImage;
 import java.io.Serial;
+import java.util.function.IntUnaryOperator;
 
 import static pixelitor.filters.gui.TransparencyPolicy.NO_TRANSPARENCY;
 import static pixelitor.gui.GUIText.BRIGHTNESS;
@@ -34,7 +35,7 @@ import static pixelitor.utils.Texts.i18n;
 /**
  * Colorize
  */
-public class Colorize extends ParametrizedFilter {
+public class Colorize extends ParametrizedFilter implements PointAdjustment {
     public static final String NAME = i18n("colorize");
 
     @Serial
@@ -62,19 +63,31 @@ public class Colorize extends ParametrizedFilter {
 
     @Override
     public BufferedImage transform(BufferedImage src, BufferedImage dest) {
+        int[] srcData = ImageUtils.getPixelArray(src);
+        int[] destData = ImageUtils.getPixelArray(dest);
+
+        PointAdjustment.filterPixels(createPixelKernel(src.isAlphaPremultiplied()),
+            srcData, destData, src.getWidth());
+
+        return dest;
+    }
+
+    @Override
+    public IntUnaryOperator createPixelKernel(boolean premultiplied) {
         float briShift = (float) brightnessParam.getPercentage();
         float opacity = (float) opacityParam.getPercentage();
 
         Color color = colorParam.getColor();
 
-        return colorize(src, dest, color, briShift, opacity);
+        return createColorizer(color, briShift, opacity);
     }
 
-    private static BufferedImage colorize(BufferedImage src, BufferedImage dest,
-                                          Color color, float briShift, float opacity) {
-        int[] srcData = ImageUtils.getPixelArray(src);
-        int[] destData = ImageUtils.getPixelArray(dest);
+    @Override
+    public int getInputMargin() {
+        return 0;
+    }
 
+    private static IntUnaryOperator createColorizer(Color color, float briShift, float opacity) {
         int red = color.getRed();
         int green = color.getGreen();
         int blue = color.getBlue();
@@ -90,11 +103,8 @@ public class Colorize extends ParametrizedFilter {
             blueLookup[i] = (i * blue) / 255;
         }
 
-        int length = srcData.length;
-
         float translucence = 1 - opacity;
-        for (int i = 0; i < length; i++) {
-            int srcRGB = srcData[i];
+        return srcRGB -> {
             float lum = LuminanceLookup.from(srcRGB);
             if (briShift > 0) {
                 lum = lum * (1.0f - briShift);
@@ -120,10 +130,8 @@ public class Colorize extends ParametrizedFilter {
             }
 
             int a = srcRGB & 0xFF_00_00_00;
-            destData[i] = a | destRed << 16 | destGreen << 8 | destBlue;
-        }
-
-        return dest;
+            return a | destRed << 16 | destGreen << 8 | destBlue;
+        };
     }
 
     @Override
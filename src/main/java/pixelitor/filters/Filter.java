@@ -88,6 +88,18 @@ public abstract class Filter implements Serializable, PresetOwner, Debuggable {
         return dest;
     }
 
+    /**
+     * Returns the distance (in pixels) from which the source pixels
+     * can influence a result pixel, or -1 if a result pixel can depend
+     * on any source pixel, or on the size of the image.
+     * <p>
+     * If this isn't negative, then any region of the result can be
+     * calculated from the source region extended by this margin.
+     */
+    public int getInputMargin() {
+        return -1;
+    }
+
     public void setName(String name) {
         this.name = name;
     }
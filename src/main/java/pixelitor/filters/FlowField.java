@@ -20,14 +20,12 @@ package pixelitor.filters;
 import com.jhlabs.math.Noise;
 import net.jafama.FastMath;
 import pd.OpenSimplex2F;
-import pixelitor.ThreadPool;
 import pixelitor.colors.Colors;
 import pixelitor.filters.gui.*;
 import pixelitor.filters.gui.GroupedRangeParam.GroupedRangeParamState;
 import pixelitor.filters.gui.RangeParam.RangeParamState;
-import pixelitor.particles.Modifier;
-import pixelitor.particles.ParticleSystem;
-import pixelitor.particles.SmoothPathParticle;
+import pixelitor.particles.ParticleArrays;
+import pixelitor.particles.ParticleEngine;
 import pixelitor.tools.shapes.StrokeType;
 import pixelitor.utils.*;
 
@@ -38,7 +36,7 @@ import java.io.Serial;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
-import java.util.concurrent.Future;
+import java.util.SplittableRandom;
 import java.util.function.Supplier;
 
 import static net.jafama.FastMath.*;
@@ -53,9 +51,7 @@ public class FlowField extends ParametrizedFilter {
 
     public static final String NAME = "Flow Field";
 
-    private static final boolean IS_MULTI_THREADED = true;
     private static final int PAD = 100;
-    private static final int PARTICLES_PER_GROUP = 100;
     private static final float QUALITY = 0.8f;
     private static final float SMOOTHNESS = 1224.3649f;
     private static final float LIMITING_ITERATIONS = 100;
@@ -98,47 +94,11 @@ public class FlowField extends ParametrizedFilter {
         return out;
     }
 
-    private enum ForceMode implements Modifier<FlowFieldParticle> {
-        FORCE_MODE_VELOCITY("No Mass") {
-            @Override
-            public void modify(FlowFieldParticle particle) {
-                particle.pos.setLocation(
-                    particle.pos.getX() + particle.delta.x,
-                    particle.pos.getY() + particle.delta.y
-                );
-            }
-        },
-        FORCE_MODE_ACCELERATION("Uniform Mass") {
-            @Override
-            public void modify(FlowFieldParticle particle) {
-                particle.vel.add(particle.delta);
-                particle.pos.setLocation(
-                    particle.pos.getX() + particle.vel.x,
-                    particle.pos.getY() + particle.vel.y
-                );
-            }
-        },
-        FORCE_MODE_JOLT("Jolt") {
-            @Override
-            public void modify(FlowFieldParticle particle) {
-                particle.acc.add(particle.delta);
-                particle.vel.add(particle.acc);
-                particle.pos.setLocation(
-                    particle.pos.getX() + particle.vel.x,
-                    particle.pos.getY() + particle.vel.y
-                );
-            }
-        },
-        FORCE_MODE_VELOCITY_AND_NOISE_BASED_RANDOMNESS("Thicken") {
-            @Override
-            public void modify(FlowFieldParticle particle) {
-                particle.delta.add(Noise.noise2((float) particle.delta.x, (float) particle.delta.y) * 10);
-                particle.pos.setLocation(
-                    particle.pos.getX() + particle.delta.x,
-                    particle.pos.getY() + particle.delta.y
-                );
-            }
-        };
+    private enum ForceMode {
+        FORCE_MODE_VELOCITY("No Mass"),
+        FORCE_MODE_ACCELERATION("Uniform Mass"),
+        FORCE_MODE_JOLT("Jolt"),
+        FORCE_MODE_VELOCITY_AND_NOISE_BASED_RANDOMNESS("Thicken");
 
         final String name;
 
@@ -152,11 +112,11 @@ public class FlowField extends ParametrizedFilter {
         }
     }
 
-    private enum ColorSource implements Modifier<FlowFieldParticle> {
+    private enum ColorSource {
         DEFAULT("Default", false) {
             @Override
-            Color getColor(FlowFieldParticle particle) {
-                return particle.startingColor;
+            int getColor(FlowFieldMeta meta, int cell, float forceX, float forceY, int startingColor) {
+                return startingColor;
             }
         },
         SOURCE_IMAGE("Source Image", true) {
@@ -167,26 +127,26 @@ public class FlowField extends ParametrizedFilter {
             }
 
             @Override
-            Color getColor(FlowFieldParticle particle) {
-                return particle.meta.fieldColors[particle.getFieldX()][particle.getFieldY()];
+            int getColor(FlowFieldMeta meta, int cell, float forceX, float forceY, int startingColor) {
+                return meta.fieldColors[cell];
             }
         },
         RGB("RGB", false) {
             @Override
-            Color getColor(FlowFieldParticle particle) {
-                return rgbColorFromAcceleration(particle.delta, particle.startingColor);
+            int getColor(FlowFieldMeta meta, int cell, float forceX, float forceY, int startingColor) {
+                return rgbColorFromAcceleration(forceX, forceY, startingColor);
             }
         },
         HSB_Cycle("HSB Cycle", false) {
             @Override
-            Color getColor(FlowFieldParticle particle) {
-                return hsbColorFromAcceleration(particle.delta, particle.startingColor, 6);
+            int getColor(FlowFieldMeta meta, int cell, float forceX, float forceY, int startingColor) {
+                return hsbColorFromAcceleration(forceX, forceY, startingColor, 6);
             }
         },
         Warm("Warm", false) {
             @Override
-            Color getColor(FlowFieldParticle particle) {
-                return hsbColorFromAcceleration(particle.delta, particle.startingColor, 400);
+            int getColor(FlowFieldMeta meta, int cell, float forceX, float forceY, int startingColor) {
+                return hsbColorFromAcceleration(forceX, forceY, startingColor, 400);
             }
         };
 
@@ -201,12 +161,12 @@ public class FlowField extends ParametrizedFilter {
         public void initializeColorField(FlowFieldMeta meta) {
         }
 
-        @Override
-        public void modify(FlowFieldParticle particle) {
-            particle.color = getColor(particle);
-        }
-
-        abstract Color getColor(FlowFieldParticle particle);
+        /**
+         * Returns the ARGB color of a particle based on the field cell
+         * where it was at the start of its last step, or on the force
+         * (including the wind) that moved it in that step.
+         */
+        abstract int getColor(FlowFieldMeta meta, int cell, float forceX, float forceY, int startingColor);
 
         @Override
         public String toString() {
@@ -231,7 +191,7 @@ public class FlowField extends ParametrizedFilter {
     private final RangeParam maxVelocityParam = new RangeParam("Maximum Velocity", 1, 4000, 5000);
     private final RangeParam pathLengthParam = new RangeParam("Path Length", 1, 100, 100, true, BORDER, IGNORE_RANDOMIZE);
 
-    private final RangeParam numParticlesParam = new RangeParam("Particle Count", 1, 1000, 20000, true, BORDER, IGNORE_RANDOMIZE);
+    private final RangeParam numParticlesParam = new RangeParam("Particle Count", 1, 1000, 100_000, true, BORDER, IGNORE_RANDOMIZE);
     private final StrokeParam strokeParam = new StrokeParam("Stroke");
     private final BooleanParam antiAliasParam = new BooleanParam("Use Antialiasing", false);
     private final ColorParam backgroundColorParam = new ColorParam("Background Color", new Color(0, 0, 0, 1.0f), FREE_TRANSPARENCY);
@@ -452,36 +412,27 @@ public class FlowField extends ParametrizedFilter {
         float variantPI = (float) FastMath.PI * variance;
         float initTheta = (float) (r.nextFloat() * 2 * FastMath.PI);
 
-        int groupCount = IS_MULTI_THREADED ? ceilToInt(particleCount / (double) PARTICLES_PER_GROUP) : 1;
-        var pt = new StatusBarProgressTracker(NAME, groupCount);
-
-        Graphics2D g2 = dest.createGraphics();
         boolean useColorField = colorRandomness != 0 || colorSource.requiresColorField();
         boolean randomizeWidth = widthRandomness != 0;
 
         ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
-        g2.setStroke(stroke);
+        Graphics2D g2 = dest.createGraphics();
         Colors.fillWith(bgColor, g2, imgWidth, imgHeight);
-        g2.setColor(particleColor);
-        if (antialias) {
-            g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-        }
-        Graphics2D[] graphicsCopies = new Graphics2D[groupCount];
-        for (int i = 0; i < groupCount; i++) {
-            graphicsCopies[i] = (Graphics2D) g2.create();
-        }
+        g2.dispose();
 
-        Color[][] fieldColors = getIf(useColorField, () -> new Color[fieldWidth][fieldHeight]);
+        int numCells = fieldWidth * fieldHeight;
+        int[] fieldColors = getIf(useColorField, () -> new int[numCells]);
         Stroke[] strokes = getIf(randomizeWidth, () -> new Stroke[100]);
-        Vector2D[][] fieldAccelerations = new Vector2D[fieldWidth][fieldHeight];
+        float[] fieldAccX = new float[numCells];
+        float[] fieldAccY = new float[numCells];
         int[] sourcePixels = getIf(useColorField || inheritSpawnPoints, () -> ImageUtils.getPixelArray(src));
 
         if (randomizeWidth) {
             fill(strokes, strokes.length, () -> strokeParam.createStrokeWithRandomWidth(r, widthRandomness));
         }
 
-        initializeAcceleration(multiplierNoise, multiplierSink, multiplierRevolve, zoom, turbulence, fieldWidth, fieldHeight, noise, center, variantPI, initTheta, fieldAccelerations);
+        initializeAcceleration(multiplierNoise, multiplierSink, multiplierRevolve, zoom, turbulence, fieldWidth, fieldHeight, noise, center, variantPI, initTheta, fieldAccX, fieldAccY);
 
         List<Point2D> spawns = null;
         if (inheritSpawnPoints) {
@@ -489,11 +440,11 @@ public class FlowField extends ParametrizedFilter {
         }
 
         GoldenRatio goldenRatio = new GoldenRatio(r, particleColor, colorRandomness);
-        FlowFieldMeta meta = new FlowFieldMeta(fieldWidth - 1, fieldHeight - 1, fieldDensity, bounds, tolerance, maximumVelocitySq, zFactor, zoom, turbulence, noise, multiplierNoise, initTheta, variantPI, forceMode, goldenRatio, fieldColors, imgWidth, sourcePixels);
+        FlowFieldMeta meta = new FlowFieldMeta(fieldWidth, fieldHeight, fieldDensity, fieldAccX, fieldAccY, goldenRatio, fieldColors, imgWidth, sourcePixels);
 
         if (useColorField) {
             if (colorRandomness != 0) {
-                fill(fieldColors, fieldWidth, fieldHeight, goldenRatio::next);
+                fill(fieldColors, fieldWidth, fieldHeight, (x, y) -> goldenRatio.next());
             }
 
             if (colorSource.requiresColorField) {
@@ -501,27 +452,27 @@ public class FlowField extends ParametrizedFilter {
             }
         }
 
-        PositionRandomizer positionRandomizer = new PositionRandomizer(bounds.x, bounds.y, bounds.width, bounds.height, spawns, r);
-        ParticleInitializer particleInitializer = new ParticleInitializer(particleColor, useColorField, fieldColors);
-        ForceModeUpdater forceModeUpdater = new ForceModeUpdater(forceMode, fieldAccelerations);
-
-        ParticleSystem<FlowFieldParticle> particleSystem = ParticleSystem.<FlowFieldParticle>createSystem(particleCount)
-            .setParticleCreator(() -> new FlowFieldParticle(graphicsCopies, randomizeWidth ? strokes[
-                r.nextInt(strokes.length)] : stroke, meta))
-            .addModifier(positionRandomizer)
-            .addModifier(particleInitializer)
-            .addUpdater(forceModeUpdater)
-            .addUpdater(colorSource)
+        var particles = new FlowFieldParticles(particleCount, meta, bounds, spawns,
+            particleColor.getRGB(), useColorField, colorSource, forceMode, maximumVelocitySq,
+            zFactor, zoom, turbulence, noise, multiplierNoise, initTheta, variantPI,
+            stroke, strokes);
+
+        ParticleEngine engine = ParticleEngine.createEngine(particleCount)
+            .setBehavior(particles)
+            .setTrailRenderer(particles)
+            .setSeed(r.nextLong())
+            .setPointTolerance(tolerance)
             .build();
 
-        Future<?>[] futures = particleSystem.iterate(iterationCount, groupCount);
-        ThreadPool.waitFor(futures, pt);
-        particleSystem.flush();
+        var pt = new StatusBarProgressTracker(NAME, engine.getNumGroups());
+        engine.render(iterationCount, dest, g -> {
+            g.setStroke(stroke);
+            g.setColor(particleColor);
+            if (antialias) {
+                g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            }
+        }, pt);
         pt.finished();
-        for (Graphics2D copy : graphicsCopies) {
-            copy.dispose();
-        }
-        g2.dispose();
 
         return dest;
     }
@@ -531,7 +482,7 @@ public class FlowField extends ParametrizedFilter {
         return false;
     }
 
-    private static void initializeAcceleration(float multiplierNoise, float multiplierSink, float multiplierRevolve, float zoom, int turbulence, int fieldWidth, int fieldHeight, OpenSimplex2F noise, Vector2D center, float variantPI, float initTheta, Vector2D[][] fieldAccelerations) {
+    private static void initializeAcceleration(float multiplierNoise, float multiplierSink, float multiplierRevolve, float zoom, int turbulence, int fieldWidth, int fieldHeight, OpenSimplex2F noise, Vector2D center, float variantPI, float initTheta, float[] fieldAccX, float[] fieldAccY) {
         Vector2D position = new Vector2D();
         Vector2D forceDueToNoise = new Vector2D();
         Vector2D forceDueToSink = new Vector2D();
@@ -549,7 +500,10 @@ public class FlowField extends ParametrizedFilter {
                 createNoiseForce(multiplierNoise, initTheta, variantPI, position.x / zoom,
                     position.y / zoom, 0, turbulence, noise, forceDueToNoise);
 
-                fieldAccelerations[i][j] = Vector2D.add(forceDueToRevolution, forceDueToSink, forceDueToNoise);
+                Vector2D acceleration = Vector2D.add(forceDueToRevolution, forceDueToSink, forceDueToNoise);
+                int cell = i + j * fieldWidth;
+                fieldAccX[cell] = (float) acceleration.x;
+                fieldAccY[cell] = (float) acceleration.y;
             }
         }
     }
@@ -579,14 +533,14 @@ public class FlowField extends ParametrizedFilter {
         }
     }
 
-    public static <T> void fill(T[][] array, int w, int h, Supplier<T> value) {
-        fill(array, w, h, (x, y) -> value.get());
-    }
-
-    public static <T> void fill(T[][] array, int w, int h, Coord2DFunction<T> value) {
+    /**
+     * Fills a field stored in row-major order with the
+     * ARGB values of the colors, in column-major order.
+     */
+    private static void fill(int[] field, int w, int h, Coord2DFunction<Color> value) {
         for (int i = 0; i < w; i++) {
             for (int j = 0; j < h; j++) {
-                array[i][j] = value.get(i, j);
+                field[i + j * w] = value.get(i, j).getRGB();
             }
         }
     }
@@ -598,26 +552,33 @@ public class FlowField extends ParametrizedFilter {
         return new Color(sourcePixels[i], true);
     }
 
-    private static Color rgbColorFromAcceleration(Vector2D acc, Color particleColor) {
-        double ra = sigmoidFit(acc.x) / 255, rb = sigmoidFit(acc.y) / 255;
-        return new Color(
-            (float) ra * particleColor.getRed(),
-            (float) rb * particleColor.getGreen(),
-            (float) ra * particleColor.getBlue(),
-            (float) particleColor.getAlpha() / 255.0f);
+    private static int rgbColorFromAcceleration(double accX, double accY, int particleColor) {
+        double ra = sigmoidFit(accX) / 255, rb = sigmoidFit(accY) / 255;
+        return toARGB(
+            (float) ra * ((particleColor >>> 16) & 0xFF),
+            (float) rb * ((particleColor >>> 8) & 0xFF),
+            (float) ra * (particleColor & 0xFF),
+            (particleColor >>> 24) / 255.0f);
     }
 
-    private static Color hsbColorFromAcceleration(Vector2D acc, Color particleColor, float dividend) {
-        int hsbColor = Color.HSBtoRGB((float) (acc.x + acc.y) / dividend, 0.8f, 1.0f);
+    private static int hsbColorFromAcceleration(double accX, double accY, int particleColor, float dividend) {
+        int hsbColor = Color.HSBtoRGB((float) (accX + accY) / dividend, 0.8f, 1.0f);
         int r = (hsbColor >> 16) & 0xFF;
         int g = (hsbColor >> 8) & 0xFF;
         int b = hsbColor & 0xFF;
-        int a = particleColor.getAlpha();
-        return new Color(
-            r * particleColor.getRed() / 65025.0f,
-            g * particleColor.getGreen() / 65025.0f,
-            b * particleColor.getBlue() / 65025.0f,
-            a / 255.0f);
+        return toARGB(
+            r * ((particleColor >>> 16) & 0xFF) / 65025.0f,
+            g * ((particleColor >>> 8) & 0xFF) / 65025.0f,
+            b * (particleColor & 0xFF) / 65025.0f,
+            (particleColor >>> 24) / 255.0f);
+    }
+
+    // rounds the components in the same way as the float constructor of Color
+    private static int toARGB(float r, float g, float b, float a) {
+        return (int) (a * 255 + 0.5) << 24
+            | (int) (r * 255 + 0.5) << 16
+            | (int) (g * 255 + 0.5) << 8
+            | (int) (b * 255 + 0.5);
     }
 
     private static double sigmoidFit(double v) {
@@ -632,129 +593,192 @@ public class FlowField extends ParametrizedFilter {
         T get(int x, int y);
     }
 
-    private static class PositionRandomizer implements Modifier<FlowFieldParticle> {
-        final Modifier<FlowFieldParticle> modifier;
-
-        public PositionRandomizer(int x, int y, int width, int height, List<Point2D> spawnPoints, Random random) {
-            if (spawnPoints == null || spawnPoints.isEmpty()) {
-                modifier = new RandomizePosition<>(x, y, width, height, random);
-            } else {
-                int size = spawnPoints.size();
-                modifier = particle -> particle.pos.setLocation(spawnPoints.get(random.nextInt(size)));
-            }
-        }
-
-        @Override
-        public void modify(FlowFieldParticle particle) {
-            modifier.modify(particle);
-        }
-    }
-
-    private record ParticleInitializer(Color particleColor,
-                                       boolean randomizeColor,
-                                       Color[][] fieldColors) implements Modifier<FlowFieldParticle> {
-
-        @Override
-        public void modify(FlowFieldParticle particle) {
-            particle.addPoint(particle.pos);
-            int fieldX = particle.getFieldX();
-            int fieldY = particle.getFieldY();
-            particle.startingColor = particle.color = randomizeColor ? fieldColors[fieldX][fieldY] : particleColor;
-        }
-    }
-
-    private record ForceModeUpdater(ForceMode forceMode,
-                                    Vector2D[][] fieldAccelerations) implements Modifier<FlowFieldParticle> {
-        @Override
-        public void modify(FlowFieldParticle particle) {
-            particle.delta.set(fieldAccelerations[particle.getFieldX()][particle.getFieldY()]);
-        }
-    }
-
-    public static class FlowFieldParticle extends SmoothPathParticle {
-        public final Vector2D delta = new Vector2D();
-        public final Vector2D acc = new Vector2D();
-        public Color startingColor;
-
-        private final Stroke stroke;
+    /**
+     * The particles of the flow field. Their state is in primitive arrays,
+     * and the stepping is allocation-free, so that large particle counts
+     * are not slowed down by the garbage collection.
+     */
+    private static final class FlowFieldParticles implements ParticleEngine.Behavior, ParticleEngine.TrailRenderer {
         private final FlowFieldMeta meta;
+        private final List<Point2D> spawnPoints;
+        private final int particleColor;
+        private final boolean randomizeColor;
+        private final ColorSource colorSource;
+        private final ForceMode forceMode;
+        private final float maximumVelocitySq;
+
+        private final double zFactor;
+        private final double zoom;
+        private final int turbulence;
+        private final OpenSimplex2F noise;
+        private final float multiplierNoise;
+        private final float initTheta;
+        private final float variantPI;
 
-        public FlowFieldParticle(Graphics2D[] gc, Stroke stroke, FlowFieldMeta meta) {
-            super(gc);
-            this.vel = new Vector2D();
-            this.pos = new Point2D.Float();
-            this.lastPos = new Point2D.Float();
-
-            this.stroke = stroke;
+        private final Stroke stroke;
+        private final Stroke[] strokes;
+
+        // the particles outside these bounds are dead
+        private final float minX;
+        private final float minY;
+        private final float maxX;
+        private final float maxY;
+
+        // additional per-particle state
+        private final float[] accX;
+        private final float[] accY;
+        private final int[] cells; // the field cell at the start of the last step
+        private final float[] forceX; // the force in the last step, including the wind
+        private final float[] forceY;
+        private final int[] strokeIndices;
+
+        FlowFieldParticles(int particleCount, FlowFieldMeta meta, Rectangle bounds,
+                           List<Point2D> spawnPoints, int particleColor, boolean randomizeColor,
+                           ColorSource colorSource, ForceMode forceMode, float maximumVelocitySq,
+                           double zFactor, double zoom, int turbulence, OpenSimplex2F noise,
+                           float multiplierNoise, float initTheta, float variantPI,
+                           Stroke stroke, Stroke[] strokes) {
             this.meta = meta;
-        }
-
-        @Override
-        public void addPoint(Point2D point) {
-            lastPos.setLocation(point);
-            super.addPoint(Geometry.deScale(Geometry.newFrom(point), meta.fieldDensity));
-        }
+            this.spawnPoints = spawnPoints == null || spawnPoints.isEmpty() ? null : spawnPoints;
+            this.particleColor = particleColor;
+            this.randomizeColor = randomizeColor;
+            this.colorSource = colorSource;
+            this.forceMode = forceMode;
+            this.maximumVelocitySq = maximumVelocitySq;
+            this.zFactor = zFactor;
+            this.zoom = zoom;
+            this.turbulence = turbulence;
+            this.noise = noise;
+            this.multiplierNoise = multiplierNoise;
+            this.initTheta = initTheta;
+            this.variantPI = variantPI;
+            this.stroke = stroke;
+            this.strokes = strokes;
 
-        @Override
-        public void flush() {
-            getGraphics().setStroke(stroke);
-            super.flush();
-        }
+            minX = bounds.x;
+            minY = bounds.y;
+            maxX = bounds.x + bounds.width;
+            maxY = bounds.y + bounds.height;
 
-        @Override
-        public void reset() {
-            lastPos.setLocation(pos);
+            accX = new float[particleCount];
+            accY = new float[particleCount];
+            cells = new int[particleCount];
+            forceX = new float[particleCount];
+            forceY = new float[particleCount];
+            strokeIndices = strokes == null ? null : new int[particleCount];
         }
 
         @Override
-        public boolean isDead() {
-            return !meta.bounds.contains(pos);
+        public void spawn(ParticleArrays p, int i, SplittableRandom random) {
+            if (spawnPoints == null) {
+                p.x[i] = (float) (minX + (maxX - minX) * random.nextDouble());
+                p.y[i] = (float) (minY + (maxY - minY) * random.nextDouble());
+            } else {
+                Point2D spawnPoint = spawnPoints.get(random.nextInt(spawnPoints.size()));
+                p.x[i] = (float) spawnPoint.getX();
+                p.y[i] = (float) spawnPoint.getY();
+            }
+            int cell = meta.cellAt(p.x[i], p.y[i]);
+            cells[i] = cell;
+            forceX[i] = meta.fieldAccX[cell];
+            forceY[i] = meta.fieldAccY[cell];
+            p.color[i] = randomizeColor ? meta.fieldColors[cell] : particleColor;
+            if (strokeIndices != null) {
+                strokeIndices[i] = random.nextInt(strokes.length);
+            }
         }
 
         @Override
-        public void update() {
-            Vector2D oldVel = new Vector2D(vel.x, vel.y);
-
-            if (meta.zFactor != 0) {
-                double sampleX = pos.getX() / meta.zoom;
-                double sampleY = pos.getY() / meta.zoom;
-                double sampleZ = meta.zFactor * iterationIndex;
-                Vector2D noiseDelta = new Vector2D();
-                createNoiseForce(meta.multiplierNoise, meta.initTheta, meta.variantPI, sampleX, sampleY, sampleZ, meta.turbulence, meta.noise, noiseDelta);
-                delta.add(noiseDelta);
+        public void step(ParticleArrays p, int i, int step) {
+            float x = p.x[i];
+            float y = p.y[i];
+            int cell = meta.cellAt(x, y);
+            cells[i] = cell;
+
+            double deltaX = meta.fieldAccX[cell];
+            double deltaY = meta.fieldAccY[cell];
+            if (zFactor != 0) {
+                // the step index is used as the third noise
+                // coordinate, so the wind changes over time
+                double angle = initTheta + noise.turbulence3(
+                    x / zoom, y / zoom, zFactor * step, turbulence) * variantPI;
+                deltaX += cos(angle) * multiplierNoise;
+                deltaY += sin(angle) * multiplierNoise;
             }
-
-            meta.forceMode.modify(this);
-
-            if (vel.lengthSq() > meta.maximumVelocitySq) {
-                vel.set(oldVel);
+            forceX[i] = (float) deltaX;
+            forceY[i] = (float) deltaY;
+
+            float oldVx = p.vx[i];
+            float oldVy = p.vy[i];
+            switch (forceMode) {
+                case FORCE_MODE_VELOCITY -> {
+                    x += (float) deltaX;
+                    y += (float) deltaY;
+                }
+                case FORCE_MODE_ACCELERATION -> {
+                    p.vx[i] += (float) deltaX;
+                    p.vy[i] += (float) deltaY;
+                    x += p.vx[i];
+                    y += p.vy[i];
+                }
+                case FORCE_MODE_JOLT -> {
+                    accX[i] += (float) deltaX;
+                    accY[i] += (float) deltaY;
+                    p.vx[i] += accX[i];
+                    p.vy[i] += accY[i];
+                    x += p.vx[i];
+                    y += p.vy[i];
+                }
+                case FORCE_MODE_VELOCITY_AND_NOISE_BASED_RANDOMNESS -> {
+                    float thickening = Noise.noise2((float) deltaX, (float) deltaY) * 10;
+                    x += (float) (deltaX + thickening);
+                    y += (float) (deltaY + thickening);
+                }
             }
-
-            if (positionChangedEnough()) {
-                addPoint(Geometry.newFrom(pos));
+            p.x[i] = x;
+            p.y[i] = y;
+
+            float vx = p.vx[i];
+            float vy = p.vy[i];
+            if (vx * vx + vy * vy > maximumVelocitySq) {
+                p.vx[i] = oldVx;
+                p.vy[i] = oldVy;
             }
         }
 
-        private boolean positionChangedEnough() {
-            double xChange = abs(lastPos.getX() - pos.getX());
-            double yChange = abs(lastPos.getY() - pos.getY());
-            return xChange > meta.tolerance || yChange > meta.tolerance;
-        }
-
-        public int getFieldX() {
-            return FastMath.toRange(0, meta.fieldWidth, (int) pos.getX());
+        @Override
+        public boolean isDead(ParticleArrays p, int i) {
+            float x = p.x[i];
+            float y = p.y[i];
+            // also true for NaN coordinates
+            return !(x >= minX && y >= minY && x < maxX && y < maxY);
         }
 
-        public int getFieldY() {
-            return FastMath.toRange(0, meta.fieldHeight, (int) pos.getY());
+        @Override
+        public void drawTrail(ParticleArrays p, int i, ParticleEngine.Trail trail, Graphics2D g) {
+            if (trail.getNumPoints() < 3) {
+                return;
+            }
+            int color = colorSource.getColor(meta, cells[i], forceX[i], forceY[i], p.color[i]);
+            if (g.getColor().getRGB() != color) {
+                g.setColor(new Color(color, true));
+            }
+            g.setStroke(strokeIndices == null ? stroke : strokes[strokeIndices[i]]);
+            g.draw(Shapes.smoothConnect(trail.getPoints(1.0 / meta.fieldDensity), 0.5));
         }
     }
 
-    public record FlowFieldMeta(int fieldWidth, int fieldHeight, float fieldDensity, Rectangle bounds,
-                                double tolerance,
-                                float maximumVelocitySq, double zFactor, double zoom, int turbulence,
-                                OpenSimplex2F noise, float multiplierNoise, float initTheta, float variantPI,
-                                ForceMode forceMode, GoldenRatio goldenRatio,
-                                Color[][] fieldColors, int imgWidth, int[] sourcePixels) {
+    /**
+     * The flow field's vector and color fields, stored in row-major order.
+     */
+    private record FlowFieldMeta(int fieldWidth, int fieldHeight, float fieldDensity,
+                                 float[] fieldAccX, float[] fieldAccY,
+                                 GoldenRatio goldenRatio, int[] fieldColors,
+                                 int imgWidth, int[] sourcePixels) {
+        int cellAt(float x, float y) {
+            int fieldX = FastMath.toRange(0, fieldWidth - 1, (int) x);
+            int fieldY = FastMath.toRange(0, fieldHeight - 1, (int) y);
+            return fieldX + fieldY * fieldWidth;
+        }
     }
 }
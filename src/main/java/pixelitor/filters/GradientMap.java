@@ -23,11 +23,12 @@ import pixelitor.utils.ImageUtils;
 
 import java.awt.image.BufferedImage;
 import java.io.Serial;
+import java.util.function.IntUnaryOperator;
 
 /**
  * The "Gradient Map" filter.
  */
-public class GradientMap extends ParametrizedFilter {
+public class GradientMap extends ParametrizedFilter implements PointAdjustment {
     public static final String NAME = "Gradient Map";
 
     @Serial
@@ -44,6 +45,17 @@ public class GradientMap extends ParametrizedFilter {
 
     @Override
     public BufferedImage transform(BufferedImage src, BufferedImage dest) {
+        int[] srcData = ImageUtils.getPixelArray(src);
+        int[] destData = ImageUtils.getPixelArray(dest);
+
+        PointAdjustment.filterPixels(createPixelKernel(src.isAlphaPremultiplied()),
+            srcData, destData, src.getWidth());
+
+        return dest;
+    }
+
+    @Override
+    public IntUnaryOperator createPixelKernel(boolean premultiplied) {
         Colormap colormap = gradient.getValue();
 
         int[] gradientLookup = new int[256];
@@ -51,12 +63,7 @@ public class GradientMap extends ParametrizedFilter {
             gradientLookup[i] = colormap.getColor(i / 255.0f);
         }
 
-        int[] srcData = ImageUtils.getPixelArray(src);
-        int[] destData = ImageUtils.getPixelArray(dest);
-
-        for (int i = 0; i < destData.length; i++) {
-            int rgb = srcData[i];
-
+        return rgb -> {
             int a = (rgb >>> 24) & 0xFF;
             int r = (rgb >>> 16) & 0xFF;
             int g = (rgb >>> 8) & 0xFF;
@@ -67,14 +74,16 @@ public class GradientMap extends ParametrizedFilter {
 
             int gr = gradientLookup[lum];
             if (a == 0xFF) {
-                destData[i] = gr;
-            } else {
-                int mask = a << 24 | 0xFF_FF_FF;
-                destData[i] = mask & gr;
+                return gr;
             }
-        }
+            int mask = a << 24 | 0xFF_FF_FF;
+            return mask & gr;
+        };
+    }
 
-        return dest;
+    @Override
+    public int getInputMargin() {
+        return 0;
     }
 
     @Override
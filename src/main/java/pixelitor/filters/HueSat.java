@@ -23,6 +23,7 @@ import pixelitor.filters.gui.RangeParam;
 import java.awt.Color;
 import java.awt.image.BufferedImage;
 import java.io.Serial;
+import java.util.function.IntUnaryOperator;
 
 import static pixelitor.gui.GUIText.BRIGHTNESS;
 import static pixelitor.gui.GUIText.HUE;
@@ -31,7 +32,7 @@ import static pixelitor.gui.GUIText.SATURATION;
 /**
  * Hue-Saturation filter
  */
-public class HueSat extends ParametrizedFilter {
+public class HueSat extends ParametrizedFilter implements PointAdjustment {
     public static final String NAME = HUE + "/" + SATURATION;
 
     @Serial
@@ -69,21 +70,44 @@ public class HueSat extends ParametrizedFilter {
 
     @Override
     public BufferedImage transform(BufferedImage src, BufferedImage dest) {
+        Impl impl = createImpl();
+        if (impl == null) {
+            return src;
+        }
+
+        dest = impl.filter(src, dest);
+
+        return dest;
+    }
+
+    @Override
+    public IntUnaryOperator createPixelKernel(boolean premultiplied) {
+        Impl impl = createImpl();
+        if (impl == null) {
+            return null;
+        }
+        return rgb -> impl.filterRGB(0, 0, rgb);
+    }
+
+    private Impl createImpl() {
         int hueP = hue.getValue();
         int satP = saturation.getValue();
         int briP = brightness.getValue();
 
         if (hueP == 0 && satP == 0 && briP == 0) {
-            return src;
+            return null;
         }
 
         float satShift = (float) saturation.getPercentage();
         float briShift = (float) brightness.getPercentage();
         float hueShift = hue.getValueAsFloat() / 360.0f;
 
-        dest = new Impl(hueShift, satShift, briShift).filter(src, dest);
+        return new Impl(hueShift, satShift, briShift);
+    }
 
-        return dest;
+    @Override
+    public int getInputMargin() {
+        return 0;
     }
 
     private static class Impl extends PointFilter {
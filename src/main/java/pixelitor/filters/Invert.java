@@ -23,13 +23,14 @@ import pixelitor.utils.ImageUtils;
 import java.awt.image.BufferedImage;
 import java.awt.image.IndexColorModel;
 import java.io.Serial;
+import java.util.function.IntUnaryOperator;
 
 import static pixelitor.utils.Texts.i18n;
 
 /**
  * Invert filter
  */
-public class Invert extends Filter {
+public class Invert extends Filter implements PointAdjustment {
     @Serial
     private static final long serialVersionUID = -6279018636064203421L;
 
@@ -42,6 +43,11 @@ public class Invert extends Filter {
         return dest;
     }
 
+    @Override
+    public int getInputMargin() {
+        return 0;
+    }
+
     @Override
     protected boolean createDefaultDestImg() {
         return false;
@@ -75,56 +81,64 @@ public class Invert extends Filter {
         int[] destData = ImageUtils.getPixelArray(dest);
 
         boolean simple = !src.isAlphaPremultiplied();
+        PointAdjustment.filterPixels(rgb -> invertPixel(rgb, simple),
+            srcData, destData, src.getWidth());
 
-        for (int i = 0; i < destData.length; i++) {
-            int srcPixel = srcData[i];
-//            int alpha = srcPixel & 0xFF000000;
-            int a = (srcPixel >>> 24) & 0xFF;
-
-            if (a == 255 || simple) {
-                destData[i] = srcPixel ^ 0x00_FF_FF_FF;  // invert the r, g, b values
-            } else if (a == 0) {
-                destData[i] = 0;
-            } else {
-                int r = (srcPixel >>> 16) & 0xFF;
-                int g = (srcPixel >>> 8) & 0xFF;
-                int b = srcPixel & 0xFF;
-
-                // unpremultiply
-                float f = 255.0f / a;
-                int ur = (int) (r * f);
-                int ug = (int) (g * f);
-                int ub = (int) (b * f);
-
-                if (ur > 255) {
-                    ur = 255;
-                }
-                if (ug > 255) {
-                    ug = 255;
-                }
-                if (ub > 255) {
-                    ub = 255;
-                }
+        return dest;
+    }
+
+    @Override
+    public IntUnaryOperator createPixelKernel(boolean premultiplied) {
+        boolean simple = !premultiplied;
+        return rgb -> invertPixel(rgb, simple);
+    }
+
+    private static int invertPixel(int srcPixel, boolean simple) {
+//        int alpha = srcPixel & 0xFF000000;
+        int a = (srcPixel >>> 24) & 0xFF;
 
-                // invert
-                ur = 255 - ur;
-                ug = 255 - ug;
-                ub = 255 - ub;
+        if (a == 255 || simple) {
+            return srcPixel ^ 0x00_FF_FF_FF;  // invert the r, g, b values
+        } else if (a == 0) {
+            return 0;
+        }
 
-                // premultiply
-                float f2 = a * (1.0f / 255.0f);
-                r = (int) (ur * f2);
-                g = (int) (ug * f2);
-                b = (int) (ub * f2);
+        int r = (srcPixel >>> 16) & 0xFF;
+        int g = (srcPixel >>> 8) & 0xFF;
+        int b = srcPixel & 0xFF;
 
-                r = PixelUtils.clamp(r);
-                g = PixelUtils.clamp(g);
-                b = PixelUtils.clamp(b);
+        // unpremultiply
+        float f = 255.0f / a;
+        int ur = (int) (r * f);
+        int ug = (int) (g * f);
+        int ub = (int) (b * f);
 
-                destData[i] = a << 24 | r << 16 | g << 8 | b;
-            }
+        if (ur > 255) {
+            ur = 255;
         }
-        return dest;
+        if (ug > 255) {
+            ug = 255;
+        }
+        if (ub > 255) {
+            ub = 255;
+        }
+
+        // invert
+        ur = 255 - ur;
+        ug = 255 - ug;
+        ub = 255 - ub;
+
+        // premultiply
+        float f2 = a * (1.0f / 255.0f);
+        r = (int) (ur * f2);
+        g = (int) (ug * f2);
+        b = (int) (ub * f2);
+
+        r = PixelUtils.clamp(r);
+        g = PixelUtils.clamp(g);
+        b = PixelUtils.clamp(b);
+
+        return a << 24 | r << 16 | g << 8 | b;
     }
 
     public static void quickInvert(BufferedImage dest) {
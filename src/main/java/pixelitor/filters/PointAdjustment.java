@@ -0,0 +1,56 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.filters;
+
+import pixelitor.ThreadPool;
+import pixelitor.utils.ProgressTracker;
+
+import java.util.function.IntUnaryOperator;
+
+/**
+ * A filter that calculates each packed int pixel only from the same
+ * pixel of the source, independently of its position. The per-pixel
+ * functions of consecutive point adjustments can be chained, so
+ * that they are applied in a single pass over the image.
+ */
+public interface PointAdjustment {
+    /**
+     * Returns the per-pixel function of the current settings, which gives
+     * exactly the same result as the filter for packed int images with
+     * the given premultiplication, or null if the filter doesn't change
+     * the image. The returned function must be thread-safe.
+     */
+    IntUnaryOperator createPixelKernel(boolean premultiplied);
+
+    /**
+     * Applies the given per-pixel function to the pixels of
+     * an image with the given width, processing the rows in
+     * parallel. The source and destination arrays can be the same.
+     */
+    static void filterPixels(IntUnaryOperator kernel, int[] srcData, int[] destData, int width) {
+        int numPixels = destData.length;
+
+        int numRows = (numPixels + width - 1) / width;
+        ThreadPool.processBands(width, numRows, (startY, endY) -> {
+            int end = Math.min(numPixels, endY * width);
+            for (int i = startY * width; i < end; i++) {
+                destData[i] = kernel.applyAsInt(srcData[i]);
+            }
+        }, ProgressTracker.NULL_TRACKER);
+    }
+}
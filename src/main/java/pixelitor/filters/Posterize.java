@@ -20,6 +20,7 @@ import pixelitor.filters.gui.GroupedRangeParam;
 import pixelitor.filters.gui.RangeParam;
 import pixelitor.filters.levels.RGBLookup;
 import pixelitor.filters.lookup.FastLookupOp;
+import pixelitor.filters.lookup.LookupAdjustment;
 
 import java.awt.image.BufferedImage;
 import java.awt.image.BufferedImageOp;
@@ -31,7 +32,7 @@ import static pixelitor.utils.Texts.i18n;
 /**
  * Posterize filter
  */
-public class Posterize extends ParametrizedFilter {
+public class Posterize extends ParametrizedFilter implements LookupAdjustment {
     public static final String NAME = i18n("posterize");
 
     @Serial
@@ -56,15 +57,24 @@ public class Posterize extends ParametrizedFilter {
 
     @Override
     public BufferedImage transform(BufferedImage src, BufferedImage dest) {
+        BufferedImageOp filterOp = new FastLookupOp(getLookupTable());
+        filterOp.filter(src, dest);
+        return dest;
+    }
+
+    @Override
+    public ShortLookupTable getLookupTable() {
         int numRedLevels = redLevels.getValue();
         int numGreenLevels = greenLevels.getValue();
         int numBlueLevels = blueLevels.getValue();
         var rgbLookup = new RGBLookup();
         rgbLookup.initFromPosterize(numRedLevels, numGreenLevels, numBlueLevels);
+        return (ShortLookupTable) rgbLookup.getLookupOp();
+    }
 
-        BufferedImageOp filterOp = new FastLookupOp((ShortLookupTable) rgbLookup.getLookupOp());
-        filterOp.filter(src, dest);
-        return dest;
+    @Override
+    public int getInputMargin() {
+        return 0;
     }
 
     @Override
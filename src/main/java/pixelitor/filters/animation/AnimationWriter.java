@@ -25,6 +25,21 @@ import java.io.IOException;
 public interface AnimationWriter {
     void addFrame(BufferedImage image) throws IOException;
 
+    /**
+     * Returns true if {@link #repeatFrame(int)} is supported, and therefore
+     * the frames of ping-pong animations don't have to be kept in memory.
+     */
+    default boolean canRepeatFrames() {
+        return false;
+    }
+
+    /**
+     * Adds a copy of an already added frame, identified by its index.
+     */
+    default void repeatFrame(int frameIndex) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
     /**
      * Called if the animation rendering was cancelled
      */
@@ -23,8 +23,10 @@ import pixelitor.utils.Messages;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 
 import static java.lang.String.format;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 
 /**
  * An {@link AnimationWriter} implementation
@@ -41,14 +43,35 @@ public class PNGFileSequenceWriter implements AnimationWriter {
 
     @Override
     public void addFrame(BufferedImage image) throws IOException {
-        String fileName = format("frame_%05d.png", sequenceNumber);
-        sequenceNumber++;
-        File outputFile = new File(outputDir, fileName);
+        File outputFile = nextOutputFile();
 
         TrackedIO.write(image, "PNG", outputFile, null);
         numWrittenImages++;
     }
 
+    @Override
+    public boolean canRepeatFrames() {
+        return true;
+    }
+
+    @Override
+    public void repeatFrame(int frameIndex) throws IOException {
+        // copying the file is much faster than encoding the image again
+        File frameFile = getFrameFile(frameIndex);
+        Files.copy(frameFile.toPath(), nextOutputFile().toPath(), REPLACE_EXISTING);
+        numWrittenImages++;
+    }
+
+    private File nextOutputFile() {
+        File outputFile = getFrameFile(sequenceNumber);
+        sequenceNumber++;
+        return outputFile;
+    }
+
+    private File getFrameFile(int frameIndex) {
+        return new File(outputDir, format("frame_%05d.png", frameIndex));
+    }
+
     @Override
     public void finish() {
         Messages.showFilesSavedMessage(numWrittenImages, outputDir);
@@ -17,16 +17,26 @@
 
 package pixelitor.filters.animation;
 
-import pixelitor.filters.Filter;
 import pixelitor.filters.ParametrizedFilter;
-import pixelitor.filters.gui.FilterState;
 import pixelitor.gui.utils.GUIUtils;
 import pixelitor.layers.Drawable;
+import pixelitor.utils.ImageUtils;
 import pixelitor.utils.Messages;
 
 import javax.swing.*;
+import java.awt.EventQueue;
 import java.awt.image.BufferedImage;
 import java.beans.PropertyChangeEvent;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
 
 import static java.lang.String.format;
 import static pixelitor.FilterContext.TWEEN_PREVIEW;
@@ -78,7 +88,6 @@ class RenderTweenFramesTask extends SwingWorker<Void, Void> {
         assert calledOutsideEDT() : "on EDT";
 
         int numFrames = animation.getNumFrames();
-        ParametrizedFilter filter = animation.getFilter();
         AnimationWriter animationWriter = animation.createWriter();
 
         dr.startTweening();
@@ -90,30 +99,29 @@ class RenderTweenFramesTask extends SwingWorker<Void, Void> {
         }
 
         boolean canceled = false;
-        for (int frameNr = 0; frameNr < numTotalFrames; frameNr++) {
-            if (isCancelled()) {
-                canceled = true;
-                break;
-            }
-            int percentProgress = (int) ((100.0 * frameNr) / numTotalFrames);
-            setProgress(percentProgress);
-
-            double time = calcRenderTime(frameNr, numFrames);
+        var pipeline = new FramePipeline(animation.getFilter(), numFrames, pingPong, animationWriter);
+        try {
+            for (int frameNr = 0; frameNr < numTotalFrames; frameNr++) {
+                if (isCancelled()) {
+                    canceled = true;
+                    break;
+                }
+                int percentProgress = (int) ((100.0 * frameNr) / numTotalFrames);
+                setProgress(percentProgress);
 
-            try {
-                // first render the frame...
-                BufferedImage image = renderFrame(filter, time);
-
-                // ...then write the file
-                // TODO ideally while writing out the frame,
-                // the rendering of the next frame should be
-                // started on another thread
-                animationWriter.addFrame(image);
-            } catch (Exception e) {
-                canceled = true;
-                Messages.showException(e);
-                break;
+                pipeline.addFrame(frameNr);
             }
+            if (!canceled) {
+                pipeline.waitForWriter();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            canceled = true;
+        } catch (Exception e) {
+            canceled = true;
+            Messages.showException(e);
+        } finally {
+            pipeline.shutdown();
         }
 
         setProgress(100);
@@ -122,40 +130,159 @@ class RenderTweenFramesTask extends SwingWorker<Void, Void> {
         SwingUtilities.invokeLater(() -> finishOnEDT(animationWriter, finalCanceled));
     }
 
-    private static double calcRenderTime(int frameNr, int numFrames) {
-        double time;
-        if (frameNr < numFrames) { // ping: normal animation forwards
-            time = ((double) frameNr) / numFrames;
-        } else { // pong: animating backwards
-            // Here the same frames are calculated again.
-            // They could be cached in an array of soft references
-            // or in the case of the file sequence output,
-            // the output files could be copied.
-            // However, "ping-pong" animations are probably uncommon.
-            int effectiveFrame = 2 * (numFrames - 1) - frameNr;
-            time = ((double) effectiveFrame) / numFrames;
-        }
-        return time;
+    private interface WriteTask {
+        void write() throws IOException;
     }
 
-    private BufferedImage renderFrame(ParametrizedFilter filter, double time) {
-        long runCountBefore = Filter.runCount;
+    /**
+     * Renders the frames with a three-stage pipeline: the filter runs
+     * for several frames in parallel on background threads, then the
+     * composite images are calculated on the EDT in frame order, and
+     * the frames are written on a separate writer thread, while the
+     * next frames are already being rendered.
+     * <p>
+     * In ping-pong animations the backwards frames are not rendered
+     * again: either the writer repeats them, or the composite images of
+     * the forward frames are re-used if they were not garbage collected.
+     */
+    private class FramePipeline {
+        private final int numFrames;
+        private final AnimationWriter writer;
+        private final BufferedImage src;
+        private final int lookAhead;
+
+        private final ExecutorService renderers;
+        private final ExecutorService writerThread;
+        private final ThreadLocal<ParametrizedFilter> filters;
 
-        // all sorts of problems can happen
-        // if filters run outside of EDT
-        Runnable filterRunTask = () -> {
-            FilterState intermediateState = animation.tween(time);
-            filter.getParamSet().setState(intermediateState, true);
-            dr.startFilter(filter, TWEEN_PREVIEW);
-        };
-        GUIUtils.invokeAndWait(filterRunTask);
+        private final Future<BufferedImage>[] renders;
+        private final SoftReference<BufferedImage>[] forwardFrames;
+        private final Deque<Future<?>> pendingWrites = new ArrayDeque<>();
+        private int numSubmitted = 0;
 
-        assert Filter.runCount == runCountBefore + 1;
+        @SuppressWarnings("unchecked")
+        FramePipeline(ParametrizedFilter filter, int numFrames,
+                      boolean pingPong, AnimationWriter writer) {
+            this.numFrames = numFrames;
+            this.writer = writer;
 
-        var comp = dr.getComp();
-        comp.repaint();
+            // the filters aren't thread-safe, so each render thread needs its
+            // own copy, and if the filter can't be copied, there is only one
+            int numThreads = filter.canHaveUserPresets()
+                ? Runtime.getRuntime().availableProcessors() : 1;
+            filters = ThreadLocal.withInitial(() -> (ParametrizedFilter) filter.copy());
+            lookAhead = 2 * numThreads;
+
+            renderers = Executors.newFixedThreadPool(numThreads, r -> {
+                Thread thread = new Thread(r, "Tween Renderer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            writerThread = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "Tween Writer");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+            renders = new Future[numFrames];
+            // the forward frames are kept only if the writer can't repeat them
+            forwardFrames = pingPong && !writer.canRepeatFrames() ? new SoftReference[numFrames] : null;
+
+            // the source image must be obtained on the EDT
+            BufferedImage[] srcHolder = new BufferedImage[1];
+            GUIUtils.invokeAndWait(() -> srcHolder[0] = dr.getFilterSourceImage());
+            src = srcHolder[0];
+            assert src != null;
+        }
+
+        /**
+         * Called with increasing frame numbers.
+         */
+        void addFrame(int frameNr) throws InterruptedException, ExecutionException {
+            BufferedImage image;
+            if (frameNr < numFrames) {
+                // keep the render threads busy with the next frames
+                while (numSubmitted < numFrames && numSubmitted <= frameNr + lookAhead) {
+                    double time = ((double) numSubmitted) / numFrames;
+                    renders[numSubmitted] = renderers.submit(() -> runFilter(time));
+                    numSubmitted++;
+                }
+
+                BufferedImage filtered = renders[frameNr].get();
+                renders[frameNr] = null;
+                image = composite(filtered);
+
+                if (forwardFrames != null) {
+                    forwardFrames[frameNr] = new SoftReference<>(image);
+                }
+            } else { // pong: the frames of the forward part backwards
+                int forwardFrameNr = 2 * (numFrames - 1) - frameNr;
+                if (writer.canRepeatFrames()) {
+                    submitWrite(() -> writer.repeatFrame(forwardFrameNr));
+                    return;
+                }
+                image = forwardFrames[forwardFrameNr].get();
+                if (image == null) { // it was garbage collected
+                    double time = ((double) forwardFrameNr) / numFrames;
+                    image = composite(renderers.submit(() -> runFilter(time)).get());
+                }
+            }
 
-        return comp.getCompositeImage();
+            BufferedImage finalImage = image;
+            submitWrite(() -> writer.addFrame(finalImage));
+        }
+
+        private void submitWrite(WriteTask task) throws InterruptedException, ExecutionException {
+            // don't let the written frames pile up in memory
+            while (pendingWrites.size() >= lookAhead) {
+                pendingWrites.removeFirst().get();
+            }
+            pendingWrites.addLast(writerThread.submit(() -> {
+                task.write();
+                return null;
+            }));
+        }
+
+        private BufferedImage runFilter(double time) {
+            ParametrizedFilter filter = filters.get();
+            filter.getParamSet().setState(animation.tween(time), true);
+            return filter.transformImage(src);
+        }
+
+        // shows the filtered frame and returns the composite image
+        private BufferedImage composite(BufferedImage filtered) throws InterruptedException, ExecutionException {
+            FutureTask<BufferedImage> task = new FutureTask<>(() -> {
+                dr.changePreviewImage(filtered, animation.getFilter().getName(), TWEEN_PREVIEW);
+                var comp = dr.getComp();
+                comp.repaint();
+                BufferedImage compositeImg = comp.getCompositeImage();
+                if (comp.getNumLayers() > 1) {
+                    // a multi-layer composite can be updated in place later,
+                    // but this frame could still be waiting for the writer
+                    compositeImg = ImageUtils.copyImage(compositeImg);
+                }
+                return compositeImg;
+            });
+            EventQueue.invokeLater(task);
+            return task.get();
+        }
+
+        void waitForWriter() throws InterruptedException, ExecutionException {
+            while (!pendingWrites.isEmpty()) {
+                pendingWrites.removeFirst().get();
+            }
+        }
+
+        void shutdown() {
+            renderers.shutdownNow();
+            // the writer must finish the current frame before it's canceled or finished
+            writerThread.shutdown();
+            try {
+                writerThread.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
     }
 
     private void finishOnEDT(AnimationWriter animationWriter, boolean canceled) {
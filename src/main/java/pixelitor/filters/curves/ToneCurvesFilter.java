@@ -23,11 +23,15 @@ import pixelitor.filters.gui.FilterGUI;
 import pixelitor.filters.gui.FilterWithGUI;
 import pixelitor.filters.gui.UserPreset;
 import pixelitor.filters.levels.Channel;
+import pixelitor.filters.lookup.FastLookupOp;
+import pixelitor.filters.lookup.LookupAdjustment;
 import pixelitor.layers.Filterable;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.ShortLookupTable;
 import java.io.Serial;
 
+import static java.awt.image.BufferedImage.TYPE_BYTE_GRAY;
 import static pixelitor.utils.Texts.i18n;
 
 /**
@@ -35,7 +39,7 @@ import static pixelitor.utils.Texts.i18n;
  *
  * @author Łukasz Kurzaj lukaszkurzaj@gmail.com
  */
-public class ToneCurvesFilter extends FilterWithGUI {
+public class ToneCurvesFilter extends FilterWithGUI implements LookupAdjustment {
     public static final String NAME = i18n("curves");
 
     @Serial
@@ -71,21 +75,55 @@ public class ToneCurvesFilter extends FilterWithGUI {
 
     @Override
     public BufferedImage transform(BufferedImage src, BufferedImage dest) {
-        if (filter == null) {
-            filter = new CurvesFilter(NAME);
-        }
         if (curves == null) {
             return src;
         }
 
+        if (src.getType() == TYPE_BYTE_GRAY) {
+            return initFilter().filter(src, dest);
+        }
+        // Like the other lookup adjustments, the curves are applied to
+        // the unpremultiplied color values. Earlier versions applied them
+        // to the premultiplied values, so the semi-transparent pixels of
+        // premultiplied images (for example below the Curves adjustment
+        // layers of older pxc files) can look slightly different now.
+        return new FastLookupOp(getLookupTable()).filter(src, dest);
+    }
+
+    private CurvesFilter initFilter() {
+        if (filter == null) {
+            filter = new CurvesFilter(NAME);
+        }
         filter.setCurves(
             curves.getCurve(Channel.RGB).curve,
             curves.getCurve(Channel.RED).curve,
             curves.getCurve(Channel.GREEN).curve,
             curves.getCurve(Channel.BLUE).curve
         );
+        return filter;
+    }
+
+    @Override
+    public ShortLookupTable getLookupTable() {
+        if (curves == null) {
+            return null;
+        }
 
-        return filter.filter(src, dest);
+        // the red, green and blue tables packed into the same ints
+        int[] lut = initFilter().getLUT();
+        short[][] table = new short[3][256];
+        for (int i = 0; i < 256; i++) {
+            int rgb = lut[i];
+            table[0][i] = (short) ((rgb >>> 16) & 0xFF);
+            table[1][i] = (short) ((rgb >>> 8) & 0xFF);
+            table[2][i] = (short) (rgb & 0xFF);
+        }
+        return new ShortLookupTable(0, table);
+    }
+
+    @Override
+    public int getInputMargin() {
+        return 0;
     }
 
     @Override
@@ -20,6 +20,7 @@ package pixelitor.filters.gmic;
 import pixelitor.filters.ParametrizedFilter;
 import pixelitor.filters.gui.IntChoiceParam;
 import pixelitor.io.IO;
+import pixelitor.io.PipeFormat;
 
 import java.awt.image.BufferedImage;
 import java.io.File;
@@ -42,13 +43,17 @@ public abstract class GMICFilter extends ParametrizedFilter {
 
         List<String> command = new ArrayList<>(10);
         command.add(GMIC_PATH.getAbsolutePath());
+        // the images are piped in G'MIC's native raw format,
+        // which is much faster than encoding and decoding PNGs
         command.add("-input");
-        command.add("-.png");
+        command.add("-.cimg");
         command.addAll(args);
         command.add("-output");
-        command.add("-.png");
+        command.add("-.cimg,uchar");
 
-        return IO.commandLineFilter(src, getName(), command);
+        // G'MIC filters are deterministic (the random ones get their
+        // seed as an argument), so their results can be reused
+        return IO.commandLineFilter(src, getName(), command, PipeFormat.CIMG, true);
     }
 
     public abstract List<String> getArgs();
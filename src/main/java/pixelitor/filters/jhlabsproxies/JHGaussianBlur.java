@@ -55,12 +55,7 @@ public class JHGaussianBlur extends ParametrizedFilter {
 
     @Override
     public BufferedImage transform(BufferedImage src, BufferedImage dest) {
-        if (filter == null) {
-            filter = new GaussianFilter(NAME);
-        }
-
-        filter.setRadius(radius.getValueAsFloat());
-        filter.setPremultiplyAlpha(false);
+        initFilter();
 
         dest = ImageUtils.filterPremultiplied(src, dest, filter);
 
@@ -71,6 +66,21 @@ public class JHGaussianBlur extends ParametrizedFilter {
         return dest;
     }
 
+    private void initFilter() {
+        if (filter == null) {
+            filter = new GaussianFilter(NAME);
+        }
+
+        filter.setRadius(radius.getValueAsFloat());
+        filter.setPremultiplyAlpha(false);
+    }
+
+    @Override
+    public int getInputMargin() {
+        // the high-pass sharpening works pixel by pixel
+        return GaussianFilter.calcInputMargin(radius.getValueAsFloat());
+    }
+
     @Override
     public boolean supportsGray() {
         return !hpSharpening.isChecked();
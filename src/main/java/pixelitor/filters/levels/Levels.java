@@ -22,6 +22,7 @@ import pixelitor.filters.gui.FilterWithGUI;
 import pixelitor.filters.gui.UserPreset;
 import pixelitor.filters.levels.gui.LevelsGUI;
 import pixelitor.filters.lookup.FastLookupOp;
+import pixelitor.filters.lookup.LookupAdjustment;
 import pixelitor.layers.Filterable;
 import pixelitor.utils.Rnd;
 
@@ -36,7 +37,7 @@ import static pixelitor.utils.Texts.i18n;
 /**
  * The Levels filter
  */
-public class Levels extends FilterWithGUI {
+public class Levels extends FilterWithGUI implements LookupAdjustment {
     public static final String NAME = i18n("levels");
 
     @Serial
@@ -64,15 +65,23 @@ public class Levels extends FilterWithGUI {
 
     @Override
     public BufferedImage transform(BufferedImage src, BufferedImage dest) {
+        BufferedImageOp filterOp = new FastLookupOp(getLookupTable());
+        dest = filterOp.filter(src, dest);
+
+        return dest;
+    }
+
+    @Override
+    public ShortLookupTable getLookupTable() {
         if (rgbLookup == null) {
             throw new IllegalStateException("rgbLookup not initialized");
         }
+        return (ShortLookupTable) rgbLookup.getLookupOp();
+    }
 
-        ShortLookupTable lut = (ShortLookupTable) rgbLookup.getLookupOp();
-        BufferedImageOp filterOp = new FastLookupOp(lut);
-        dest = filterOp.filter(src, dest);
-
-        return dest;
+    @Override
+    public int getInputMargin() {
+        return 0;
     }
 
     @Override
@@ -35,7 +35,7 @@ import static pixelitor.utils.Texts.i18n;
 /**
  * Color balance filter
  */
-public class ColorBalance extends ParametrizedFilter {
+public class ColorBalance extends ParametrizedFilter implements LookupAdjustment {
     public static final String NAME = i18n("color_balance");
 
     @Serial
@@ -84,23 +84,36 @@ public class ColorBalance extends ParametrizedFilter {
     public BufferedImage transform(BufferedImage src, BufferedImage dest) {
         assert dest == null;
 
+        ShortLookupTable lut = getLookupTable();
+        if (lut == null) {
+            return src;
+        }
+
+        var filterOp = new FastLookupOp(lut);
+
+        dest = filterOp.filter(src, null);
+
+        return dest;
+    }
+
+    @Override
+    public ShortLookupTable getLookupTable() {
         float cr = cyanRed.getValueAsFloat();
         float mg = magentaGreen.getValueAsFloat();
         float yb = yellowBlue.getValueAsFloat();
 
         if (cr == 0 && mg == 0 && yb == 0) {
-            return src;
+            return null;
         }
 
         var rgbLookup = new LookupHelper(cr, mg, yb, affect.getValue())
             .getLookup();
+        return (ShortLookupTable) rgbLookup.getLookupOp();
+    }
 
-        var filterOp = new FastLookupOp(
-            (ShortLookupTable) rgbLookup.getLookupOp());
-
-        dest = filterOp.filter(src, null);
-
-        return dest;
+    @Override
+    public int getInputMargin() {
+        return 0;
     }
 
     private static class LookupHelper {
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.filters.lookup;
+
+import pixelitor.filters.PointAdjustment;
+
+import java.awt.image.ShortLookupTable;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * A color adjustment that transforms the images with a {@link FastLookupOp}.
+ * The lookup tables of consecutive adjustments can be composed with
+ * {@link FastLookupOp#compose}, so that they are applied in a single pass.
+ */
+public interface LookupAdjustment extends PointAdjustment {
+    /**
+     * Returns the lookup table for the current settings,
+     * or null if the adjustment doesn't change the image.
+     */
+    ShortLookupTable getLookupTable();
+
+    @Override
+    default IntUnaryOperator createPixelKernel(boolean premultiplied) {
+        ShortLookupTable lut = getLookupTable();
+        return lut == null ? null : FastLookupOp.createPixelKernel(lut, premultiplied);
+    }
+}
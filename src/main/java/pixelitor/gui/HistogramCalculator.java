@@ -0,0 +1,346 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.gui;
+
+import pixelitor.Composition;
+import pixelitor.ThreadPool;
+import pixelitor.utils.ImageUtils;
+import pixelitor.utils.ProgressTracker;
+
+import javax.swing.*;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+import static pixelitor.gui.HistogramsPanel.NUM_BINS;
+
+/**
+ * Calculates the red, green and blue histograms of the composite
+ * image on a background thread, so that counting the pixels of
+ * a large image doesn't block the EDT.
+ * <p>
+ * The counted pixels are kept in a snapshot, so that if only a region
+ * of the image changed, then only that region is recounted: the old
+ * values of the changed pixels are subtracted and the new ones are added.
+ * Only the first count shares the whole composite image with the worker,
+ * the later updates get a copy of the changed region, so that the
+ * following edits can still update the composite image in place.
+ * The requests arriving within {@link #MIN_INTERVAL_MILLIS} after the
+ * start of an update, or while an update is running, are merged into
+ * a single update. The requests must be made on the EDT, and the
+ * results are also passed to the consumer on the EDT.
+ */
+final class HistogramCalculator {
+    private static final int MIN_INTERVAL_MILLIS = 100;
+
+    // the first histograms of an image with more pixels than this
+    // are estimated from every SAMPLING_STEP-th row before the exact count
+    private static final int SAMPLING_THRESHOLD = 4_000_000;
+    private static final int SAMPLING_STEP = 8;
+
+    private static final int RED = 0;
+    private static final int GREEN = 1;
+    private static final int BLUE = 2;
+
+    // a single thread, so that the snapshot and the counts are only used by it
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "Histograms");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.NORM_PRIORITY - 1);
+        return thread;
+    });
+
+    private final Consumer<int[][]> resultConsumer;
+
+    // All the following fields are confined to the EDT.
+
+    private final Timer startTimer;
+    private long lastStart;
+    private boolean running;
+
+    // the composition of the pending request, or null if there is none
+    private Composition pendingComp;
+
+    // the changed region of the pending request, or null if everything changed
+    private Rectangle pendingRegion;
+
+    // incremented when the results of the running update become obsolete
+    private int generation;
+
+    // the composition and the size of the last full count
+    private Composition fullyCountedComp;
+    private int fullyCountedWidth;
+    private int fullyCountedHeight;
+
+    // All the following fields are confined to the worker thread.
+
+    private Composition countedComp;
+    private int[] snapshot;
+    private int width;
+    private int height;
+    private final int[][] counts = new int[3][NUM_BINS];
+
+    HistogramCalculator(Consumer<int[][]> resultConsumer) {
+        this.resultConsumer = resultConsumer;
+
+        startTimer = new Timer(MIN_INTERVAL_MILLIS, e -> startPending());
+        startTimer.setRepeats(false);
+    }
+
+    /**
+     * Requests new histograms for the given composition. If the region is
+     * not null, then only the pixels within it have changed since the
+     * previous request for the same composition.
+     */
+    void requestUpdate(Composition comp, Rectangle region) {
+        assert SwingUtilities.isEventDispatchThread();
+
+        if (pendingComp != comp) {
+            pendingComp = comp;
+            pendingRegion = region == null ? null : new Rectangle(region);
+        } else if (region == null) {
+            pendingRegion = null;
+        } else if (pendingRegion != null) {
+            pendingRegion.add(region);
+        }
+
+        if (running || startTimer.isRunning()) {
+            return; // the pending request will be started later
+        }
+        long wait = lastStart + MIN_INTERVAL_MILLIS - System.currentTimeMillis();
+        // even without waiting, the start is postponed to a later
+        // event, so that the changes of the current event are merged
+        startTimer.setInitialDelay((int) Math.max(0, wait));
+        startTimer.start();
+    }
+
+    /**
+     * Discards the pending request and the results of the running
+     * update, and forgets the counted pixels.
+     */
+    void reset() {
+        assert SwingUtilities.isEventDispatchThread();
+
+        startTimer.stop();
+        pendingComp = null;
+        pendingRegion = null;
+        generation++;
+        fullyCountedComp = null;
+
+        worker.execute(() -> {
+            countedComp = null;
+            snapshot = null;
+        });
+    }
+
+    private void startPending() {
+        if (pendingComp == null || running) {
+            return;
+        }
+        Composition comp = pendingComp;
+        Rectangle changed = pendingRegion;
+        pendingComp = null;
+        pendingRegion = null;
+
+        // also brings the dirty regions of the composite image up to date
+        BufferedImage image;
+        Rectangle region;
+        if (changed == null || comp != fullyCountedComp
+            || comp.getCanvasWidth() != fullyCountedWidth
+            || comp.getCanvasHeight() != fullyCountedHeight) {
+            region = null;
+            image = comp.getCompositeImage();
+            fullyCountedComp = comp;
+            fullyCountedWidth = image.getWidth();
+            fullyCountedHeight = image.getHeight();
+        } else {
+            region = changed.intersection(new Rectangle(0, 0, fullyCountedWidth, fullyCountedHeight));
+            if (region.isEmpty()) {
+                return;
+            }
+            image = comp.copyCompositeRegion(region);
+        }
+
+        running = true;
+        lastStart = System.currentTimeMillis();
+        int startGeneration = generation;
+        worker.execute(() -> {
+            try {
+                calculate(comp, image, region, startGeneration);
+            } finally {
+                SwingUtilities.invokeLater(this::finished);
+            }
+        });
+    }
+
+    private void finished() {
+        running = false;
+        if (pendingComp != null) {
+            requestUpdate(pendingComp, pendingRegion);
+        }
+    }
+
+    /**
+     * If the region is null, then the image is the whole composite image,
+     * otherwise it's a copy of the given region of the composite image.
+     */
+    private void calculate(Composition comp, BufferedImage image,
+                           Rectangle region, int startGeneration) {
+        if (region == null) {
+            int imgWidth = image.getWidth();
+            int imgHeight = image.getHeight();
+            if (comp != countedComp && imgWidth * imgHeight > SAMPLING_THRESHOLD) {
+                publish(countSampled(image), startGeneration);
+            }
+            countedComp = comp;
+            width = imgWidth;
+            height = imgHeight;
+            countAll(image);
+        } else {
+            assert comp == countedComp && snapshot != null;
+            recount(image, region);
+        }
+
+        int[][] result = new int[3][];
+        for (int i = 0; i < 3; i++) {
+            result[i] = counts[i].clone();
+        }
+        publish(result, startGeneration);
+    }
+
+    private void publish(int[][] result, int startGeneration) {
+        SwingUtilities.invokeLater(() -> {
+            if (startGeneration == generation) {
+                resultConsumer.accept(result);
+            }
+        });
+    }
+
+    /**
+     * Copies all pixels of the image into the snapshot and counts them.
+     */
+    private void countAll(BufferedImage image) {
+        int numPixels = width * height;
+        if (snapshot == null || snapshot.length != numPixels) {
+            snapshot = null; // the old one can be collected before the allocation
+            snapshot = new int[numPixels];
+        }
+        for (int[] channelCounts : counts) {
+            Arrays.fill(channelCounts, 0);
+        }
+
+        int[] pixels = snapshot;
+        ThreadPool.processBands(width, height, (startY, endY) -> {
+            int[][] bandCounts = new int[3][NUM_BINS];
+            for (int y = startY; y < endY; y++) {
+                int rowStart = y * width;
+                readRow(image, 0, y, width, pixels, rowStart);
+                for (int i = rowStart, end = rowStart + width; i < end; i++) {
+                    add(pixels[i], bandCounts, 1);
+                }
+            }
+            addCounts(bandCounts);
+        }, ProgressTracker.NULL_TRACKER);
+    }
+
+    /**
+     * Recounts the pixels within the given region, which is the only part
+     * of the image that changed since it was copied into the snapshot.
+     * The given image contains only the pixels of the region.
+     */
+    private void recount(BufferedImage regionImage, Rectangle region) {
+        int[] pixels = snapshot;
+        ThreadPool.processBands(region.width, region.height, (startY, endY) -> {
+            int[][] bandCounts = new int[3][NUM_BINS];
+            int[] row = new int[region.width];
+            for (int y = startY; y < endY; y++) {
+                readRow(regionImage, 0, y, region.width, row, 0);
+                int offset = (region.y + y) * width + region.x;
+                for (int i = 0; i < row.length; i++) {
+                    int oldRGB = pixels[offset + i];
+                    int newRGB = row[i];
+                    if (oldRGB != newRGB) {
+                        add(oldRGB, bandCounts, -1);
+                        add(newRGB, bandCounts, 1);
+                        pixels[offset + i] = newRGB;
+                    }
+                }
+            }
+            addCounts(bandCounts);
+        }, ProgressTracker.NULL_TRACKER);
+    }
+
+    /**
+     * Estimates the histograms from a subset of the rows.
+     */
+    private static int[][] countSampled(BufferedImage image) {
+        int imgWidth = image.getWidth();
+        int[][] sampled = new int[3][NUM_BINS];
+        int[] row = new int[imgWidth];
+        for (int y = SAMPLING_STEP / 2; y < image.getHeight(); y += SAMPLING_STEP) {
+            readRow(image, 0, y, imgWidth, row, 0);
+            for (int rgb : row) {
+                add(rgb, sampled, SAMPLING_STEP);
+            }
+        }
+        return sampled;
+    }
+
+    private synchronized void addCounts(int[][] bandCounts) {
+        for (int channel = 0; channel < 3; channel++) {
+            int[] channelCounts = counts[channel];
+            int[] bandChannelCounts = bandCounts[channel];
+            for (int i = 0; i < NUM_BINS; i++) {
+                channelCounts[i] += bandChannelCounts[i];
+            }
+        }
+    }
+
+    private static void add(int rgb, int[][] target, int amount) {
+        if (rgb >>> 24 == 0) {
+            return; // transparent pixels are not counted
+        }
+        target[RED][(rgb >>> 16) & 0xFF] += amount;
+        target[GREEN][(rgb >>> 8) & 0xFF] += amount;
+        target[BLUE][rgb & 0xFF] += amount;
+    }
+
+    /**
+     * Reads a row of pixels without converting them. The
+     * pixels of the packed int images are copied directly.
+     */
+    private static void readRow(BufferedImage image, int x, int y, int length, int[] dest, int destPos) {
+        if (ImageUtils.hasPackedIntArray(image)) {
+            Raster raster = image.getRaster();
+            var sm = (SinglePixelPackedSampleModel) raster.getSampleModel();
+            int srcPos = raster.getDataBuffer().getOffset()
+                + (y - raster.getSampleModelTranslateY()) * sm.getScanlineStride()
+                + x - raster.getSampleModelTranslateX();
+            int[] data = ((DataBufferInt) raster.getDataBuffer()).getData();
+            System.arraycopy(data, srcPos, dest, destPos, length);
+        } else {
+            image.getRGB(x, y, length, 1, dest, destPos, length);
+        }
+    }
+}
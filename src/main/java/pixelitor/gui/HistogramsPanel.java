@@ -1,5 +1,5 @@
 /*
- * Copyright 2023 Laszlo Balazs-Csiki and Contributors
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
  *
  * This file is part of Pixelitor. Pixelitor is free software: you
  * can redistribute it and/or modify it under the terms of the GNU
@@ -19,7 +19,6 @@ package pixelitor.gui;
 
 import pixelitor.Composition;
 import pixelitor.Views;
-import pixelitor.utils.ImageUtils;
 import pixelitor.utils.ViewActivationListener;
 
 import javax.swing.*;
@@ -27,7 +26,7 @@ import java.awt.BorderLayout;
 import java.awt.Dimension;
 import java.awt.FlowLayout;
 import java.awt.GridLayout;
-import java.awt.image.BufferedImage;
+import java.awt.Rectangle;
 import java.util.Objects;
 
 import static java.awt.BorderLayout.CENTER;
@@ -57,12 +56,18 @@ public class HistogramsPanel extends JPanel implements ViewActivationListener {
 
     private boolean logarithmic;
 
+    private final HistogramCalculator calculator;
+
+    // the latest linear counts of the red, green and blue values
+    private int[][] counts;
+
     private HistogramsPanel() {
         super(new BorderLayout());
 
         redPainter = new HistogramPainter(RED);
         greenPainter = new HistogramPainter(GREEN);
         bluePainter = new HistogramPainter(BLUE);
+        calculator = new HistogramCalculator(this::showCounts);
 
         JPanel northPanel = initNorthPanel();
         add(northPanel, NORTH);
@@ -104,12 +109,17 @@ public class HistogramsPanel extends JPanel implements ViewActivationListener {
         boolean isLogarithmicNow = newType.equals(TYPE_LOGARITHMIC);
         if (isLogarithmicNow != logarithmic) {
             logarithmic = isLogarithmicNow;
-            Views.onActiveComp(this::update);
+            if (counts != null) {
+                // only the scale changed, there's no need to count again
+                showCounts(counts);
+            }
         }
     }
 
     @Override
     public void allViewsClosed() {
+        calculator.reset();
+        counts = null;
         redPainter.allViewsClosed();
         greenPainter.allViewsClosed();
         bluePainter.allViewsClosed();
@@ -129,32 +139,38 @@ public class HistogramsPanel extends JPanel implements ViewActivationListener {
         INSTANCE.update(comp);
     }
 
+    /**
+     * Updates the histograms after a change of the given region
+     * (in image space) of the given composition's composite image.
+     */
+    public static void regionChangedIn(Composition comp, Rectangle region) {
+        if (isShown() && comp.isActive()) {
+            // include the antialiased edges
+            Rectangle changed = new Rectangle(region);
+            changed.grow(1, 1);
+            INSTANCE.calculator.requestUpdate(comp, changed);
+        }
+    }
+
     private void update(Composition comp) {
         Objects.requireNonNull(comp);
         if (!isShown()) {
             return;
         }
-        BufferedImage image = comp.getCompositeImage();
-
-        int[] reds = new int[NUM_BINS];
-        int[] blues = new int[NUM_BINS];
-        int[] greens = new int[NUM_BINS];
-
-        int[] data = ImageUtils.getPixelArray(image);
-        for (int rgb : data) {
-            int a = (rgb >>> 24) & 0xFF;
-            if (a > 0) {
-                int r = (rgb >>> 16) & 0xFF;
-                int g = (rgb >>> 8) & 0xFF;
-                int b = rgb & 0xFF;
-
-                reds[r]++;
-                greens[g]++;
-                blues[b]++;
-            }
-        }
+        // the pixels are counted in the background
+        calculator.requestUpdate(comp, null);
+    }
+
+    private void showCounts(int[][] newCounts) {
+        counts = newCounts;
+        int[] reds = newCounts[0];
+        int[] greens = newCounts[1];
+        int[] blues = newCounts[2];
 
         if (logarithmic) {
+            reds = reds.clone();
+            greens = greens.clone();
+            blues = blues.clone();
             for (int i = 0; i < NUM_BINS; i++) {
                 // Add one before taking the logarithm to avoid calculating log(0)
                 // Note that log(1) = 0, which is just perfect.
@@ -171,6 +187,15 @@ public class HistogramsPanel extends JPanel implements ViewActivationListener {
         repaint();
     }
 
+    @Override
+    public void removeNotify() {
+        super.removeNotify();
+
+        // the counted pixels are not needed while the histograms are hidden
+        calculator.reset();
+        counts = null;
+    }
+
     public static HistogramsPanel get() {
         return INSTANCE;
     }
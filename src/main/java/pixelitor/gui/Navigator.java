@@ -45,6 +45,10 @@ public class Navigator extends JComponent
 
     private static final int DEFAULT_NAVIGATOR_SIZE = 300;
     private static final BasicStroke VIEW_BOX_STROKE = new BasicStroke(3);
+
+    // the composite can change very frequently (for example while
+    // painting), but it's enough to show its latest state this often
+    private static final int MIN_COMPOSITE_REPAINT_MILLIS = 100;
     private static final CheckerboardPainter checkerBoardPainter
         = ImageUtils.createCheckerboardPainter();
 
@@ -79,11 +83,16 @@ public class Navigator extends JComponent
     // explicitly given zoom level instead of the navigator size
     private ZoomLevel exactZoom = null;
 
+    private final Timer compositeRepaintTimer;
+    private long lastCompositeRepaint;
+
     private static Navigator navigatorPanel;
 
     private Navigator(View view) {
         adjListener = e ->
             SwingUtilities.invokeLater(this::updateViewBoxPosition);
+        compositeRepaintTimer = new Timer(MIN_COMPOSITE_REPAINT_MILLIS, e -> repaintComposite());
+        compositeRepaintTimer.setRepeats(false);
 
         recalculateSize(view, true, true, true);
 
@@ -305,7 +314,7 @@ public class Navigator extends JComponent
         var origTransform = g2.getTransform();
 
         g2.scale(imgScalingRatio, imgScalingRatio);
-        g2.drawImage(view.getComp().getCompositeImage(), 0, 0, null);
+        view.getComp().drawCompositeImage(g2, imgScalingRatio);
         g2.setTransform(origTransform);
 
         g2.setStroke(VIEW_BOX_STROKE);
@@ -422,6 +431,29 @@ public class Navigator extends JComponent
         }
     }
 
+    /**
+     * Called when the composite image changes. The first change after
+     * a quiet period is painted immediately, and the further changes
+     * are coalesced into one repaint per {@link #MIN_COMPOSITE_REPAINT_MILLIS}.
+     */
+    public void compositeChanged() {
+        if (compositeRepaintTimer.isRunning()) {
+            return; // the scheduled repaint will show this change
+        }
+        long wait = lastCompositeRepaint + MIN_COMPOSITE_REPAINT_MILLIS - System.currentTimeMillis();
+        if (wait <= 0) {
+            repaintComposite();
+        } else {
+            compositeRepaintTimer.setInitialDelay((int) wait);
+            compositeRepaintTimer.start();
+        }
+    }
+
+    private void repaintComposite() {
+        lastCompositeRepaint = System.currentTimeMillis();
+        repaint();
+    }
+
     private void updateTargetBox(int x, int y, int width, int height) {
         targetBoxRect.setBounds(x, y, width, height);
         repaint();
@@ -488,6 +520,7 @@ public class Navigator extends JComponent
 
     private void dispose() {
         Views.removeActivationListener(this);
+        compositeRepaintTimer.stop();
     }
 
     @Override
@@ -394,7 +394,7 @@ public class View extends JComponent implements MouseListener, MouseMotionListen
             assert mask != null : "no mask in " + maskViewMode;
             mask.paintLayerOnGraphics(g2, true);
         } else {
-            g2.drawImage(comp.getCompositeImage(), 0, 0, null);
+            comp.drawCompositeTiles(g2, scaling);
 
             if (maskViewMode.showRuby()) {
                 LayerMask mask = comp.getActiveLayer().getMask();
@@ -884,8 +884,7 @@ public class View extends JComponent implements MouseListener, MouseMotionListen
                 }
             });
         } else {
-            // call here, painting calls will be coalesced anyway
-            navigator.repaint();
+            navigator.compositeChanged();
         }
     }
 
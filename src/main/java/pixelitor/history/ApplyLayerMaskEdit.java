@@ -21,11 +21,11 @@ import pixelitor.layers.ImageLayer;
 import pixelitor.layers.LayerMask;
 import pixelitor.layers.MaskViewMode;
 import pixelitor.utils.debug.DebugNode;
-import pixelitor.utils.debug.DebugNodes;
 
 import javax.swing.undo.CannotRedoException;
 import javax.swing.undo.CannotUndoException;
 import java.awt.image.BufferedImage;
+import java.io.UncheckedIOException;
 
 /**
  * A PixelitorEdit that represents the application of a layer mask.
@@ -34,17 +34,21 @@ import java.awt.image.BufferedImage;
  */
 public class ApplyLayerMaskEdit extends PixelitorEdit {
     private final LayerMask mask;
-    private BufferedImage previousLayerImage;
+    private PixelBackup previousLayerImage;
     private final ImageLayer layer;
     private final MaskViewMode previousMaskViewMode;
 
+    /**
+     * Must be called before the mask is applied, because
+     * the current pixels of the layer image are backed up.
+     */
     public ApplyLayerMaskEdit(ImageLayer layer, LayerMask mask,
                               BufferedImage previousLayerImage,
                               MaskViewMode previousMaskViewMode) {
         super("Apply Layer Mask", layer.getComp());
 
         this.previousMaskViewMode = previousMaskViewMode;
-        this.previousLayerImage = previousLayerImage;
+        this.previousLayerImage = PixelBackup.of(previousLayerImage, layer);
         this.layer = layer;
         this.mask = mask;
     }
@@ -53,7 +57,11 @@ public class ApplyLayerMaskEdit extends PixelitorEdit {
     public void undo() throws CannotUndoException {
         super.undo();
 
-        layer.setImage(previousLayerImage);
+        try {
+            layer.setImage(previousLayerImage.getImage());
+        } catch (UncheckedIOException e) {
+            throw new CannotUndoException();
+        }
         layer.addConfiguredMask(mask);
         if (layer.isActive()) {
             previousMaskViewMode.activate(comp, layer);
@@ -65,17 +73,25 @@ public class ApplyLayerMaskEdit extends PixelitorEdit {
     public void redo() throws CannotRedoException {
         super.redo();
 
+        // back up the image again before the mask is applied
+        PixelBackup newBackup = PixelBackup.of(layer.getImage(), layer);
+        previousLayerImage.dispose();
+        previousLayerImage = newBackup;
+
         // the mask view mode is automatically set to normal
-        previousLayerImage = layer.applyLayerMask(false);
+        layer.applyLayerMask(false);
     }
 
     @Override
     public void die() {
         super.die();
 
-        if (previousLayerImage != null) {
-            previousLayerImage.flush();
-        }
+        previousLayerImage.dispose();
+    }
+
+    @Override
+    public long getBackupBytes() {
+        return previousLayerImage.getRawBytes();
     }
 
     @Override
@@ -84,7 +100,7 @@ public class ApplyLayerMaskEdit extends PixelitorEdit {
 
         node.add(layer.createDebugNode());
         node.add(mask.createDebugNode("mask"));
-        node.add(DebugNodes.createBufferedImageNode("previous layer image", previousLayerImage));
+        node.addString("previous layer image", previousLayerImage.getDescription());
         node.addAsString("previous mask view mode", previousMaskViewMode);
 
         return node;
@@ -0,0 +1,311 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.history;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Keeps the memory used by the {@link BackupTile}s of the history
+ * within a budget: when the uncompressed tiles exceed their budget,
+ * the oldest ones are compressed on a background thread, and when
+ * the compressed tiles exceed theirs, the oldest ones are moved
+ * into temporary files.
+ * <p>
+ * It also remembers the baseline backup of each layer and the bounds
+ * of the changes since then, so that the next backup of the layer
+ * can share the unchanged tiles.
+ */
+final class BackupStore {
+    private static final long MAX_MEMORY = Runtime.getRuntime().maxMemory();
+
+    // the memory budget of the uncompressed (most recent) tiles
+    private static final long RAW_BUDGET = MAX_MEMORY / 4;
+
+    // the memory budget of the compressed tiles
+    private static final long COMPRESSED_BUDGET = MAX_MEMORY / 8;
+
+    private static final ExecutorService worker =
+        Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "History Compression");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+
+    // All the following fields are guarded by the class lock.
+
+    // The live tiles in the order of their creation. They are weakly
+    // referenced, so that the tiles of edits that were discarded
+    // without calling die() can still be garbage collected.
+    private static final Set<TileRef> tiles = new LinkedHashSet<>();
+    private static final ReferenceQueue<BackupTile> collectedTiles = new ReferenceQueue<>();
+    private static long rawBytes = 0;
+    private static long compressedBytes = 0;
+    private static boolean rebalanceScheduled = false;
+
+    // the baseline of each layer (or other owner)
+    private static final Map<Object, Baseline> baselines = new WeakHashMap<>();
+
+    // the directory of the swap files, created only when needed
+    private static Path swapDir;
+    private static boolean swappingFailed = false;
+
+    private BackupStore() {
+        // static utility methods only
+    }
+
+    /**
+     * A reference to a tile that also remembers the tile's memory
+     * accounting, so that it can be corrected even after the tile
+     * was garbage collected.
+     */
+    static final class TileRef extends WeakReference<BackupTile> {
+        private long rawInMemory;
+        private long compressedInMemory;
+
+        private TileRef(BackupTile tile, long rawInMemory) {
+            super(tile, collectedTiles);
+            this.rawInMemory = rawInMemory;
+        }
+    }
+
+    static TileRef register(BackupTile tile, long rawInMemory) {
+        TileRef ref = new TileRef(tile, rawInMemory);
+        synchronized (BackupStore.class) {
+            removeCollected();
+            tiles.add(ref);
+            rawBytes += rawInMemory;
+            scheduleRebalanceIfNeeded();
+        }
+        return ref;
+    }
+
+    static void unregister(TileRef ref) {
+        synchronized (BackupStore.class) {
+            if (tiles.remove(ref)) {
+                rawBytes -= ref.rawInMemory;
+                compressedBytes -= ref.compressedInMemory;
+            }
+        }
+    }
+
+    /**
+     * Called by a tile when its memory usage changes.
+     */
+    static void stateChanged(TileRef ref, long rawInMemory, long compressedInMemory) {
+        synchronized (BackupStore.class) {
+            if (!tiles.contains(ref)) {
+                return;
+            }
+            rawBytes += rawInMemory - ref.rawInMemory;
+            compressedBytes += compressedInMemory - ref.compressedInMemory;
+            ref.rawInMemory = rawInMemory;
+            ref.compressedInMemory = compressedInMemory;
+            scheduleRebalanceIfNeeded();
+        }
+    }
+
+    private static void removeCollected() {
+        Reference<? extends BackupTile> collected;
+        while ((collected = collectedTiles.poll()) != null) {
+            TileRef ref = (TileRef) collected;
+            if (tiles.remove(ref)) {
+                rawBytes -= ref.rawInMemory;
+                compressedBytes -= ref.compressedInMemory;
+            }
+        }
+    }
+
+    private static void scheduleRebalanceIfNeeded() {
+        if (rebalanceScheduled) {
+            return;
+        }
+        if (rawBytes > RAW_BUDGET || compressedBytes > COMPRESSED_BUDGET) {
+            rebalanceScheduled = true;
+            worker.execute(BackupStore::rebalance);
+        }
+    }
+
+    /**
+     * A backup that had the same pixels as an image of its owner, and
+     * the bounds of the changes made to that image since then.
+     */
+    static final class Baseline {
+        private final PixelBackup backup;
+        private final WeakReference<BufferedImage> image;
+        private final Rectangle changes = new Rectangle();
+
+        private Baseline(PixelBackup backup, BufferedImage image) {
+            this.backup = backup;
+            this.image = new WeakReference<>(image);
+        }
+
+        /**
+         * Returns the backup if it can be compared with the given image,
+         * which is the case only if it's the image the baseline was set for.
+         */
+        PixelBackup getBackupOf(BufferedImage img) {
+            return image.get() == img ? backup : null;
+        }
+
+        Rectangle getChanges() {
+            return changes;
+        }
+
+        private void addChange(Rectangle bounds) {
+            if (changes.isEmpty()) {
+                changes.setBounds(bounds);
+            } else {
+                changes.add(bounds);
+            }
+        }
+
+        void dispose() {
+            backup.dispose();
+        }
+    }
+
+    static void setBaseline(Object owner, PixelBackup backup, BufferedImage image) {
+        Baseline old;
+        synchronized (BackupStore.class) {
+            old = baselines.put(owner, new Baseline(backup, image));
+        }
+        if (old != null) {
+            old.dispose();
+        }
+    }
+
+    /**
+     * Removes the baseline of the given owner, and returns it,
+     * so that the caller can share its tiles before disposing it.
+     */
+    static synchronized Baseline removeBaseline(Object owner) {
+        return baselines.remove(owner);
+    }
+
+    static void imageChanged(Object owner, Rectangle bounds) {
+        Baseline removed = null;
+        synchronized (BackupStore.class) {
+            Baseline baseline = baselines.get(owner);
+            if (baseline == null) {
+                return;
+            }
+            if (bounds == null) {
+                removed = baselines.remove(owner);
+            } else {
+                baseline.addChange(bounds);
+            }
+        }
+        if (removed != null) {
+            removed.dispose();
+        }
+    }
+
+    /**
+     * Runs on the worker thread.
+     */
+    private static void rebalance() {
+        List<BackupTile> snapshot = new ArrayList<>();
+        synchronized (BackupStore.class) {
+            rebalanceScheduled = false;
+            removeCollected();
+            for (TileRef ref : tiles) {
+                BackupTile tile = ref.get();
+                if (tile != null) {
+                    snapshot.add(tile);
+                }
+            }
+        }
+
+        // compress the oldest uncompressed tiles
+        for (BackupTile tile : snapshot) {
+            if (getRawBytes() <= RAW_BUDGET) {
+                break;
+            }
+            tile.compress();
+        }
+
+        // move the oldest compressed tiles into temporary files
+        for (BackupTile tile : snapshot) {
+            if (getCompressedBytes() <= COMPRESSED_BUDGET) {
+                break;
+            }
+            if (tile.isInMemoryCompressed() && !swapOut(tile)) {
+                break; // keep the rest in memory
+            }
+        }
+    }
+
+    private static synchronized long getRawBytes() {
+        return rawBytes;
+    }
+
+    private static synchronized long getCompressedBytes() {
+        return compressedBytes;
+    }
+
+    private static boolean swapOut(BackupTile tile) {
+        if (swappingFailed) {
+            return false;
+        }
+        try {
+            if (swapDir == null) {
+                swapDir = Files.createTempDirectory("pixelitor-history");
+                Path dir = swapDir;
+                Runtime.getRuntime().addShutdownHook(
+                    new Thread(() -> deleteSwapDir(dir), "History Cleanup"));
+            }
+            tile.swapOut(swapDir);
+            return true;
+        } catch (IOException e) {
+            // the tiles remain in memory, which is still
+            // better than losing the history
+            swappingFailed = true;
+            return false;
+        }
+    }
+
+    /**
+     * Deletes the swap files of the tiles that are still alive at exit,
+     * the other swap files are deleted when their tiles are released.
+     */
+    private static void deleteSwapDir(Path dir) {
+        try (Stream<Path> files = Files.list(dir)) {
+            files.forEach(file -> file.toFile().delete());
+            Files.deleteIfExists(dir);
+        } catch (IOException e) {
+            // nothing can be done at exit
+        }
+    }
+}
@@ -0,0 +1,292 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.history;
+
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * An immutable rectangular part of a {@link PixelBackup}.
+ * The tiles that didn't change between two successive backups
+ * of the same layer are shared by the backups, and a tile
+ * is released only when its last owner releases it.
+ * For the memory accounting of the history, a shared tile is
+ * charged only to its latest owner that is still alive.
+ * <p>
+ * A new tile keeps an uncompressed copy of its pixels. When the
+ * {@link BackupStore} decides that the history uses too much memory,
+ * the older tiles are compressed in memory, and later spilled to a
+ * temporary file. The compression predicts each sample from the one
+ * on its left, and deflates the differences, which is fast and works
+ * well for the typical large uniform or smoothly varying areas.
+ */
+final class BackupTile {
+    private enum State {RAW, COMPRESSED, SWAPPED, DISPOSED}
+
+    private State state = State.RAW;
+
+    // the pixels in the RAW state, located in the coordinates of the backup
+    private Raster raster;
+
+    // the compressed pixels, in memory or in a temporary file
+    private byte[] compressed;
+    private Path swapFile;
+
+    private final int minX;
+    private final int minY;
+    private final int width;
+    private final int height;
+    private final long rawBytes;
+    private final boolean compressible;
+
+    // the backups sharing this tile, in the order they started to share it
+    private final List<WeakReference<PixelBackup>> owners = new ArrayList<>(2);
+
+    private final BackupStore.TileRef storeRef;
+
+    /**
+     * Creates a tile from the given raster, which
+     * must not be modified after this call.
+     */
+    BackupTile(Raster raster, PixelBackup owner) {
+        this.raster = raster;
+        owners.add(new WeakReference<>(owner));
+
+        minX = raster.getMinX();
+        minY = raster.getMinY();
+        width = raster.getWidth();
+        height = raster.getHeight();
+
+        int transferType = raster.getTransferType();
+        compressible = transferType == DataBuffer.TYPE_INT
+            || transferType == DataBuffer.TYPE_BYTE;
+        rawBytes = (long) width * height * raster.getNumDataElements()
+            * DataBuffer.getDataTypeSize(transferType) / 8;
+
+        storeRef = BackupStore.register(this, compressible ? rawBytes : 0);
+    }
+
+    long getRawBytes() {
+        return rawBytes;
+    }
+
+    synchronized boolean isRaw() {
+        return state == State.RAW;
+    }
+
+    synchronized boolean isInMemoryUncompressed() {
+        return state == State.RAW && compressible;
+    }
+
+    synchronized boolean isInMemoryCompressed() {
+        return state == State.COMPRESSED;
+    }
+
+    /**
+     * Registers a new owner, or returns false if the tile was already released.
+     */
+    synchronized boolean retain(PixelBackup owner) {
+        if (state == State.DISPOSED) {
+            return false;
+        }
+        owners.add(new WeakReference<>(owner));
+        return true;
+    }
+
+    /**
+     * Returns true if the memory of this tile is accounted to the given
+     * backup, which is the case if it's the latest live owner of the tile.
+     */
+    synchronized boolean isChargedTo(PixelBackup backup) {
+        for (int i = owners.size() - 1; i >= 0; i--) {
+            PixelBackup owner = owners.get(i).get();
+            if (owner != null) {
+                return owner == backup;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Called by an owner that no longer needs this tile.
+     */
+    void release(PixelBackup owner) {
+        synchronized (this) {
+            // the garbage collected owners can't use the tile either
+            owners.removeIf(ref -> {
+                PixelBackup o = ref.get();
+                return o == null || o == owner;
+            });
+            if (!owners.isEmpty() || state == State.DISPOSED) {
+                return;
+            }
+            raster = null;
+            compressed = null;
+            if (swapFile != null) {
+                try {
+                    Files.deleteIfExists(swapFile);
+                } catch (IOException e) {
+                    // it will be deleted at exit with the directory
+                }
+                swapFile = null;
+            }
+            state = State.DISPOSED;
+        }
+        BackupStore.unregister(storeRef);
+    }
+
+    /**
+     * Compresses the pixels in memory. Called by the {@link BackupStore}.
+     */
+    synchronized void compress() {
+        if (state != State.RAW || !compressible) {
+            return;
+        }
+        compressed = encode();
+        raster = null;
+        state = State.COMPRESSED;
+        BackupStore.stateChanged(storeRef, 0, compressed.length);
+    }
+
+    /**
+     * Moves the compressed pixels into a temporary file.
+     * Called by the {@link BackupStore}.
+     */
+    synchronized void swapOut(Path dir) throws IOException {
+        if (state != State.COMPRESSED) {
+            return;
+        }
+        // deleted when the tile is released, or at exit with the directory
+        Path file = Files.createTempFile(dir, "tile", ".bin");
+        Files.write(file, compressed);
+
+        swapFile = file;
+        compressed = null;
+        state = State.SWAPPED;
+        BackupStore.stateChanged(storeRef, 0, 0);
+    }
+
+    private byte[] encode() {
+        int stride = raster.getNumDataElements();
+        int rowLength = width * stride;
+        var bytesOut = new ByteArrayOutputStream((int) (rawBytes / 4));
+        var deflater = new Deflater(Deflater.BEST_SPEED);
+        try (OutputStream out = new DeflaterOutputStream(bytesOut, deflater)) {
+            if (raster.getTransferType() == DataBuffer.TYPE_INT) {
+                int[] row = new int[rowLength];
+                ByteBuffer rowBytes = ByteBuffer.allocate(rowLength * 4);
+                for (int y = minY; y < minY + height; y++) {
+                    raster.getDataElements(minX, y, width, 1, row);
+                    for (int i = rowLength - 1; i >= stride; i--) {
+                        row[i] -= row[i - stride];
+                    }
+                    rowBytes.clear();
+                    rowBytes.asIntBuffer().put(row);
+                    out.write(rowBytes.array());
+                }
+            } else {
+                byte[] row = new byte[rowLength];
+                for (int y = minY; y < minY + height; y++) {
+                    raster.getDataElements(minX, y, width, 1, row);
+                    for (int i = rowLength - 1; i >= stride; i--) {
+                        row[i] -= row[i - stride];
+                    }
+                    out.write(row);
+                }
+            }
+        } catch (IOException e) {
+            // not possible with an in-memory stream
+            throw new UncheckedIOException(e);
+        } finally {
+            deflater.end();
+        }
+        return bytesOut.toByteArray();
+    }
+
+    /**
+     * Decodes the pixels into the given raster, which has
+     * the sample model of the backup that owns this tile.
+     *
+     * @throws UncheckedIOException if the temporary file couldn't be read
+     */
+    synchronized void copyTo(WritableRaster dest) {
+        assert state != State.DISPOSED;
+
+        if (state == State.RAW) {
+            dest.setRect(raster);
+            return;
+        }
+
+        int stride = dest.getNumDataElements();
+        int rowLength = width * stride;
+        var inflater = new Inflater();
+        try (DataInputStream in = new DataInputStream(
+            new InflaterInputStream(openCompressed(), inflater))) {
+            if (dest.getTransferType() == DataBuffer.TYPE_INT) {
+                int[] row = new int[rowLength];
+                byte[] rowBytes = new byte[rowLength * 4];
+                for (int y = minY; y < minY + height; y++) {
+                    in.readFully(rowBytes);
+                    ByteBuffer.wrap(rowBytes).asIntBuffer().get(row);
+                    for (int i = stride; i < rowLength; i++) {
+                        row[i] += row[i - stride];
+                    }
+                    dest.setDataElements(minX, y, width, 1, row);
+                }
+            } else {
+                byte[] row = new byte[rowLength];
+                for (int y = minY; y < minY + height; y++) {
+                    in.readFully(row);
+                    for (int i = stride; i < rowLength; i++) {
+                        row[i] += row[i - stride];
+                    }
+                    dest.setDataElements(minX, y, width, 1, row);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private InputStream openCompressed() throws IOException {
+        if (state == State.SWAPPED) {
+            return Files.newInputStream(swapFile);
+        }
+        return new ByteArrayInputStream(compressed);
+    }
+}
@@ -91,6 +91,11 @@ public class ContentLayerMoveEdit extends PixelitorEdit {
         }
     }
 
+    @Override
+    public long getBackupBytes() {
+        return imageEdit == null ? 0 : imageEdit.getBackupBytes();
+    }
+
     @Override
     public DebugNode createDebugNode(String key) {
         DebugNode node = super.createDebugNode(key);
@@ -68,6 +68,11 @@ public class ImageAndMaskEdit extends ImageEdit {
         maskImageEdit.die();
     }
 
+    @Override
+    public long getBackupBytes() {
+        return super.getBackupBytes() + maskImageEdit.getBackupBytes();
+    }
+
     private void updateGUI() {
         // the two edits are set to embedded, so we update - except
         // if this edit is also embedded
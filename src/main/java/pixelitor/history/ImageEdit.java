@@ -24,7 +24,7 @@ import pixelitor.utils.debug.DebugNode;
 import javax.swing.undo.CannotRedoException;
 import javax.swing.undo.CannotUndoException;
 import java.awt.image.BufferedImage;
-import java.lang.ref.SoftReference;
+import java.io.UncheckedIOException;
 
 /**
  * A PixelitorEdit that represents the changes made to an image.
@@ -33,7 +33,7 @@ public class ImageEdit extends FadeableEdit {
     // selections are ignored for example when the image is enlarged by the move tool
     private final boolean ignoreSelection;
 
-    private SoftReference<BufferedImage> imgRef;
+    private PixelBackup backup;
     protected Drawable dr;
 
     public ImageEdit(String name, Composition comp, Drawable dr,
@@ -47,25 +47,16 @@ public class ImageEdit extends FadeableEdit {
 
 //        Utils.debugImage(backupImage, "Backup for " + name);
 
-        // the backup image is stored in an SoftReference
-        imgRef = new SoftReference<>(backupImage);
+        // the pixels are copied (or shared with an earlier
+        // backup of the layer), so the image can still change
+        backup = PixelBackup.of(backupImage, dr);
         this.dr = dr;
-
-        checkBackupDifferentFromActive();
-    }
-
-    // the backup should never be identical to the active image
-    // otherwise the backup might be also edited
-    private void checkBackupDifferentFromActive() {
-        BufferedImage layerImage = dr.getImage();
-        if (layerImage == imgRef.get()) {
-            throw new IllegalStateException("backup image is identical to the active one");
-        }
     }
 
     public static ImageEdit createEmbedded(Drawable dr) {
         // If there is a selection, only the bounds of the selected area is saved.
-        BufferedImage backup = dr.getSelectedSubImage(true);
+        // No copy is needed, because the backup copies the pixels.
+        BufferedImage backup = dr.getSelectedSubImage(false);
 
         ImageEdit edit = new ImageEdit("", dr.getComp(),
             dr, backup, false);
@@ -97,8 +88,13 @@ public class ImageEdit extends FadeableEdit {
      * Returns true if successful
      */
     private boolean swapImages() {
-        BufferedImage backupImage = imgRef.get();
-        if (backupImage == null) {
+        if (backup == null) { // died
+            return false;
+        }
+        BufferedImage backupImage;
+        try {
+            backupImage = backup.getImage();
+        } catch (UncheckedIOException e) {
             return false;
         }
 
@@ -108,17 +104,23 @@ public class ImageEdit extends FadeableEdit {
         } else {
             tmp = dr.getSelectedSubImage(false);
         }
-        dr.changeImageForUndoRedo(backupImage, ignoreSelection);
 
-        // create new backup image from tmp
-        imgRef = new SoftReference<>(tmp);
+        // the new backup is created before the old one is disposed,
+        // so that they can share the tiles that are the same
+        PixelBackup newBackup = PixelBackup.of(tmp, dr);
+        dr.changeImageForUndoRedo(backupImage, ignoreSelection);
+        if (dr.getImage() == backupImage) {
+            // the next backup of the image can share the tiles that don't change
+            backup.setAsBaseline(dr, backupImage);
+        }
+        backup.dispose();
+        backup = newBackup;
 
         if (!embedded) {
             comp.update();
             dr.updateIconImage();
         }
 
-        checkBackupDifferentFromActive();
         return true;
     }
 
@@ -126,29 +128,37 @@ public class ImageEdit extends FadeableEdit {
     public void die() {
         super.die();
 
-        BufferedImage backupImage = imgRef.get();
-        if (backupImage != null) {
-            backupImage.flush();
+        if (backup != null) {
+            backup.dispose();
+            backup = null;
         }
     }
 
     @Override
     public BufferedImage getBackupImage() {
-        if (imgRef != null) {
-            // this still could be null
-            return imgRef.get();
+        if (backup == null) { // died
+            return null;
+        }
+        try {
+            return backup.getImage();
+        } catch (UncheckedIOException e) {
+            return null;
         }
-        return null;
+    }
+
+    @Override
+    public long getBackupBytes() {
+        return backup == null ? 0 : backup.getRawBytes();
     }
 
     @Override
     public DebugNode createDebugNode(String key) {
         DebugNode node = super.createDebugNode(key);
 
-        BufferedImage img = imgRef.get();
-        if (img != null) {
-            node.addInt("backup image width", img.getWidth());
-            node.addInt("backup image height", img.getHeight());
+        if (backup != null) {
+            node.addInt("backup image width", backup.getWidth());
+            node.addInt("backup image height", backup.getHeight());
+            node.addString("backup", backup.getDescription());
         }
 
         node.addBoolean("ignoreSelection", ignoreSelection);
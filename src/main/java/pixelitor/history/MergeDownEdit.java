@@ -88,6 +88,11 @@ public class MergeDownEdit extends PixelitorEdit {
         imageEdit.die();
     }
 
+    @Override
+    public long getBackupBytes() {
+        return imageEdit.getBackupBytes();
+    }
+
     @Override
     public DebugNode createDebugNode(String key) {
         DebugNode node = super.createDebugNode(key);
@@ -99,6 +99,15 @@ public class MultiEdit extends PixelitorEdit {
         }
     }
 
+    @Override
+    public long getBackupBytes() {
+        long sum = 0;
+        for (PixelitorEdit edit : edits) {
+            sum += edit.getBackupBytes();
+        }
+        return sum;
+    }
+
     @Override
     public DebugNode createDebugNode(String key) {
         DebugNode node = super.createDebugNode(key);
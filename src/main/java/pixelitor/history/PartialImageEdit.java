@@ -31,7 +31,7 @@ import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBuffer;
 import java.awt.image.Raster;
-import java.lang.ref.SoftReference;
+import java.io.UncheckedIOException;
 
 import static java.lang.String.format;
 
@@ -41,7 +41,7 @@ import static java.lang.String.format;
  */
 public class PartialImageEdit extends FadeableEdit {
     private final Rectangle saveRect;
-    private SoftReference<Raster> backupRasterRef;
+    private PixelBackup backup;
 
     private final Drawable dr;
 
@@ -52,8 +52,8 @@ public class PartialImageEdit extends FadeableEdit {
         this.dr = dr;
         this.saveRect = saveRect;
 
-        Raster backupRaster = image.getData(this.saveRect);
-        backupRasterRef = new SoftReference<>(backupRaster);
+        backup = PixelBackup.of(getAffectedRaster(image));
+        PixelBackup.imageChanged(dr, saveRect);
     }
 
     /**
@@ -115,17 +115,25 @@ public class PartialImageEdit extends FadeableEdit {
      * Returns true if successful
      */
     private boolean swapRasters() {
-        Raster backupRaster = backupRasterRef.get();
-        if (backupRaster == null) {
+        if (backup == null) { // died
+            return false;
+        }
+        Raster backupRaster;
+        try {
+            backupRaster = backup.getRaster();
+        } catch (UncheckedIOException e) {
             return false;
         }
 
         BufferedImage image = dr.getImage();
 
         Raster tmpRaster = null;
+        PixelBackup newBackup;
         try {
-            tmpRaster = image.getData(saveRect);
+            tmpRaster = getAffectedRaster(image);
+            newBackup = PixelBackup.of(tmpRaster);
             image.setData(backupRaster);
+            PixelBackup.imageChanged(dr, saveRect);
         } catch (ArrayIndexOutOfBoundsException e) {
             System.out.printf("PartialImageEdit.swapRasters saveRect = %s, width = %d, height = %d%n",
                 saveRect, image.getWidth(), image.getHeight());
@@ -136,7 +144,8 @@ public class PartialImageEdit extends FadeableEdit {
             throw e;
         }
 
-        backupRasterRef = new SoftReference<>(tmpRaster);
+        backup.dispose();
+        backup = newBackup;
 
         dr.update();
         dr.updateIconImage();
@@ -144,6 +153,15 @@ public class PartialImageEdit extends FadeableEdit {
         return true;
     }
 
+    /**
+     * Returns a view (not a copy) of the affected part of the image,
+     * because the backup copies the pixels anyway.
+     */
+    private Raster getAffectedRaster(BufferedImage image) {
+        return image.getRaster().createChild(saveRect.x, saveRect.y,
+            saveRect.width, saveRect.height, saveRect.x, saveRect.y, null);
+    }
+
     private static void debugRaster(String name, Raster raster) {
         if (raster == null) {
             System.err.printf("PartialImageEdit::debugRaster: NULL RASTER, name = '%s'%n", name);
@@ -166,13 +184,30 @@ public class PartialImageEdit extends FadeableEdit {
         System.out.println("PartialImageEdit::debugRaster debugging raster: " + name + ": " + msg);
     }
 
+    @Override
+    public void die() {
+        super.die();
+
+        if (backup != null) {
+            backup.dispose();
+            backup = null;
+        }
+    }
+
+    @Override
+    public long getBackupBytes() {
+        return backup == null ? 0 : backup.getRawBytes();
+    }
+
     @Override
     public BufferedImage getBackupImage() {
-        if (backupRasterRef == null) { // died
+        if (backup == null) { // died
             return null;
         }
-        Raster backupRaster = backupRasterRef.get();
-        if (backupRaster == null) { // soft reference lost
+        Raster backupRaster;
+        try {
+            backupRaster = backup.getRaster();
+        } catch (UncheckedIOException e) {
             return null;
         }
 
@@ -197,8 +232,9 @@ public class PartialImageEdit extends FadeableEdit {
     public DebugNode createDebugNode(String key) {
         DebugNode node = super.createDebugNode(key);
 
-        node.addNullableDebuggable("backup raster",
-            backupRasterRef.get(), DebugNodes::createRasterNode);
+        if (backup != null) {
+            node.addString("backup", backup.getDescription());
+        }
         node.add(DebugNodes.createRectangleNode("saveRect", saveRect));
 
         return node;
@@ -0,0 +1,265 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.history;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.io.UncheckedIOException;
+
+/**
+ * The backed-up pixels of an undoable image edit, stored
+ * as a grid of immutable, copy-on-write {@link BackupTile}s.
+ * <p>
+ * When an undo or redo gives a layer the pixels of a backup, the backup
+ * is kept by the {@link BackupStore} as the baseline of the layer, and
+ * the later edits report the bounds of their changes. The next backup of
+ * the layer copies only the tiles touching the changed bounds, and the
+ * others are shared with the baseline without comparing their pixels.
+ * This way an edit that changes only a small part of a large image costs
+ * only a small part of its memory, even if the whole image is backed up.
+ * <p>
+ * Unlike the soft references used earlier, the pixels
+ * are never silently lost, so the undo is guaranteed to work.
+ */
+final class PixelBackup {
+    private static final int TILE_SIZE = 128;
+
+    // the data needed to recreate the image/raster
+    private final ColorModel colorModel; // null for raster backups
+    private final SampleModel sampleModel;
+    private final int minX;
+    private final int minY;
+    private final int width;
+    private final int height;
+
+    private BackupTile[] tiles;
+    private int numSharedTiles;
+
+    /**
+     * Copies the pixels of the given raster, except for the tiles
+     * that can be shared with the given previous backup, because
+     * they don't touch the given changed bounds.
+     */
+    private PixelBackup(ColorModel colorModel, Raster src,
+                        PixelBackup previous, Rectangle changes) {
+        this.colorModel = colorModel;
+        minX = src.getMinX();
+        minY = src.getMinY();
+        width = src.getWidth();
+        height = src.getHeight();
+        sampleModel = src.getSampleModel().createCompatibleSampleModel(width, height);
+
+        int numCols = Math.ceilDiv(width, TILE_SIZE);
+        int numRows = Math.ceilDiv(height, TILE_SIZE);
+        tiles = new BackupTile[numCols * numRows];
+
+        boolean canShare = previous != null && previous.isCompatibleWith(this);
+        for (int row = 0; row < numRows; row++) {
+            for (int col = 0; col < numCols; col++) {
+                int index = row * numCols + col;
+                int x = minX + col * TILE_SIZE;
+                int y = minY + row * TILE_SIZE;
+                int tileWidth = Math.min(TILE_SIZE, minX + width - x);
+                int tileHeight = Math.min(TILE_SIZE, minY + height - y);
+
+                if (canShare && !changes.intersects(x, y, tileWidth, tileHeight)) {
+                    BackupTile prevTile = previous.tiles[index];
+                    if (prevTile.retain(this)) {
+                        tiles[index] = prevTile;
+                        numSharedTiles++;
+                        continue;
+                    }
+                }
+
+                WritableRaster copy = src.createCompatibleWritableRaster(x, y, tileWidth, tileHeight);
+                copy.setRect(src.createChild(x, y, tileWidth, tileHeight, x, y, null));
+                tiles[index] = new BackupTile(copy, this);
+            }
+        }
+    }
+
+    /**
+     * Creates a backup that shares all the tiles of the given one.
+     */
+    private PixelBackup(PixelBackup other) {
+        assert other.tiles != null : "disposed";
+
+        colorModel = other.colorModel;
+        sampleModel = other.sampleModel;
+        minX = other.minX;
+        minY = other.minY;
+        width = other.width;
+        height = other.height;
+
+        tiles = other.tiles.clone();
+        for (BackupTile tile : tiles) {
+            boolean retained = tile.retain(this);
+            assert retained;
+        }
+        numSharedTiles = tiles.length;
+    }
+
+    /**
+     * Creates a backup of the given image's current pixels, sharing the
+     * tiles that didn't change since the baseline of the given owner.
+     * The image can be modified after this call.
+     */
+    static PixelBackup of(BufferedImage image, Object owner) {
+        // the edit creating this backup changes the image in an
+        // unknown way, therefore the baseline can't be used later
+        BackupStore.Baseline baseline = BackupStore.removeBaseline(owner);
+        if (baseline == null) {
+            return new PixelBackup(image.getColorModel(), image.getRaster(), null, null);
+        }
+        PixelBackup previous = baseline.getBackupOf(image);
+        var backup = new PixelBackup(image.getColorModel(), image.getRaster(),
+            previous, baseline.getChanges());
+        baseline.dispose();
+        return backup;
+    }
+
+    /**
+     * Creates a backup of the given raster's current pixels.
+     * The raster can be modified after this call.
+     */
+    static PixelBackup of(Raster raster) {
+        return new PixelBackup(null, raster, null, null);
+    }
+
+    /**
+     * Signals that the given image of the given owner now has the same
+     * pixels as this backup, so that the next backup of the owner can
+     * share the tiles of this backup, except where the image changes later.
+     */
+    void setAsBaseline(Object owner, BufferedImage image) {
+        BackupStore.setBaseline(owner, new PixelBackup(this), image);
+    }
+
+    /**
+     * Signals that the image of the given owner changed within the given
+     * bounds, or in an unknown way if the bounds are null. It must be called
+     * by all the edits that change the pixels without backing up the image.
+     */
+    static void imageChanged(Object owner, Rectangle bounds) {
+        BackupStore.imageChanged(owner, bounds);
+    }
+
+    private boolean isCompatibleWith(PixelBackup other) {
+        return tiles != null && minX == other.minX && minY == other.minY
+            && width == other.width && height == other.height
+            && sampleModel.getTransferType() == other.sampleModel.getTransferType()
+            && sampleModel.getNumDataElements() == other.sampleModel.getNumDataElements()
+            && sampleModel.getNumBands() == other.sampleModel.getNumBands();
+    }
+
+    /**
+     * Returns a newly assembled copy of the backed-up image.
+     *
+     * @throws UncheckedIOException if a temporary file couldn't be read
+     */
+    BufferedImage getImage() {
+        assert colorModel != null : "raster backup";
+        assert minX == 0 && minY == 0;
+
+        WritableRaster raster = assembleRaster();
+        return new BufferedImage(colorModel, raster,
+            colorModel.isAlphaPremultiplied(), null);
+    }
+
+    /**
+     * Returns a newly assembled copy of the backed-up
+     * raster, with its original location.
+     *
+     * @throws UncheckedIOException if a temporary file couldn't be read
+     */
+    Raster getRaster() {
+        return assembleRaster();
+    }
+
+    private WritableRaster assembleRaster() {
+        assert tiles != null : "disposed";
+
+        WritableRaster raster = Raster.createWritableRaster(
+            sampleModel, new Point(minX, minY));
+        for (BackupTile tile : tiles) {
+            tile.copyTo(raster);
+        }
+        return raster;
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns the uncompressed size of the tiles charged to this backup.
+     * A shared tile is charged only to its latest live owner, so that the
+     * sum for all the backups of the history counts each tile once, even
+     * after the backup that originally copied the tile was discarded.
+     */
+    long getRawBytes() {
+        if (tiles == null) {
+            return 0;
+        }
+        long sum = 0;
+        for (BackupTile tile : tiles) {
+            if (tile.isChargedTo(this)) {
+                sum += tile.getRawBytes();
+            }
+        }
+        return sum;
+    }
+
+    String getDescription() {
+        if (tiles == null) {
+            return "disposed";
+        }
+        return "%d tiles, %d shared".formatted(tiles.length, numSharedTiles);
+    }
+
+    /**
+     * Compresses all tiles of this backup in memory (used only in tests).
+     */
+    void compressTiles() {
+        for (BackupTile tile : tiles) {
+            tile.compress();
+        }
+    }
+
+    /**
+     * Releases the tiles of this backup.
+     */
+    void dispose() {
+        if (tiles == null) {
+            return;
+        }
+        for (BackupTile tile : tiles) {
+            tile.release(this);
+        }
+        tiles = null;
+    }
+}
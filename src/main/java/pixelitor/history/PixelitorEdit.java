@@ -159,6 +159,14 @@ public abstract class PixelitorEdit extends AbstractUndoableEdit implements Debu
         return isHeavy;
     }
 
+    /**
+     * Returns the (uncompressed) size of the pixel data
+     * backed up by this edit, including its embedded edits.
+     */
+    public long getBackupBytes() {
+        return 0;
+    }
+
     @Override
     public String toString() {
         return name;
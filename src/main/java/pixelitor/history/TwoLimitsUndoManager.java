@@ -23,18 +23,29 @@ import javax.swing.undo.UndoableEdit;
 /**
  * An undo manager that has a separate limit for heavyweight and lightweight edits.
  * An edit is considered heavyweight if storing it potentially requires a lot of memory.
+ * The total (uncompressed) size of the backed-up pixels is also limited.
  */
 public class TwoLimitsUndoManager extends UndoManager {
+    // the backups are compressed and spilled to disk when they
+    // don't fit into the memory, so they can exceed the heap size
+    private static final long DEFAULT_BACKUP_BYTES_LIMIT = 2 * Runtime.getRuntime().maxMemory();
+
     private int heavyEditLimit;
     private final int lightEditLimit;
+    private final long backupBytesLimit;
 
     public TwoLimitsUndoManager() {
         this(64, 256);
     }
 
     public TwoLimitsUndoManager(int heavyEditLimit, int lightEditLimit) {
+        this(heavyEditLimit, lightEditLimit, DEFAULT_BACKUP_BYTES_LIMIT);
+    }
+
+    public TwoLimitsUndoManager(int heavyEditLimit, int lightEditLimit, long backupBytesLimit) {
         this.heavyEditLimit = heavyEditLimit;
         this.lightEditLimit = lightEditLimit;
+        this.backupBytesLimit = backupBytesLimit;
 
         int limit = getLimit();
         edits.ensureCapacity(limit);
@@ -54,6 +65,10 @@ public class TwoLimitsUndoManager extends UndoManager {
         return lightEditLimit;
     }
 
+    public long getBackupBytesLimit() {
+        return backupBytesLimit;
+    }
+
     @Override
     public synchronized void setLimit(int limit) {
         this.heavyEditLimit = limit;
@@ -93,6 +108,31 @@ public class TwoLimitsUndoManager extends UndoManager {
                 }
             }
         }
+
+        long extraBytes = getBackupBytes() - backupBytesLimit;
+        if (extraBytes > 0) {
+            // remove the oldest edits, but always keep the latest one
+            long removedBytes = 0;
+            int lastRemoved = -1;
+            for (int i = 0; i < edits.size() - 1 && removedBytes < extraBytes; i++) {
+                removedBytes += ((PixelitorEdit) edits.get(i)).getBackupBytes();
+                lastRemoved = i;
+            }
+            if (lastRemoved >= 0) {
+                trimEdits(0, lastRemoved);
+            }
+        }
+    }
+
+    /**
+     * Returns the total (uncompressed) size of the pixels backed up by the edits.
+     */
+    public long getBackupBytes() {
+        long sum = 0;
+        for (UndoableEdit edit : edits) {
+            sum += ((PixelitorEdit) edit).getBackupBytes();
+        }
+        return sum;
     }
 
     public int getHeavyEditsCount() {
@@ -0,0 +1,456 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.io;
+
+import pixelitor.ThreadPool;
+import pixelitor.utils.ProgressTracker;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.WritableRaster;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static java.awt.image.BufferedImage.TYPE_BYTE_GRAY;
+
+/**
+ * The pixel section of the pxc files (starting with version 4).
+ * <p>
+ * Each image is split into horizontal chunks of a few megabytes,
+ * which are compressed independently, so that they can be
+ * compressed and decompressed on all CPU cores, while the file
+ * is still written and read sequentially. The compression predicts
+ * each sample from the same channel of the pixel on its left,
+ * and deflates the differences.
+ * <p>
+ * The section starts with the number of images, and for each image
+ * it contains its width, height, type and number of chunks,
+ * followed by the chunks, each prefixed with its compressed length.
+ */
+class ChunkedImages {
+    // the uncompressed size of a chunk (except for very wide images)
+    private static final int CHUNK_BYTES = 4 * 1024 * 1024;
+
+    // the number of chunks that can be compressed or decompressed
+    // at the same time, which also limits the memory used by the buffers
+    private static final int MAX_CHUNKS_IN_FLIGHT =
+        2 * Runtime.getRuntime().availableProcessors();
+
+    // the images of a section that is written, or that was read eagerly
+    private final List<BufferedImage> images = new ArrayList<>();
+
+    // the images of a section that is read lazily, and their
+    // width, height and type, which are known before they are loaded
+    private final List<PendingImage> pendingImages = new ArrayList<>();
+    private final List<int[]> pendingHeaders = new ArrayList<>();
+
+    // the file position after a section that is read lazily
+    private long endPosition;
+
+    /**
+     * Adds an image to be written and returns its index.
+     */
+    int add(BufferedImage img) {
+        if (!isSupported(img)) {
+            throw new UnsupportedOperationException("image type " + img.getType());
+        }
+        images.add(img);
+        return images.size() - 1;
+    }
+
+    int size() {
+        return pendingImages.isEmpty() ? images.size() : pendingImages.size();
+    }
+
+    /**
+     * Returns the image with the given index of a section that was read.
+     * If the section is read lazily, the image might still be loading.
+     */
+    CompletableFuture<BufferedImage> get(int index) throws IOException {
+        if (index < 0 || index >= size()) {
+            throw new IOException("invalid image index " + index);
+        }
+        if (pendingImages.isEmpty()) {
+            return CompletableFuture.completedFuture(images.get(index));
+        }
+        return pendingImages.get(index);
+    }
+
+    /**
+     * Returns true if the section that was read has an image
+     * with the given index, dimensions and type.
+     */
+    boolean hasImage(int index, int width, int height, int type) {
+        if (index < 0 || index >= size()) {
+            return false;
+        }
+        if (pendingImages.isEmpty()) {
+            BufferedImage img = images.get(index);
+            return img.getWidth() == width && img.getHeight() == height && img.getType() == type;
+        }
+        return Arrays.equals(pendingHeaders.get(index), new int[]{width, height, type});
+    }
+
+    static boolean isSupported(BufferedImage img) {
+        DataBuffer buffer = img.getRaster().getDataBuffer();
+        if (buffer.getNumBanks() != 1 || buffer.getOffset() != 0
+            || buffer.getSize() != img.getWidth() * img.getHeight()) {
+            return false;
+        }
+        if (img.getType() == TYPE_BYTE_GRAY) {
+            return buffer instanceof DataBufferByte;
+        }
+        return buffer instanceof DataBufferInt
+            && img.getRaster().getNumDataElements() == 1;
+    }
+
+    int getNumChunks() {
+        int numChunks = 0;
+        for (BufferedImage img : images) {
+            numChunks += calcNumChunks(img.getWidth(), img.getHeight(), img.getType());
+        }
+        return numChunks;
+    }
+
+    private static int bytesPerPixel(int type) {
+        return type == TYPE_BYTE_GRAY ? 1 : 4;
+    }
+
+    private static int calcRowsPerChunk(int width, int type) {
+        return Math.max(1, CHUNK_BYTES / (width * bytesPerPixel(type)));
+    }
+
+    private static int calcNumChunks(int width, int height, int type) {
+        return Math.ceilDiv(height, calcRowsPerChunk(width, type));
+    }
+
+    /**
+     * Writes all the added images, reporting one unit of progress for each chunk.
+     */
+    void write(DataOutputStream out, ProgressTracker pt) throws IOException {
+        out.writeInt(images.size());
+
+        Deque<Future<byte[]>> inFlight = new ArrayDeque<>();
+        for (BufferedImage img : images) {
+            int width = img.getWidth();
+            int height = img.getHeight();
+            int type = img.getType();
+            int rowsPerChunk = calcRowsPerChunk(width, type);
+
+            // the chunk headers are written before their chunks, so
+            // the pending chunks of the previous image must be written first
+            while (!inFlight.isEmpty()) {
+                writeChunk(out, inFlight.removeFirst(), pt);
+            }
+            out.writeInt(width);
+            out.writeInt(height);
+            out.writeInt(type);
+            out.writeInt(calcNumChunks(width, height, type));
+
+            for (int y = 0; y < height; y += rowsPerChunk) {
+                int startY = y;
+                int numRows = Math.min(rowsPerChunk, height - y);
+                inFlight.addLast(ThreadPool.submit2(() ->
+                    compress(img, startY, numRows)));
+                if (inFlight.size() >= MAX_CHUNKS_IN_FLIGHT) {
+                    writeChunk(out, inFlight.removeFirst(), pt);
+                }
+            }
+        }
+        while (!inFlight.isEmpty()) {
+            writeChunk(out, inFlight.removeFirst(), pt);
+        }
+    }
+
+    private static void writeChunk(DataOutputStream out, Future<byte[]> chunk,
+                                   ProgressTracker pt) throws IOException {
+        byte[] data = ThreadPool.getIOResult(chunk);
+        out.writeInt(data.length);
+        out.write(data);
+        pt.unitDone();
+    }
+
+    private static byte[] compress(BufferedImage img, int startY, int numRows) {
+        int width = img.getWidth();
+        int stride = bytesPerPixel(img.getType());
+        int length = numRows * width;
+
+        // the data buffer of the saved image isn't accessed directly,
+        // because that would prevent Java2D from accelerating its drawing
+        byte[] bytes = new byte[length * stride];
+        WritableRaster raster = img.getRaster();
+        if (stride == 4) {
+            int[] pixels = new int[length];
+            raster.getDataElements(0, startY, width, numRows, pixels);
+            ByteBuffer.wrap(bytes).asIntBuffer().put(pixels);
+        } else {
+            raster.getDataElements(0, startY, width, numRows, bytes);
+        }
+
+        // replace the samples with their differences from the left neighbor
+        int rowLength = width * stride;
+        for (int rowStart = 0; rowStart < bytes.length; rowStart += rowLength) {
+            for (int i = rowStart + rowLength - 1; i >= rowStart + stride; i--) {
+                bytes[i] -= bytes[i - stride];
+            }
+        }
+
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(bytes);
+            deflater.finish();
+            byte[] out = new byte[bytes.length / 4 + 64];
+            int outLength = 0;
+            while (!deflater.finished()) {
+                if (outLength == out.length) {
+                    out = Arrays.copyOf(out, out.length * 2);
+                }
+                outLength += deflater.deflate(out, outLength, out.length - outLength);
+            }
+            return Arrays.copyOf(out, outLength);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Reads the images of a pixel section, decompressing the chunks in parallel.
+     */
+    static ChunkedImages read(DataInputStream in) throws IOException {
+        ChunkedImages result = new ChunkedImages();
+        int numImages = in.readInt();
+        if (numImages < 0) {
+            throw new IOException("invalid number of images: " + numImages);
+        }
+
+        Deque<Future<Void>> inFlight = new ArrayDeque<>();
+        for (int i = 0; i < numImages; i++) {
+            int width = in.readInt();
+            int height = in.readInt();
+            int type = in.readInt();
+            int numChunks = in.readInt();
+            checkHeader(width, height, type, numChunks);
+
+            BufferedImage img = new BufferedImage(width, height, type);
+            result.images.add(img);
+
+            int rowsPerChunk = calcRowsPerChunk(width, type);
+            for (int y = 0; y < height; y += rowsPerChunk) {
+                int length = readChunkLength(in.readInt());
+                byte[] data = new byte[length];
+                in.readFully(data);
+
+                int startY = y;
+                int numRows = Math.min(rowsPerChunk, height - y);
+                inFlight.addLast(ThreadPool.submit2(() ->
+                    decompress(data, img, startY, numRows)));
+                if (inFlight.size() >= MAX_CHUNKS_IN_FLIGHT) {
+                    ThreadPool.getIOResult(inFlight.removeFirst());
+                }
+            }
+        }
+        for (Future<Void> future : inFlight) {
+            ThreadPool.getIOResult(future);
+        }
+        return result;
+    }
+
+    /**
+     * Skips a pixel section without decoding it.
+     */
+    static void skip(DataInputStream in) throws IOException {
+        int numImages = in.readInt();
+        for (int i = 0; i < numImages; i++) {
+            int width = in.readInt();
+            int height = in.readInt();
+            int type = in.readInt();
+            int numChunks = in.readInt();
+            checkHeader(width, height, type, numChunks);
+            for (int chunk = 0; chunk < numChunks; chunk++) {
+                in.skipNBytes(readChunkLength(in.readInt()));
+            }
+        }
+    }
+
+    /**
+     * Reads only the structure of the pixel section starting at the given
+     * position of the given file. The pixels are loaded when {@link #startLoading}
+     * is called, or when an image is needed, and the file must remain
+     * open until then (see {@link #whenAllLoaded()}).
+     */
+    static ChunkedImages readLazily(FileChannel channel, long position) throws IOException {
+        ChunkedImages result = new ChunkedImages();
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+
+        int numImages = readInt(channel, position, buffer);
+        position += 4;
+        if (numImages < 0) {
+            throw new IOException("invalid number of images: " + numImages);
+        }
+
+        for (int i = 0; i < numImages; i++) {
+            buffer.clear();
+            readFully(channel, buffer, position);
+            position += 16;
+            buffer.flip();
+            int width = buffer.getInt();
+            int height = buffer.getInt();
+            int type = buffer.getInt();
+            int numChunks = buffer.getInt();
+            checkHeader(width, height, type, numChunks);
+
+            int rowsPerChunk = calcRowsPerChunk(width, type);
+            List<PendingImage.Part> parts = new ArrayList<>(numChunks);
+            for (int y = 0; y < height; y += rowsPerChunk) {
+                int length = readChunkLength(readInt(channel, position, buffer));
+                long dataPosition = position + 4;
+                position = dataPosition + length;
+
+                int startY = y;
+                int numRows = Math.min(rowsPerChunk, height - y);
+                parts.add(img -> {
+                    ByteBuffer data = ByteBuffer.allocate(length);
+                    readFully(channel, data, dataPosition);
+                    decompress(data.array(), img, startY, numRows);
+                });
+            }
+            result.pendingImages.add(new PendingImage(
+                () -> new BufferedImage(width, height, type), parts));
+            result.pendingHeaders.add(new int[]{width, height, type});
+        }
+        result.endPosition = position;
+        return result;
+    }
+
+    void startLoading(Executor executor) {
+        for (PendingImage pendingImage : pendingImages) {
+            pendingImage.start(executor);
+        }
+    }
+
+    CompletableFuture<Void> whenAllLoaded() {
+        return CompletableFuture.allOf(pendingImages.toArray(CompletableFuture[]::new));
+    }
+
+    long getEndPosition() {
+        return endPosition;
+    }
+
+    private static void checkHeader(int width, int height, int type, int numChunks) throws IOException {
+        if (width <= 0 || height <= 0 || type <= 0
+            || numChunks != calcNumChunks(width, height, type)) {
+            throw new IOException("invalid image header: %dx%d, type %d, %d chunks"
+                .formatted(width, height, type, numChunks));
+        }
+        boolean supported;
+        try {
+            supported = isSupported(new BufferedImage(1, 1, type));
+        } catch (IllegalArgumentException e) {
+            supported = false;
+        }
+        if (!supported) {
+            throw new IOException("unsupported image type " + type);
+        }
+    }
+
+    private static int readChunkLength(int length) throws IOException {
+        if (length < 0) {
+            throw new IOException("invalid chunk length " + length);
+        }
+        return length;
+    }
+
+    private static int readInt(FileChannel channel, long position, ByteBuffer buffer) throws IOException {
+        buffer.clear().limit(4);
+        readFully(channel, buffer, position);
+        return buffer.getInt(0);
+    }
+
+    // positional reads don't change the channel's position,
+    // therefore they can be done by several threads at the same time
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("unexpected end of file");
+            }
+            position += read;
+        }
+    }
+
+    private static Void decompress(byte[] data, BufferedImage img,
+                                   int startY, int numRows) throws DataFormatException {
+        int width = img.getWidth();
+        int stride = bytesPerPixel(img.getType());
+        int length = numRows * width;
+
+        byte[] bytes = new byte[length * stride];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            int decoded = 0;
+            while (decoded < bytes.length && !inflater.finished()) {
+                int n = inflater.inflate(bytes, decoded, bytes.length - decoded);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                decoded += n;
+            }
+            if (decoded != bytes.length) {
+                throw new DataFormatException("truncated chunk at row " + startY);
+            }
+        } finally {
+            inflater.end();
+        }
+
+        int rowLength = width * stride;
+        for (int rowStart = 0; rowStart < bytes.length; rowStart += rowLength) {
+            for (int i = rowStart + stride; i < rowStart + rowLength; i++) {
+                bytes[i] += bytes[i - stride];
+            }
+        }
+
+        // like in compress, the data buffer isn't accessed directly
+        WritableRaster raster = img.getRaster();
+        if (stride == 4) {
+            int[] pixels = new int[length];
+            ByteBuffer.wrap(bytes).asIntBuffer().get(pixels);
+            raster.setDataElements(0, startY, width, numRows, pixels);
+        } else {
+            raster.setDataElements(0, startY, width, numRows, bytes);
+        }
+        return null;
+    }
+}
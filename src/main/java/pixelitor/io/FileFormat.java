@@ -43,7 +43,9 @@ public enum FileFormat {
     }, ORA(true, null, FileChoosers.oraFilter) {
         @Override
         public Runnable createSaveTask(Composition comp, SaveSettings settings) {
-            return () -> OpenRaster.uncheckedWrite(comp, settings.file());
+            // the composite image must be obtained on the EDT
+            BufferedImage compositeImg = comp.getCompositeImage();
+            return () -> OpenRaster.uncheckedWrite(comp, compositeImg, settings.file());
         }
 
         @Override
@@ -58,6 +60,10 @@ public enum FileFormat {
 
         @Override
         public CompletableFuture<Composition> readAsync(File file) {
+            if (shouldOpenLazily(file)) {
+                return CompletableFuture.supplyAsync(
+                    Utils.toSupplier(() -> OpenRaster.readLazily(file)), onIOThread);
+            }
             return CompletableFuture.supplyAsync(
                 Utils.toSupplier(() -> OpenRaster.read(file)), onIOThread);
         }
@@ -67,7 +73,9 @@ public enum FileFormat {
     }, PXC(true, null, FileChoosers.pxcFilter) {
         @Override
         public Runnable createSaveTask(Composition comp, SaveSettings settings) {
-            return () -> PXCFormat.write(comp, settings.file());
+            // the composite image must be obtained on the EDT
+            BufferedImage compositeImg = comp.getNumLayers() > 0 ? comp.getCompositeImage() : null;
+            return () -> PXCFormat.write(comp, compositeImg, settings.file());
         }
 
         @Override
@@ -82,6 +90,10 @@ public enum FileFormat {
 
         @Override
         public CompletableFuture<Composition> readAsync(File file) {
+            if (shouldOpenLazily(file)) {
+                return CompletableFuture.supplyAsync(
+                    Utils.toSupplier(() -> PXCFormat.readLazily(file)), onIOThread);
+            }
             return CompletableFuture.supplyAsync(
                 Utils.toSupplier(() -> PXCFormat.read(file)), onIOThread);
         }
@@ -89,6 +101,9 @@ public enum FileFormat {
     }, TIFF(false, null, FileChoosers.tiffFilter) {
     };
 
+    // multi-layered files above this size are shown before all their layers are loaded
+    private static final long LAZY_OPEN_FILE_SIZE = 64L * 1024 * 1024;
+
     private final boolean multiLayered;
     private final Function<BufferedImage, BufferedImage> converter;
     private final FileFilter fileFilter;
@@ -102,7 +117,9 @@ public enum FileFormat {
     public Runnable createSaveTask(Composition comp, SaveSettings settings) {
         assert !multiLayered; // overwritten for multi-layered formats
 
-        return () -> saveSingleLayered(comp, settings);
+        // the composite image must be obtained on the EDT
+        BufferedImage img = comp.getCompositeImage();
+        return () -> saveSingleLayered(img, settings);
     }
 
     public Composition readSync(File file) {
@@ -120,13 +137,16 @@ public enum FileFormat {
         return readSingleLayeredAsync(file);
     }
 
+    private static boolean shouldOpenLazily(File file) {
+        return file.length() > LAZY_OPEN_FILE_SIZE;
+    }
+
     private static CompletableFuture<Composition> readSingleLayeredAsync(File file) {
         return CompletableFuture.supplyAsync(() -> TrackedIO.uncheckedRead(file), onIOThread)
             .thenApplyAsync(img -> Composition.fromImage(img, file, null), onEDT);
     }
 
-    private void saveSingleLayered(Composition comp, SaveSettings settings) {
-        BufferedImage img = comp.getCompositeImage();
+    private void saveSingleLayered(BufferedImage img, SaveSettings settings) {
         if (converter != null) {
             // do the final conversion, which might be
             // necessary before writing the image
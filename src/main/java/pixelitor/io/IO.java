@@ -46,6 +46,7 @@ import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 import java.util.function.Consumer;
 
 import static java.lang.String.format;
@@ -140,6 +141,9 @@ public class IO {
      * false if the user cancels the saving or if it could not be saved
      */
     public static boolean save(Composition comp, boolean saveAs) {
+        if (!comp.checkCanBeSaved()) {
+            return false;
+        }
         boolean needsFileChooser = saveAs || comp.getFile() == null;
         if (needsFileChooser) {
             return FileChoosers.saveWithChooser(comp);
@@ -357,27 +361,21 @@ public class IO {
     public static void writeToOutStream(BufferedImage img, OutputStream magickInput) throws IOException {
         // Write as png to ImageMagick and let it do
         // the conversion to the final format.
-        // Explicitly setting a low compression level doesn't seem
-        // to make it faster (why?), so use the simple approach.
-        ImageIO.write(img, "png", magickInput);
-
-//        try (ImageOutputStream ios = ImageIO.createImageOutputStream(magickInput)) {
-//            Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("png");
-//            ImageWriter writer = writers.next();
-//            ImageWriteParam writeParam = writer.getDefaultWriteParam();
-//            writeParam.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
-//            writeParam.setCompressionQuality(1.0f); // 1 is no compression
-//            try {
-//                writer.setOutput(ios);
-//                writer.write(img);
-//            } finally {
-//                writer.dispose();
-//                ios.flush();
-//            }
-//        }
+        PipeFormat.PNG.write(img, magickInput);
     }
 
     public static BufferedImage commandLineFilter(BufferedImage src, String filterName, List<String> command) {
+        return commandLineFilter(src, filterName, command, PipeFormat.PNG, false);
+    }
+
+    /**
+     * Runs an external filter process. If cacheResults is true, then the
+     * process must be deterministic, because its results are reused for the
+     * same input pixels and command line, see {@link ProcessResultCache}.
+     */
+    public static BufferedImage commandLineFilter(BufferedImage src, String filterName,
+                                                  List<String> command, PipeFormat format,
+                                                  boolean cacheResults) {
         Result<BufferedImage, String> result;
         if (USE_SECOND_LOOP) {
             var progressHandler = Messages.startProgress(filterName, -1);
@@ -385,7 +383,7 @@ public class IO {
             SecondaryLoop secondaryLoop = Toolkit.getDefaultToolkit().getSystemEventQueue().createSecondaryLoop();
             CompletableFuture<Result<BufferedImage, String>> cf = CompletableFuture
                 .supplyAsync(() ->
-                    runCommandLineFilter(src, command))
+                    runCommandLineFilter(src, command, format, cacheResults))
                 .thenApplyAsync(r -> {
                     EventQueue.invokeLater(progressHandler::stopProgress);
                     secondaryLoop.exit();
@@ -394,7 +392,7 @@ public class IO {
             secondaryLoop.enter();
             result = cf.join();
         } else {
-            result = runCommandLineFilter(src, command);
+            result = runCommandLineFilter(src, command, format, cacheResults);
         }
         if (result.wasSuccess()) {
             return ImageUtils.toSysCompatibleImage(result.get());
@@ -405,42 +403,95 @@ public class IO {
     }
 
     public static Result<BufferedImage, String> runCommandLineFilter(BufferedImage src, List<String> command) {
+        return runCommandLineFilter(src, command, PipeFormat.PNG);
+    }
+
+    /**
+     * Like {@link #runCommandLineFilter(BufferedImage, List, PipeFormat)},
+     * but optionally reuses the earlier successful results.
+     */
+    public static Result<BufferedImage, String> runCommandLineFilter(BufferedImage src,
+                                                                     List<String> command,
+                                                                     PipeFormat format,
+                                                                     boolean cacheResults) {
+        if (!cacheResults) {
+            return runCommandLineFilter(src, command, format);
+        }
+        var cache = ProcessResultCache.getInstance();
+        var key = ProcessResultCache.createKey(src, command, format);
+        BufferedImage cached = cache.get(key);
+        if (cached != null) {
+            return Result.success(cached);
+        }
+        Result<BufferedImage, String> result = runCommandLineFilter(src, command, format);
+        if (result.wasSuccess()) {
+            cache.put(key, result.get());
+        }
+        return result;
+    }
+
+    /**
+     * Runs an external process that reads the source image from its
+     * standard input and writes the filtered image to its standard output.
+     * The input is written on a separate thread while the output is read,
+     * because the process can start writing before it has read its whole
+     * input, and then both sides would block on a full pipe.
+     */
+    public static Result<BufferedImage, String> runCommandLineFilter(BufferedImage src,
+                                                                     List<String> command,
+                                                                     PipeFormat format) {
         ProcessBuilder pb = new ProcessBuilder(command.toArray(String[]::new));
         pb.redirectInput(ProcessBuilder.Redirect.PIPE);
         pb.redirectOutput(ProcessBuilder.Redirect.PIPE);
+        pb.redirectError(ProcessBuilder.Redirect.PIPE);
 
         BufferedImage out;
-
         try {
             Process p = pb.start();
 
-            // Write the source image to the standard input
-            // of the external process
-            try (OutputStream processInput = p.getOutputStream()) {
-                assert processInput instanceof BufferedOutputStream;
+            // Write the source image to the standard input of the external process.
+            // If the process exits without reading all of it, then the write fails,
+            // but in this case the error message is more useful than the exception.
+            CompletableFuture<Void> inputWritten = CompletableFuture.runAsync(() -> {
+                try (OutputStream processInput = p.getOutputStream()) {
+                    format.write(src, processInput);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, runOnNewThread("Command Line Input"));
 
-                writeToOutStream(src, processInput);
-                processInput.flush();
-            }
+            // The standard error is also read concurrently,
+            // so that the process never blocks while writing it.
+            CompletableFuture<String> errors = CompletableFuture.supplyAsync(() -> {
+                try (InputStream processError = p.getErrorStream()) {
+                    return new String(processError.readAllBytes(), UTF_8);
+                } catch (IOException e) {
+                    return e.getMessage();
+                }
+            }, runOnNewThread("Command Line Errors"));
 
             // Read the filtered image the from the standard output
             // of the external process
-            try (InputStream processOutput = p.getInputStream()) {
-                assert processOutput instanceof BufferedInputStream;
-
-                out = ImageIO.read(processOutput);
-            }
-            String errorMsg = null;
-            if (out == null) {
-                // There was an error. Try to get an error message.
-                try (InputStream processError = p.getErrorStream()) {
-                    errorMsg = new String(processError.readAllBytes(), UTF_8);
+            try (InputStream processOutput = new BufferedInputStream(p.getInputStream(), 1 << 16)) {
+                try {
+                    out = format.read(processOutput);
+                } catch (IOException e) {
+                    out = null;
                 }
+                // consume the rest, so that the process can exit
+                processOutput.transferTo(OutputStream.nullOutputStream());
             }
+
             p.waitFor();
-            if (errorMsg != null) {
+            String errorMsg = errors.join();
+            if (out == null) {
+                if (errorMsg.isBlank()) {
+                    errorMsg = "No image was received from " + command.getFirst()
+                        + " (exit code " + p.exitValue() + ")";
+                }
                 return Result.error(errorMsg);
             }
+            inputWritten.exceptionally(e -> null).join();
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         } catch (InterruptedException e) {
@@ -448,4 +499,12 @@ public class IO {
         }
         return Result.success(out);
     }
+
+    private static Executor runOnNewThread(String threadName) {
+        return task -> {
+            Thread thread = new Thread(task, threadName);
+            thread.setDaemon(true);
+            thread.start();
+        };
+    }
 }
@@ -25,15 +25,23 @@ import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 import pixelitor.Composition;
 import pixelitor.ImageMode;
+import pixelitor.ThreadPool;
 import pixelitor.layers.*;
 import pixelitor.utils.*;
 
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 import java.util.zip.ZipOutputStream;
@@ -41,6 +49,7 @@ import java.util.zip.ZipOutputStream;
 import static java.lang.Integer.parseInt;
 import static java.lang.String.format;
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static pixelitor.utils.Threads.onPool;
 
 /**
  * OpenRaster file format support.
@@ -54,60 +63,61 @@ public class OpenRaster {
     private OpenRaster() {
     }
 
-    public static void uncheckedWrite(Composition comp, File outFile) {
+    public static void uncheckedWrite(Composition comp, BufferedImage compositeImg, File outFile) {
         try {
-            write(comp, outFile);
+            write(comp, compositeImg, outFile);
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
     }
 
     public static void write(Composition comp, File outFile) throws IOException {
-        var mainTracker = new StatusBarProgressTracker("Writing " + outFile.getName(), 100);
+        write(comp, comp.getCompositeImage(), outFile);
+    }
 
-        var fos = new FileOutputStream(outFile);
-        var zos = new ZipOutputStream(fos);
+    /**
+     * Writes the given composition, using the given, already
+     * calculated composite image as the merged image.
+     */
+    public static void write(Composition comp, BufferedImage compositeImg, File outFile) throws IOException {
+        // the progress is reported from several threads
+        var mainTracker = new SynchronizedProgressTracker(
+            new StatusBarProgressTracker("Writing " + outFile.getName(), 100));
 
         // +1 for the merged image, and +1 for the thumbnail
         int numImages = comp.getNumORAExportableImages() + 2;
         double workRatio = 1.0 / numImages;
 
-        StringBuilder stackXML = new StringBuilder(format("""
-            <?xml version='1.0' encoding='UTF-8'?>
-            <image w="%d" h="%d">
-            """, comp.getCanvasWidth(), comp.getCanvasHeight()));
-        writeHolder(comp, mainTracker, zos, stackXML, workRatio, 0);
-        stackXML.append("</image>");
-
-        // add the merged image
-        zos.putNextEntry(new ZipEntry(MERGED_IMAGE_NAME));
-        var mergedTracker = new SubtaskProgressTracker(workRatio, mainTracker);
-        var img = comp.getCompositeImage();
-        TrackedIO.writeToStream(img, zos, "PNG", mergedTracker);
-        zos.closeEntry();
-
-        // add the thumbnail image
-        zos.putNextEntry(new ZipEntry(THUMBNAIL_IMAGE_NAME));
-        var thumbTracker = new SubtaskProgressTracker(workRatio, mainTracker);
-        var thumb = createORAThumbnail(comp.getCompositeImage());
-        TrackedIO.writeToStream(thumb, zos, "PNG", thumbTracker);
-        zos.closeEntry();
-
-        // write the stack.xml file
-        zos.putNextEntry(new ZipEntry("stack.xml"));
-        zos.write(stackXML.toString().getBytes(UTF_8));
-        zos.closeEntry();
-
-        // write the mimetype
-        zos.putNextEntry(new ZipEntry("mimetype"));
-        zos.write("image/openraster".getBytes(UTF_8));
-        zos.closeEntry();
-        zos.close();
+        try (var zos = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(outFile)))) {
+            var pngWriter = new PNGEntryWriter(zos, mainTracker, workRatio);
+
+            StringBuilder stackXML = new StringBuilder(format("""
+                <?xml version='1.0' encoding='UTF-8'?>
+                <image w="%d" h="%d">
+                """, comp.getCanvasWidth(), comp.getCanvasHeight()));
+            writeHolder(comp, pngWriter, stackXML, 0);
+            stackXML.append("</image>");
+
+            // add the merged image and the thumbnail
+            pngWriter.add(MERGED_IMAGE_NAME, () -> compositeImg);
+            pngWriter.add(THUMBNAIL_IMAGE_NAME, () -> createORAThumbnail(compositeImg));
+            pngWriter.finish();
+
+            // write the stack.xml file
+            zos.putNextEntry(new ZipEntry("stack.xml"));
+            zos.write(stackXML.toString().getBytes(UTF_8));
+            zos.closeEntry();
+
+            // write the mimetype
+            zos.putNextEntry(new ZipEntry("mimetype"));
+            zos.write("image/openraster".getBytes(UTF_8));
+            zos.closeEntry();
+        }
 
         mainTracker.finished();
     }
 
-    private static int writeHolder(LayerHolder holder, StatusBarProgressTracker mainTracker, ZipOutputStream zos, StringBuilder stackXML, double workRatio, int uniqueId) throws IOException {
+    private static int writeHolder(LayerHolder holder, PNGEntryWriter pngWriter, StringBuilder stackXML, int uniqueId) throws IOException {
         stackXML.append(holder.getORAStackXML());
 
         int numLayers = holder.getNumLayers();
@@ -115,10 +125,9 @@ public class OpenRaster {
         for (int i = numLayers - 1; i >= 0; i--) {
             Layer layer = holder.getLayer(i);
             if (layer instanceof LayerGroup group) {
-                uniqueId = writeHolder(group, mainTracker, zos, stackXML, workRatio, uniqueId);
+                uniqueId = writeHolder(group, pngWriter, stackXML, uniqueId);
             } else if (layer.exportsORAImage()) {
-                var subTracker = new SubtaskProgressTracker(workRatio, mainTracker);
-                writeLayer(layer, uniqueId, zos, subTracker, stackXML);
+                writeLayer(layer, uniqueId, pngWriter, stackXML);
                 uniqueId++;
             }
         }
@@ -129,8 +138,7 @@ public class OpenRaster {
 
     private static void writeLayer(Layer layer,
                                    int uniqueId,
-                                   ZipOutputStream zos,
-                                   ProgressTracker pt,
+                                   PNGEntryWriter pngWriter,
                                    StringBuilder stackXML) throws IOException {
         TranslatedImage translatedImage = layer.getTranslatedImage();
 
@@ -146,24 +154,91 @@ public class OpenRaster {
             translatedImage.ty());
         stackXML.append(xml);
 
-        var entry = new ZipEntry(format("data/%d.png", uniqueId));
-        zos.putNextEntry(entry);
+        pngWriter.add(format("data/%d.png", uniqueId), translatedImage::img);
+    }
+
+    /**
+     * Encodes PNG images in parallel on the {@link ThreadPool}, and
+     * writes them into the zip file in the order in which they were added.
+     * The number of encoded images waiting to be written is limited,
+     * because all of them are kept in memory.
+     */
+    private static class PNGEntryWriter {
+        private static final int MAX_IMAGES_IN_FLIGHT =
+            Runtime.getRuntime().availableProcessors() + 1;
+
+        private record PendingEntry(String name, Future<byte[]> png) {
+        }
+
+        private final ZipOutputStream zos;
+        private final ProgressTracker mainTracker;
+        private final double workRatio;
+        private final Deque<PendingEntry> pending = new ArrayDeque<>();
+
+        PNGEntryWriter(ZipOutputStream zos, ProgressTracker mainTracker, double workRatio) {
+            this.zos = zos;
+            this.mainTracker = mainTracker;
+            this.workRatio = workRatio;
+        }
 
-        TrackedIO.writeToStream(translatedImage.img(), zos, "PNG", pt);
+        void add(String entryName, Callable<BufferedImage> imageSource) throws IOException {
+            var tracker = new SubtaskProgressTracker(workRatio, mainTracker);
+            Future<byte[]> png = ThreadPool.submit2(() -> {
+                var out = new ByteArrayOutputStream();
+                TrackedIO.writeToStream(imageSource.call(), out, "PNG", tracker);
+                return out.toByteArray();
+            });
+            pending.addLast(new PendingEntry(entryName, png));
+            if (pending.size() >= MAX_IMAGES_IN_FLIGHT) {
+                writeNext();
+            }
+        }
 
-        zos.closeEntry();
+        void finish() throws IOException {
+            while (!pending.isEmpty()) {
+                writeNext();
+            }
+        }
+
+        private void writeNext() throws IOException {
+            PendingEntry next = pending.removeFirst();
+            byte[] png;
+            try {
+                png = ThreadPool.getIOResult(next.png());
+            } catch (IOException e) {
+                pending.forEach(entry -> entry.png().cancel(false));
+                throw e;
+            }
+
+            // the PNG data is already compressed, so it's stored without deflating it again
+            var crc = new CRC32();
+            crc.update(png);
+            var entry = new ZipEntry(next.name());
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(png.length);
+            entry.setCompressedSize(png.length);
+            entry.setCrc(crc.getValue());
+
+            zos.putNextEntry(entry);
+            zos.write(png);
+            zos.closeEntry();
+        }
     }
 
     public static Composition read(File file) throws IOException, ParserConfigurationException, SAXException {
         String stackXML = null;
-        var mainTracker = new StatusBarProgressTracker("Reading " + file.getName(), 100);
+        // the progress is reported from several threads
+        var mainTracker = new SynchronizedProgressTracker(
+            new StatusBarProgressTracker("Reading " + file.getName(), 100));
         Map<String, BufferedImage> images = new HashMap<>();
         try (ZipFile zipFile = new ZipFile(file)) {
             // first iterate to count the image files...
             int numImageFiles = countNumImageFiles(zipFile);
             double workRatio = 1.0 / numImageFiles;
 
-            // ...then iterate again to actually read the files
+            // ...then iterate again to decode the layer images in parallel,
+            // as the zip file allows reading its entries independently
+            Map<String, Future<BufferedImage>> decodedImages = new HashMap<>();
             var fileEntries = zipFile.entries();
             while (fileEntries.hasMoreElements()) {
                 ZipEntry entry = fileEntries.nextElement();
@@ -177,13 +252,90 @@ public class OpenRaster {
                     // no need to read it
                 } else if (FileUtils.hasPNGExtension(name)) {
                     var subTracker = new SubtaskProgressTracker(workRatio, mainTracker);
-                    var stream = zipFile.getInputStream(entry);
-                    var image = TrackedIO.readFromStream(stream, subTracker);
-                    images.put(name, image);
+                    decodedImages.put(name, ThreadPool.submit2(() ->
+                        readLayerImage(zipFile, entry, subTracker)));
+                }
+            }
+
+            // wait for all images while the zip file is still open
+            try {
+                for (var decoded : decodedImages.entrySet()) {
+                    images.put(decoded.getKey(), ThreadPool.getIOResult(decoded.getValue()));
                 }
+            } catch (IOException e) {
+                decodedImages.values().forEach(future -> future.cancel(false));
+                throw e;
             }
         }
 
+        Element doc = parseStackXML(stackXML);
+        var comp = createComposition(doc, file);
+        readHolder(findMainStack(doc), comp, new LayerImages(images));
+
+        mainTracker.finished();
+
+        return comp;
+    }
+
+    /**
+     * Opens the given file without waiting for the layer images to be decoded.
+     * The composition is returned as soon as the layer structure and the merged
+     * image are read, and the layer images are decoded in the background
+     * (a layer's image is decoded immediately if it's needed earlier).
+     * Until all images are ready, the merged image is shown as a preview.
+     */
+    public static Composition readLazily(File file) throws IOException, ParserConfigurationException, SAXException {
+        ZipFile zipFile = new ZipFile(file);
+        boolean keepOpen = false;
+        try {
+            ZipEntry stackEntry = findEntry(zipFile, "stack.xml");
+            ZipEntry mergedEntry = findEntry(zipFile, MERGED_IMAGE_NAME);
+            if (stackEntry == null || mergedEntry == null) {
+                // there is no preview, so there is no point in reading lazily
+                zipFile.close();
+                return read(file);
+            }
+
+            Element doc = parseStackXML(extractString(zipFile.getInputStream(stackEntry)));
+            BufferedImage preview = readLayerImage(zipFile, mergedEntry, ProgressTracker.NULL_TRACKER);
+
+            var comp = createComposition(doc, file);
+            var layerImages = new PendingLayerImages(zipFile, comp);
+            readHolder(findMainStack(doc), comp, layerImages);
+
+            CompletableFuture<Void> allLoaded = layerImages.startLoading(onPool);
+            allLoaded.whenComplete((v, e) -> closeQuietly(zipFile));
+            keepOpen = true;
+
+            comp.showPreviewWhileLoading(preview, allLoaded);
+            return comp;
+        } finally {
+            if (!keepOpen) {
+                closeQuietly(zipFile);
+            }
+        }
+    }
+
+    private static ZipEntry findEntry(ZipFile zipFile, String name) {
+        var fileEntries = zipFile.entries();
+        while (fileEntries.hasMoreElements()) {
+            ZipEntry entry = fileEntries.nextElement();
+            if (entry.getName().equalsIgnoreCase(name)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    private static void closeQuietly(ZipFile zipFile) {
+        try {
+            zipFile.close();
+        } catch (IOException e) {
+            // nothing useful can be done at this point
+        }
+    }
+
+    private static Element parseStackXML(String stackXML) throws ParserConfigurationException, IOException, SAXException {
         if (stackXML == null) {
             throw new IllegalStateException("No stack.xml found.");
         }
@@ -196,29 +348,136 @@ public class OpenRaster {
                 "stack.xml root element is '%s', expected: 'image'",
                 docNodeName));
         }
+        return doc;
+    }
 
+    private static Composition createComposition(Element doc, File file) {
         int compWidth = parseInt(doc.getAttribute("w").trim());
         int compHeight = parseInt(doc.getAttribute("h").trim());
 
         var comp = Composition.createEmpty(compWidth, compHeight, ImageMode.RGB);
         comp.setFile(file);
         comp.createDebugName();
+        return comp;
+    }
 
+    private static Node findMainStack(Element doc) {
         Node mainStackElement = doc.getFirstChild();
         // make sure that text nodes caused by whitespace are ignored
         while (!(mainStackElement instanceof Element)) {
             mainStackElement = mainStackElement.getNextSibling();
         }
+        return mainStackElement;
+    }
 
-        readHolder(mainStackElement, comp, images);
+    private static BufferedImage readLayerImage(ZipFile zipFile, ZipEntry entry,
+                                                ProgressTracker tracker) throws IOException {
+        try (InputStream stream = zipFile.getInputStream(entry)) {
+            BufferedImage image = TrackedIO.readFromStream(stream, tracker);
+            if (image == null) {
+                throw new IOException("Could not decode " + entry.getName());
+            }
+            return ImageUtils.toSysCompatibleImage(image);
+        }
+    }
 
-        mainTracker.finished();
+    /**
+     * Creates the image layers for the layer elements of stack.xml.
+     */
+    private interface LayerSource {
+        ImageLayer createLayer(LayerHolder holder, String name, String src, int tx, int ty);
+    }
 
-        return comp;
+    /**
+     * The decoded layer images. An image is given to the first layer
+     * that references it, and the other layers referencing the same
+     * file (if any) get their own copies.
+     */
+    private static class LayerImages implements LayerSource {
+        private final Map<String, BufferedImage> images;
+        private final Set<String> taken = new HashSet<>();
+
+        LayerImages(Map<String, BufferedImage> images) {
+            this.images = images;
+        }
+
+        BufferedImage take(String src) {
+            BufferedImage image = images.get(src);
+            if (image != null && !taken.add(src)) {
+                return ImageUtils.copyImage(image);
+            }
+            return image;
+        }
+
+        @Override
+        public ImageLayer createLayer(LayerHolder holder, String name, String src, int tx, int ty) {
+            ImageLayer layer = new ImageLayer(holder.getComp(), take(src), name, 0, 0);
+            // Pixelitor doesn't support > 0 translations for image layers
+            // (i.e. image layers where the image doesn't fully cover the canvas)
+            // therefore the image must be enlarged
+            // Also, Krita can export 1x1 pngs for untouched paint layers (without translation)
+            layer.forceTranslation(tx, ty);
+            layer.enlargeCanvas(0, 0, 0, 0);
+            return layer;
+        }
+    }
+
+    /**
+     * Creates layers whose images are decoded from the
+     * still open zip file only after the layers were created.
+     */
+    private static class PendingLayerImages implements LayerSource {
+        private final ZipFile zipFile;
+        private final int canvasWidth;
+        private final int canvasHeight;
+        private final List<PendingImage> pendingImages = new ArrayList<>();
+
+        PendingLayerImages(ZipFile zipFile, Composition comp) {
+            this.zipFile = zipFile;
+            canvasWidth = comp.getCanvasWidth();
+            canvasHeight = comp.getCanvasHeight();
+        }
+
+        @Override
+        public ImageLayer createLayer(LayerHolder holder, String name, String src, int tx, int ty) {
+            var pending = new PendingImage(() -> decode(src, tx, ty), List.of());
+            pendingImages.add(pending);
+
+            // the image will cover the canvas, see decode
+            return ImageLayer.createWithPendingImage(holder.getComp(), name,
+                pending, Math.min(tx, 0), Math.min(ty, 0));
+        }
+
+        private BufferedImage decode(String src, int tx, int ty) throws IOException {
+            ZipEntry entry = zipFile.getEntry(src);
+            if (entry == null) {
+                throw new IOException(src + " not found in " + zipFile.getName());
+            }
+            BufferedImage image = readLayerImage(zipFile, entry, ProgressTracker.NULL_TRACKER);
+
+            // the same enlargement as in the eager reading, where
+            // it's done by ImageLayer.enlargeCanvas
+            var imageBounds = new Rectangle(tx, ty, image.getWidth(), image.getHeight());
+            var canvasBounds = new Rectangle(0, 0, canvasWidth, canvasHeight);
+            if (imageBounds.contains(canvasBounds)) {
+                return image;
+            }
+            Rectangle target = imageBounds.union(canvasBounds);
+            BufferedImage enlarged = ImageUtils.createSysCompatibleImage(target.width, target.height);
+            Graphics2D g = enlarged.createGraphics();
+            g.drawImage(image, tx - target.x, ty - target.y, null);
+            g.dispose();
+            return enlarged;
+        }
+
+        CompletableFuture<Void> startLoading(Executor executor) {
+            pendingImages.forEach(image -> image.start(executor));
+            return CompletableFuture.allOf(pendingImages.toArray(CompletableFuture[]::new));
+        }
     }
 
     // reads a stack element
-    private static void readHolder(Node stackNode, LayerHolder parent, Map<String, BufferedImage> images) {
+    private static void readHolder(Node stackNode, LayerHolder parent, LayerSource images) {
         assert stackNode.getNodeName().equals("stack");
 
         NodeList childNodes = stackNode.getChildNodes();
@@ -247,25 +506,16 @@ public class OpenRaster {
         }
     }
 
-    private static void readLayer(Map<String, BufferedImage> images, LayerHolder holder, Element element) {
+    private static void readLayer(LayerSource images, LayerHolder holder, Element element) {
         String layerName = element.getAttribute("name");
         String layerImageSource = element.getAttribute("src");
 
-        BufferedImage image = images.get(layerImageSource);
-        image = ImageUtils.toSysCompatibleImage(image);
-
         String layerX = element.getAttribute("x");
         String layerY = element.getAttribute("y");
         int tx = Utils.parseInt(layerX, 0);
         int ty = Utils.parseInt(layerY, 0);
 
-        ImageLayer layer = new ImageLayer(holder.getComp(), image, layerName, 0, 0);
-        // Pixelitor doesn't support > 0 translations for image layers
-        // (i.e. image layers where the image doesn't fully cover the canvas)
-        // therefore the image must be enlarged
-        // Also, Krita can export 1x1 pngs for untouched paint layers (without translation)
-        layer.forceTranslation(tx, ty);
-        layer.enlargeCanvas(0, 0, 0, 0);
+        ImageLayer layer = images.createLayer(holder, layerName, layerImageSource, tx, ty);
 
         readBasicAttributes(element, layer);
 
@@ -18,31 +18,61 @@
 package pixelitor.io;
 
 import pixelitor.Composition;
+import pixelitor.utils.ImageUtils;
 import pixelitor.utils.Messages;
 import pixelitor.utils.ProgressTracker;
 import pixelitor.utils.StatusBarProgressTracker;
-import pixelitor.utils.SubtaskProgressTracker;
 
 import javax.imageio.ImageIO;
+import java.awt.Dimension;
 import java.awt.EventQueue;
 import java.awt.image.BufferedImage;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
 import static java.awt.image.BufferedImage.TYPE_BYTE_GRAY;
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
 import static pixelitor.utils.ImageUtils.getPixelArray;
+import static pixelitor.utils.Threads.onPool;
 
 /**
  * PXC file format support.
+ * <p>
+ * Up to version 3, the pixels were written into the serialized
+ * object graph of the composition, one int at a time. Starting with
+ * version 4, the object graph contains only references to the
+ * images, and the pixels are stored after it in a separate section
+ * of independently compressed chunks (see {@link ChunkedImages}),
+ * which are compressed and decompressed in parallel.
+ * <p>
+ * The version 4 layout: the identification and version bytes,
+ * the length of the gzipped object graph, the object graph, a pixel
+ * section containing a downscaled preview of the composite image,
+ * and a pixel section containing the layer images. The preview allows
+ * showing large files before their layers are loaded (see {@link #readLazily}).
  */
 public class PXCFormat {
-    private static final int CURRENT_PXC_VERSION_NUMBER = 0x03;
+    private static final int CURRENT_PXC_VERSION_NUMBER = 0x04;
 
-    // tracks the writing of the whole file
-    private static ProgressTracker mainPT;
+    // the last version that stores the pixels inside the object graph
+    private static final int INLINE_PIXELS_VERSION_NUMBER = 0x03;
 
-    private static double workRatioForOneImage;
+    // the first version that stores a preview of the composite image
+    private static final int PREVIEW_VERSION_NUMBER = 0x04;
+
+    // the maximum width and height of the stored preview
+    private static final int PREVIEW_SIZE = 2048;
+
+    // the pixel section of the pxc file that is written or read
+    // on the current thread, or null if the images are serialized
+    // inline (old pxc files or other uses of serialization)
+    private static final ThreadLocal<ChunkedImages> currentImages = new ThreadLocal<>();
 
     private PXCFormat() {
     }
@@ -64,67 +94,204 @@ public class PXCFormat {
                     + " is not in the pxc format.");
             }
             int versionByte = is.read();
-            if (versionByte == 0) {
-                throw new BadPxcFormatException(file.getName()
-                    + " is in an obsolete pxc format, "
-                    + "it can only be opened in the old beta Pixelitor versions 0.9.2-0.9.7");
+            checkVersion(file, versionByte);
+
+            if (versionByte == INLINE_PIXELS_VERSION_NUMBER) {
+                comp = readComposition(is);
+            } else {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(is));
+                int objectsLength = in.readInt();
+                if (objectsLength < 0) {
+                    throw new BadPxcFormatException(file.getName()
+                        + " is corrupt (object section length = " + objectsLength + ")");
+                }
+                byte[] objects = new byte[objectsLength];
+                in.readFully(objects);
+
+                ChunkedImages.skip(in); // the preview isn't needed
+                currentImages.set(ChunkedImages.read(in));
+                try {
+                    comp = readComposition(new ByteArrayInputStream(objects));
+                } finally {
+                    currentImages.remove();
+                }
             }
-            if (versionByte == 1) {
-                throw new BadPxcFormatException(file.getName()
-                    + " is in an obsolete pxc format, "
-                    + "it can only be opened in the old beta Pixelitor version 0.9.8");
+            pt.finished();
+            afterReading(comp, file);
+        } catch (IOException | ClassNotFoundException e) {
+            Messages.showException(e);
+        }
+
+        return comp;
+    }
+
+    /**
+     * Reads a pxc file so that the composition can be shown before all
+     * the layer pixels are loaded: only the object graph and the stored
+     * preview are read here, the layer pixels are loaded in the background,
+     * and the layers wait for their pixels only when they are needed.
+     * Older files without a preview are read normally.
+     */
+    public static Composition readLazily(File file) throws BadPxcFormatException {
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            ByteBuffer header = ByteBuffer.allocate(7);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // read until the header is complete or the file ends
             }
-            if (versionByte == 2) {
-                throw new BadPxcFormatException(file.getName()
-                    + " is in an obsolete pxc format, "
-                    + "it can only be opened in the old Pixelitor versions 0.9.9-1.1.2");
+            header.flip();
+            if (header.remaining() < 7 || (header.get(0) & 0xFF) != 0xAB
+                || (header.get(1) & 0xFF) != 0xC4 || header.get(2) < PREVIEW_VERSION_NUMBER) {
+                // not a pxc file with a preview, the normal reading reports the problems
+                channel.close();
+                return read(file);
             }
-            if (versionByte > CURRENT_PXC_VERSION_NUMBER) {
+            checkVersion(file, header.get(2));
+
+            int objectsLength = header.getInt(3);
+            if (objectsLength < 0) {
                 throw new BadPxcFormatException(file.getName()
-                    + " has unknown version byte " + versionByte);
+                    + " is corrupt (object section length = " + objectsLength + ")");
+            }
+            ByteBuffer objects = ByteBuffer.allocate(objectsLength);
+            while (objects.hasRemaining()) {
+                if (channel.read(objects) < 0) {
+                    throw new EOFException("unexpected end of file");
+                }
             }
 
-            try (GZIPInputStream gs = new GZIPInputStream(is)) {
-                try (ObjectInput ois = new ObjectInputStream(gs)) {
-                    comp = (Composition) ois.readObject();
-                    pt.finished();
+            long previewPosition = 7L + objectsLength;
+            ChunkedImages previewSection = ChunkedImages.readLazily(channel, previewPosition);
+            BufferedImage preview = previewSection.size() == 1 ? previewSection.get(0).join() : null;
 
-                    // file is transient in Composition because the pxc file can be renamed
-                    comp.setFile(file);
+            ChunkedImages images = ChunkedImages.readLazily(channel, previewSection.getEndPosition());
+            images.startLoading(onPool);
 
-                    EventQueue.invokeLater(comp::checkFontsAreInstalled);
-                }
+            Composition comp;
+            currentImages.set(images);
+            try {
+                comp = readComposition(new ByteArrayInputStream(objects.array()));
+            } finally {
+                currentImages.remove();
+            }
+
+            CompletableFuture<Void> allLoaded = images.whenAllLoaded();
+            FileChannel openChannel = channel;
+            allLoaded.whenComplete((v, e) -> closeQuietly(openChannel));
+            channel = null; // it will be closed when the loading finishes
+
+            comp.showPreviewWhileLoading(preview, allLoaded);
+            afterReading(comp, file);
+            return comp;
+        } catch (IOException | ClassNotFoundException | CompletionException e) {
+            Messages.showException(e instanceof CompletionException ? e.getCause() : e);
+            return null;
+        } finally {
+            if (channel != null) {
+                closeQuietly(channel);
             }
-        } catch (IOException | ClassNotFoundException e) {
-            Messages.showException(e);
         }
+    }
 
-        return comp;
+    private static void checkVersion(File file, int versionByte) throws BadPxcFormatException {
+        if (versionByte == 0) {
+            throw new BadPxcFormatException(file.getName()
+                + " is in an obsolete pxc format, "
+                + "it can only be opened in the old beta Pixelitor versions 0.9.2-0.9.7");
+        }
+        if (versionByte == 1) {
+            throw new BadPxcFormatException(file.getName()
+                + " is in an obsolete pxc format, "
+                + "it can only be opened in the old beta Pixelitor version 0.9.8");
+        }
+        if (versionByte == 2) {
+            throw new BadPxcFormatException(file.getName()
+                + " is in an obsolete pxc format, "
+                + "it can only be opened in the old Pixelitor versions 0.9.9-1.1.2");
+        }
+        if (versionByte > CURRENT_PXC_VERSION_NUMBER) {
+            throw new BadPxcFormatException(file.getName()
+                + " has unknown version byte " + versionByte);
+        }
     }
 
-    public static void write(Composition comp, File file) {
-        mainPT = new StatusBarProgressTracker(
-            "Writing " + file.getName(), 100);
-        int numImages = comp.calcNumImages();
-        if (numImages > 0) {
-            workRatioForOneImage = 1.0 / numImages;
-        } else {
-            workRatioForOneImage = -1;
+    private static void afterReading(Composition comp, File file) {
+        // file is transient in Composition because the pxc file can be renamed
+        comp.setFile(file);
+
+        EventQueue.invokeLater(comp::checkFontsAreInstalled);
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // nothing to do, the file was only read
         }
-        try (FileOutputStream fos = new FileOutputStream(file)) {
-            fos.write(new byte[]{(byte) 0xAB, (byte) 0xC4, CURRENT_PXC_VERSION_NUMBER});
+    }
 
-            try (GZIPOutputStream gz = new GZIPOutputStream(fos)) {
-                try (ObjectOutput oos = new ObjectOutputStream(gz)) {
-                    oos.writeObject(comp);
-                    oos.flush();
-                }
+    private static Composition readComposition(InputStream is) throws IOException, ClassNotFoundException {
+        try (GZIPInputStream gs = new GZIPInputStream(is)) {
+            try (ObjectInput ois = new ObjectInputStream(gs)) {
+                return (Composition) ois.readObject();
             }
+        }
+    }
+
+    public static void write(Composition comp, File file) {
+        write(comp, comp.getNumLayers() > 0 ? comp.getCompositeImage() : null, file);
+    }
+
+    /**
+     * Writes the given composition, using the given, already calculated
+     * composite image (which can be null if there are no layers) for the preview.
+     */
+    public static void write(Composition comp, BufferedImage compositeImg, File file) {
+        // serialize the object graph, collecting the images
+        ChunkedImages images = new ChunkedImages();
+        var objects = new ByteArrayOutputStream();
+        currentImages.set(images);
+        try (ObjectOutput oos = new ObjectOutputStream(new GZIPOutputStream(objects))) {
+            oos.writeObject(comp);
         } catch (IOException e) {
             throw new UncheckedIOException(e);
+        } finally {
+            currentImages.remove();
+        }
+
+        ChunkedImages previewSection = new ChunkedImages();
+        if (compositeImg != null) {
+            previewSection.add(createPreview(compositeImg));
         }
-        mainPT.finished();
-        mainPT = null;
+
+        ProgressTracker pt = new StatusBarProgressTracker(
+            "Writing " + file.getName(), previewSection.getNumChunks() + images.getNumChunks());
+        try (DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.write(new byte[]{(byte) 0xAB, (byte) 0xC4, CURRENT_PXC_VERSION_NUMBER});
+            out.writeInt(objects.size());
+            objects.writeTo(out);
+            previewSection.write(out, pt);
+            images.write(out, pt);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        pt.finished();
+    }
+
+    private static BufferedImage createPreview(BufferedImage composite) {
+        BufferedImage preview = composite;
+        int width = composite.getWidth();
+        int height = composite.getHeight();
+        if (width > PREVIEW_SIZE || height > PREVIEW_SIZE) {
+            Dimension size = ImageUtils.calcThumbDimensions(width, height, PREVIEW_SIZE, false);
+            preview = ImageUtils.resize(composite, size.width, size.height);
+        }
+        if (!ChunkedImages.isSupported(preview)) {
+            preview = ImageUtils.copyTo(TYPE_INT_ARGB, preview);
+        }
+        return preview;
     }
 
     public static void serializeImage(ObjectOutputStream out,
@@ -138,35 +305,46 @@ public class PXCFormat {
         out.writeInt(imgHeight);
         out.writeInt(imgType);
 
-        ProgressTracker pt = getImageTracker();
+        ChunkedImages images = currentImages.get();
+        if (images != null) {
+            // the pixels will be written later, in the pixel section
+            out.writeInt(images.add(img));
+            return;
+        }
 
         if (imgType == TYPE_BYTE_GRAY) {
             ImageIO.write(img, "PNG", out);
         } else {
             int[] pixels = getPixelArray(img);
-            int length = pixels.length;
-            int progress = 0;
-            int fiveUnits = length / 20;
             for (int pixel : pixels) {
                 out.writeInt(pixel);
-                progress++;
-                if (progress > fiveUnits) {
-                    pt.unitsDone(5);
-                    progress = 0;
-                }
             }
         }
     }
 
+    /**
+     * Reads an image written by {@link #serializeImage}. The returned
+     * future is already completed, unless the pxc file is read lazily.
+     */
     // when deserializing, the progress tracking
     // is done at the InputStream level, not here
-    public static BufferedImage deserializeImage(ObjectInputStream in) throws IOException {
+    public static CompletableFuture<BufferedImage> deserializeImage(ObjectInputStream in) throws IOException {
         int width = in.readInt();
         int height = in.readInt();
         int type = in.readInt();
 
+        ChunkedImages images = currentImages.get();
+        if (images != null) {
+            int index = in.readInt();
+            if (!images.hasImage(index, width, height, type)) {
+                throw new IOException("the pixel section doesn't match the image "
+                    + width + "x" + height + ", type " + type);
+            }
+            return images.get(index);
+        }
+
         if (type == TYPE_BYTE_GRAY) {
-            return ImageIO.read(in);
+            return CompletableFuture.completedFuture(ImageIO.read(in));
         } else {
             BufferedImage img = new BufferedImage(width, height, type);
             int[] pixels = getPixelArray(img);
@@ -175,16 +353,7 @@ public class PXCFormat {
             for (int i = 0; i < length; i++) {
                 pixels[i] = in.readInt();
             }
-            return img;
-        }
-    }
-
-    private static ProgressTracker getImageTracker() {
-        if (workRatioForOneImage == -1) {
-            // a pxc without images
-            return ProgressTracker.NULL_TRACKER;
-        } else {
-            return new SubtaskProgressTracker(workRatioForOneImage, mainPT);
+            return CompletableFuture.completedFuture(img);
         }
     }
 }
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.io;
+
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The pixels of a layer of a lazily opened file, which are loaded
+ * in the background. The image is created by an allocator, and
+ * then it's filled by independent parts (for example the chunks
+ * of a pxc file), which are executed on the given executor.
+ * <p>
+ * If the image is needed before it's loaded, then the waiting thread
+ * doesn't only wait, but it also executes the parts that haven't
+ * started yet, so that the needed layer is loaded with priority.
+ */
+class PendingImage extends CompletableFuture<BufferedImage> {
+    /**
+     * A part of the loading, which fills some of the pixels.
+     */
+    @FunctionalInterface
+    interface Part {
+        void load(BufferedImage img) throws Exception;
+    }
+
+    private final Callable<BufferedImage> allocator;
+    private final List<Part> parts;
+    private final AtomicBoolean[] claimed;
+    private final AtomicInteger remainingParts;
+
+    // guarded by this
+    private BufferedImage image;
+
+    PendingImage(Callable<BufferedImage> allocator, List<Part> parts) {
+        this.allocator = allocator;
+        this.parts = parts;
+        claimed = new AtomicBoolean[parts.size()];
+        for (int i = 0; i < claimed.length; i++) {
+            claimed[i] = new AtomicBoolean();
+        }
+        remainingParts = new AtomicInteger(parts.size());
+    }
+
+    /**
+     * Starts loading the image in the background.
+     */
+    void start(Executor executor) {
+        if (parts.isEmpty()) {
+            executor.execute(this::runAllocatorOnly);
+            return;
+        }
+        for (int i = 0; i < parts.size(); i++) {
+            int partIndex = i;
+            executor.execute(() -> runPart(partIndex));
+        }
+    }
+
+    private void runAllocatorOnly() {
+        try {
+            complete(getImage());
+        } catch (Throwable e) {
+            completeExceptionally(e);
+        }
+    }
+
+    private void runPart(int index) {
+        if (!claimed[index].compareAndSet(false, true) || isDone()) {
+            return; // already executed by another thread, or failed
+        }
+        try {
+            parts.get(index).load(getImage());
+        } catch (Throwable e) {
+            completeExceptionally(e);
+            return;
+        }
+        if (remainingParts.decrementAndGet() == 0) {
+            complete(image());
+        }
+    }
+
+    private synchronized BufferedImage getImage() throws Exception {
+        if (image == null) {
+            image = allocator.call();
+        }
+        return image;
+    }
+
+    private synchronized BufferedImage image() {
+        return image;
+    }
+
+    /**
+     * Executes the parts that haven't started yet on the calling thread.
+     */
+    private void help() {
+        if (isDone()) {
+            return;
+        }
+        if (parts.isEmpty()) {
+            runAllocatorOnly();
+            return;
+        }
+        for (int i = 0; i < parts.size(); i++) {
+            runPart(i);
+        }
+    }
+
+    @Override
+    public BufferedImage join() {
+        help();
+        return super.join();
+    }
+
+    @Override
+    public BufferedImage get() throws InterruptedException, ExecutionException {
+        help();
+        return super.get();
+    }
+}
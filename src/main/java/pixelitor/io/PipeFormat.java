@@ -0,0 +1,209 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.io;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.*;
+import java.util.Arrays;
+
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static java.awt.image.BufferedImage.TYPE_INT_RGB;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+/**
+ * The image format used to send images to the standard input of
+ * external processes and to read them back from their standard output.
+ */
+public enum PipeFormat {
+    /**
+     * Uncompressed PNG, which is understood by every image processing
+     * program. The deflate compression is turned off, because it
+     * would dominate the running time of simple filters.
+     */
+    PNG {
+        @Override
+        public void write(BufferedImage img, OutputStream out) throws IOException {
+            ImageWriter writer = ImageIO.getImageWritersByFormatName("png").next();
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(1.0f); // 1 means no compression
+            try (ImageOutputStream ios = ImageIO.createImageOutputStream(out)) {
+                writer.setOutput(ios);
+                writer.write(null, new IIOImage(img, null, null), param);
+            } finally {
+                writer.dispose();
+            }
+        }
+
+        @Override
+        public BufferedImage read(InputStream in) throws IOException {
+            return ImageIO.read(in);
+        }
+    },
+    /**
+     * The raw (planar, uncompressed) image format of the
+     * CImg library, which is the native format of G'MIC.
+     * The images are sent as 8-bit RGBA.
+     */
+    CIMG {
+        @Override
+        public void write(BufferedImage img, OutputStream out) throws IOException {
+            int width = img.getWidth();
+            int height = img.getHeight();
+            out.write("1 uint8 little_endian\n%d %d 1 4\n"
+                .formatted(width, height).getBytes(US_ASCII));
+
+            boolean directAccess = img.getType() == TYPE_INT_ARGB || img.getType() == TYPE_INT_RGB;
+            boolean opaque = img.getType() == TYPE_INT_RGB;
+            int[] srcRow = new int[width];
+            byte[] outRow = new byte[width];
+
+            // the channels are stored one after the other
+            for (int channel = 0; channel < 4; channel++) {
+                int shift = channel == 3 ? 24 : 16 - 8 * channel;
+                for (int y = 0; y < height; y++) {
+                    if (directAccess) {
+                        // doesn't make the image unmanaged, unlike accessing its data buffer
+                        img.getRaster().getDataElements(0, y, width, 1, srcRow);
+                    } else {
+                        img.getRGB(0, y, width, 1, srcRow, 0, width);
+                    }
+                    if (channel == 3 && opaque) {
+                        Arrays.fill(outRow, (byte) 0xFF);
+                    } else {
+                        for (int x = 0; x < width; x++) {
+                            outRow[x] = (byte) (srcRow[x] >>> shift);
+                        }
+                    }
+                    out.write(outRow);
+                }
+            }
+        }
+
+        @Override
+        public BufferedImage read(InputStream in) throws IOException {
+            // the list header, for example "1 uint8 little_endian"
+            String[] listHeader = readHeaderLine(in);
+            if (listHeader == null) {
+                return null; // no output, probably the process failed
+            }
+            if (listHeader.length < 2 || !isUInt8(listHeader[1])) {
+                throw new IOException("unsupported CImg header: " + String.join(" ", listHeader));
+            }
+            int numImages = Integer.parseInt(listHeader[0]);
+            if (numImages < 1) {
+                return null;
+            }
+
+            // the header of the first image: width, height, depth, channels
+            String[] imageHeader = readHeaderLine(in);
+            if (imageHeader == null || imageHeader.length < 4 || imageHeader[imageHeader.length - 1].startsWith("#")) {
+                throw new IOException("unsupported CImg image header");
+            }
+            int width = Integer.parseInt(imageHeader[0]);
+            int height = Integer.parseInt(imageHeader[1]);
+            int depth = Integer.parseInt(imageHeader[2]);
+            int numChannels = Integer.parseInt(imageHeader[3]);
+            if (width <= 0 || height <= 0 || depth <= 0 || numChannels <= 0) {
+                throw new IOException("invalid CImg image size: " + String.join(" ", imageHeader));
+            }
+
+            var img = new BufferedImage(width, height, TYPE_INT_ARGB);
+            int[] pixels = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+            int planeSize = width * height;
+            byte[] plane = new byte[planeSize];
+            long skippedSlices = (long) planeSize * (depth - 1);
+            for (int channel = 0; channel < numChannels; channel++) {
+                // only the first slice of 3D images is used
+                readFully(in, plane);
+                in.skipNBytes(skippedSlices);
+                if (channel < 4) {
+                    storeChannel(plane, pixels, channel, numChannels);
+                }
+            }
+            if (numChannels == 1 || numChannels == 3) {
+                for (int i = 0; i < planeSize; i++) {
+                    pixels[i] |= 0xFF_00_00_00;
+                }
+            }
+            return img;
+        }
+    };
+
+    /**
+     * Writes the given image into the given stream.
+     */
+    public abstract void write(BufferedImage img, OutputStream out) throws IOException;
+
+    /**
+     * Reads an image from the given stream. Returns null
+     * if the stream doesn't contain an image.
+     */
+    public abstract BufferedImage read(InputStream in) throws IOException;
+
+    private static boolean isUInt8(String typeName) {
+        return switch (typeName) {
+            case "uint8", "uchar", "unsigned_char" -> true;
+            default -> false;
+        };
+    }
+
+    // stores an 8-bit channel plane into ARGB pixels
+    private static void storeChannel(byte[] plane, int[] pixels, int channel, int numChannels) {
+        boolean gray = numChannels <= 2;
+        for (int i = 0; i < plane.length; i++) {
+            int v = plane[i] & 0xFF;
+            if (gray && channel == 0) {
+                pixels[i] |= v << 16 | v << 8 | v;
+            } else if (channel == 3 || (gray && channel == 1)) {
+                pixels[i] |= v << 24;
+            } else {
+                pixels[i] |= v << (16 - 8 * channel);
+            }
+        }
+    }
+
+    // reads an ASCII header line, and splits it into tokens
+    private static String[] readHeaderLine(InputStream in) throws IOException {
+        var line = new StringBuilder();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b == -1) {
+                if (line.isEmpty()) {
+                    return null;
+                }
+                break;
+            }
+            line.append((char) b);
+        }
+        return line.toString().trim().split("\\s+");
+    }
+
+    private static void readFully(InputStream in, byte[] buffer) throws IOException {
+        int read = in.readNBytes(buffer, 0, buffer.length);
+        if (read < buffer.length) {
+            throw new EOFException("incomplete CImg image data");
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.io;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A memory-bounded cache of the images produced by external processes,
+ * so that the filter previews don't have to start a new process when
+ * a parameter is set back to an earlier value, or when a smart filter
+ * is re-evaluated with unchanged input.
+ * <p>
+ * The key is a hash of the input pixels together with the command
+ * line. The least recently used results are evicted first.
+ */
+public final class ProcessResultCache {
+    private static final long DEFAULT_BUDGET = Runtime.getRuntime().maxMemory() / 16;
+
+    private static final ProcessResultCache INSTANCE = new ProcessResultCache(DEFAULT_BUDGET);
+
+    private final long budget;
+
+    // guarded by this
+    private final LinkedHashMap<Key, BufferedImage> results =
+        new LinkedHashMap<>(16, 0.75f, true);
+    private long usedBytes = 0;
+
+    /**
+     * The cache key: the input image and the command line that produced a result.
+     */
+    record Key(int width, int height, int type, long pixelHash,
+               List<String> command, PipeFormat format) {
+    }
+
+    ProcessResultCache(long budget) {
+        this.budget = budget;
+    }
+
+    static ProcessResultCache getInstance() {
+        return INSTANCE;
+    }
+
+    static Key createKey(BufferedImage src, List<String> command, PipeFormat format) {
+        return new Key(src.getWidth(), src.getHeight(), src.getType(),
+            hashPixels(src), List.copyOf(command), format);
+    }
+
+    /**
+     * Returns a copy of the cached result, or null if it's not cached.
+     */
+    BufferedImage get(Key key) {
+        BufferedImage cached;
+        synchronized (this) {
+            cached = results.get(key);
+        }
+        // the cached images are never modified, so they can be copied outside the lock
+        return cached == null ? null : copy(cached);
+    }
+
+    /**
+     * Caches a copy of the given result, because the caller can modify it.
+     */
+    void put(Key key, BufferedImage result) {
+        long size = sizeOf(result);
+        if (size > budget / 2) {
+            return; // would push out everything else
+        }
+        BufferedImage copy = copy(result);
+
+        synchronized (this) {
+            BufferedImage old = results.put(key, copy);
+            if (old != null) {
+                usedBytes -= sizeOf(old);
+            }
+            usedBytes += size;
+
+            Iterator<Map.Entry<Key, BufferedImage>> it = results.entrySet().iterator();
+            while (usedBytes > budget && it.hasNext()) {
+                usedBytes -= sizeOf(it.next().getValue());
+                it.remove();
+            }
+        }
+    }
+
+    synchronized int size() {
+        return results.size();
+    }
+
+    synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * Returns a 64-bit hash of the pixel values. The pixels are read
+     * row by row, which doesn't make the image unmanaged.
+     */
+    static long hashPixels(BufferedImage img) {
+        Raster raster = img.getRaster();
+        int width = img.getWidth();
+        int height = img.getHeight();
+        long hash = 0xCBF2_9CE4_8422_2325L;
+
+        Object row = null;
+        for (int y = 0; y < height; y++) {
+            row = raster.getDataElements(0, y, width, 1, row);
+            switch (row) {
+                case int[] ints -> {
+                    for (int v : ints) {
+                        hash = mix(hash, v);
+                    }
+                }
+                case byte[] bytes -> {
+                    for (byte v : bytes) {
+                        hash = mix(hash, v);
+                    }
+                }
+                case short[] shorts -> {
+                    for (short v : shorts) {
+                        hash = mix(hash, v);
+                    }
+                }
+                default -> {
+                    int[] rgb = img.getRGB(0, y, width, 1, null, 0, width);
+                    for (int v : rgb) {
+                        hash = mix(hash, v);
+                    }
+                }
+            }
+        }
+        return hash;
+    }
+
+    private static long mix(long hash, int value) {
+        return (hash ^ value) * 0x9E37_79B9_7F4A_7C15L;
+    }
+
+    private static long sizeOf(BufferedImage img) {
+        DataBuffer buffer = img.getRaster().getDataBuffer();
+        long elementSize = DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+        return (long) buffer.getSize() * buffer.getNumBanks() * elementSize;
+    }
+
+    private static BufferedImage copy(BufferedImage img) {
+        return new BufferedImage(img.getColorModel(), img.copyData(null),
+            img.isAlphaPremultiplied(), null);
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.layers;
+
+import pixelitor.filters.PointAdjustment;
+import pixelitor.filters.lookup.FastLookupOp;
+import pixelitor.filters.lookup.LookupAdjustment;
+import pixelitor.utils.ImageUtils;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ShortLookupTable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Applies consecutive adjustment layers that transform each pixel
+ * independently (point adjustments) in a single pass over the image,
+ * in place, instead of creating a full-sized intermediate image for
+ * each of them. The lookup tables of consecutive lookup adjustments
+ * are composed, and the other per-pixel functions are chained.
+ */
+public final class AdjustmentFusion {
+    private AdjustmentFusion() {
+        // static utility methods only
+    }
+
+    /**
+     * Returns the number of layers starting at the given index (including
+     * the hidden layers between them) that can be applied together on the
+     * given image as a single point adjustment, or 0 if the layer should
+     * be applied on its own.
+     */
+    public static int countFusable(List<Layer> layers, int start, BufferedImage imageSoFar) {
+        if (!ImageUtils.hasPackedIntArray(imageSoFar)) {
+            return 0;
+        }
+        int count = 0;
+        for (int i = start; i < layers.size(); i++) {
+            Layer layer = layers.get(i);
+            if (!layer.isVisible()) {
+                continue;
+            }
+            if (layer instanceof AdjustmentLayer adjLayer && adjLayer.isFusable()) {
+                count = i - start + 1;
+            } else {
+                break;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Applies the given layers, which were found by {@link #countFusable},
+     * by modifying the given image, and returns the same image. The image
+     * must not be shared with anything else than the compositing.
+     */
+    public static BufferedImage applyFused(List<Layer> layers, BufferedImage imageSoFar) {
+        boolean premultiplied = imageSoFar.isAlphaPremultiplied();
+
+        List<IntUnaryOperator> kernels = new ArrayList<>();
+        List<ShortLookupTable> luts = new ArrayList<>();
+        for (Layer layer : layers) {
+            if (!layer.isVisible()) {
+                continue;
+            }
+            PointAdjustment adjustment = ((AdjustmentLayer) layer).getPointAdjustment();
+            if (adjustment instanceof LookupAdjustment lookupAdjustment) {
+                ShortLookupTable lut = lookupAdjustment.getLookupTable();
+                if (lut != null) { // null if the layer doesn't change the image
+                    luts.add(lut);
+                }
+            } else {
+                addLookupKernel(kernels, luts, premultiplied);
+                IntUnaryOperator kernel = adjustment.createPixelKernel(premultiplied);
+                if (kernel != null) { // null if the layer doesn't change the image
+                    kernels.add(kernel);
+                }
+            }
+        }
+        addLookupKernel(kernels, luts, premultiplied);
+
+        if (!kernels.isEmpty()) {
+            int[] pixels = ImageUtils.getPixelArray(imageSoFar);
+            PointAdjustment.filterPixels(chain(kernels), pixels, pixels, imageSoFar.getWidth());
+        }
+        return imageSoFar;
+    }
+
+    // the pending lookup tables are composed into a single kernel
+    private static void addLookupKernel(List<IntUnaryOperator> kernels,
+                                        List<ShortLookupTable> luts, boolean premultiplied) {
+        if (luts.isEmpty()) {
+            return;
+        }
+        ShortLookupTable lut = luts.size() == 1 ? luts.getFirst() : FastLookupOp.compose(luts);
+        kernels.add(FastLookupOp.createPixelKernel(lut, premultiplied));
+        luts.clear();
+    }
+
+    private static IntUnaryOperator chain(List<IntUnaryOperator> kernels) {
+        if (kernels.size() == 1) {
+            return kernels.getFirst();
+        }
+        // a loop instead of nested andThen() calls, which would double the calls per pixel
+        IntUnaryOperator[] array = kernels.toArray(new IntUnaryOperator[0]);
+        return rgb -> {
+            for (IntUnaryOperator kernel : array) {
+                rgb = kernel.applyAsInt(rgb);
+            }
+            return rgb;
+        };
+    }
+}
@@ -22,6 +22,7 @@ import pixelitor.CopyType;
 import pixelitor.FilterContext;
 import pixelitor.filters.Filter;
 import pixelitor.filters.ParametrizedFilter;
+import pixelitor.filters.PointAdjustment;
 import pixelitor.filters.gui.FilterWithGUI;
 import pixelitor.history.FilterChangedEdit;
 import pixelitor.history.History;
@@ -91,6 +92,28 @@ public class AdjustmentLayer extends Layer implements Filterable {
         return filter.transformImage(src);
     }
 
+    /**
+     * Returns true if this layer transforms each pixel of the image below
+     * it independently, so that it can be fused with its neighbors.
+     */
+    boolean isFusable() {
+        return filter instanceof PointAdjustment
+            && !usesMask() && isNormalAndOpaque();
+    }
+
+    PointAdjustment getPointAdjustment() {
+        return (PointAdjustment) filter;
+    }
+
+    @Override
+    public int getRegionMargin() {
+        if (usesMask()) {
+            // the mask is applied in the coordinate system of the canvas
+            return -1;
+        }
+        return filter.getInputMargin();
+    }
+
     @Override
     public void paintLayerOnGraphics(Graphics2D g, boolean firstVisibleLayer) {
         throw new UnsupportedOperationException();
@@ -137,6 +160,7 @@ public class AdjustmentLayer extends Layer implements Filterable {
     @Override
     public void startPreviewing() {
         lastFilter = filter.copy();
+        comp.startInteractiveEditing(this);
     }
 
     @Override
@@ -179,6 +203,7 @@ public class AdjustmentLayer extends Layer implements Filterable {
 
         lastFilter = null;
         showOriginal = false;
+        comp.endInteractiveEditing();
     }
 
     @Override
@@ -193,6 +218,7 @@ public class AdjustmentLayer extends Layer implements Filterable {
         }
         lastFilter = null;
         showOriginal = false;
+        comp.endInteractiveEditing();
     }
 
     protected boolean filterSettingsChanged() {
@@ -22,8 +22,6 @@ import pixelitor.filters.Filter;
 import pixelitor.gui.utils.Dialogs;
 import pixelitor.tools.util.PPoint;
 import pixelitor.tools.util.PRectangle;
-import pixelitor.utils.Messages;
-import pixelitor.utils.test.RandomGUITest;
 
 import java.awt.Component;
 import java.awt.Composite;
@@ -84,7 +82,7 @@ public interface Drawable extends Filterable {
 
     @Override
     default void startPreview(Filter filter, boolean first, Component busyCursorParent) {
-        startFilter(filter, FilterContext.PREVIEWING, busyCursorParent);
+        FilterPreviewer.request(this, filter, busyCursorParent);
     }
 
     @Override
@@ -104,21 +102,7 @@ public interface Drawable extends Filterable {
         } catch (OutOfMemoryError e) {
             Dialogs.showOutOfMemoryDialog(e);
         } catch (Throwable e) {
-            String errorDetails = String.format(
-                "Error while running the filter '%s'%n" +
-                    "composition = '%s'%n" +
-                    "layer = '%s' (%s)%n" +
-                    "params = %s",
-                filter.getName(),
-                getComp().getDebugName(),
-                getName(), getClass().getSimpleName(),
-                filter.paramsAsString());
-
-            var ise = new IllegalStateException(errorDetails, e);
-            if (RandomGUITest.isRunning()) {
-                throw ise; // we can debug the exact filter parameters only in RandomGUITest
-            }
-            Messages.showException(ise);
+            FilterPreviewer.handleFilterError(this, filter, e);
         }
     }
 
@@ -0,0 +1,357 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.layers;
+
+import pixelitor.FilterContext;
+import pixelitor.GUIMode;
+import pixelitor.filters.Filter;
+import pixelitor.filters.util.Filters;
+import pixelitor.gui.utils.Dialogs;
+import pixelitor.utils.ImageUtils;
+import pixelitor.utils.Messages;
+import pixelitor.utils.Threads;
+import pixelitor.utils.test.RandomGUITest;
+
+import javax.swing.Timer;
+import java.awt.Component;
+import java.awt.EventQueue;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static java.awt.RenderingHints.VALUE_INTERPOLATION_BILINEAR;
+import static pixelitor.utils.Cursors.BUSY;
+import static pixelitor.utils.Cursors.DEFAULT;
+
+/**
+ * Runs the filter previews of the filter dialogs on a background thread,
+ * so that the Event Dispatch Thread isn't blocked while the filter runs.
+ * <p>
+ * Every new preview request supersedes the previous one: a run that
+ * hasn't started yet is dropped, a run in progress is interrupted
+ * (the band-based filters stop at the next band), and only the result
+ * of the latest request is published to the layer.
+ * <p>
+ * Each request runs on its own copy of the filter, taken on the EDT,
+ * so that the parameter changes made in the dialog while a preview
+ * is running don't affect the running filter. The filters that can't
+ * be copied are previewed synchronously on the EDT.
+ * <p>
+ * For large images viewed at a zoom level below 100%, each request of a
+ * filter that transforms the pixels independently of the image scale
+ * first runs on a proxy image downscaled to the zoom level, and the result
+ * is shown immediately. The full-resolution preview is calculated only when
+ * no new requests arrived for a short time (the user stopped dragging).
+ * <p>
+ * All the public methods must be called on the EDT.
+ */
+public final class FilterPreviewer {
+    private static final ExecutorService executor =
+        Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "Filter Preview");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+    private static final int BUSY_CURSOR_DELAY_MILLIS = 300;
+
+    // images smaller than this are always previewed at full resolution
+    private static final int PROXY_MIN_PIXELS = 4_000_000;
+
+    // the idle time after which the full-resolution preview is calculated
+    private static final int REFINE_DELAY_MILLIS = 300;
+
+    // incremented for every request and cancellation, it's volatile
+    // because it's also read by the preview thread
+    private static volatile long generation = 0;
+
+    // the state of the latest request, accessed only on the EDT
+    private static Future<?> lastRun;
+    private static Future<?> lastProxyRun;
+    private static Timer refineTimer;
+    private static Drawable lastDrawable;
+    private static Filter lastFilter;
+    private static Component lastCursorParent;
+    private static Timer busyCursorTimer;
+
+    private FilterPreviewer() {
+        // static utility methods only
+    }
+
+    /**
+     * Starts a new preview run of the given filter on the
+     * given drawable, superseding all earlier requests.
+     */
+    public static void request(Drawable dr, Filter filter, Component busyCursorParent) {
+        assert Threads.calledOnEDT() : Threads.threadInfo();
+
+        // the settings must be copied on the EDT
+        Filter snapshot = filter.copy();
+
+        // Keep the previews deterministic in tests. The filters that can't
+        // be copied also run on the EDT, because their settings could
+        // change while they are running in the background.
+        if (GUIMode.isUnitTesting() || RandomGUITest.isRunning() || snapshot == filter) {
+            cancelPending();
+            dr.startFilter(filter, FilterContext.PREVIEWING, busyCursorParent);
+            return;
+        }
+
+        cancelLastRun();
+
+        long requestGeneration = ++generation;
+        lastDrawable = dr;
+        lastFilter = filter;
+        startBusyCursor(busyCursorParent);
+
+        // the source image must be obtained on the EDT
+        BufferedImage src = dr.getFilterSourceImage();
+        assert src != null;
+
+        double proxyScale = calcProxyScale(dr, snapshot, src);
+        if (proxyScale < 1.0) {
+            lastProxyRun = executor.submit(() ->
+                runProxyInBackground(dr, snapshot, src, proxyScale, requestGeneration));
+
+            // the full-resolution run starts only if this is still the latest request
+            refineTimer = new Timer(REFINE_DELAY_MILLIS, e -> {
+                refineTimer = null;
+                if (requestGeneration == generation) {
+                    lastRun = executor.submit(() ->
+                        runInBackground(dr, filter, snapshot, src, requestGeneration));
+                }
+            });
+            refineTimer.setRepeats(false);
+            refineTimer.start();
+        } else {
+            lastRun = executor.submit(() ->
+                runInBackground(dr, filter, snapshot, src, requestGeneration));
+        }
+    }
+
+    /**
+     * Returns the scaling of the proxy image used for the quick first
+     * preview, or 1.0 if the preview should be calculated only at full size.
+     */
+    private static double calcProxyScale(Drawable dr, Filter filter, BufferedImage src) {
+        if ((long) src.getWidth() * src.getHeight() < PROXY_MIN_PIXELS) {
+            return 1.0;
+        }
+        // The pixel-sized parameters (radius, cell size, etc.) aren't scaled
+        // for the proxy, so only the filters that calculate each pixel from
+        // the same source pixel give the same look at a smaller scale.
+        if (filter.getInputMargin() != 0) {
+            return 1.0;
+        }
+        var view = dr.getComp().getView();
+        if (view == null) {
+            return 1.0;
+        }
+        double scaling = view.getScaling();
+        if (scaling >= 1.0) {
+            return 1.0;
+        }
+        // avoid degenerate proxies for very small zoom levels
+        double minScaling = 1.0 / Math.min(src.getWidth(), src.getHeight());
+        return Math.max(scaling, minScaling);
+    }
+
+    private static void runProxyInBackground(Drawable dr, Filter filter, BufferedImage src,
+                                             double proxyScale, long requestGeneration) {
+        if (requestGeneration != generation) {
+            return; // already superseded
+        }
+        try {
+            int srcWidth = src.getWidth();
+            int srcHeight = src.getHeight();
+            int proxyWidth = Math.max(1, (int) (srcWidth * proxyScale));
+            int proxyHeight = Math.max(1, (int) (srcHeight * proxyScale));
+
+            BufferedImage proxy = ImageUtils.resize(src, proxyWidth, proxyHeight);
+            BufferedImage proxyDest = filter.transformImage(proxy);
+            if (requestGeneration != generation) {
+                return;
+            }
+
+            // scale back, because the layer expects an image with the source size
+            BufferedImage dest = ImageUtils.getFasterScaledInstance(proxyDest,
+                srcWidth, srcHeight, VALUE_INTERPOLATION_BILINEAR, false);
+
+            EventQueue.invokeLater(() -> {
+                // if the full-resolution run has already started,
+                // then its result will replace this one soon
+                if (requestGeneration == generation) {
+                    dr.changePreviewImage(dest, filter.getName(), FilterContext.PREVIEWING);
+                }
+            });
+        } catch (CancellationException e) {
+            // a newer request interrupted this run
+        } catch (OutOfMemoryError | RuntimeException e) {
+            // ignored, because the full-resolution run will report
+            // the problems that are not caused by the proxy
+        }
+    }
+
+    /**
+     * Runs the snapshot of the given filter. The original filter is
+     * used only on the EDT, when the result is published.
+     */
+    private static void runInBackground(Drawable dr, Filter filter, Filter snapshot,
+                                        BufferedImage src, long requestGeneration) {
+        if (requestGeneration != generation) {
+            return; // already superseded
+        }
+        long startTime = System.nanoTime();
+        try {
+            BufferedImage dest = snapshot.transformImage(src);
+            assert dest != null;
+            long totalTime = (System.nanoTime() - startTime) / 1_000_000;
+
+            EventQueue.invokeLater(() ->
+                publish(dr, filter, dest, requestGeneration, totalTime));
+        } catch (CancellationException e) {
+            // a newer request interrupted this run
+        } catch (OutOfMemoryError e) {
+            EventQueue.invokeLater(() -> {
+                if (requestGeneration == generation) {
+                    runFinished();
+                    Dialogs.showOutOfMemoryDialog(e);
+                }
+            });
+        } catch (Throwable e) {
+            EventQueue.invokeLater(() -> {
+                // errors in superseded runs are ignored
+                if (requestGeneration == generation) {
+                    runFinished();
+                    handleFilterError(dr, snapshot, e);
+                }
+            });
+        }
+    }
+
+    private static void publish(Drawable dr, Filter filter, BufferedImage dest,
+                                long requestGeneration, long totalTime) {
+        if (requestGeneration != generation) {
+            return; // a newer request arrived while this one was running
+        }
+        runFinished();
+
+        dr.changePreviewImage(dest, filter.getName(), FilterContext.PREVIEWING);
+        Messages.showPerformanceMessage(filter.getName(), totalTime);
+        Filters.setLastFilter(filter);
+    }
+
+    /**
+     * Makes sure that the result of the latest request is published
+     * to the layer before the filter dialog is accepted.
+     * If the latest run hasn't finished yet, then it's abandoned,
+     * and the filter is run again synchronously on the EDT.
+     */
+    public static void finishPending(Filterable layer) {
+        assert Threads.calledOnEDT() : Threads.threadInfo();
+
+        if (lastDrawable == null || lastDrawable != layer) {
+            return; // the latest result was already published
+        }
+        Drawable dr = lastDrawable;
+        Filter filter = lastFilter;
+        Component cursorParent = lastCursorParent;
+        cancelLastRun();
+        runFinished();
+        dr.startFilter(filter, FilterContext.PREVIEWING, cursorParent);
+    }
+
+    /**
+     * Abandons any pending or running preview,
+     * for example when the filter dialog is canceled.
+     */
+    public static void cancelPending() {
+        assert Threads.calledOnEDT() : Threads.threadInfo();
+
+        if (lastRun == null && lastProxyRun == null) {
+            return;
+        }
+        cancelLastRun();
+        runFinished();
+    }
+
+    private static void cancelLastRun() {
+        generation++;
+        if (refineTimer != null) {
+            refineTimer.stop();
+            refineTimer = null;
+        }
+        if (lastProxyRun != null) {
+            lastProxyRun.cancel(true);
+            lastProxyRun = null;
+        }
+        if (lastRun != null) {
+            lastRun.cancel(true);
+            lastRun = null;
+        }
+    }
+
+    private static void runFinished() {
+        lastDrawable = null;
+        lastFilter = null;
+        stopBusyCursor();
+    }
+
+    private static void startBusyCursor(Component parent) {
+        if (busyCursorTimer != null && lastCursorParent == parent) {
+            return; // already started for a previous, superseded request
+        }
+        stopBusyCursor();
+
+        lastCursorParent = parent;
+        busyCursorTimer = new Timer(BUSY_CURSOR_DELAY_MILLIS, e -> parent.setCursor(BUSY));
+        busyCursorTimer.setRepeats(false);
+        busyCursorTimer.start();
+    }
+
+    private static void stopBusyCursor() {
+        if (busyCursorTimer != null) {
+            busyCursorTimer.stop();
+            busyCursorTimer = null;
+            lastCursorParent.setCursor(DEFAULT);
+        }
+    }
+
+    /**
+     * Reports an exception thrown by the given filter.
+     */
+    static void handleFilterError(Drawable dr, Filter filter, Throwable e) {
+        String errorDetails = String.format(
+            "Error while running the filter '%s'%n" +
+                "composition = '%s'%n" +
+                "layer = '%s' (%s)%n" +
+                "params = %s",
+            filter.getName(),
+            dr.getComp().getDebugName(),
+            dr.getName(), dr.getClass().getSimpleName(),
+            filter.paramsAsString());
+
+        var ise = new IllegalStateException(errorDetails, e);
+        if (RandomGUITest.isRunning()) {
+            throw ise; // we can debug the exact filter parameters only in RandomGUITest
+        }
+        Messages.showException(ise);
+    }
+}
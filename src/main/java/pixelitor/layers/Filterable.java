@@ -120,8 +120,14 @@ public interface Filterable {
                 .withScrollbars()
                 .enableCopyShortcuts()
                 .onVisibleAction(() -> gui.startPreview(true))
-                .okAction(() -> onFilterDialogAccepted(filter.getName()))
-                .cancelAction(this::onFilterDialogCanceled);
+                .okAction(() -> {
+                    FilterPreviewer.finishPending(this);
+                    onFilterDialogAccepted(filter.getName());
+                })
+                .cancelAction(() -> {
+                    FilterPreviewer.cancelPending();
+                    onFilterDialogCanceled();
+                });
             JDialog dialog = dialogBuilder.build();
 
             PixelitorWindow.get().setCursor(Cursors.DEFAULT);
@@ -43,7 +43,9 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serial;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import static java.awt.RenderingHints.KEY_INTERPOLATION;
 import static java.awt.RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR;
@@ -83,8 +85,18 @@ public class ImageLayer extends ContentLayer implements Drawable {
     /**
      * The regular image content of this image layer.
      * Transient because BufferedImage can't be directly serialized.
+     * It's read only through {@link #getImage()} and written only
+     * through {@link #swapImage(BufferedImage)}, because it's
+     * null while the pixels of a lazily opened file are loading.
      */
-    protected transient BufferedImage image = null;
+    private transient BufferedImage image = null;
+
+    /**
+     * Not null while the pixels of a lazily opened file are loaded in
+     * the background. In this case the image is null until
+     * {@link #getImage()} waits for the pixels.
+     */
+    private transient volatile CompletableFuture<BufferedImage> pendingImage;
 
     /**
      * The image shown during filter previews.
@@ -129,6 +141,18 @@ public class ImageLayer extends ContentLayer implements Drawable {
         checkConstructorPostConditions();
     }
 
+    /**
+     * Creates a layer whose pixels are loaded in the background.
+     */
+    public static ImageLayer createWithPendingImage(Composition comp, String name,
+                                                    CompletableFuture<BufferedImage> pixels,
+                                                    int tx, int ty) {
+        ImageLayer layer = new ImageLayer(comp, name);
+        layer.setTranslation(tx, ty);
+        layer.setPendingImage(pixels);
+        return layer;
+    }
+
     /**
      * Creates a new empty layer
      */
@@ -219,13 +243,13 @@ public class ImageLayer extends ContentLayer implements Drawable {
     }
 
     private void checkConstructorPostConditions() {
-        assert image != null;
+        assert getImage() != null;
     }
 
     @Serial
     private void writeObject(ObjectOutputStream out) throws IOException {
         out.defaultWriteObject();
-        PXCFormat.serializeImage(out, image);
+        PXCFormat.serializeImage(out, getImage());
     }
 
     @Serial
@@ -238,19 +262,82 @@ public class ImageLayer extends ContentLayer implements Drawable {
         image = null;
 
         in.defaultReadObject();
-        setImage(PXCFormat.deserializeImage(in));
+        CompletableFuture<BufferedImage> pixels = PXCFormat.deserializeImage(in);
+        if (pixels.isDone() || !canLoadPixelsLater()) {
+            try {
+                setImage(pixels.join());
+            } catch (CompletionException e) {
+                throw new IOException(e.getCause());
+            }
+        } else {
+            setPendingImage(pixels);
+        }
         imageContentChanged = false;
     }
 
+    /**
+     * Returns whether the pixels of this layer can be
+     * loaded in the background when a file is opened lazily.
+     */
+    protected boolean canLoadPixelsLater() {
+        return true;
+    }
+
+    private void setPendingImage(CompletableFuture<BufferedImage> pixels) {
+        pendingImage = pixels;
+
+        // install the image as soon as it's loaded, so that
+        // the later calls don't have to check the future
+        pixels.whenCompleteAsync((img, e) -> getImage(), onEDT);
+    }
+
+    private synchronized void installPendingImage() {
+        CompletableFuture<BufferedImage> pending = pendingImage;
+        if (pending == null) {
+            return; // installed by another thread
+        }
+        BufferedImage loaded;
+        try {
+            loaded = pending.join();
+        } catch (CompletionException | CancellationException e) {
+            // the composition can't be saved anymore, but it
+            // continues with an empty image covering the canvas
+            comp.layerLoadingFailed(e.getCause() != null ? e.getCause() : e);
+            loaded = createEmptyLayerImage(
+                comp.getCanvasWidth() - getTx(), comp.getCanvasHeight() - getTy());
+        }
+
+        // The composite image doesn't have to be invalidated, because
+        // it couldn't be calculated without waiting for this image.
+        image = loaded;
+        pendingImage = null;
+    }
+
+    /**
+     * Replaces the image reference without any other updates,
+     * and returns the previous one. The pixels that might still be
+     * loading are no longer needed.
+     */
+    private synchronized BufferedImage swapImage(BufferedImage newImage) {
+        BufferedImage oldImage = image;
+        image = newImage;
+        pendingImage = null;
+        return oldImage;
+    }
+
     public State getState() {
         return state;
     }
 
     private void setState(State newState) {
+        if (state == NORMAL && newState != NORMAL) {
+            comp.startInteractiveEditing(this);
+        }
         state = newState;
         if (newState == NORMAL) { // back to normal: cleanup
             previewImage = null;
             filterSourceImage = null;
+            comp.endInteractiveEditing();
         }
     }
 
@@ -273,7 +360,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
 
     @Override
     protected ImageLayer createTypeSpecificCopy(CopyType copyType, Composition newComp) {
-        BufferedImage imageCopy = copyImage(image);
+        BufferedImage imageCopy = copyImage(getImage());
         if (imageCopy == null) {
             // there was an out of memory error
             return null;
@@ -283,8 +370,16 @@ public class ImageLayer extends ContentLayer implements Drawable {
         return new ImageLayer(comp, imageCopy, copyName, getTx(), getTy());
     }
 
+    /**
+     * Returns the image, waiting until the pixels of a lazily opened
+     * file are loaded, if they are still loading.
+     * It can be called on any thread.
+     */
     @Override
     public BufferedImage getImage() {
+        if (pendingImage != null) {
+            installPendingImage();
+        }
         return image;
     }
 
@@ -298,6 +393,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
 
     @Override
     public BufferedImage getSelectedSubImage(boolean copyIfNoSelection) {
+        BufferedImage image = getImage();
         var selection = comp.getSelection();
         if (selection == null) { // no selection => return full image
             if (copyIfNoSelection) {
@@ -313,6 +409,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
 
     @Override
     public BufferedImage getImageForFilterDialogs() {
+        BufferedImage image = getImage();
         var selection = comp.getSelection();
         if (selection == null) {
             return image;
@@ -331,6 +428,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
 
     @Override
     public BufferedImage getCanvasSizedSubImage() {
+        BufferedImage image = getImage();
         if (!isBigLayer()) {
             return image;
         }
@@ -354,7 +452,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
      */
     public BufferedImage getVisibleImage() {
         BufferedImage visibleImage = switch (state) {
-            case NORMAL, SHOW_ORIGINAL -> image;
+            case NORMAL, SHOW_ORIGINAL -> getImage();
             case PREVIEW -> previewImage;
         };
 
@@ -380,7 +478,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
 
     @Override
     public TranslatedImage getTranslatedImage() {
-        return new TranslatedImage(image, getTx(), getTy());
+        return new TranslatedImage(getImage(), getTx(), getTy());
     }
 
     @Override
@@ -397,7 +495,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
     }
 
     private void setImageWithSelection(BufferedImage newImage, boolean isUndoRedo) {
-        image = replaceSelectedRegion(image, newImage, isUndoRedo);
+        swapImage(replaceSelectedRegion(getImage(), newImage, isUndoRedo));
         imageRefChanged();
 
         comp.invalidateImageCache();
@@ -460,15 +558,14 @@ public class ImageLayer extends ContentLayer implements Drawable {
 
     @Override
     public void setImage(BufferedImage newImage) {
-        BufferedImage oldRef = image;
-        image = requireNonNull(newImage);
+        BufferedImage oldRef = swapImage(requireNonNull(newImage));
         imageRefChanged();
 
         assert Assertions.rasterStartsAtZero(newImage);
 
         comp.invalidateImageCache();
 
-        if (oldRef != null && oldRef != image) {
+        if (oldRef != null && oldRef != newImage) {
             oldRef.flush();
         }
     }
@@ -477,7 +574,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
      * Replaces the image with history and icon update
      */
     public void replaceImage(BufferedImage newImage, String editName) {
-        BufferedImage oldImage = image;
+        BufferedImage oldImage = getImage();
         setImage(newImage);
 
         History.add(new ImageEdit(editName, comp, this, oldImage, true));
@@ -487,6 +584,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
 
     @Override
     public void startPreviewing() {
+        BufferedImage image = getImage();
         assert state == NORMAL : "state was " + state;
 
         if (comp.hasSelection()) {
@@ -523,11 +621,12 @@ public class ImageLayer extends ContentLayer implements Drawable {
         assert previewImage != null;
 
         if (imageContentChanged) {
+            // no copy is needed, because the edit copies the changed pixels
             History.add(new ImageEdit(filterName, comp, this,
-                getSelectedSubImage(true), false));
+                getSelectedSubImage(false), false));
         }
 
-        image = previewImage;
+        swapImage(previewImage);
         imageRefChanged();
 
         if (imageContentChanged) {
@@ -575,6 +674,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
                 filterName, context, getClass().getSimpleName());
         assert newPreview != null;
 
+        BufferedImage image = getImage();
         if (newPreview == image) {
             // this can happen if a filter with preview decides that no
             // change is necessary and returns the src
@@ -605,7 +705,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
         comp.setDirty(true);
 
         // A filter without dialog should never return the original image...
-        if (filteredImage == image) {
+        if (filteredImage == getImage()) {
             // ...unless "Repeat Last" or "Batch Filter" starts a filter
             // with settings without its dialog
             if (context != REPEAT_LAST && context != BATCH_AUTOMATE) {
@@ -628,7 +728,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
 
         // at this point we are sure that the image changed,
         // considering that a filter without dialog was running
-        if (imageForUndo == image) {
+        if (imageForUndo == getImage()) {
             throw new IllegalStateException("imageForUndo == image");
         }
         assert imageForUndo != null;
@@ -647,7 +747,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
     @Override
     public void changeImageForUndoRedo(BufferedImage img, boolean ignoreSelection) {
         requireNonNull(img);
-        assert img != image;
+        assert img != getImage();
         assert state == NORMAL;
 
         if (ignoreSelection) {
@@ -662,6 +762,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
      */
     @Override
     public Rectangle getContentBounds(boolean includeTransparent) {
+        BufferedImage image = getImage();
         if (includeTransparent) {
             return new Rectangle(getTx(), getTy(), image.getWidth(), image.getHeight());
         } else {
@@ -673,6 +774,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
 
     @Override
     public int getPixelAtPoint(Point p) {
+        BufferedImage image = getImage();
         int x = p.x - getTx();
         int y = p.y - getTy();
         if (x >= 0 && y >= 0 && x < image.getWidth() && y < image.getHeight()) {
@@ -711,7 +813,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
             Graphics2D g = bi.createGraphics();
             int drawX = current.x - target.x;
             int drawY = current.y - target.y;
-            g.drawImage(image, drawX, drawY, null);
+            g.drawImage(getImage(), drawX, drawY, null);
             g.dispose();
 
             setTranslation(target.x - canvasBounds.x, target.y - canvasBounds.y);
@@ -724,6 +826,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
 
     @Override
     public void flip(Flip.Direction direction) {
+        BufferedImage image = getImage();
         int newTx;
         int newTy;
         if (direction == HORIZONTAL) {
@@ -748,6 +851,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
 
     @Override
     public void rotate(QuadrantAngle angle) {
+        BufferedImage image = getImage();
         int newTx;
         int newTy;
         switch (angle.getAngleDegree()) {
@@ -816,6 +920,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
         int cropX = (int) (cropRect.getX() - getTx());
         int cropY = (int) (cropRect.getY() - getTy());
 
+        BufferedImage image = getImage();
         if (!deleteCropped) {
             assert allowGrowing;
 
@@ -892,6 +997,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
      */
     public boolean toCanvasSize() {
         if (isBigLayer()) {
+            BufferedImage image = getImage();
             BufferedImage newImage = ImageUtils.crop(image,
                 -getTx(), -getTy(), comp.getCanvasWidth(), comp.getCanvasHeight());
 
@@ -938,7 +1044,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
             return;
         }
 
-        Graphics2D g = image.createGraphics();
+        Graphics2D g = getImage().createGraphics();
         tmpLayer.paintOn(g, -getTx(), -getTy());
         g.dispose();
 
@@ -970,6 +1076,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
 
     @Override
     public CompletableFuture<Void> resize(Dimension newSize) {
+        BufferedImage image = getImage();
         boolean bigLayer = isBigLayer();
 
         int imgTargetWidth = newSize.width;
@@ -1023,6 +1130,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
 //        Rectangle canvasBounds = comp.getCanvasBounds();
 //        Rectangle layerBounds = getContentBounds();
 //        return !canvasBounds.contains(layerBounds);
+        BufferedImage image = getImage();
         return image.getWidth() > comp.getCanvasWidth()
             || image.getHeight() > comp.getCanvasHeight();
     }
@@ -1101,7 +1209,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
 
     @Override
     public void debugImages() {
-        Debug.debugImage(image, "image");
+        Debug.debugImage(getImage(), "image");
         if (previewImage != null) {
             Debug.debugImage(previewImage, "previewImage");
         } else {
@@ -1126,21 +1234,23 @@ public class ImageLayer extends ContentLayer implements Drawable {
      * Deletes the layer mask, but its effect is transferred
      * to the transparency of the layer
      */
-    public BufferedImage applyLayerMask(boolean addToHistory) {
-        BufferedImage previousLayerImage = copyImage(image);
-        LayerMask previousMask = mask;
-        MaskViewMode previousMaskViewMode = comp.getView().getMaskViewMode();
+    public void applyLayerMask(boolean addToHistory) {
+        BufferedImage image = getImage();
+        ApplyLayerMaskEdit edit = null;
+        if (addToHistory) {
+            // must be created before the image changes
+            edit = new ApplyLayerMaskEdit(this, mask,
+                image, comp.getView().getMaskViewMode());
+        }
 
         mask.applyTo(image);
         deleteMask(false);
 
-        if (addToHistory) {
-            History.add(new ApplyLayerMaskEdit(this, previousMask,
-                previousLayerImage, previousMaskViewMode));
+        if (edit != null) {
+            History.add(edit);
         }
 
         updateIconImage();
-        return previousLayerImage;
     }
 
     @Override
@@ -1153,7 +1263,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
     }
 
     public void convertMode(ImageMode mode) {
-        image = mode.convert(image);
+        swapImage(mode.convert(getImage()));
     }
 
     @Override
@@ -1176,7 +1286,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
         DebugNode node = super.createDebugNode(key);
 
         node.addAsString("state", state);
-        node.add(DebugNodes.createBufferedImageNode("image", image));
+        node.add(DebugNodes.createBufferedImageNode("image", getImage()));
 
         return node;
     }
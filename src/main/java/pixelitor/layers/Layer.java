@@ -623,9 +623,10 @@ public abstract class Layer implements Serializable, Debuggable {
 
     private PixelitorEdit modifyMaskToHide(Shape shape, boolean createEdit) {
         BufferedImage maskImage = mask.getImage();
-        BufferedImage maskImageBackup = null;
+        PixelitorEdit edit = null;
         if (createEdit) {
-            maskImageBackup = ImageUtils.copyImage(maskImage);
+            // must be created before the change, the pixels are backed up
+            edit = new ImageEdit("Modify Mask", comp, mask, maskImage, true);
         }
         Graphics2D g = maskImage.createGraphics();
 
@@ -638,12 +639,7 @@ public abstract class Layer implements Serializable, Debuggable {
 
         mask.updateTransparencyImage();
 
-        if (createEdit) {
-            return new ImageEdit("Modify Mask",
-                comp, mask, maskImageBackup, true);
-        } else {
-            return null;
-        }
+        return edit;
     }
 
     public boolean isMaskEnabled() {
@@ -690,6 +686,26 @@ public abstract class Layer implements Serializable, Debuggable {
         this.ui = null;
     }
 
+    /**
+     * Returns true if this layer transforms the pixels below it (like the
+     * adjustment layers), instead of only painting its own content over
+     * them. The result of such a layer depends on the pixels below it,
+     * therefore it can't be pre-merged with the other layers.
+     */
+    public boolean transformsPixelsBelow() {
+        return isAdjustment;
+    }
+
+    /**
+     * Returns how far (in pixels) a change in the image below this layer
+     * can spread when this layer is applied, or -1 if it can spread to
+     * the whole image. If it isn't negative, then a region of the composite
+     * can be recalculated from the region extended by this margin.
+     */
+    public int getRegionMargin() {
+        return transformsPixelsBelow() ? -1 : 0;
+    }
+
     /**
      * Paints the content of this layer on the given Graphics2D,
      * or it transforms the given BufferedImage.
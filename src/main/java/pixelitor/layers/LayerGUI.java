@@ -439,27 +439,12 @@ public class LayerGUI extends JToggleButton implements LayerUI {
         assert calledOnEDT() : threadInfo();
         assert layer.hasRasterThumbnail();
 
-        // the synchronous update avoids starting a filter twice
-        boolean synchronousUpdate = layer instanceof CompositeLayer;
-
-        if (synchronousUpdate) {
-            BufferedImage thumb = layer.createIconThumbnail();
-            assert thumb != null;
-            if (thumb != null) {
-                updateIconOnEDT(layer, thumb);
-            }
-            return;
-        }
-
-        Runnable notEDT = () -> {
-            BufferedImage thumb = layer.createIconThumbnail();
-            assert thumb != null;
-            if (thumb != null) {
-                SwingUtilities.invokeLater(() -> updateIconOnEDT(layer, thumb));
-            }
-        };
+        // the thumbnails of composite layers are created on the EDT,
+        // because it avoids starting a filter twice
+        boolean createOnEDT = layer instanceof CompositeLayer;
 
-        new Thread(notEDT).start();
+        LayerIconUpdater.requestUpdate(layer, createOnEDT,
+            thumb -> updateIconOnEDT(layer, thumb));
     }
 
     private void updateIconOnEDT(Layer layer, BufferedImage thumb) {
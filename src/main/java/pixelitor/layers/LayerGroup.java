@@ -127,24 +127,34 @@ public class LayerGroup extends CompositeLayer {
     }
 
     @Override
-    public BufferedImage applyLayer(Graphics2D g, BufferedImage imageSoFar, boolean firstVisibleLayer) {
+    public boolean transformsPixelsBelow() {
         if (isPassThrough()) {
-            // Apply the layers as if they were directly in the parent holder.
-            // The algorithm is similar to ImageUtils.calcComposite(),
-            // but here we have to consider the existing state of the composition.
             for (Layer layer : layers) {
-                if (layer.isVisible()) {
-                    BufferedImage result = layer.applyLayer(g, imageSoFar, firstVisibleLayer);
-                    if (result != null) { // adjustment layer or watermarking text layer
-                        imageSoFar = result;
-                        if (g != null) {
-                            g.dispose();
-                        }
-                        g = imageSoFar.createGraphics();
-                    }
-                    firstVisibleLayer = false;
+                if (layer.isVisible() && layer.transformsPixelsBelow()) {
+                    return true;
                 }
             }
+        }
+        return false;
+    }
+
+    @Override
+    public int getRegionMargin() {
+        if (isPassThrough()) {
+            return ImageUtils.calcRegionMargin(layers);
+        }
+        return 0;
+    }
+
+    @Override
+    public BufferedImage applyLayer(Graphics2D g, BufferedImage imageSoFar, boolean firstVisibleLayer) {
+        if (isPassThrough()) {
+            // Apply the layers as if they were directly in the parent holder.
+            // The algorithm is the same as in ImageUtils.calcComposite(),
+            // but here we have to consider the existing state of the composition.
+            // The graphics is disposed, but the caller creates a new one,
+            // because the returned image is not null.
+            return ImageUtils.applyLayers(layers, imageSoFar, g, firstVisibleLayer);
         } else {
             // TODO Currently the layer mask of isolated
             //   (non-passthrough) groups is ignored.
@@ -24,6 +24,7 @@ import pixelitor.utils.ImageUtils;
 import pixelitor.utils.debug.Debuggable;
 
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.util.ArrayList;
 import java.util.List;
@@ -281,6 +282,14 @@ public interface LayerHolder extends Debuggable {
      */
     void invalidateImageCache();
 
+    /**
+     * Signals that only the given region (in canvas coordinates)
+     * has changed. By default, the whole image cache is invalidated.
+     */
+    default void invalidateImageCache(Rectangle region) {
+        invalidateImageCache();
+    }
+
     /**
      * Return a Stream of layers at this level.
      */
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.layers;
+
+import javax.swing.*;
+import java.awt.image.BufferedImage;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Creates the layer icon thumbnails on a background thread,
+ * coalescing the frequent update requests of the same layer.
+ * <p>
+ * The first request after a quiet period is executed immediately,
+ * but the further requests arriving within {@link #MIN_INTERVAL_MILLIS}
+ * are merged into a single update at the end of the interval, so that
+ * for example a brush stroke doesn't create a thumbnail for every
+ * mouse event, and the last state is still always shown.
+ */
+final class LayerIconUpdater {
+    private static final long MIN_INTERVAL_MILLIS = 100;
+
+    // a single thread, so that the updates of a layer can't overtake each other
+    private static final ScheduledExecutorService worker =
+        Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "Layer Icons");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        });
+
+    // All the following fields are guarded by the class lock.
+
+    // the layers that already have a scheduled update
+    private static final Set<Layer> scheduled = new HashSet<>();
+
+    // the start times of the latest updates
+    private static final Map<Layer, Long> lastUpdates = new WeakHashMap<>();
+
+    private LayerIconUpdater() {
+        // static utility methods only
+    }
+
+    /**
+     * Schedules the creation of a new thumbnail for the given layer,
+     * unless an update is already scheduled. The thumbnail is passed to
+     * the given consumer on the EDT. If createOnEDT is true, then also
+     * the thumbnail is created on the EDT (only the coalescing is done).
+     */
+    static void requestUpdate(Layer layer, boolean createOnEDT, Consumer<BufferedImage> onEDT) {
+        long delay;
+        synchronized (LayerIconUpdater.class) {
+            if (!scheduled.add(layer)) {
+                return; // the scheduled update will also reflect this change
+            }
+            Long lastUpdate = lastUpdates.get(layer);
+            delay = lastUpdate == null ? 0
+                : Math.max(0, lastUpdate + MIN_INTERVAL_MILLIS - System.currentTimeMillis());
+        }
+
+        Runnable update = createOnEDT
+            ? () -> SwingUtilities.invokeLater(() -> createThumbnail(layer, onEDT))
+            : () -> {
+            BufferedImage thumb = createThumbnail(layer, null);
+            if (thumb != null) {
+                SwingUtilities.invokeLater(() -> onEDT.accept(thumb));
+            }
+        };
+
+        if (delay == 0 && createOnEDT && SwingUtilities.isEventDispatchThread()) {
+            // no need to wait for the next event
+            createThumbnail(layer, onEDT);
+        } else {
+            worker.schedule(update, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static BufferedImage createThumbnail(Layer layer, Consumer<BufferedImage> consumer) {
+        synchronized (LayerIconUpdater.class) {
+            // the later requests must schedule a new update
+            scheduled.remove(layer);
+            lastUpdates.put(layer, System.currentTimeMillis());
+        }
+
+        BufferedImage thumb = layer.createIconThumbnail();
+        assert thumb != null;
+        if (thumb != null && consumer != null) {
+            consumer.accept(thumb);
+        }
+        return thumb;
+    }
+}
@@ -103,8 +103,8 @@ public class LayerMask extends ImageLayer {
     }
 
     public void updateTransparencyImage() {
-        assert image.getType() == TYPE_BYTE_GRAY;
-        assert image.getColorModel() != TRANSPARENCY_COLOR_MODEL;
+        assert getImage().getType() == TYPE_BYTE_GRAY;
+        assert getImage().getColorModel() != TRANSPARENCY_COLOR_MODEL;
 
         // The transparency image shares the raster data with the BW image,
         // but interprets the bytes differently.
@@ -137,6 +137,12 @@ public class LayerMask extends ImageLayer {
         return empty;
     }
 
+    @Override
+    protected boolean canLoadPixelsLater() {
+        // the transparency image is derived from the pixels
+        return false;
+    }
+
     @Override
     protected void imageRefChanged() {
         updateTransparencyImage();
@@ -150,7 +156,7 @@ public class LayerMask extends ImageLayer {
      * to the given layer
      */
     public LayerMask duplicate(Layer owner, Composition newComp) {
-        BufferedImage maskImageCopy = ImageUtils.copyImage(image);
+        BufferedImage maskImageCopy = ImageUtils.copyImage(getImage());
         return new LayerMask(newComp, maskImageCopy, owner, getTx(), getTy());
     }
 
@@ -198,6 +204,7 @@ public class LayerMask extends ImageLayer {
 
             // Create a temporary image that shows how the image would look like
             // if the shapes tool would draw directly into the mask image
+            BufferedImage image = getImage();
             var tmpImg = new BufferedImage(
                 image.getWidth(), image.getHeight(), TYPE_BYTE_GRAY);
             Graphics2D tmpG = tmpImg.createGraphics();
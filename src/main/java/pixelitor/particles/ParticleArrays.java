@@ -0,0 +1,57 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.particles;
+
+/**
+ * The state of many particles, stored in primitive arrays
+ * indexed by the particle index (a "struct of arrays"), so
+ * that a particle doesn't need its own object, and stepping
+ * the particles doesn't allocate any memory.
+ * <p>
+ * The users of the {@link ParticleEngine} can keep additional
+ * state in their own arrays, indexed in the same way.
+ */
+public final class ParticleArrays {
+    public final float[] x;
+    public final float[] y;
+    public final float[] vx;
+    public final float[] vy;
+
+    // the colors in ARGB format
+    public final int[] color;
+
+    // the number of steps since the particle was spawned
+    public final int[] age;
+
+    private final int size;
+
+    public ParticleArrays(int size) {
+        this.size = size;
+
+        x = new float[size];
+        y = new float[size];
+        vx = new float[size];
+        vy = new float[size];
+        color = new int[size];
+        age = new int[size];
+    }
+
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,425 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.particles;
+
+import pixelitor.ThreadPool;
+import pixelitor.utils.ProgressTracker;
+import pixelitor.utils.SynchronizedProgressTracker;
+
+import java.awt.Graphics2D;
+import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB_PRE;
+
+/**
+ * A particle system for large numbers of independent particles,
+ * which are stored in {@link ParticleArrays} instead of objects.
+ * <p>
+ * The particles are divided into fixed-size groups, and each group
+ * has its own random number generator, split from the seed in a fixed
+ * order, so the simulation doesn't depend on the number of threads.
+ * The groups are split into contiguous ranges among "lanes": each lane
+ * processes its groups in order on its own thread, and draws the particle
+ * trails into its own buffer image. At the end the buffers are composited
+ * over the destination in lane order, so the trails are composited in
+ * the same order as if all of them were drawn into the destination one
+ * after the other. As the source-over compositing is associative, this
+ * gives the same image, except for rounding differences in the
+ * semi-transparent pixels where the trails of different lanes overlap.
+ */
+public final class ParticleEngine {
+    public static final int DEFAULT_GROUP_SIZE = 256;
+
+    private final ParticleArrays particles;
+    private final Behavior behavior;
+    private final TrailRenderer trailRenderer;
+    private final int groupSize;
+    private final long seed;
+    private final float pointTolerance;
+
+    /**
+     * Defines how the particles are created and how they move.
+     * The methods are called concurrently for particles in different
+     * groups, so they can modify only the state of the given particle.
+     */
+    public interface Behavior {
+        /**
+         * Initializes the particle at the start and when it's dead.
+         */
+        void spawn(ParticleArrays p, int i, SplittableRandom random);
+
+        /**
+         * Moves the particle in the given (zero-based) step of the simulation.
+         */
+        void step(ParticleArrays p, int i, int step);
+
+        boolean isDead(ParticleArrays p, int i);
+    }
+
+    /**
+     * Draws the trail of a particle when it dies or when the simulation ends.
+     */
+    @FunctionalInterface
+    public interface TrailRenderer {
+        void drawTrail(ParticleArrays p, int i, Trail trail, Graphics2D g);
+    }
+
+    public static ParticleEngineBuilder createEngine(int particleCount) {
+        return new ParticleEngineBuilder(particleCount);
+    }
+
+    private ParticleEngine(ParticleEngineBuilder builder) {
+        particles = new ParticleArrays(builder.particleCount);
+        behavior = builder.behavior;
+        trailRenderer = builder.trailRenderer;
+        groupSize = builder.groupSize;
+        seed = builder.seed;
+        pointTolerance = builder.pointTolerance;
+    }
+
+    public ParticleArrays getParticles() {
+        return particles;
+    }
+
+    public int getNumGroups() {
+        return (particles.size() + groupSize - 1) / groupSize;
+    }
+
+    /**
+     * Runs the simulation for the given number of steps, and
+     * draws the particle trails into the given image. The given
+     * consumer can configure (stroke, rendering hints) the graphics
+     * used for drawing. The given tracker is advanced by one unit
+     * for each finished group (see {@link #getNumGroups()}).
+     */
+    public void render(int iterations, BufferedImage dest,
+                       Consumer<Graphics2D> graphicsSetup, ProgressTracker pt) {
+        int numLanes = calcNumLanes(getNumGroups(), dest.getWidth(), dest.getHeight());
+        render(iterations, dest, graphicsSetup, pt, numLanes);
+    }
+
+    /**
+     * Renders with the given number of lanes, which
+     * is also limited by the number of groups.
+     */
+    void render(int iterations, BufferedImage dest,
+                Consumer<Graphics2D> graphicsSetup, ProgressTracker pt, int maxLanes) {
+        assert maxLanes >= 1 : "maxLanes = " + maxLanes;
+        int numGroups = getNumGroups();
+        if (numGroups == 0) {
+            return;
+        }
+        int numLanes = Math.min(maxLanes, numGroups);
+
+        SplittableRandom root = new SplittableRandom(seed);
+        SplittableRandom[] randoms = new SplittableRandom[numGroups];
+        for (int group = 0; group < numGroups; group++) {
+            randoms[group] = root.split();
+        }
+
+        int width = dest.getWidth();
+        int height = dest.getHeight();
+        var groupTracker = new SynchronizedProgressTracker(pt);
+
+        Lane[] lanes = new Lane[numLanes];
+        for (int i = 0; i < numLanes; i++) {
+            // the first lane can draw directly into the destination
+            BufferedImage buffer = i == 0 ? null : new BufferedImage(width, height, TYPE_INT_ARGB_PRE);
+            Graphics2D g = i == 0 ? dest.createGraphics() : buffer.createGraphics();
+            graphicsSetup.accept(g);
+            int startGroup = (int) ((long) numGroups * i / numLanes);
+            int endGroup = (int) ((long) numGroups * (i + 1) / numLanes);
+            lanes[i] = new Lane(startGroup, endGroup, iterations, randoms, buffer, g, groupTracker);
+        }
+
+        try {
+            runLanes(lanes);
+        } catch (CancellationException e) {
+            pt.finished();
+            throw e;
+        } finally {
+            for (Lane lane : lanes) {
+                lane.g.dispose();
+            }
+        }
+
+        if (numLanes > 1) {
+            mergeLanes(lanes, dest);
+        }
+    }
+
+    private static void runLanes(Lane[] lanes) {
+        if (lanes.length == 1) {
+            lanes[0].run();
+            return;
+        }
+
+        Future<?>[] futures = new Future<?>[lanes.length - 1];
+        for (int i = 1; i < lanes.length; i++) {
+            futures[i - 1] = ThreadPool.submit(lanes[i]);
+        }
+        // the calling thread also works instead of just waiting
+        lanes[0].run();
+        ThreadPool.waitFor(futures, ProgressTracker.NULL_TRACKER);
+    }
+
+    private static void mergeLanes(Lane[] lanes, BufferedImage dest) {
+        int width = dest.getWidth();
+        ThreadPool.processBands(width, dest.getHeight(), (startY, endY) -> {
+            Graphics2D g = dest.createGraphics();
+            g.clipRect(0, startY, width, endY - startY);
+            for (int i = 1; i < lanes.length; i++) {
+                g.drawImage(lanes[i].buffer, 0, 0, null);
+            }
+            g.dispose();
+        }, ProgressTracker.NULL_TRACKER);
+    }
+
+    /**
+     * Returns the number of lanes, limited by the number of cores,
+     * and by the memory needed for the buffer images.
+     */
+    private static int calcNumLanes(int numGroups, int width, int height) {
+        int maxLanes = Math.min(Runtime.getRuntime().availableProcessors(), numGroups);
+        if (maxLanes <= 1) {
+            return 1;
+        }
+        Runtime runtime = Runtime.getRuntime();
+        long usedMemory = runtime.totalMemory() - runtime.freeMemory();
+        long availableMemory = runtime.maxMemory() - usedMemory;
+        long bufferSize = 4L * width * height;
+
+        // the buffers can use at most half of the available memory
+        long affordableBuffers = availableMemory / 2 / bufferSize;
+        return (int) Math.max(1, Math.min(maxLanes, affordableBuffers + 1));
+    }
+
+    /**
+     * Processes a contiguous range of groups in order.
+     * The trail points of the current group are recorded into
+     * preallocated arrays, so the stepping doesn't allocate.
+     */
+    private final class Lane implements Runnable {
+        private final int startGroup;
+        private final int endGroup;
+        private final int iterations;
+        private final SplittableRandom[] randoms;
+        private final BufferedImage buffer;
+        private final Graphics2D g;
+        private final ProgressTracker pt;
+
+        private final int maxPoints;
+        private final float[] coords;
+        private final int[] numPoints;
+        private final float[] lastX;
+        private final float[] lastY;
+        private final Trail trail;
+
+        Lane(int startGroup, int endGroup, int iterations,
+             SplittableRandom[] randoms, BufferedImage buffer, Graphics2D g, ProgressTracker pt) {
+            this.startGroup = startGroup;
+            this.endGroup = endGroup;
+            this.iterations = iterations;
+            this.randoms = randoms;
+            this.buffer = buffer;
+            this.g = g;
+            this.pt = pt;
+
+            // the spawn point and at most one point for each step
+            maxPoints = iterations + 1;
+            coords = new float[groupSize * maxPoints * 2];
+            numPoints = new int[groupSize];
+            lastX = new float[groupSize];
+            lastY = new float[groupSize];
+            trail = new Trail(coords);
+        }
+
+        @Override
+        public void run() {
+            for (int group = startGroup; group < endGroup; group++) {
+                runGroup(group);
+                pt.unitDone();
+            }
+        }
+
+        private void runGroup(int group) {
+            int start = group * groupSize;
+            int end = Math.min(start + groupSize, particles.size());
+            SplittableRandom random = randoms[group];
+
+            for (int i = start; i < end; i++) {
+                spawn(i, i - start, random);
+            }
+            for (int step = 0; step < iterations; step++) {
+                for (int i = start; i < end; i++) {
+                    int slot = i - start;
+                    if (behavior.isDead(particles, i)) {
+                        flushTrail(i, slot);
+                        spawn(i, slot, random);
+                    }
+                    behavior.step(particles, i, step);
+                    particles.age[i]++;
+
+                    float x = particles.x[i];
+                    float y = particles.y[i];
+                    if (Math.abs(x - lastX[slot]) > pointTolerance
+                        || Math.abs(y - lastY[slot]) > pointTolerance) {
+                        addPoint(slot, x, y);
+                    }
+                }
+            }
+            for (int i = start; i < end; i++) {
+                flushTrail(i, i - start);
+            }
+        }
+
+        private void spawn(int i, int slot, SplittableRandom random) {
+            behavior.spawn(particles, i, random);
+            particles.age[i] = 0;
+            addPoint(slot, particles.x[i], particles.y[i]);
+        }
+
+        private void addPoint(int slot, float x, float y) {
+            int offset = (slot * maxPoints + numPoints[slot]) * 2;
+            coords[offset] = x;
+            coords[offset + 1] = y;
+            numPoints[slot]++;
+            lastX[slot] = x;
+            lastY[slot] = y;
+        }
+
+        private void flushTrail(int i, int slot) {
+            if (numPoints[slot] > 0) {
+                trail.set(slot * maxPoints * 2, numPoints[slot]);
+                trailRenderer.drawTrail(particles, i, trail, g);
+                numPoints[slot] = 0;
+            }
+        }
+    }
+
+    /**
+     * The recorded points of a particle since its spawning. A trail
+     * object is reused, so it's valid only during the drawing call.
+     */
+    public static final class Trail {
+        private final float[] coords;
+        private int offset;
+        private int numPoints;
+
+        private final List<Point2D.Float> pointPool = new ArrayList<>();
+        private final List<Point2D> points = new ArrayList<>();
+
+        private Trail(float[] coords) {
+            this.coords = coords;
+        }
+
+        private void set(int offset, int numPoints) {
+            this.offset = offset;
+            this.numPoints = numPoints;
+        }
+
+        public int getNumPoints() {
+            return numPoints;
+        }
+
+        public float getX(int index) {
+            return coords[offset + 2 * index];
+        }
+
+        public float getY(int index) {
+            return coords[offset + 2 * index + 1];
+        }
+
+        /**
+         * Returns the points multiplied by the given scale. Both the
+         * list and the points are reused by the next call.
+         */
+        public List<Point2D> getPoints(double scale) {
+            while (pointPool.size() < numPoints) {
+                pointPool.add(new Point2D.Float());
+            }
+            points.clear();
+            for (int i = 0; i < numPoints; i++) {
+                Point2D.Float point = pointPool.get(i);
+                point.setLocation(getX(i) * scale, getY(i) * scale);
+                points.add(point);
+            }
+            return points;
+        }
+    }
+
+    public static class ParticleEngineBuilder {
+        private final int particleCount;
+        private Behavior behavior;
+        private TrailRenderer trailRenderer = (p, i, trail, g) -> {
+        };
+        private int groupSize = DEFAULT_GROUP_SIZE;
+        private long seed;
+        private float pointTolerance;
+
+        public ParticleEngineBuilder(int particleCount) {
+            this.particleCount = particleCount;
+        }
+
+        public ParticleEngineBuilder setBehavior(Behavior behavior) {
+            this.behavior = behavior;
+            return this;
+        }
+
+        public ParticleEngineBuilder setTrailRenderer(TrailRenderer trailRenderer) {
+            this.trailRenderer = trailRenderer;
+            return this;
+        }
+
+        public ParticleEngineBuilder setGroupSize(int groupSize) {
+            if (groupSize < 1) {
+                throw new IllegalArgumentException("groupSize = " + groupSize);
+            }
+            this.groupSize = groupSize;
+            return this;
+        }
+
+        public ParticleEngineBuilder setSeed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        /**
+         * A new trail point is recorded only if the particle moved
+         * more than the given distance along one of the axes.
+         */
+        public ParticleEngineBuilder setPointTolerance(float pointTolerance) {
+            this.pointTolerance = pointTolerance;
+            return this;
+        }
+
+        public ParticleEngine build() {
+            if (behavior == null) {
+                throw new IllegalStateException("no behavior");
+            }
+            return new ParticleEngine(this);
+        }
+    }
+}
@@ -76,4 +76,9 @@ public class GradientChangeEdit extends PixelitorEdit {
             imageEdit.die();
         }
     }
+
+    @Override
+    public long getBackupBytes() {
+        return imageEditNeeded ? imageEdit.getBackupBytes() : 0;
+    }
 }
@@ -63,4 +63,16 @@ public class NewGradientEdit extends PixelitorEdit {
         dr.update();
         dr.updateIconImage();
     }
+
+    @Override
+    public void die() {
+        super.die();
+
+        imageEdit.die();
+    }
+
+    @Override
+    public long getBackupBytes() {
+        return imageEdit.getBackupBytes();
+    }
 }
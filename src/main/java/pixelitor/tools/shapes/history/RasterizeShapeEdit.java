@@ -66,6 +66,20 @@ public class RasterizeShapeEdit extends PixelitorEdit {
         Tools.SHAPES.resetInitialState();
     }
 
+    @Override
+    public void die() {
+        super.die();
+
+        if (imageEdit != null) {
+            imageEdit.die();
+        }
+    }
+
+    @Override
+    public long getBackupBytes() {
+        return imageEdit == null ? 0 : imageEdit.getBackupBytes();
+    }
+
     @Override
     public DebugNode createDebugNode(String key) {
         DebugNode node = super.createDebugNode(key);
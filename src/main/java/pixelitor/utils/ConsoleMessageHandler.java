@@ -0,0 +1,92 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.utils;
+
+import pixelitor.layers.Layer;
+
+import java.awt.Component;
+
+/**
+ * A message handler for running without a GUI, for example
+ * for batch processing from the command line. The errors and
+ * warnings are printed to the standard error stream.
+ */
+public class ConsoleMessageHandler implements MessageHandler {
+    @Override
+    public void showInStatusBar(String msg) {
+        // the status bar messages are not important enough
+    }
+
+    @Override
+    public ProgressHandler startProgress(String msg, int max) {
+        return ProgressHandler.EMPTY;
+    }
+
+    @Override
+    public void showInfo(String title, String msg, Component parent) {
+        print(title, msg);
+    }
+
+    @Override
+    public void showWarning(String title, String msg, Component parent) {
+        print("Warning: " + title, msg);
+    }
+
+    @Override
+    public void showError(String title, String msg, Component parent) {
+        print("Error: " + title, msg);
+    }
+
+    @Override
+    public void showNotImageLayerError(Layer layer) {
+        print("Error", layer.getName() + " isn't an image layer.");
+    }
+
+    @Override
+    public void showNotDrawableError(Layer layer) {
+        print("Error", layer.getName() + " isn't an image layer or mask.");
+    }
+
+    @Override
+    public void showException(Throwable e) {
+        e.printStackTrace();
+    }
+
+    @Override
+    public void showException(Throwable e, Thread srcThread) {
+        System.err.println("Exception in the thread " + srcThread.getName());
+        e.printStackTrace();
+    }
+
+    @Override
+    public void showExceptionOnEDT(Throwable e) {
+        e.printStackTrace();
+    }
+
+    @Override
+    public boolean showYesNoQuestion(String title, String msg) {
+        // there is nobody to answer
+        return false;
+    }
+
+    private static void print(String title, String msg) {
+        // the messages are often formatted for the GUI
+        String text = msg.replaceAll("<br>", " ").replaceAll("<[^>]*>", "");
+        System.err.println(title + ": " + text);
+    }
+}
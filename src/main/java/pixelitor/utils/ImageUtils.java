@@ -30,8 +30,10 @@ import pixelitor.Canvas;
 import pixelitor.colors.Colors;
 import pixelitor.filters.Invert;
 import pixelitor.gui.utils.Dialogs;
+import pixelitor.layers.AdjustmentFusion;
 import pixelitor.layers.Layer;
 import pixelitor.selection.Selection;
+import pixelitor.tools.Tool;
 import pixelitor.tools.Tools;
 import pixelitor.utils.debug.Debug;
 
@@ -68,11 +70,17 @@ public class ImageUtils {
     private static final double DEG_315_IN_RADIANS = Math.PI / 4;
     private static final Color CHECKERBOARD_GRAY = new Color(200, 200, 200);
 
-    private static final GraphicsConfiguration graphicsConfig = GraphicsEnvironment
+    // null in headless mode (batch processing from the command line),
+    // where the compatible images are simply ARGB images
+    private static final GraphicsConfiguration graphicsConfig = GraphicsEnvironment.isHeadless()
+        ? null
+        : GraphicsEnvironment
         .getLocalGraphicsEnvironment()
         .getDefaultScreenDevice()
         .getDefaultConfiguration();
-    private static final ColorModel defaultColorModel = graphicsConfig.getColorModel();
+    private static final ColorModel defaultColorModel = graphicsConfig == null
+        ? ColorModel.getRGBdefault()
+        : graphicsConfig.getColorModel();
 
     private ImageUtils() {
     }
@@ -93,8 +101,8 @@ public class ImageUtils {
             }
         }
 
-        BufferedImage output = graphicsConfig.createCompatibleImage(
-            input.getWidth(), input.getHeight(), TRANSLUCENT);
+        BufferedImage output = createSysCompatibleImage(
+            input.getWidth(), input.getHeight());
         Graphics2D g = output.createGraphics();
         g.drawImage(input, 0, 0, null);
         g.dispose();
@@ -109,6 +117,9 @@ public class ImageUtils {
     public static BufferedImage createSysCompatibleImage(int width, int height) {
         assert width > 0 && height > 0;
 
+        if (graphicsConfig == null) {
+            return new BufferedImage(width, height, TYPE_INT_ARGB);
+        }
         return graphicsConfig.createCompatibleImage(width, height, TRANSLUCENT);
     }
 
@@ -154,6 +165,12 @@ public class ImageUtils {
     }
 
     public static BufferedImage resize(BufferedImage img, int targetWidth, int targetHeight) {
+        if (Resampler.canResample(img)) {
+            return Resampler.resample(img, targetWidth, targetHeight,
+                ProgressTracker.NULL_TRACKER);
+        }
+
+        // other image types use the slower and softer Java2D scaling
         boolean progressiveBilinear = targetWidth < img.getWidth() / 2
             || targetHeight < img.getHeight() / 2;
         return getFasterScaledInstance(img, targetWidth, targetHeight, VALUE_INTERPOLATION_BICUBIC, progressiveBilinear);
@@ -1207,7 +1224,9 @@ public class ImageUtils {
     public static BufferedImage calcComposite(List<Layer> layers, Canvas canvas) {
         if (layers.size() == 1) { // shortcut
             Layer layer = layers.getFirst();
-            if (Tools.currentTool.isDirectDrawing() && layer.isVisible()) {
+            // without a GUI (batch processing) there is no current tool
+            Tool tool = Tools.currentTool;
+            if ((tool == null || tool.isDirectDrawing()) && layer.isVisible()) {
                 BufferedImage layerImg = layer.asImage(true, true);
 
                 // it can be null if there's a single adjustment layer
@@ -1222,24 +1241,119 @@ public class ImageUtils {
         Graphics2D g = compositeImg.createGraphics();
 
         // the first visible layer is always applied with normal blending mode
-        boolean firstVisibleLayer = true;
+        return applyLayers(layers, compositeImg, g, true);
+    }
+
+    /**
+     * Applies the visible layers of the given list on the given image (or on
+     * the given graphics of the image), and returns the resulting image.
+     * Adjustment layers can replace the image with a new one, and the
+     * consecutive point adjustment layers are fused and applied in place,
+     * so the given image must not be shared with anything else than
+     * the compositing. The given graphics is disposed.
+     */
+    public static BufferedImage applyLayers(List<Layer> layers, BufferedImage imageSoFar,
+                                            Graphics2D g, boolean firstVisibleLayer) {
+        for (int i = 0; i < layers.size(); i++) {
+            Layer layer = layers.get(i);
+            if (!layer.isVisible()) {
+                continue;
+            }
+
+            BufferedImage result;
+            int numFused = firstVisibleLayer ? 0 : AdjustmentFusion.countFusable(layers, i, imageSoFar);
+            if (numFused > 0) {
+                result = AdjustmentFusion.applyFused(layers.subList(i, i + numFused), imageSoFar);
+                i += numFused - 1;
+            } else {
+                result = layer.applyLayer(g, imageSoFar, firstVisibleLayer);
+            }
+
+            if (result != null) { // adjustment layer, watermarking text layer or layer group
+                imageSoFar = result;
+                // keep the translation used when compositing a region
+                AffineTransform transform = null;
+                if (g != null) {
+                    transform = g.getTransform();
+                    g.dispose();
+                }
+                g = imageSoFar.createGraphics();
+                if (transform != null) {
+                    g.setTransform(transform);
+                }
+            }
+            firstVisibleLayer = false;
+        }
+        if (g != null) {
+            g.dispose();
+        }
+
+        return imageSoFar;
+    }
+
+    /**
+     * Returns true if the composite of the given layers can
+     * be recalculated for a region with {@link #recalcCompositeRegion}.
+     */
+    public static boolean supportsRegionalCompositing(List<Layer> layers) {
+        return calcRegionMargin(layers) >= 0;
+    }
+
+    /**
+     * Returns how far (in pixels) a change can spread when the given
+     * layers are applied, or -1 if it can spread to the whole image.
+     */
+    public static int calcRegionMargin(List<Layer> layers) {
+        int margin = 0;
         for (Layer layer : layers) {
             if (layer.isVisible()) {
-                BufferedImage result = layer.applyLayer(g, compositeImg, firstVisibleLayer);
-                if (result != null) { // adjustment layer or watermarking text layer
-                    compositeImg = result;
-                    if (g != null) {
-                        g.dispose();
-                    }
-                    g = compositeImg.createGraphics();
+                int layerMargin = layer.getRegionMargin();
+                if (layerMargin < 0) {
+                    return -1;
                 }
-                firstVisibleLayer = false;
+                // the effects of the layers above each other add up
+                margin += layerMargin;
             }
         }
+        return margin;
+    }
 
-        g.dispose();
+    /**
+     * Recalculates the given region of an existing composite image
+     * in place, without touching the pixels outside the region.
+     */
+    public static void recalcCompositeRegion(List<Layer> layers,
+                                             BufferedImage compositeImg,
+                                             Rectangle region) {
+        assert compositeImg.getType() == TYPE_INT_ARGB_PRE;
+
+        // the adjustment layers with a limited reach (such as a blur)
+        // also need the pixels around the region
+        int margin = calcRegionMargin(layers);
+        assert margin >= 0;
+        var calcRegion = new Rectangle(region);
+        calcRegion.grow(margin, margin);
+        calcRegion = calcRegion.intersection(compositeImg.getRaster().getBounds());
+
+        var regionImg = new BufferedImage(
+            calcRegion.width, calcRegion.height, TYPE_INT_ARGB_PRE);
+        Graphics2D g = regionImg.createGraphics();
+
+        // the same algorithm as in calcComposite, but in the
+        // coordinate system of the canvas, translated to the region
+        g.translate(-calcRegion.x, -calcRegion.y);
+        regionImg = applyLayers(layers, regionImg, g, true);
+
+        if (!calcRegion.equals(region)) {
+            regionImg = regionImg.getSubimage(
+                region.x - calcRegion.x, region.y - calcRegion.y,
+                region.width, region.height);
+        }
 
-        return compositeImg;
+        Graphics2D cg = compositeImg.createGraphics();
+        cg.setComposite(AlphaComposite.Src);
+        cg.drawImage(regionImg, region.x, region.y, null);
+        cg.dispose();
     }
 
     public static BufferedImage createCircleThumb(Color color) {
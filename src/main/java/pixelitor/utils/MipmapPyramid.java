@@ -0,0 +1,296 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.utils;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.WritableRaster;
+
+import static java.awt.RenderingHints.KEY_INTERPOLATION;
+import static java.awt.RenderingHints.VALUE_INTERPOLATION_BILINEAR;
+import static java.awt.RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR;
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB_PRE;
+import static java.awt.image.BufferedImage.TYPE_INT_RGB;
+
+/**
+ * A pyramid of successively halved versions of an image,
+ * used for drawing the image at zoom levels below 50%
+ * without resampling the full-resolution image at every repaint.
+ * <p>
+ * The levels are built lazily, only down to the level that
+ * is actually requested, and after a regional change only the
+ * affected parts of the already built levels are recalculated.
+ * Level n has the size ceil(size / 2^n) and is always stored
+ * as a premultiplied image, so that averaging the pixels is correct.
+ */
+public class MipmapPyramid {
+    private static final int MAX_LEVEL = 10;
+
+    private BufferedImage base;
+    private final int baseType;
+
+    // levels[0] is not used, the base image is level 0
+    private final BufferedImage[] levels = new BufferedImage[MAX_LEVEL + 1];
+
+    // the parts of the levels that are out of date, in level coordinates
+    private final Rectangle[] dirtyRegions = new Rectangle[MAX_LEVEL + 1];
+
+    public MipmapPyramid(BufferedImage base) {
+        assert isSupported(base);
+        this.base = base;
+        this.baseType = base.getType();
+    }
+
+    /**
+     * Returns true if a pyramid can be built from the given image.
+     */
+    public static boolean isSupported(BufferedImage img) {
+        int type = img.getType();
+        return type == TYPE_INT_ARGB_PRE || type == TYPE_INT_ARGB || type == TYPE_INT_RGB;
+    }
+
+    public BufferedImage getBase() {
+        return base;
+    }
+
+    /**
+     * Replaces the base image with a copy of it, so
+     * that the already built levels can be kept.
+     */
+    public void replaceBase(BufferedImage copy) {
+        assert copy.getType() == baseType;
+        assert copy.getWidth() == base.getWidth() && copy.getHeight() == base.getHeight();
+        base = copy;
+    }
+
+    /**
+     * Returns the level that should be used for drawing at the given scaling:
+     * the smallest level that still has at least the requested resolution.
+     */
+    public int levelFor(double scaling) {
+        int level = 0;
+        int width = base.getWidth();
+        int height = base.getHeight();
+        while (level < MAX_LEVEL && scaling <= 0.5 / (1 << level)
+            && width > 1 && height > 1) {
+            level++;
+            width = (width + 1) / 2;
+            height = (height + 1) / 2;
+        }
+        return level;
+    }
+
+    /**
+     * Draws the image at the given scaling. The given graphics
+     * must already be transformed into image space, and
+     * only its clip area is drawn.
+     */
+    public void draw(Graphics2D g, double scaling) {
+        int level = levelFor(scaling);
+        if (level == 0) {
+            g.drawImage(base, 0, 0, null);
+            return;
+        }
+
+        Rectangle visible = new Rectangle(0, 0, base.getWidth(), base.getHeight());
+        Rectangle clip = g.getClipBounds();
+        if (clip != null) {
+            visible = visible.intersection(clip);
+            if (visible.isEmpty()) {
+                return;
+            }
+        }
+
+        BufferedImage levelImg = getLevel(level);
+        int factor = 1 << level;
+
+        // the source rectangle in level coordinates, covering the visible part
+        int sx1 = visible.x / factor;
+        int sy1 = visible.y / factor;
+        int sx2 = Math.min(levelImg.getWidth(), Math.ceilDiv(visible.x + visible.width, factor));
+        int sy2 = Math.min(levelImg.getHeight(), Math.ceilDiv(visible.y + visible.height, factor));
+
+        // the last level pixels can extend beyond the image bounds
+        Shape oldClip = g.getClip();
+        g.clip(new Rectangle(0, 0, base.getWidth(), base.getHeight()));
+
+        Object oldHint = g.getRenderingHint(KEY_INTERPOLATION);
+        g.setRenderingHint(KEY_INTERPOLATION, VALUE_INTERPOLATION_BILINEAR);
+        g.drawImage(levelImg,
+            sx1 * factor, sy1 * factor, sx2 * factor, sy2 * factor,
+            sx1, sy1, sx2, sy2, null);
+        g.setClip(oldClip);
+        if (oldHint != null) {
+            g.setRenderingHint(KEY_INTERPOLATION, oldHint);
+        } else {
+            g.setRenderingHint(KEY_INTERPOLATION, VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+        }
+    }
+
+    /**
+     * Returns the given level, building or updating it
+     * (and all the levels above it) if necessary.
+     */
+    public BufferedImage getLevel(int level) {
+        assert level >= 1 && level <= MAX_LEVEL : "level = " + level;
+
+        for (int i = 1; i <= level; i++) {
+            if (levels[i] == null) {
+                int srcWidth = levelWidth(i - 1);
+                int srcHeight = levelHeight(i - 1);
+                int width = (srcWidth + 1) / 2;
+                int height = (srcHeight + 1) / 2;
+                levels[i] = new BufferedImage(width, height, TYPE_INT_ARGB_PRE);
+                downsample(i, new Rectangle(0, 0, width, height));
+                dirtyRegions[i] = null;
+            } else if (dirtyRegions[i] != null) {
+                downsample(i, dirtyRegions[i]);
+                dirtyRegions[i] = null;
+            }
+        }
+        return levels[level];
+    }
+
+    /**
+     * Signals that the given region (in base image coordinates) has changed.
+     */
+    public void invalidate(Rectangle region) {
+        for (int i = 1; i <= MAX_LEVEL; i++) {
+            if (levels[i] == null) {
+                break; // the lower levels can't exist either
+            }
+            int factor = 1 << i;
+            int x1 = Math.floorDiv(region.x, factor);
+            int y1 = Math.floorDiv(region.y, factor);
+            int x2 = Math.ceilDiv(region.x + region.width, factor);
+            int y2 = Math.ceilDiv(region.y + region.height, factor);
+            Rectangle levelRegion = new Rectangle(x1, y1, x2 - x1, y2 - y1)
+                .intersection(new Rectangle(0, 0, levels[i].getWidth(), levels[i].getHeight()));
+            if (levelRegion.isEmpty()) {
+                continue;
+            }
+            if (dirtyRegions[i] == null) {
+                dirtyRegions[i] = levelRegion;
+            } else {
+                dirtyRegions[i].add(levelRegion);
+            }
+        }
+    }
+
+    public void flush() {
+        for (int i = 1; i <= MAX_LEVEL; i++) {
+            if (levels[i] != null) {
+                levels[i].flush();
+                levels[i] = null;
+            }
+            dirtyRegions[i] = null;
+        }
+    }
+
+    private int levelWidth(int level) {
+        return level == 0 ? base.getWidth() : levels[level].getWidth();
+    }
+
+    private int levelHeight(int level) {
+        return level == 0 ? base.getHeight() : levels[level].getHeight();
+    }
+
+    /**
+     * Recalculates the given region of the given level
+     * by averaging 2x2 pixel blocks of the level above it.
+     */
+    private void downsample(int level, Rectangle region) {
+        int srcWidth = levelWidth(level - 1);
+        int srcHeight = levelHeight(level - 1);
+        BufferedImage dstImg = levels[level];
+        int dstWidth = dstImg.getWidth();
+        int[] dst = ((DataBufferInt) dstImg.getRaster().getDataBuffer()).getData();
+
+        int[] row1 = new int[srcWidth];
+        int[] row2 = new int[srcWidth];
+        int regionEndX = region.x + region.width;
+        int regionEndY = region.y + region.height;
+        for (int y = region.y; y < regionEndY; y++) {
+            int sy1 = 2 * y;
+            int sy2 = Math.min(sy1 + 1, srcHeight - 1);
+            readRow(level - 1, sy1, row1);
+            readRow(level - 1, sy2, row2);
+
+            int dstOffset = y * dstWidth;
+            for (int x = region.x; x < regionEndX; x++) {
+                int sx1 = 2 * x;
+                int sx2 = Math.min(sx1 + 1, srcWidth - 1);
+                dst[dstOffset + x] = average(row1[sx1], row1[sx2], row2[sx1], row2[sx2]);
+            }
+        }
+    }
+
+    /**
+     * Reads a row of the given level as premultiplied ARGB pixels.
+     */
+    private void readRow(int level, int y, int[] row) {
+        if (level > 0) {
+            int width = levels[level].getWidth();
+            int[] src = ((DataBufferInt) levels[level].getRaster().getDataBuffer()).getData();
+            System.arraycopy(src, y * width, row, 0, width);
+            return;
+        }
+
+        // the base image's data buffer isn't accessed directly, because
+        // that would prevent Java2D from accelerating its drawing
+        WritableRaster raster = base.getRaster();
+        raster.getDataElements(0, y, row.length, 1, row);
+        if (baseType == TYPE_INT_RGB) {
+            for (int i = 0; i < row.length; i++) {
+                row[i] |= 0xFF_00_00_00;
+            }
+        } else if (baseType == TYPE_INT_ARGB) {
+            for (int i = 0; i < row.length; i++) {
+                row[i] = premultiply(row[i]);
+            }
+        }
+    }
+
+    private static int average(int p1, int p2, int p3, int p4) {
+        int a = ((p1 >>> 24) + (p2 >>> 24) + (p3 >>> 24) + (p4 >>> 24) + 2) >> 2;
+        int r = (((p1 >>> 16) & 0xFF) + ((p2 >>> 16) & 0xFF)
+            + ((p3 >>> 16) & 0xFF) + ((p4 >>> 16) & 0xFF) + 2) >> 2;
+        int g = (((p1 >>> 8) & 0xFF) + ((p2 >>> 8) & 0xFF)
+            + ((p3 >>> 8) & 0xFF) + ((p4 >>> 8) & 0xFF) + 2) >> 2;
+        int b = ((p1 & 0xFF) + (p2 & 0xFF) + (p3 & 0xFF) + (p4 & 0xFF) + 2) >> 2;
+        return a << 24 | r << 16 | g << 8 | b;
+    }
+
+    private static int premultiply(int argb) {
+        int a = argb >>> 24;
+        if (a == 255) {
+            return argb;
+        }
+        if (a == 0) {
+            return 0;
+        }
+        int r = ((argb >>> 16) & 0xFF) * a / 255;
+        int g = ((argb >>> 8) & 0xFF) * a / 255;
+        int b = (argb & 0xFF) * a / 255;
+        return a << 24 | r << 16 | g << 8 | b;
+    }
+}
@@ -0,0 +1,334 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.utils;
+
+import pixelitor.ThreadPool;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+
+import static java.awt.image.BufferedImage.TYPE_BYTE_GRAY;
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB_PRE;
+import static java.awt.image.BufferedImage.TYPE_INT_RGB;
+
+/**
+ * Separable image resampling with precomputed filter weights.
+ * The image is filtered first horizontally and then vertically,
+ * and the destination rows are calculated in parallel bands.
+ * The filter is the Catmull-Rom spline, which is also used by
+ * the bicubic interpolation of Java2D.
+ * <p>
+ * When shrinking, the filters are stretched so that every
+ * source pixel contributes, which gives the same smooth results
+ * as area averaging, without the blurring of the repeated halving.
+ * The translucent images are filtered with premultiplied alpha,
+ * so that the colors of the transparent pixels don't bleed into
+ * the neighboring pixels.
+ */
+public final class Resampler {
+    // the distance beyond which the filter weights are zero
+    private static final double FILTER_RADIUS = 2.0;
+
+    private Resampler() {
+        // static utility methods only
+    }
+
+    /**
+     * Returns true if the given image type is supported by {@link #resample}
+     */
+    public static boolean canResample(BufferedImage img) {
+        int type = img.getType();
+        return type == TYPE_INT_ARGB || type == TYPE_INT_ARGB_PRE
+            || type == TYPE_INT_RGB || type == TYPE_BYTE_GRAY;
+    }
+
+    /**
+     * Returns a new image with the given size and with the same type as the source.
+     */
+    public static BufferedImage resample(BufferedImage src, int dstWidth, int dstHeight,
+                                         ProgressTracker pt) {
+        assert canResample(src) : "type = " + src.getType();
+        assert dstWidth > 0 && dstHeight > 0;
+
+        if (dstWidth == src.getWidth() && dstHeight == src.getHeight()) {
+            // also keeps the colors of the transparent pixels
+            return ImageUtils.copyImage(src);
+        }
+
+        Weights xWeights = new Weights(src.getWidth(), dstWidth);
+        Weights yWeights = new Weights(src.getHeight(), dstHeight);
+        BufferedImage dst = new BufferedImage(dstWidth, dstHeight, src.getType());
+
+        ThreadPool.processBands(dstWidth, dstHeight, (startY, endY) ->
+            new BandResampler(src, dst, xWeights, yWeights).process(startY, endY), pt);
+
+        return dst;
+    }
+
+    /**
+     * The contributing source pixels and their normalized
+     * weights for each destination pixel along one axis.
+     */
+    static final class Weights {
+        final int[] starts;
+        final int[] counts;
+        final float[] values; // stride values per destination pixel
+        final int stride;
+
+        Weights(int srcSize, int dstSize) {
+            double scale = dstSize / (double) srcSize;
+
+            // when shrinking, the filter is stretched to cover all source pixels
+            double filterScale = Math.max(1.0, 1.0 / scale);
+            double support = FILTER_RADIUS * filterScale;
+
+            stride = Math.max(1, (int) Math.ceil(support * 2) + 1);
+            starts = new int[dstSize];
+            counts = new int[dstSize];
+            values = new float[dstSize * stride];
+
+            for (int i = 0; i < dstSize; i++) {
+                double center = (i + 0.5) / scale;
+                int start = Math.max(0, (int) Math.floor(center - support));
+                int end = Math.min(srcSize, (int) Math.ceil(center + support));
+                if (end - start > stride) {
+                    end = start + stride;
+                }
+
+                int offset = i * stride;
+                double sum = 0;
+                for (int j = start; j < end; j++) {
+                    double w = weight((j + 0.5 - center) / filterScale);
+                    values[offset + j - start] = (float) w;
+                    sum += w;
+                }
+                for (int j = 0; j < end - start; j++) {
+                    values[offset + j] /= (float) sum;
+                }
+
+                starts[i] = start;
+                counts[i] = end - start;
+            }
+        }
+    }
+
+    /**
+     * Returns the filter value at the given distance (in source pixels
+     * for enlarging, in destination pixels for shrinking) from the center.
+     */
+    private static double weight(double x) {
+        x = Math.abs(x);
+        if (x < 1.0) {
+            return (1.5 * x - 2.5) * x * x + 1.0;
+        }
+        if (x < 2.0) {
+            return ((-0.5 * x + 2.5) * x - 4.0) * x + 2.0;
+        }
+        return 0.0;
+    }
+
+    /**
+     * Calculates a band of destination rows. The horizontally filtered
+     * source rows are kept in a ring buffer, so each one is calculated
+     * only once even though several destination rows need it.
+     */
+    private static final class BandResampler {
+        private final Raster srcRaster;
+        private final WritableRaster dstRaster;
+        private final Weights xWeights;
+        private final Weights yWeights;
+        private final int srcWidth;
+        private final int dstWidth;
+        private final int numChannels;
+        private final boolean premultiply; // the source isn't premultiplied, but has alpha
+        private final boolean grayImage;
+        private final boolean opaque;
+
+        private final float[][] ring;
+        private final int[] ringRows;
+        private final float[] srcFloats;
+        private final float[] acc;
+        private final int[] intRow;
+        private final byte[] byteRow;
+
+        BandResampler(BufferedImage src, BufferedImage dst, Weights xWeights, Weights yWeights) {
+            this.xWeights = xWeights;
+            this.yWeights = yWeights;
+            srcRaster = src.getRaster();
+            dstRaster = dst.getRaster();
+            srcWidth = src.getWidth();
+            dstWidth = dst.getWidth();
+
+            int type = src.getType();
+            grayImage = type == TYPE_BYTE_GRAY;
+            numChannels = grayImage ? 1 : 4;
+            premultiply = type == TYPE_INT_ARGB;
+            opaque = type == TYPE_INT_RGB;
+
+            ring = new float[yWeights.stride][dstWidth * numChannels];
+            ringRows = new int[yWeights.stride];
+            Arrays.fill(ringRows, -1);
+            srcFloats = new float[srcWidth * numChannels];
+            acc = new float[dstWidth * numChannels];
+            if (grayImage) {
+                intRow = null;
+                byteRow = new byte[Math.max(srcWidth, dstWidth)];
+            } else {
+                intRow = new int[Math.max(srcWidth, dstWidth)];
+                byteRow = null;
+            }
+        }
+
+        void process(int startY, int endY) {
+            int rowLength = acc.length;
+            for (int y = startY; y < endY; y++) {
+                Arrays.fill(acc, 0.0f);
+                int start = yWeights.starts[y];
+                int count = yWeights.counts[y];
+                int offset = y * yWeights.stride;
+                for (int k = 0; k < count; k++) {
+                    float[] row = getFilteredRow(start + k);
+                    float w = yWeights.values[offset + k];
+                    for (int i = 0; i < rowLength; i++) {
+                        acc[i] += w * row[i];
+                    }
+                }
+                writeRow(y);
+            }
+        }
+
+        private float[] getFilteredRow(int srcY) {
+            int slot = srcY % ring.length;
+            float[] row = ring[slot];
+            if (ringRows[slot] != srcY) {
+                readRow(srcY);
+                filterHorizontally(row);
+                ringRows[slot] = srcY;
+            }
+            return row;
+        }
+
+        // reads a source row into srcFloats, with premultiplied alpha
+        private void readRow(int srcY) {
+            if (grayImage) {
+                srcRaster.getDataElements(0, srcY, srcWidth, 1, byteRow);
+                for (int x = 0; x < srcWidth; x++) {
+                    srcFloats[x] = byteRow[x] & 0xFF;
+                }
+                return;
+            }
+
+            srcRaster.getDataElements(0, srcY, srcWidth, 1, intRow);
+            for (int x = 0, i = 0; x < srcWidth; x++, i += 4) {
+                int rgb = intRow[x];
+                float a = opaque ? 255.0f : rgb >>> 24;
+                float r = (rgb >>> 16) & 0xFF;
+                float g = (rgb >>> 8) & 0xFF;
+                float b = rgb & 0xFF;
+                if (premultiply) {
+                    float f = a / 255.0f;
+                    r *= f;
+                    g *= f;
+                    b *= f;
+                }
+                srcFloats[i] = a;
+                srcFloats[i + 1] = r;
+                srcFloats[i + 2] = g;
+                srcFloats[i + 3] = b;
+            }
+        }
+
+        private void filterHorizontally(float[] out) {
+            int[] starts = xWeights.starts;
+            int[] counts = xWeights.counts;
+            float[] values = xWeights.values;
+            int stride = xWeights.stride;
+
+            if (numChannels == 1) {
+                for (int x = 0; x < dstWidth; x++) {
+                    int start = starts[x];
+                    int offset = x * stride;
+                    float sum = 0;
+                    for (int k = 0, n = counts[x]; k < n; k++) {
+                        sum += values[offset + k] * srcFloats[start + k];
+                    }
+                    out[x] = sum;
+                }
+                return;
+            }
+
+            for (int x = 0, o = 0; x < dstWidth; x++, o += 4) {
+                int si = starts[x] * 4;
+                int offset = x * stride;
+                float a = 0, r = 0, g = 0, b = 0;
+                for (int k = 0, n = counts[x]; k < n; k++, si += 4) {
+                    float w = values[offset + k];
+                    a += w * srcFloats[si];
+                    r += w * srcFloats[si + 1];
+                    g += w * srcFloats[si + 2];
+                    b += w * srcFloats[si + 3];
+                }
+                out[o] = a;
+                out[o + 1] = r;
+                out[o + 2] = g;
+                out[o + 3] = b;
+            }
+        }
+
+        // writes acc into the given destination row
+        private void writeRow(int dstY) {
+            if (grayImage) {
+                for (int x = 0; x < dstWidth; x++) {
+                    byteRow[x] = (byte) clamp(acc[x]);
+                }
+                dstRaster.setDataElements(0, dstY, dstWidth, 1, byteRow);
+                return;
+            }
+
+            for (int x = 0, i = 0; x < dstWidth; x++, i += 4) {
+                int a = opaque ? 255 : clamp(acc[i]);
+                int r, g, b;
+                if (a == 0) {
+                    r = g = b = 0;
+                } else if (premultiply) {
+                    float f = 255.0f / acc[i];
+                    r = clamp(acc[i + 1] * f);
+                    g = clamp(acc[i + 2] * f);
+                    b = clamp(acc[i + 3] * f);
+                } else {
+                    // the premultiplied colors can't be larger than the alpha
+                    r = Math.min(a, clamp(acc[i + 1]));
+                    g = Math.min(a, clamp(acc[i + 2]));
+                    b = Math.min(a, clamp(acc[i + 3]));
+                }
+                // the ints of opaque images have no alpha bits
+                int alphaBits = opaque ? 0 : a << 24;
+                intRow[x] = alphaBits | r << 16 | g << 8 | b;
+            }
+            dstRaster.setDataElements(0, dstY, dstWidth, 1, intRow);
+        }
+
+        private static int clamp(float v) {
+            int i = (int) (v + 0.5f);
+            return i < 0 ? 0 : Math.min(i, 255);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.utils;
+
+/**
+ * A thread-safe wrapper around another tracker, which allows
+ * several worker threads to report their progress into the
+ * same tracker, typically through their own {@link SubtaskProgressTracker}s.
+ */
+public class SynchronizedProgressTracker implements ProgressTracker {
+    private final ProgressTracker delegate;
+
+    public SynchronizedProgressTracker(ProgressTracker delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public synchronized void unitDone() {
+        delegate.unitDone();
+    }
+
+    @Override
+    public synchronized void unitsDone(int units) {
+        delegate.unitsDone(units);
+    }
+
+    @Override
+    public synchronized void finished() {
+        delegate.finished();
+    }
+}
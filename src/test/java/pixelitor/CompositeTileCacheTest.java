@@ -0,0 +1,154 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB_PRE;
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DisplayName("CompositeTileCache tests")
+class CompositeTileCacheTest {
+    private static final int TILE_SIZE = 256;
+
+    // the image fills 4x4 tiles at 100% zoom
+    private static final int IMG_WIDTH = 4 * TILE_SIZE;
+    private static final int IMG_HEIGHT = 4 * TILE_SIZE;
+
+    // the top-left corners of the tiles rendered since the last reset
+    private final List<Point> renderedTiles = new ArrayList<>();
+
+    private final Consumer<Graphics2D> renderer = g -> {
+        Rectangle clip = g.getClipBounds();
+        AffineTransform at = g.getTransform();
+        renderedTiles.add(new Point(
+            (int) Math.round(clip.x * at.getScaleX()),
+            (int) Math.round(clip.y * at.getScaleY())));
+    };
+
+    @BeforeEach
+    void beforeEachTest() {
+        renderedTiles.clear();
+    }
+
+    @Test
+    void canBeUsedOnlyWithScalingAndIntegerTranslation() {
+        assertThat(CompositeTileCache.canBeUsedWith(new AffineTransform())).isTrue();
+        assertThat(CompositeTileCache.canBeUsedWith(new AffineTransform(0.5, 0, 0, 0.5, 10, 20))).isTrue();
+
+        assertThat(CompositeTileCache.canBeUsedWith(new AffineTransform(0.5, 0, 0, 0.5, 10.5, 20))).isFalse();
+        assertThat(CompositeTileCache.canBeUsedWith(AffineTransform.getRotateInstance(0.1))).isFalse();
+        assertThat(CompositeTileCache.canBeUsedWith(AffineTransform.getScaleInstance(-1, 1))).isFalse();
+    }
+
+    @Test
+    void tilesAreRenderedOnlyOnce() {
+        CompositeTileCache cache = CompositeTileCache.forTransform(new AffineTransform());
+
+        draw(cache, 1.0);
+        assertThat(renderedTiles).hasSize(16);
+
+        renderedTiles.clear();
+        draw(cache, 1.0);
+        assertThat(renderedTiles).hasSize(0);
+    }
+
+    @Test
+    void invalidationDiscardsOnlyTheAffectedTiles() {
+        CompositeTileCache cache = CompositeTileCache.forTransform(new AffineTransform());
+        draw(cache, 1.0);
+
+        renderedTiles.clear();
+        cache.invalidate(new Rectangle(300, 310, 20, 20));
+        draw(cache, 1.0);
+        assertThat(renderedTiles).containsExactly(new Point(256, 256));
+
+        renderedTiles.clear();
+        cache.invalidate(new Rectangle(10, 600, 5, 5));
+        cache.invalidate(new Rectangle(900, 50, 5, 5));
+        draw(cache, 1.0);
+        assertThat(renderedTiles).containsExactly(new Point(768, 0), new Point(0, 512));
+    }
+
+    @Test
+    void invalidationNearTileBorderDiscardsBothTiles() {
+        CompositeTileCache cache = CompositeTileCache.forTransform(new AffineTransform());
+        draw(cache, 1.0);
+
+        // the resampling can spread the change into the neighboring tile
+        renderedTiles.clear();
+        cache.invalidate(new Rectangle(257, 100, 10, 10));
+        draw(cache, 1.0);
+        assertThat(renderedTiles).containsExactly(new Point(0, 0), new Point(256, 0));
+    }
+
+    @Test
+    void invalidationIsScaledToDeviceSpace() {
+        AffineTransform at = AffineTransform.getScaleInstance(2, 2);
+        CompositeTileCache cache = CompositeTileCache.forTransform(at);
+        draw(cache, 2.0);
+        assertThat(renderedTiles).hasSize(64);
+
+        // (200, 200) in image space is (400, 400) in device space
+        renderedTiles.clear();
+        cache.invalidate(new Rectangle(200, 200, 10, 10));
+        draw(cache, 2.0);
+        assertThat(renderedTiles).containsExactly(new Point(256, 256));
+    }
+
+    @Test
+    void invalidationWithoutTilesIsIgnored() {
+        CompositeTileCache cache = CompositeTileCache.forTransform(new AffineTransform());
+        cache.invalidate(new Rectangle(0, 0, IMG_WIDTH, IMG_HEIGHT));
+
+        draw(cache, 1.0);
+        assertThat(renderedTiles).hasSize(16);
+    }
+
+    @Test
+    void flushDiscardsAllTiles() {
+        CompositeTileCache cache = CompositeTileCache.forTransform(new AffineTransform());
+        draw(cache, 1.0);
+
+        renderedTiles.clear();
+        cache.flush();
+        draw(cache, 1.0);
+        assertThat(renderedTiles).hasSize(16);
+    }
+
+    private void draw(CompositeTileCache cache, double scale) {
+        int deviceWidth = (int) Math.ceil(IMG_WIDTH * scale);
+        int deviceHeight = (int) Math.ceil(IMG_HEIGHT * scale);
+        BufferedImage target = new BufferedImage(deviceWidth, deviceHeight, TYPE_INT_ARGB_PRE);
+        Graphics2D g = target.createGraphics();
+        g.scale(scale, scale);
+        cache.draw(g, IMG_WIDTH, IMG_HEIGHT, renderer);
+        g.dispose();
+    }
+}
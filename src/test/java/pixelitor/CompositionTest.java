@@ -20,11 +20,17 @@ package pixelitor;
 import org.junit.jupiter.api.*;
 import pixelitor.compactions.Crop;
 import pixelitor.history.History;
+import pixelitor.layers.ImageLayer;
 import pixelitor.layers.Layer;
 
+import java.awt.Color;
+import java.awt.Graphics2D;
 import java.awt.Rectangle;
 import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
 
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
 import static pixelitor.TestHelper.assertHistoryEditsAre;
 import static pixelitor.TestHelper.createEmptyImageLayer;
 import static pixelitor.assertions.PixelitorAssertions.assertThat;
@@ -857,4 +863,59 @@ class CompositionTest {
         History.redo("Rename Image");
         assertThat(comp).hasName("new name");
     }
-}
\ No newline at end of file
+
+    @Test
+    void partialCompositeUpdateCopiesTheSharedImage() {
+        BufferedImage composite = comp.getCompositeImage();
+        int[] origPixels = getPixels(composite);
+
+        paintRedRectOnActiveLayer();
+
+        // the handed-out image isn't changed, it's copied on write
+        BufferedImage updated = comp.getCompositeImage();
+        Assertions.assertNotSame(composite, updated);
+        Assertions.assertArrayEquals(origPixels, getPixels(composite));
+
+        int[] partialPixels = getPixels(updated);
+        Assertions.assertFalse(Arrays.equals(origPixels, partialPixels));
+
+        comp.invalidateImageCache();
+        int[] fullPixels = getPixels(comp.getCompositeImage());
+        Assertions.assertArrayEquals(fullPixels, partialPixels);
+    }
+
+    @Test
+    void partialCompositeUpdateInPlace() {
+        // drawing doesn't share the composite image,
+        // therefore it can be updated in place
+        drawComposite();
+
+        paintRedRectOnActiveLayer();
+        int[] partialPixels = getPixels(drawComposite());
+
+        comp.invalidateImageCache();
+        int[] fullPixels = getPixels(drawComposite());
+        Assertions.assertArrayEquals(fullPixels, partialPixels);
+    }
+
+    private void paintRedRectOnActiveLayer() {
+        ImageLayer layer = (ImageLayer) comp.getActiveLayer();
+        Graphics2D g = layer.getImage().createGraphics();
+        g.setColor(Color.RED);
+        g.fillRect(2, 2, 3, 3);
+        g.dispose();
+        comp.invalidateImageCache(new Rectangle(2, 2, 3, 3));
+    }
+
+    private BufferedImage drawComposite() {
+        var img = new BufferedImage(comp.getCanvasWidth(), comp.getCanvasHeight(), TYPE_INT_ARGB);
+        Graphics2D g = img.createGraphics();
+        comp.drawCompositeImage(g, 1.0);
+        g.dispose();
+        return img;
+    }
+
+    private static int[] getPixels(BufferedImage img) {
+        return img.getRGB(0, 0, img.getWidth(), img.getHeight(), null, 0, img.getWidth());
+    }
+}
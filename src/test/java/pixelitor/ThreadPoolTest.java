@@ -0,0 +1,175 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import pixelitor.utils.ProgressTracker;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@DisplayName("ThreadPool tests")
+class ThreadPoolTest {
+    // narrow enough that a few thousand rows are split into many bands
+    private static final int NARROW_WIDTH = 16;
+
+    @Test
+    void bandsCoverEveryRowExactlyOnce() {
+        int[][] sizes = {{NARROW_WIDTH, 2_000}, {NARROW_WIDTH, 4_099}, {100, 10_007}, {3_000, 997}};
+        for (int[] size : sizes) {
+            int width = size[0];
+            int height = size[1];
+            assertThat(ThreadPool.calcBandHeight(width, height)).isGreaterThan(0);
+
+            AtomicIntegerArray rowCounts = new AtomicIntegerArray(height);
+            CountingTracker tracker = new CountingTracker();
+            ThreadPool.processBands(width, height, countRows(rowCounts), tracker);
+
+            assertEachRowOnce(rowCounts);
+            assertThat(tracker.units.get()).isEqualTo(height);
+        }
+    }
+
+    @Test
+    void smallImageIsProcessedInline() {
+        int width = 20;
+        int height = 10;
+        assertThat(ThreadPool.calcBandHeight(width, height)).isGreaterThan(height - 1);
+
+        Thread caller = Thread.currentThread();
+        AtomicInteger calls = new AtomicInteger();
+        CountingTracker tracker = new CountingTracker();
+        ThreadPool.processBands(width, height, (startY, endY) -> {
+            calls.incrementAndGet();
+            assertThat(Thread.currentThread()).isSameAs(caller);
+            assertThat(startY).isZero();
+            assertThat(endY).isEqualTo(height);
+        }, tracker);
+
+        assertThat(calls.get()).isEqualTo(1);
+        assertThat(tracker.units.get()).isEqualTo(height);
+    }
+
+    @Test
+    void emptyImageIsNotProcessed() {
+        AtomicInteger calls = new AtomicInteger();
+        ThreadPool.processBands(NARROW_WIDTH, 0, (startY, endY) -> calls.incrementAndGet(),
+            ProgressTracker.NULL_TRACKER);
+
+        assertThat(calls.get()).isZero();
+    }
+
+    @Test
+    void nestedCallsFromBandTasksComplete() {
+        int outerHeight = 4_000;
+        int innerHeight = 3_000;
+        AtomicIntegerArray outerCounts = new AtomicIntegerArray(outerHeight);
+        AtomicIntegerArray innerCounts = new AtomicIntegerArray(innerHeight);
+
+        ThreadPool.processBands(NARROW_WIDTH, outerHeight, (startY, endY) -> {
+            countRows(outerCounts).processBand(startY, endY);
+            if (startY == 0) {
+                // a band task that itself splits its work into bands
+                ThreadPool.processBands(NARROW_WIDTH, innerHeight,
+                    countRows(innerCounts), ProgressTracker.NULL_TRACKER);
+            }
+        }, ProgressTracker.NULL_TRACKER);
+
+        assertEachRowOnce(outerCounts);
+        assertEachRowOnce(innerCounts);
+    }
+
+    @Test
+    void failureInBandIsRethrown() {
+        int height = 4_000;
+        assertThat(ThreadPool.calcBandHeight(NARROW_WIDTH, height)).isLessThan(height);
+
+        CountingTracker tracker = new CountingTracker();
+        assertThatThrownBy(() -> ThreadPool.processBands(NARROW_WIDTH, height,
+            failingAtRow(height / 2), tracker))
+            .isInstanceOf(IllegalStateException.class)
+            .hasMessageContaining("band failure");
+        assertThat(tracker.finishedCalls.get()).isEqualTo(1);
+    }
+
+    @Test
+    void failureInInlineBandIsRethrown() {
+        assertThatThrownBy(() -> ThreadPool.processBands(20, 10,
+            failingAtRow(5), ProgressTracker.NULL_TRACKER))
+            .isInstanceOf(IllegalStateException.class)
+            .hasMessageContaining("band failure");
+    }
+
+    @Test
+    void failureInNestedBandIsRethrown() {
+        assertThatThrownBy(() -> ThreadPool.processBands(NARROW_WIDTH, 4_000, (startY, endY) -> {
+            if (startY == 0) {
+                ThreadPool.processBands(NARROW_WIDTH, 3_000,
+                    failingAtRow(1_500), ProgressTracker.NULL_TRACKER);
+            }
+        }, ProgressTracker.NULL_TRACKER))
+            .isInstanceOf(IllegalStateException.class)
+            .hasMessageContaining("band failure");
+    }
+
+    private static ThreadPool.BandTask countRows(AtomicIntegerArray rowCounts) {
+        return (startY, endY) -> {
+            for (int y = startY; y < endY; y++) {
+                rowCounts.incrementAndGet(y);
+            }
+        };
+    }
+
+    private static ThreadPool.BandTask failingAtRow(int failingRow) {
+        return (startY, endY) -> {
+            if (failingRow >= startY && failingRow < endY) {
+                throw new IllegalStateException("band failure at row " + failingRow);
+            }
+        };
+    }
+
+    private static void assertEachRowOnce(AtomicIntegerArray rowCounts) {
+        for (int y = 0; y < rowCounts.length(); y++) {
+            assertThat(rowCounts.get(y)).isEqualTo(1);
+        }
+    }
+
+    private static class CountingTracker implements ProgressTracker {
+        private final AtomicInteger units = new AtomicInteger();
+        private final AtomicInteger finishedCalls = new AtomicInteger();
+
+        @Override
+        public void unitDone() {
+            units.incrementAndGet();
+        }
+
+        @Override
+        public void unitsDone(int units) {
+            this.units.addAndGet(units);
+        }
+
+        @Override
+        public void finished() {
+            finishedCalls.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.automate;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import pixelitor.automate.BatchCommandLine.Options;
+import pixelitor.io.FileFormat;
+
+import java.awt.Dimension;
+import java.io.File;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@DisplayName("BatchCommandLine tests")
+class BatchCommandLineTest {
+    @TempDir
+    Path tempDir;
+
+    private String in;
+    private String out;
+
+    @BeforeEach
+    void beforeEachTest() {
+        in = tempDir.toString();
+        out = tempDir.resolve("out").toString();
+    }
+
+    @Test
+    void recognizesBatchMode() {
+        assertThat(BatchCommandLine.isBatchMode(new String[]{"--batch", in, out})).isTrue();
+        assertThat(BatchCommandLine.isBatchMode(new String[]{in})).isFalse();
+        assertThat(BatchCommandLine.isBatchMode(new String[0])).isFalse();
+    }
+
+    @Test
+    void parsesAllOptions() {
+        Options options = BatchCommandLine.parse(new String[]{"--batch",
+            "--resize", "800x600", "--filter", "Invert", "--format", "jpg",
+            "--threads", "3", "--memory", "100", in, out});
+
+        assertThat(options.resizeBox()).isEqualTo(new Dimension(800, 600));
+        assertThat(options.filterName()).isEqualTo("Invert");
+        assertThat(options.format()).isEqualTo(FileFormat.JPG);
+        assertThat(options.numThreads()).isEqualTo(3);
+        assertThat(options.memoryBudget()).isEqualTo(100L * 1024 * 1024);
+        assertThat(options.inputDir()).isEqualTo(new File(in));
+        assertThat(options.outputDir()).isEqualTo(new File(out));
+    }
+
+    @Test
+    void usesDefaults() {
+        Options options = BatchCommandLine.parse(new String[]{"--batch", "--resize", "10X20", in, out});
+
+        assertThat(options.resizeBox()).isEqualTo(new Dimension(10, 20));
+        assertThat(options.filterName()).isNull();
+        assertThat(options.format()).isEqualTo(FileFormat.PNG);
+        assertThat(options.numThreads()).isZero();
+        assertThat(options.memoryBudget()).isZero();
+    }
+
+    @Test
+    void rejectsInvalidArguments() {
+        assertInvalid("must be given", "--resize", "10x10", in);
+        assertInvalid("must be given", in, out);
+        assertInvalid("not a directory", "--resize", "10x10", tempDir.resolve("missing").toString(), out);
+        assertInvalid("Unknown option", "--resise", "10x10", in, out);
+        assertInvalid("Unexpected argument", "--resize", "10x10", in, out, out);
+        assertInvalid("Missing value", in, out, "--filter");
+        assertInvalid("Invalid size", "--resize", "10", in, out);
+        assertInvalid("Invalid size", "--resize", "0x10", in, out);
+        assertInvalid("Unsupported output format", "--resize", "10x10", "--format", "xyz", in, out);
+        assertInvalid("Invalid number of threads", "--resize", "10x10", "--threads", "0", in, out);
+        assertInvalid("Invalid memory budget", "--resize", "10x10", "--memory", "-5", in, out);
+
+        // NumberFormatException is also an IllegalArgumentException
+        assertInvalid("abc", "--resize", "10x10", "--threads", "abc", in, out);
+    }
+
+    private static void assertInvalid(String expectedMessage, String... args) {
+        String[] allArgs = new String[args.length + 1];
+        allArgs[0] = BatchCommandLine.BATCH_OPTION;
+        System.arraycopy(args, 0, allArgs, 1, args.length);
+
+        assertThatThrownBy(() -> BatchCommandLine.parse(allArgs))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessageContaining(expectedMessage);
+    }
+}
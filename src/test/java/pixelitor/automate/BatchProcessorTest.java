@@ -0,0 +1,182 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.automate;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import pixelitor.TestHelper;
+import pixelitor.compactions.Resize;
+import pixelitor.filters.Filter;
+import pixelitor.filters.Invert;
+import pixelitor.io.FileFormat;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.awt.image.BufferedImage.TYPE_INT_RGB;
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DisplayName("BatchProcessor tests")
+class BatchProcessorTest {
+    private static final int NUM_FILES = 3;
+    private static final int COLOR = 0xFF_30_60_90;
+
+    @TempDir
+    Path tempDir;
+
+    private File inputDir;
+    private File outputDir;
+    private List<File> inputFiles;
+
+    @BeforeAll
+    static void beforeAllTests() {
+        TestHelper.setUnitTestingMode();
+    }
+
+    @BeforeEach
+    void beforeEachTest() throws IOException {
+        inputDir = tempDir.resolve("in").toFile();
+        outputDir = tempDir.resolve("out").toFile();
+        assertThat(inputDir.mkdir()).isTrue();
+        assertThat(outputDir.mkdir()).isTrue();
+
+        inputFiles = new ArrayList<>();
+        for (int i = 0; i < NUM_FILES; i++) {
+            BufferedImage img = new BufferedImage(40, 20, TYPE_INT_RGB);
+            for (int y = 0; y < 20; y++) {
+                for (int x = 0; x < 40; x++) {
+                    img.setRGB(x, y, COLOR);
+                }
+            }
+            File file = new File(inputDir, "input" + i + ".png");
+            ImageIO.write(img, "png", file);
+            inputFiles.add(file);
+        }
+    }
+
+    @Test
+    void resizesAllFiles() throws IOException {
+        var processor = new BatchProcessor(() -> new Resize(10, 10, true),
+            FileFormat.PNG, outputDir);
+        processor.setNumThreads(2);
+
+        var summary = process(processor);
+
+        assertThat(summary.numProcessed()).isEqualTo(NUM_FILES);
+        assertThat(summary.numSkipped()).isZero();
+        assertThat(summary.hasErrors()).isFalse();
+        for (File inputFile : inputFiles) {
+            BufferedImage output = readOutput(processor, inputFile);
+            // resized into the 10x10 box with the original proportions
+            assertThat(output.getWidth()).isEqualTo(10);
+            assertThat(output.getHeight()).isEqualTo(5);
+            assertThat(output.getRGB(5, 2)).isEqualTo(COLOR);
+        }
+    }
+
+    @Test
+    void filtersAllFiles() throws IOException {
+        var processor = new BatchProcessor(() -> BatchFilterWizard.createFilterAction(new Invert()),
+            FileFormat.PNG, outputDir);
+
+        var summary = process(processor);
+
+        assertThat(summary.numProcessed()).isEqualTo(NUM_FILES);
+        assertThat(summary.hasErrors()).isFalse();
+        for (File inputFile : inputFiles) {
+            BufferedImage output = readOutput(processor, inputFile);
+            assertThat(output.getRGB(20, 10)).isEqualTo(0xFF_CF_9F_6F);
+        }
+    }
+
+    @Test
+    void filterErrorsAreReported() {
+        var processor = new BatchProcessor(() -> BatchFilterWizard.createFilterAction(new FailingFilter()),
+            FileFormat.PNG, outputDir);
+
+        var summary = process(processor);
+
+        assertThat(summary.numProcessed()).isZero();
+        assertThat(summary.hasErrors()).isTrue();
+        assertThat(summary.errors()).hasSize(NUM_FILES);
+        for (String error : summary.errors()) {
+            assertThat(error).contains("input", FailingFilter.MESSAGE);
+        }
+
+        // the unfiltered images are not saved
+        assertThat(outputDir.list().length).isZero();
+    }
+
+    @Test
+    void existingFilesCanBeSkipped() throws IOException {
+        var processor = new BatchProcessor(() -> new Resize(10, 10, true),
+            FileFormat.PNG, outputDir);
+        File existing = processor.calcOutputFile(inputFiles.getFirst());
+        ImageIO.write(new BufferedImage(1, 1, TYPE_INT_RGB), "png", existing);
+        processor.setOverwriteCheck(file -> false);
+
+        var summary = process(processor);
+
+        assertThat(summary.numProcessed()).isEqualTo(NUM_FILES - 1);
+        assertThat(summary.numSkipped()).isEqualTo(1);
+        assertThat(ImageIO.read(existing).getWidth()).isEqualTo(1);
+    }
+
+    @Test
+    void canceledProcessingSkipsFiles() {
+        var processor = new BatchProcessor(() -> new Resize(10, 10, true),
+            FileFormat.PNG, outputDir);
+        processor.cancel();
+
+        var summary = process(processor);
+
+        assertThat(summary.numProcessed()).isZero();
+        assertThat(summary.numSkipped()).isEqualTo(NUM_FILES);
+        assertThat(outputDir.list().length).isZero();
+    }
+
+    private BatchProcessor.Summary process(BatchProcessor processor) {
+        List<Integer> progress = new ArrayList<>();
+        var summary = processor.process(inputFiles, progress::add);
+        assertThat(progress).hasSize(NUM_FILES);
+        return summary;
+    }
+
+    private static BufferedImage readOutput(BatchProcessor processor, File inputFile) throws IOException {
+        File outputFile = processor.calcOutputFile(inputFile);
+        assertThat(outputFile.exists()).isTrue();
+        return ImageIO.read(outputFile);
+    }
+
+    private static class FailingFilter extends Filter {
+        static final String MESSAGE = "filter failure";
+
+        @Override
+        protected BufferedImage transform(BufferedImage src, BufferedImage dest) {
+            throw new IllegalStateException(MESSAGE);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.compactions;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import pixelitor.Composition;
+import pixelitor.TestHelper;
+import pixelitor.layers.ImageLayer;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import static java.awt.Color.RED;
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DisplayName("Resize tests without a view")
+class ResizeTest {
+    private Composition comp;
+
+    @BeforeAll
+    static void beforeAllTests() {
+        TestHelper.setUnitTestingMode();
+    }
+
+    @BeforeEach
+    void beforeEachTest() {
+        // a 20x10 composition with two masked layers, as in batch processing
+        comp = TestHelper.createComp(2, true, false);
+        assertThat(comp.getView()).isNull();
+
+        BufferedImage image = ((ImageLayer) comp.getLayer(0)).getImage();
+        Graphics2D g = image.createGraphics();
+        g.setColor(RED);
+        g.fillRect(0, 0, image.getWidth(), image.getHeight());
+        g.dispose();
+    }
+
+    @Test
+    void resizesInPlace() {
+        Composition result = new Resize(8, 4).process(comp).join();
+
+        // there is no undo, so the composition isn't copied
+        assertThat(result).isSameAs(comp);
+        checkSize(8, 4);
+        assertThat(((ImageLayer) comp.getLayer(0)).getImage().getRGB(4, 2)).isEqualTo(RED.getRGB());
+        assertThat(comp.getCompositeImage().getRGB(4, 2)).isEqualTo(RED.getRGB());
+    }
+
+    @Test
+    void resizesInBox() {
+        new Resize(30, 30, true).process(comp).join();
+
+        // the proportions of the 20x10 canvas are kept
+        checkSize(30, 15);
+    }
+
+    @Test
+    void sameSizeIsNoChange() {
+        Composition result = new Resize(20, 10).process(comp).join();
+
+        assertThat(result).isSameAs(comp);
+        checkSize(20, 10);
+    }
+
+    private void checkSize(int width, int height) {
+        assertThat(comp.getCanvasWidth()).isEqualTo(width);
+        assertThat(comp.getCanvasHeight()).isEqualTo(height);
+        for (int i = 0; i < comp.getNumLayers(); i++) {
+            ImageLayer layer = (ImageLayer) comp.getLayer(i);
+            checkImageSize(layer.getImage(), width, height);
+            checkImageSize(layer.getMask().getImage(), width, height);
+        }
+    }
+
+    private static void checkImageSize(BufferedImage image, int width, int height) {
+        assertThat(image.getWidth()).isEqualTo(width);
+        assertThat(image.getHeight()).isEqualTo(height);
+    }
+}
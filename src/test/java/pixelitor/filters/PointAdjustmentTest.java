@@ -0,0 +1,213 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.filters;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+import pixelitor.Composition;
+import pixelitor.TestHelper;
+import pixelitor.filters.curves.ToneCurves;
+import pixelitor.filters.curves.ToneCurvesFilter;
+import pixelitor.filters.gui.FilterParam;
+import pixelitor.filters.gui.GroupedRangeParam;
+import pixelitor.filters.gui.RangeParam;
+import pixelitor.filters.levels.Channel;
+import pixelitor.filters.levels.GrayScaleLookup;
+import pixelitor.filters.levels.Levels;
+import pixelitor.filters.levels.RGBLookup;
+import pixelitor.filters.lookup.ColorBalance;
+import pixelitor.layers.Layer;
+import pixelitor.utils.ImageUtils;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.IntUnaryOperator;
+import java.util.stream.Stream;
+
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB_PRE;
+import static org.assertj.core.api.Assertions.assertThat;
+import static pixelitor.ImageMode.RGB;
+
+@DisplayName("PointAdjustment tests")
+class PointAdjustmentTest {
+    private static final int WIDTH = 157;
+    private static final int HEIGHT = 93;
+
+    // The checksums of the filter results for a non-premultiplied and
+    // a premultiplied image, recorded before the filters were changed
+    // to use per-pixel kernels that can be fused. The only exception is
+    // the premultiplied result of Curves, which intentionally changed,
+    // because now the curves are applied to the unpremultiplied values,
+    // like the other lookup adjustments.
+    private static final Map<Class<?>, int[]> EXPECTED = Map.ofEntries(
+        Map.entry(HueSat.class, new int[]{647753859, -247189591}),
+        Map.entry(ColorBalance.class, new int[]{11352053, -387665713}),
+        Map.entry(ChannelMixer.class, new int[]{1645891299, -819959749}),
+        Map.entry(Levels.class, new int[]{-782090421, 2046697678}),
+        Map.entry(Invert.class, new int[]{406724639, -371069997}),
+        Map.entry(Posterize.class, new int[]{423199855, 657715337}),
+        Map.entry(BrightnessContrast.class, new int[]{1321755678, 1926305240}),
+        Map.entry(ToneCurvesFilter.class, new int[]{1465309582, -1949549768}),
+        Map.entry(Colorize.class, new int[]{2018671373, 727155838}),
+        Map.entry(GradientMap.class, new int[]{1472213142, 694610280})
+    );
+
+    @BeforeAll
+    static void beforeAllTests() {
+        TestHelper.setUnitTestingMode();
+    }
+
+    // The lookup adjustments are not neighbors, because their tables are
+    // composed, which avoids the intermediate roundings of premultiplied
+    // pixels, and then the fused result would be different.
+    private static Stream<Filter> createAdjustments() {
+        var hueSat = new HueSat();
+        setRangeParams(hueSat, 0.3, 0.7, 0.4);
+
+        var colorBalance = new ColorBalance();
+        setRangeParams(colorBalance, 0.8, 0.3, 0.65);
+
+        var channelMixer = new ChannelMixer();
+        setRangeParams(channelMixer, 0.6, 0.45, 0.3, 0.55, 0.7, 0.4, 0.35, 0.5, 0.65);
+
+        var levels = new Levels();
+        var gray = new GrayScaleLookup(30, 220, 10, 240);
+        levels.setRGBLookup(new RGBLookup(gray, gray, gray, gray));
+
+        var posterize = new Posterize();
+        setRangeParams(posterize, 0.2, 0.1, 0.3);
+
+        var brightnessContrast = new BrightnessContrast();
+        setRangeParams(brightnessContrast, 0.7, 0.35);
+
+        var curves = new ToneCurvesFilter();
+        setCurves(curves);
+
+        var colorize = new Colorize();
+        setRangeParams(colorize, 0.6, 0.7);
+
+        return Stream.of(hueSat, colorBalance, channelMixer, levels, new Invert(),
+            posterize, brightnessContrast, curves, colorize, new GradientMap());
+    }
+
+    @ParameterizedTest
+    @MethodSource("createAdjustments")
+    void kernelMatchesStandaloneFilter(Filter filter) {
+        for (boolean premultiplied : new boolean[]{false, true}) {
+            BufferedImage src = createRandomImage(premultiplied);
+            BufferedImage expected = filter.transformImage(src);
+
+            IntUnaryOperator kernel = ((PointAdjustment) filter).createPixelKernel(premultiplied);
+            int[] pixels = ImageUtils.getPixelArray(ImageUtils.copyImage(src));
+            PointAdjustment.filterPixels(kernel, pixels, pixels, WIDTH);
+
+            assertThat(pixels).isEqualTo(ImageUtils.getPixelArray(expected));
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("createAdjustments")
+    void standaloneFilterMatchesPreviousResults(Filter filter) {
+        int[] expected = EXPECTED.get(filter.getClass());
+        assertThat(checksum(filter.transformImage(createRandomImage(false)))).isEqualTo(expected[0]);
+        assertThat(checksum(filter.transformImage(createRandomImage(true)))).isEqualTo(expected[1]);
+    }
+
+    @Test
+    void fusedLayersMatchConsecutiveFilters() {
+        var comp = Composition.createEmpty(WIDTH, HEIGHT, RGB);
+        BufferedImage src = createRandomImage(false);
+        List<Filter> filters = createAdjustments().toList();
+
+        List<Layer> layers = new ArrayList<>();
+        layers.add(TestHelper.createImageLayer(comp, src, "base"));
+        for (Filter filter : filters) {
+            layers.add(TestHelper.createAdjustmentLayer(comp, filter.getName(), filter));
+        }
+        BufferedImage fused = ImageUtils.calcComposite(layers, comp.getCanvas());
+
+        // the adjustment layers used to transform the premultiplied
+        // composite image with the filters, one after the other
+        BufferedImage expected = ImageUtils.copyTo(TYPE_INT_ARGB_PRE, src);
+        for (Filter filter : filters) {
+            expected = filter.transformImage(expected);
+        }
+
+        assertThat(ImageUtils.getPixelArray(fused)).isEqualTo(ImageUtils.getPixelArray(expected));
+    }
+
+    // sets the range params (also the grouped ones) to the
+    // given fractions between their minimum and maximum
+    private static void setRangeParams(ParametrizedFilter filter, double... fractions) {
+        List<RangeParam> ranges = new ArrayList<>();
+        for (FilterParam param : filter.getParamSet().getParams()) {
+            if (param instanceof RangeParam range) {
+                ranges.add(range);
+            } else if (param instanceof GroupedRangeParam group) {
+                for (int i = 0; i < group.getNumParams(); i++) {
+                    ranges.add(group.getRangeParam(i));
+                }
+            }
+        }
+        for (int i = 0; i < ranges.size(); i++) {
+            RangeParam range = ranges.get(i);
+            range.setValueNoTrigger(range.getMinimum()
+                + fractions[i] * (range.getMaximum() - range.getMinimum()));
+        }
+    }
+
+    // an S-shaped RGB curve and a compressed red curve
+    private static void setCurves(ToneCurvesFilter filter) {
+        ToneCurves curves = filter.getCurves();
+        curves.getCurve(Channel.RGB).setStateFrom("0.0,0.0#0.3,0.45#0.7,0.6#1.0,1.0");
+        curves.getCurve(Channel.RED).setStateFrom("0.0,0.1#1.0,0.9");
+    }
+
+    private static int checksum(BufferedImage image) {
+        return Arrays.hashCode(ImageUtils.getPixelArray(image));
+    }
+
+    // random colors with all alpha values
+    private static BufferedImage createRandomImage(boolean premultiplied) {
+        Random random = new Random(42);
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT,
+            premultiplied ? TYPE_INT_ARGB_PRE : TYPE_INT_ARGB);
+        int[] pixels = ImageUtils.getPixelArray(image);
+        for (int i = 0; i < pixels.length; i++) {
+            int rgb = random.nextInt();
+            if (premultiplied) {
+                // the color components can't be greater than the alpha
+                int a = rgb >>> 24;
+                rgb = a << 24
+                    | (((rgb >> 16) & 0xFF) * a / 255) << 16
+                    | (((rgb >> 8) & 0xFF) * a / 255) << 8
+                    | (rgb & 0xFF) * a / 255;
+            }
+            pixels[i] = rgb;
+        }
+        return image;
+    }
+}
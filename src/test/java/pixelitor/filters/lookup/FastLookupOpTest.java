@@ -0,0 +1,141 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.filters.lookup;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import pixelitor.TestHelper;
+import pixelitor.filters.Filter;
+import pixelitor.filters.ParametrizedFilter;
+import pixelitor.filters.Posterize;
+import pixelitor.filters.curves.ToneCurves;
+import pixelitor.filters.curves.ToneCurvesFilter;
+import pixelitor.filters.gui.FilterParam;
+import pixelitor.filters.gui.RangeParam;
+import pixelitor.filters.levels.Channel;
+import pixelitor.filters.levels.GrayScaleLookup;
+import pixelitor.filters.levels.Levels;
+import pixelitor.filters.levels.RGBLookup;
+import pixelitor.utils.ImageUtils;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ShortLookupTable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB_PRE;
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DisplayName("FastLookupOp tests")
+class FastLookupOpTest {
+    private static final int WIDTH = 157;
+    private static final int HEIGHT = 93;
+
+    @BeforeAll
+    static void beforeAllTests() {
+        TestHelper.setUnitTestingMode();
+    }
+
+    @Test
+    void composedTablesMatchConsecutiveLookups() {
+        List<LookupAdjustment> adjustments = createAdjustments();
+        BufferedImage src = createRandomImage(TYPE_INT_ARGB, false);
+
+        BufferedImage expected = src;
+        List<ShortLookupTable> luts = new ArrayList<>();
+        for (LookupAdjustment adjustment : adjustments) {
+            expected = ((Filter) adjustment).transformImage(expected);
+            luts.add(adjustment.getLookupTable());
+        }
+        BufferedImage actual = new FastLookupOp(FastLookupOp.compose(luts)).filter(src, null);
+
+        assertThat(ImageUtils.getPixelArray(actual)).isEqualTo(ImageUtils.getPixelArray(expected));
+    }
+
+    @Test
+    void composedTablesMatchConsecutiveLookupsForOpaquePremultipliedPixels() {
+        List<LookupAdjustment> adjustments = createAdjustments();
+        BufferedImage src = createRandomImage(TYPE_INT_ARGB_PRE, true);
+
+        BufferedImage expected = src;
+        List<ShortLookupTable> luts = new ArrayList<>();
+        for (LookupAdjustment adjustment : adjustments) {
+            expected = ((Filter) adjustment).transformImage(expected);
+            luts.add(adjustment.getLookupTable());
+        }
+        BufferedImage actual = new FastLookupOp(FastLookupOp.compose(luts)).filter(src, null);
+
+        assertThat(ImageUtils.getPixelArray(actual)).isEqualTo(ImageUtils.getPixelArray(expected));
+    }
+
+    // Levels, Color Balance, Curves and Posterize with settings that change the image
+    private static List<LookupAdjustment> createAdjustments() {
+        var levels = new Levels();
+        var gray = new GrayScaleLookup(30, 220, 10, 240);
+        levels.setRGBLookup(new RGBLookup(gray, gray, gray, gray));
+
+        var colorBalance = new ColorBalance();
+        setRangeParams(colorBalance, 0.8, 0.3, 0.65);
+
+        var curves = new ToneCurvesFilter();
+        ToneCurves toneCurves = curves.getCurves();
+        toneCurves.getCurve(Channel.RGB).setStateFrom("0.0,0.0#0.3,0.45#0.7,0.6#1.0,1.0");
+        toneCurves.getCurve(Channel.RED).setStateFrom("0.0,0.1#1.0,0.9");
+
+        var posterize = new Posterize();
+        setRangeParams(posterize, 0.2, 0.1, 0.3);
+
+        return List.of(levels, colorBalance, curves, posterize);
+    }
+
+    // sets the range params to the given fractions between their minimum and maximum
+    private static void setRangeParams(ParametrizedFilter filter, double... fractions) {
+        int index = 0;
+        for (FilterParam param : filter.getParamSet().getParams()) {
+            if (param instanceof RangeParam range) {
+                double fraction = fractions[index++];
+                range.setValueNoTrigger(range.getMinimum()
+                    + fraction * (range.getMaximum() - range.getMinimum()));
+            }
+        }
+    }
+
+    private static BufferedImage createRandomImage(int type, boolean opaque) {
+        Random random = new Random(42);
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, type);
+        int[] pixels = ImageUtils.getPixelArray(image);
+        for (int i = 0; i < pixels.length; i++) {
+            int rgb = random.nextInt();
+            if (opaque) {
+                rgb |= 0xFF_00_00_00;
+            } else if (type == TYPE_INT_ARGB_PRE) {
+                // the color components can't be greater than the alpha
+                int a = rgb >>> 24;
+                rgb = a << 24
+                    | (((rgb >> 16) & 0xFF) * a / 255) << 16
+                    | (((rgb >> 8) & 0xFF) * a / 255) << 8
+                    | (rgb & 0xFF) * a / 255;
+            }
+            pixels[i] = rgb;
+        }
+        return image;
+    }
+}
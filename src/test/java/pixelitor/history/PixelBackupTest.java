@@ -0,0 +1,137 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.history;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DisplayName("PixelBackup tests")
+class PixelBackupTest {
+    // a 256x256 image has 4 tiles of 128x128 ints
+    private static final long TILE_BYTES = 128 * 128 * 4;
+
+    @Test
+    void sharedTilesAreCountedOnce() {
+        Object owner = new Object();
+        BufferedImage image = createImage();
+
+        PixelBackup first = PixelBackup.of(image, owner);
+        assertThat(first.getRawBytes()).isEqualTo(4 * TILE_BYTES);
+        first.setAsBaseline(owner, image);
+
+        // change only the first tile
+        changePixel(image, owner);
+        PixelBackup second = PixelBackup.of(image, owner);
+        assertThat(second.getDescription()).isEqualTo("4 tiles, 3 shared");
+
+        // the shared tiles are charged to the latest backup
+        assertThat(second.getRawBytes()).isEqualTo(4 * TILE_BYTES);
+        assertThat(first.getRawBytes()).isEqualTo(TILE_BYTES);
+
+        // the shared tiles remain accounted after the first backup is trimmed
+        first.dispose();
+        assertThat(first.getRawBytes()).isZero();
+        assertThat(second.getRawBytes()).isEqualTo(4 * TILE_BYTES);
+        assertThat(second.getImage().getRGB(5, 5)).isEqualTo(0xFF_FF_00_00);
+    }
+
+    @Test
+    void chargeMovesBackWhenLatestOwnerIsDisposed() {
+        Object owner = new Object();
+        BufferedImage image = createImage();
+
+        PixelBackup first = PixelBackup.of(image, owner);
+        first.setAsBaseline(owner, image);
+        changePixel(image, owner);
+        PixelBackup second = PixelBackup.of(image, owner);
+        assertThat(second.getDescription()).isEqualTo("4 tiles, 3 shared");
+
+        // for example a redo edit that was discarded
+        second.dispose();
+        assertThat(first.getRawBytes()).isEqualTo(4 * TILE_BYTES);
+        assertThat(first.getImage().getRGB(5, 5)).isEqualTo(0xFF_00_05_05);
+    }
+
+    @Test
+    void compressedTilesCanBeShared() {
+        Object owner = new Object();
+        BufferedImage image = createImage();
+
+        PixelBackup first = PixelBackup.of(image, owner);
+        first.compressTiles();
+        first.setAsBaseline(owner, image);
+        changePixel(image, owner);
+        PixelBackup second = PixelBackup.of(image, owner);
+        assertThat(second.getDescription()).isEqualTo("4 tiles, 3 shared");
+
+        first.dispose();
+        BufferedImage restored = second.getImage();
+        assertThat(restored.getRGB(5, 5)).isEqualTo(0xFF_FF_00_00);
+        assertThat(restored.getRGB(200, 200)).isEqualTo(image.getRGB(200, 200));
+        second.dispose();
+    }
+
+    @Test
+    void tilesAreNotSharedWithoutBaseline() {
+        Object owner = new Object();
+        BufferedImage image = createImage();
+
+        PixelBackup first = PixelBackup.of(image, owner);
+        // the edit creating the first backup could have changed anything
+        PixelBackup second = PixelBackup.of(image, owner);
+        assertThat(second.getDescription()).isEqualTo("4 tiles, 0 shared");
+
+        // a change with unknown bounds invalidates the baseline
+        second.setAsBaseline(owner, image);
+        PixelBackup.imageChanged(owner, null);
+        PixelBackup third = PixelBackup.of(image, owner);
+        assertThat(third.getDescription()).isEqualTo("4 tiles, 0 shared");
+
+        // the baseline can't be shared with another image
+        third.setAsBaseline(owner, image);
+        PixelBackup fourth = PixelBackup.of(createImage(), owner);
+        assertThat(fourth.getDescription()).isEqualTo("4 tiles, 0 shared");
+
+        first.dispose();
+        second.dispose();
+        third.dispose();
+        fourth.dispose();
+    }
+
+    // changes a pixel of the first tile, as reported by the edits
+    private static void changePixel(BufferedImage image, Object owner) {
+        image.setRGB(5, 5, 0xFF_FF_00_00);
+        PixelBackup.imageChanged(owner, new Rectangle(5, 5, 1, 1));
+    }
+
+    private static BufferedImage createImage() {
+        var image = new BufferedImage(256, 256, TYPE_INT_ARGB);
+        for (int y = 0; y < 256; y++) {
+            for (int x = 0; x < 256; x++) {
+                image.setRGB(x, y, 0xFF_00_00_00 | (x << 8) | y);
+            }
+        }
+        return image;
+    }
+}
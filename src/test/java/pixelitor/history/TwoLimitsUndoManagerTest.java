@@ -102,6 +102,27 @@ class TwoLimitsUndoManagerTest {
 
     }
 
+    @Test
+    void backupBytesLimit() {
+        undoManager = new TwoLimitsUndoManager(10, 10, 1000);
+
+        for (int i = 0; i < 3; i++) {
+            undoManager.addEdit(createMockEdit(true, 300));
+        }
+        assertThat(undoManager.getSize()).isEqualTo(3);
+        assertThat(undoManager.getBackupBytes()).isEqualTo(900);
+
+        // the oldest edits are removed until the new one fits
+        undoManager.addEdit(createMockEdit(true, 400));
+        assertThat(undoManager.getSize()).isEqualTo(3);
+        assertThat(undoManager.getBackupBytes()).isEqualTo(1000);
+
+        // the latest edit is kept even if it's bigger than the limit
+        undoManager.addEdit(createMockEdit(true, 2000));
+        assertThat(undoManager.getSize()).isEqualTo(1);
+        assertThat(undoManager.getBackupBytes()).isEqualTo(2000);
+    }
+
     private void fillUpUM(int he, int le) {
         for (int i = 0; i < he; i++) {
             undoManager.addEdit(createMockEdit(true));
@@ -116,6 +137,12 @@ class TwoLimitsUndoManagerTest {
     static int counterH = 1;
     static int counterL = 1;
 
+    private static PixelitorEdit createMockEdit(boolean isHeavy, long backupBytes) {
+        PixelitorEdit edit = createMockEdit(isHeavy);
+        when(edit.getBackupBytes()).thenReturn(backupBytes);
+        return edit;
+    }
+
     private static PixelitorEdit createMockEdit(boolean isHeavy) {
         PixelitorEdit edit = mock(PixelitorEdit.class);
         String name = (counter++) + (isHeavy ? (" Heavy " + (counterH++)) : (" Light " + (counterL++)));
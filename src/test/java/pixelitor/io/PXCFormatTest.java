@@ -0,0 +1,185 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.io;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import pixelitor.Composition;
+import pixelitor.TestHelper;
+import pixelitor.layers.ImageLayer;
+import pixelitor.utils.ProgressTracker;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static java.awt.image.BufferedImage.TYPE_BYTE_GRAY;
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static java.awt.image.BufferedImage.TYPE_INT_RGB;
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DisplayName("PXCFormat tests")
+class PXCFormatTest {
+    // a version 3 file, which stores the pixels inside the object graph
+    private static final File V3_FILE = new File("src/test/resources/pxc_file_w_layer_mask.pxc");
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeAll
+    static void beforeAllTests() {
+        TestHelper.setUnitTestingMode();
+    }
+
+    @Test
+    void chunkedImagesRoundTrip() throws IOException {
+        List<BufferedImage> images = createTestImages();
+        byte[] written = writeChunked(images);
+
+        ChunkedImages read = ChunkedImages.read(
+            new DataInputStream(new ByteArrayInputStream(written)));
+        assertThat(read.size()).isEqualTo(images.size());
+        for (int i = 0; i < images.size(); i++) {
+            assertSamePixels(read.get(i).join(), images.get(i));
+        }
+    }
+
+    @Test
+    void chunkedImagesLazyRoundTrip() throws IOException {
+        List<BufferedImage> images = createTestImages();
+        Path file = tempDir.resolve("chunks.bin");
+        Files.write(file, writeChunked(images));
+
+        try (FileChannel channel = FileChannel.open(file)) {
+            ChunkedImages read = ChunkedImages.readLazily(channel, 0);
+            assertThat(read.getEndPosition()).isEqualTo(Files.size(file));
+
+            read.startLoading(Runnable::run);
+            read.whenAllLoaded().join();
+            assertThat(read.size()).isEqualTo(images.size());
+            for (int i = 0; i < images.size(); i++) {
+                assertSamePixels(read.get(i).join(), images.get(i));
+            }
+        }
+    }
+
+    @Test
+    void versionThreeFileIsRewrittenAsVersionFour() throws IOException, BadPxcFormatException {
+        assertThat(readVersionByte(V3_FILE)).isEqualTo(3);
+        Composition v3Comp = PXCFormat.read(V3_FILE);
+        List<BufferedImage> v3Images = collectImages(v3Comp);
+        assertThat(v3Images.size()).isGreaterThan(2); // the layers and the mask
+
+        File v4File = tempDir.resolve("v4.pxc").toFile();
+        PXCFormat.write(v3Comp, v4File);
+        assertThat(readVersionByte(v4File)).isEqualTo(4);
+
+        // the pixels are the same when read eagerly...
+        assertSameImages(collectImages(PXCFormat.read(v4File)), v3Images);
+
+        // ...and when read lazily
+        assertSameImages(collectImages(PXCFormat.readLazily(v4File)), v3Images);
+    }
+
+    private static List<BufferedImage> createTestImages() {
+        Random random = new Random(42);
+        List<BufferedImage> images = new ArrayList<>();
+        // wide enough to be split into multiple chunks
+        images.add(createNoise(1100, 1000, TYPE_INT_ARGB, random));
+        images.add(createNoise(37, 23, TYPE_INT_RGB, random));
+        images.add(createNoise(64, 48, TYPE_BYTE_GRAY, random));
+        images.add(createNoise(1, 1, TYPE_INT_ARGB, random));
+        return images;
+    }
+
+    private static BufferedImage createNoise(int width, int height, int type, Random random) {
+        BufferedImage img = new BufferedImage(width, height, type);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                // smooth gradients with some noise, like in real images
+                int base = (x + y) & 0xFF;
+                int noise = random.nextInt(8);
+                int a = type == TYPE_INT_ARGB ? random.nextInt(256) : 255;
+                int c = (base + noise) & 0xFF;
+                img.setRGB(x, y, a << 24 | c << 16 | (255 - c) << 8 | noise);
+            }
+        }
+        return img;
+    }
+
+    private static byte[] writeChunked(List<BufferedImage> images) throws IOException {
+        ChunkedImages chunked = new ChunkedImages();
+        for (BufferedImage img : images) {
+            chunked.add(img);
+        }
+        assertThat(chunked.getNumChunks()).isGreaterThan(images.size());
+
+        var bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            chunked.write(out, ProgressTracker.NULL_TRACKER);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static int readVersionByte(File file) throws IOException {
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            return in.readNBytes(3)[2];
+        }
+    }
+
+    private static List<BufferedImage> collectImages(Composition comp) {
+        assertThat(comp).isNotNull();
+        List<BufferedImage> images = new ArrayList<>();
+        comp.forEachNestedLayerAndMask(layer -> {
+            if (layer instanceof ImageLayer imageLayer) {
+                images.add(imageLayer.getImage());
+            }
+        });
+        return images;
+    }
+
+    private static void assertSameImages(List<BufferedImage> actual, List<BufferedImage> expected) {
+        assertThat(actual.size()).isEqualTo(expected.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertSamePixels(actual.get(i), expected.get(i));
+        }
+    }
+
+    private static void assertSamePixels(BufferedImage actual, BufferedImage expected) {
+        int width = expected.getWidth();
+        int height = expected.getHeight();
+        assertThat(actual.getWidth()).isEqualTo(width);
+        assertThat(actual.getHeight()).isEqualTo(height);
+        assertThat(actual.getType()).isEqualTo(expected.getType());
+        assertThat(actual.getRaster().getDataElements(0, 0, width, height, null))
+            .isEqualTo(expected.getRaster().getDataElements(0, 0, width, height, null));
+    }
+}
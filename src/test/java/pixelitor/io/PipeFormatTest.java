@@ -0,0 +1,148 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.io;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static java.awt.image.BufferedImage.TYPE_3BYTE_BGR;
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static java.awt.image.BufferedImage.TYPE_INT_RGB;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DisplayName("PipeFormat tests")
+class PipeFormatTest {
+    private static final int WIDTH = 7;
+    private static final int HEIGHT = 5;
+
+    @Test
+    void cimgRoundTripMatchesPNG() throws IOException {
+        for (int type : new int[]{TYPE_INT_ARGB, TYPE_INT_RGB, TYPE_3BYTE_BGR}) {
+            BufferedImage img = createNoise(type);
+
+            BufferedImage viaCImg = roundTrip(PipeFormat.CIMG, img);
+            BufferedImage viaPNG = roundTrip(PipeFormat.PNG, img);
+
+            assertThat(getPixels(viaCImg)).isEqualTo(getPixels(img));
+            assertThat(getPixels(viaCImg)).isEqualTo(getPixels(viaPNG));
+        }
+    }
+
+    @Test
+    void cimgWritesFourChannels() throws IOException {
+        var out = new ByteArrayOutputStream();
+        PipeFormat.CIMG.write(createNoise(TYPE_INT_RGB), out);
+        byte[] written = out.toByteArray();
+
+        String header = "1 uint8 little_endian\n" + WIDTH + " " + HEIGHT + " 1 4\n";
+        assertThat(new String(written, 0, header.length(), US_ASCII)).isEqualTo(header);
+        assertThat(written.length).isEqualTo(header.length() + 4 * WIDTH * HEIGHT);
+
+        // the alpha plane of an opaque image
+        for (int i = written.length - WIDTH * HEIGHT; i < written.length; i++) {
+            assertThat(written[i]).isEqualTo((byte) 0xFF);
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 2, 3, 4})
+    void cimgReadsChannels(int numChannels) throws IOException {
+        Random random = new Random(numChannels);
+        int planeSize = WIDTH * HEIGHT;
+        byte[][] planes = new byte[numChannels][planeSize];
+        for (byte[] plane : planes) {
+            random.nextBytes(plane);
+        }
+
+        var out = new ByteArrayOutputStream();
+        out.writeBytes("1 uint8 little_endian\n%d %d 1 %d\n"
+            .formatted(WIDTH, HEIGHT, numChannels).getBytes(US_ASCII));
+        for (byte[] plane : planes) {
+            out.writeBytes(plane);
+        }
+
+        BufferedImage img = PipeFormat.CIMG.read(new ByteArrayInputStream(out.toByteArray()));
+        assertThat(img.getWidth()).isEqualTo(WIDTH);
+        assertThat(img.getHeight()).isEqualTo(HEIGHT);
+
+        for (int i = 0; i < planeSize; i++) {
+            int[] c = new int[numChannels];
+            for (int channel = 0; channel < numChannels; channel++) {
+                c[channel] = planes[channel][i] & 0xFF;
+            }
+            int expected = switch (numChannels) {
+                case 1 -> 0xFF << 24 | c[0] << 16 | c[0] << 8 | c[0];
+                case 2 -> c[1] << 24 | c[0] << 16 | c[0] << 8 | c[0];
+                case 3 -> 0xFF << 24 | c[0] << 16 | c[1] << 8 | c[2];
+                default -> c[3] << 24 | c[0] << 16 | c[1] << 8 | c[2];
+            };
+            assertThat(img.getRGB(i % WIDTH, i / WIDTH)).isEqualTo(expected);
+        }
+    }
+
+    @Test
+    void cimgReadsFirstSliceOf3DImages() throws IOException {
+        int planeSize = WIDTH * HEIGHT;
+        var out = new ByteArrayOutputStream();
+        out.writeBytes("1 uint8 little_endian\n%d %d 2 1\n"
+            .formatted(WIDTH, HEIGHT).getBytes(US_ASCII));
+        out.writeBytes(new byte[planeSize]); // first slice: black
+        byte[] secondSlice = new byte[planeSize];
+        Arrays.fill(secondSlice, (byte) 0xFF);
+        out.writeBytes(secondSlice);
+
+        BufferedImage img = PipeFormat.CIMG.read(new ByteArrayInputStream(out.toByteArray()));
+        assertThat(img.getRGB(WIDTH - 1, HEIGHT - 1)).isEqualTo(0xFF_00_00_00);
+    }
+
+    @Test
+    void cimgReadsEmptyOutputAsNull() throws IOException {
+        assertThat(PipeFormat.CIMG.read(new ByteArrayInputStream(new byte[0]))).isNull();
+    }
+
+    private static BufferedImage roundTrip(PipeFormat format, BufferedImage img) throws IOException {
+        var out = new ByteArrayOutputStream();
+        format.write(img, out);
+        return format.read(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    private static BufferedImage createNoise(int type) {
+        Random random = new Random(type);
+        BufferedImage img = new BufferedImage(WIDTH, HEIGHT, type);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                img.setRGB(x, y, random.nextInt());
+            }
+        }
+        return img;
+    }
+
+    private static int[] getPixels(BufferedImage img) {
+        return img.getRGB(0, 0, WIDTH, HEIGHT, null, 0, WIDTH);
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.io;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+import org.junit.jupiter.api.io.TempDir;
+import pixelitor.utils.Result;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DisplayName("ProcessResultCache tests")
+class ProcessResultCacheTest {
+    @Test
+    void keysDependOnPixelsAndCommand() {
+        BufferedImage a = createImage(0xFF_11_22_33);
+        BufferedImage b = createImage(0xFF_11_22_33);
+        List<String> command = List.of("gmic", "blur", "3");
+
+        var keyA = ProcessResultCache.createKey(a, command, PipeFormat.CIMG);
+        assertThat(ProcessResultCache.createKey(b, command, PipeFormat.CIMG)).isEqualTo(keyA);
+
+        b.setRGB(5, 7, 0xFF_11_22_34);
+        assertThat(ProcessResultCache.createKey(b, command, PipeFormat.CIMG)).isNotEqualTo(keyA);
+        assertThat(ProcessResultCache.createKey(a, List.of("gmic", "blur", "4"), PipeFormat.CIMG)).isNotEqualTo(keyA);
+        assertThat(ProcessResultCache.createKey(a, command, PipeFormat.PNG)).isNotEqualTo(keyA);
+    }
+
+    @Test
+    void returnsIndependentCopies() {
+        var cache = new ProcessResultCache(1_000_000);
+        var key = ProcessResultCache.createKey(createImage(0), List.of("x"), PipeFormat.PNG);
+        BufferedImage result = createImage(0xFF_00_00_FF);
+        cache.put(key, result);
+
+        // modifying the result or a returned copy doesn't affect the cache
+        result.setRGB(0, 0, 0xFF_FF_00_00);
+        BufferedImage first = cache.get(key);
+        first.setRGB(1, 1, 0xFF_FF_00_00);
+        BufferedImage second = cache.get(key);
+
+        assertThat(second.getRGB(0, 0)).isEqualTo(0xFF_00_00_FF);
+        assertThat(second.getRGB(1, 1)).isEqualTo(0xFF_00_00_FF);
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedResults() {
+        // each 10x10 ARGB image takes 400 bytes
+        var cache = new ProcessResultCache(1000);
+        BufferedImage src = createImage(0);
+        var key1 = ProcessResultCache.createKey(src, List.of("1"), PipeFormat.PNG);
+        var key2 = ProcessResultCache.createKey(src, List.of("2"), PipeFormat.PNG);
+        var key3 = ProcessResultCache.createKey(src, List.of("3"), PipeFormat.PNG);
+
+        cache.put(key1, createImage(1));
+        cache.put(key2, createImage(2));
+        cache.get(key1); // now key2 is the least recently used
+        cache.put(key3, createImage(3));
+
+        assertThat(cache.size()).isEqualTo(2);
+        assertThat(cache.getUsedBytes()).isEqualTo(800);
+        assertThat(cache.get(key1)).isNotNull();
+        assertThat(cache.get(key2)).isNull();
+        assertThat(cache.get(key3)).isNotNull();
+    }
+
+    @Test
+    @DisabledOnOs(OS.WINDOWS)
+    void reusesResultsOfStubProcess(@TempDir Path dir) throws IOException {
+        // a stand-in for gmic, which records its runs and returns its input
+        Path runs = dir.resolve("runs.txt");
+        Path stub = dir.resolve("stub.sh");
+        Files.writeString(stub, """
+            #!/bin/sh
+            echo "$1" >> "%s"
+            cat
+            """.formatted(runs));
+        assertThat(stub.toFile().setExecutable(true)).isTrue();
+
+        BufferedImage src = createImage(0xFF_40_80_C0);
+        String exe = stub.toString();
+
+        runStub(src, List.of(exe, "a"));
+        runStub(src, List.of(exe, "b"));
+        Result<BufferedImage, String> result = runStub(src, List.of(exe, "a"));
+
+        assertThat(Files.readAllLines(runs)).containsExactly("a", "b");
+        assertThat(result.wasSuccess()).isTrue();
+        assertThat(result.get().getRGB(3, 3)).isEqualTo(0xFF_40_80_C0);
+
+        src.setRGB(3, 3, 0xFF_00_00_00);
+        runStub(src, List.of(exe, "a"));
+        assertThat(Files.readAllLines(runs)).containsExactly("a", "b", "a");
+    }
+
+    private static Result<BufferedImage, String> runStub(BufferedImage src, List<String> command) {
+        return IO.runCommandLineFilter(src, command, PipeFormat.CIMG, true);
+    }
+
+    private static BufferedImage createImage(int argb) {
+        var img = new BufferedImage(10, 10, TYPE_INT_ARGB);
+        for (int y = 0; y < 10; y++) {
+            for (int x = 0; x < 10; x++) {
+                img.setRGB(x, y, argb);
+            }
+        }
+        return img;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.layers;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import pixelitor.TestHelper;
+
+import java.awt.Composite;
+import java.awt.CompositeContext;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+import java.util.Random;
+
+import static java.awt.image.BufferedImage.TYPE_4BYTE_ABGR;
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.params.provider.EnumSource.Mode.EXCLUDE;
+
+@DisplayName("Blending mode composite tests")
+class BlendingModeCompositeTest {
+    private static final int WIDTH = 67;
+    private static final int HEIGHT = 43;
+
+    @BeforeAll
+    static void beforeAllTests() {
+        TestHelper.setUnitTestingMode();
+    }
+
+    @ParameterizedTest
+    @EnumSource(value = BlendingMode.class, mode = EXCLUDE,
+        names = {"PASS_THROUGH", "NORMAL", "ERASE"})
+    void packedPixelsMatchPreviousResults(BlendingMode mode) {
+        assertThat(blend(mode.getComposite(1.0f), TYPE_INT_ARGB)).isEqualTo(expectedChecksums(mode)[0]);
+        assertThat(blend(mode.getComposite(0.6f), TYPE_INT_ARGB)).isEqualTo(expectedChecksums(mode)[1]);
+    }
+
+    @ParameterizedTest
+    @EnumSource(value = BlendingMode.class, mode = EXCLUDE,
+        names = {"PASS_THROUGH", "NORMAL", "ERASE"})
+    void componentPixelsMatchPreviousResults(BlendingMode mode) {
+        assertThat(blend(mode.getComposite(1.0f), TYPE_4BYTE_ABGR)).isEqualTo(expectedChecksums(mode)[0]);
+        assertThat(blend(mode.getComposite(0.6f), TYPE_4BYTE_ABGR)).isEqualTo(expectedChecksums(mode)[1]);
+    }
+
+    /**
+     * Returns the checksums of the pixels blended with 100% and 60% opacity
+     * by the previous implementation, which blended every raster layout
+     * through unpacked component arrays.
+     */
+    private static int[] expectedChecksums(BlendingMode mode) {
+        return switch (mode) {
+            case DARKEN -> new int[]{773965940, 214778876};
+            case MULTIPLY -> new int[]{-960755341, 1655958273};
+            case COLOR_BURN -> new int[]{-189679035, -1587075085};
+            case LIGHTEN -> new int[]{-2140278904, -1967030271};
+            case SCREEN -> new int[]{-394615930, -1034808003};
+            case COLOR_DODGE -> new int[]{-988905789, 173803955};
+            case LINEAR_DODGE -> new int[]{-396048036, -235849958};
+            case OVERLAY -> new int[]{-104489524, 1758692855};
+            case SOFT_LIGHT -> new int[]{1532671085, 1344601282};
+            case HARD_LIGHT -> new int[]{-838285243, 2000140755};
+            case DIFFERENCE -> new int[]{-2123247963, -444364250};
+            case EXCLUSION -> new int[]{1018494841, 1175938952};
+            case HUE -> new int[]{-36500491, -2081791292};
+            case SATURATION -> new int[]{-428262473, 850173532};
+            case COLOR -> new int[]{-952394104, -1801748584};
+            case LUMINOSITY -> new int[]{-1764558790, 458191556};
+            default -> throw new IllegalArgumentException("mode = " + mode);
+        };
+    }
+
+    /**
+     * Blends random pixels with the given composite, and returns
+     * the checksum of the result. The blended regions don't start at
+     * the origin of the images, so that the raster offsets are tested.
+     */
+    private static int blend(Composite composite, int imageType) {
+        Random random = new Random(42);
+        BufferedImage src = createRandomImage(imageType, random);
+        BufferedImage dst = createRandomImage(imageType, random);
+        BufferedImage out = new BufferedImage(WIDTH + 10, HEIGHT + 10, imageType);
+
+        Raster srcRegion = src.getRaster().createChild(3, 5, WIDTH, HEIGHT, 0, 0, null);
+        Raster dstRegion = dst.getRaster().createChild(7, 2, WIDTH, HEIGHT, 0, 0, null);
+        WritableRaster outRegion = out.getRaster().createWritableChild(4, 6, WIDTH, HEIGHT, 0, 0, null);
+
+        CompositeContext context = composite.createContext(src.getColorModel(), dst.getColorModel(), null);
+        context.compose(srcRegion, dstRegion, outRegion);
+        context.dispose();
+
+        return Arrays.hashCode(outRegion.getPixels(0, 0, WIDTH, HEIGHT, (int[]) null));
+    }
+
+    // random colors, where a quarter of the pixels is fully
+    // transparent and another quarter is fully opaque
+    private static BufferedImage createRandomImage(int imageType, Random random) {
+        BufferedImage image = new BufferedImage(WIDTH + 10, HEIGHT + 10, imageType);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                int argb = random.nextInt();
+                switch (random.nextInt(4)) {
+                    case 0 -> argb &= 0x00_FF_FF_FF;
+                    case 1 -> argb |= 0xFF_00_00_00;
+                }
+                image.setRGB(x, y, argb);
+            }
+        }
+        return image;
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.particles;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import pixelitor.utils.ProgressTracker;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DisplayName("ParticleEngine tests")
+class ParticleEngineTest {
+    private static final int WIDTH = 120;
+    private static final int HEIGHT = 90;
+    private static final int NUM_PARTICLES = 300;
+    private static final int GROUP_SIZE = 16;
+    private static final int ITERATIONS = 40;
+    private static final long SEED = 42;
+
+    @Test
+    void opaqueTrailsDontDependOnTheNumberOfLanes() {
+        int[] expected = renderPixels(1, 255);
+        for (int numLanes : new int[]{2, 3, 8, 1000}) {
+            assertThat(renderPixels(numLanes, 255)).isEqualTo(expected);
+        }
+    }
+
+    @Test
+    void translucentTrailsDifferOnlyByRounding() {
+        int[] expected = renderPixels(1, 100);
+        int[] actual = renderPixels(5, 100);
+
+        for (int i = 0; i < expected.length; i++) {
+            assertThat(maxChannelDiff(expected[i], actual[i])).isLessThan(3);
+        }
+    }
+
+    @Test
+    void simulationDoesntDependOnTheNumberOfLanes() {
+        ParticleEngine oneLane = createEngine(255);
+        oneLane.render(ITERATIONS, createImage(), g -> {
+        }, ProgressTracker.NULL_TRACKER, 1);
+
+        ParticleEngine manyLanes = createEngine(255);
+        manyLanes.render(ITERATIONS, createImage(), g -> {
+        }, ProgressTracker.NULL_TRACKER, 4);
+
+        ParticleArrays expected = oneLane.getParticles();
+        ParticleArrays actual = manyLanes.getParticles();
+        for (int i = 0; i < NUM_PARTICLES; i++) {
+            assertThat(actual.x[i]).isEqualTo(expected.x[i]);
+            assertThat(actual.y[i]).isEqualTo(expected.y[i]);
+            assertThat(actual.age[i]).isEqualTo(expected.age[i]);
+            assertThat(actual.color[i]).isEqualTo(expected.color[i]);
+        }
+    }
+
+    @Test
+    void progressIsReportedForEachGroup() {
+        ParticleEngine engine = createEngine(255);
+        AtomicInteger units = new AtomicInteger();
+        ProgressTracker tracker = new ProgressTracker() {
+            @Override
+            public void unitDone() {
+                units.incrementAndGet();
+            }
+
+            @Override
+            public void unitsDone(int count) {
+                units.addAndGet(count);
+            }
+
+            @Override
+            public void finished() {
+            }
+        };
+
+        engine.render(ITERATIONS, createImage(), g -> {
+        }, tracker, 4);
+
+        assertThat(engine.getNumGroups()).isEqualTo(19);
+        assertThat(units.get()).isEqualTo(engine.getNumGroups());
+    }
+
+    private static int[] renderPixels(int numLanes, int alpha) {
+        BufferedImage dest = createImage();
+        createEngine(alpha).render(ITERATIONS, dest,
+            g -> g.setStroke(new BasicStroke(2.0f)),
+            ProgressTracker.NULL_TRACKER, numLanes);
+        return dest.getRGB(0, 0, WIDTH, HEIGHT, null, 0, WIDTH);
+    }
+
+    private static BufferedImage createImage() {
+        BufferedImage img = new BufferedImage(WIDTH, HEIGHT, TYPE_INT_ARGB);
+        Graphics2D g = img.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, WIDTH, HEIGHT);
+        g.dispose();
+        return img;
+    }
+
+    private static ParticleEngine createEngine(int alpha) {
+        return ParticleEngine.createEngine(NUM_PARTICLES)
+            .setGroupSize(GROUP_SIZE)
+            .setSeed(SEED)
+            .setBehavior(new BouncingBehavior(alpha))
+            .setTrailRenderer(ParticleEngineTest::drawTrail)
+            .build();
+    }
+
+    private static void drawTrail(ParticleArrays p, int i, ParticleEngine.Trail trail, Graphics2D g) {
+        if (trail.getNumPoints() < 2) {
+            return;
+        }
+        Path2D path = new Path2D.Float();
+        path.moveTo(trail.getX(0), trail.getY(0));
+        for (int j = 1; j < trail.getNumPoints(); j++) {
+            path.lineTo(trail.getX(j), trail.getY(j));
+        }
+        g.setColor(new Color(p.color[i], true));
+        g.draw(path);
+    }
+
+    private static int maxChannelDiff(int argb1, int argb2) {
+        int max = 0;
+        for (int shift = 0; shift < 32; shift += 8) {
+            int diff = Math.abs(((argb1 >>> shift) & 0xFF) - ((argb2 >>> shift) & 0xFF));
+            max = Math.max(max, diff);
+        }
+        return max;
+    }
+
+    /**
+     * Particles moving in straight lines, which die after
+     * a random age or when they leave the image.
+     */
+    private record BouncingBehavior(int alpha) implements ParticleEngine.Behavior {
+        private static final int MAX_AGE = 15;
+
+        @Override
+        public void spawn(ParticleArrays p, int i, SplittableRandom random) {
+            p.x[i] = (float) random.nextDouble(WIDTH);
+            p.y[i] = (float) random.nextDouble(HEIGHT);
+            p.vx[i] = (float) random.nextDouble(-3, 3);
+            p.vy[i] = (float) random.nextDouble(-3, 3);
+            p.color[i] = alpha << 24 | random.nextInt(0x1_00_00_00);
+        }
+
+        @Override
+        public void step(ParticleArrays p, int i, int step) {
+            p.x[i] += p.vx[i];
+            p.y[i] += p.vy[i];
+        }
+
+        @Override
+        public boolean isDead(ParticleArrays p, int i) {
+            return p.age[i] > MAX_AGE
+                || p.x[i] < 0 || p.x[i] >= WIDTH
+                || p.y[i] < 0 || p.y[i] >= HEIGHT;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.utils;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB_PRE;
+import static java.awt.image.BufferedImage.TYPE_INT_RGB;
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DisplayName("MipmapPyramid tests")
+class MipmapPyramidTest {
+    private static final int[] TYPES = {TYPE_INT_ARGB, TYPE_INT_ARGB_PRE, TYPE_INT_RGB};
+
+    @Test
+    void levelSelection() {
+        MipmapPyramid pyramid = new MipmapPyramid(createNoise(1000, 800, TYPE_INT_ARGB));
+
+        assertThat(pyramid.levelFor(2.0)).isEqualTo(0);
+        assertThat(pyramid.levelFor(1.0)).isEqualTo(0);
+        assertThat(pyramid.levelFor(0.6)).isEqualTo(0);
+        assertThat(pyramid.levelFor(0.5)).isEqualTo(1);
+        assertThat(pyramid.levelFor(0.3)).isEqualTo(1);
+        assertThat(pyramid.levelFor(0.25)).isEqualTo(2);
+        assertThat(pyramid.levelFor(0.2)).isEqualTo(2);
+        assertThat(pyramid.levelFor(0.125)).isEqualTo(3);
+    }
+
+    @Test
+    void levelSelectionStopsAtSinglePixel() {
+        MipmapPyramid small = new MipmapPyramid(createNoise(4, 3, TYPE_INT_ARGB));
+        assertThat(small.levelFor(0.001)).isEqualTo(2);
+
+        MipmapPyramid tiny = new MipmapPyramid(createNoise(1, 1, TYPE_INT_ARGB));
+        assertThat(tiny.levelFor(0.001)).isEqualTo(0);
+    }
+
+    @Test
+    void levelSizesAreRoundedUp() {
+        MipmapPyramid pyramid = new MipmapPyramid(createNoise(101, 51, TYPE_INT_ARGB));
+
+        BufferedImage level1 = pyramid.getLevel(1);
+        assertThat(level1.getWidth()).isEqualTo(51);
+        assertThat(level1.getHeight()).isEqualTo(26);
+        assertThat(level1.getType()).isEqualTo(TYPE_INT_ARGB_PRE);
+
+        BufferedImage level2 = pyramid.getLevel(2);
+        assertThat(level2.getWidth()).isEqualTo(26);
+        assertThat(level2.getHeight()).isEqualTo(13);
+    }
+
+    @Test
+    void levelPixelsAreAveraged() {
+        BufferedImage base = new BufferedImage(2, 2, TYPE_INT_ARGB_PRE);
+        base.getRaster().setDataElements(0, 0, 2, 2,
+            new int[]{0xFF_00_00_00, 0xFF_FF_00_00, 0xFF_00_FF_00, 0x00_00_00_00});
+        MipmapPyramid pyramid = new MipmapPyramid(base);
+
+        int[] level1 = getPixels(pyramid.getLevel(1));
+        assertThat(level1).isEqualTo(new int[]{0xBF_40_40_00});
+    }
+
+    @Test
+    void invalidateUpdatesOnlyTheGivenRegion() {
+        for (int type : TYPES) {
+            BufferedImage base = createNoise(200, 150, type);
+            MipmapPyramid pyramid = new MipmapPyramid(base);
+            pyramid.getLevel(3);
+
+            Rectangle changed = new Rectangle(37, 21, 30, 17);
+            Rectangle notReported = new Rectangle(150, 100, 20, 20);
+            fill(base, changed, 0xFF_12_34_56);
+            fill(base, notReported, 0xFF_65_43_21);
+
+            // only the first change is reported to the pyramid
+            pyramid.invalidate(changed);
+
+            BufferedImage expectedBase = createNoise(200, 150, type);
+            fill(expectedBase, changed, 0xFF_12_34_56);
+            MipmapPyramid expected = new MipmapPyramid(expectedBase);
+
+            for (int level = 1; level <= 3; level++) {
+                assertThat(getPixels(pyramid.getLevel(level)))
+                    .isEqualTo(getPixels(expected.getLevel(level)));
+            }
+        }
+    }
+
+    @Test
+    void invalidateBeforeBuildingIsIgnored() {
+        BufferedImage base = createNoise(64, 64, TYPE_INT_ARGB);
+        MipmapPyramid pyramid = new MipmapPyramid(base);
+        pyramid.invalidate(new Rectangle(0, 0, 10, 10));
+        pyramid.invalidate(new Rectangle(-20, -20, 5, 5)); // outside the image
+
+        MipmapPyramid expected = new MipmapPyramid(createNoise(64, 64, TYPE_INT_ARGB));
+        assertThat(getPixels(pyramid.getLevel(2)))
+            .isEqualTo(getPixels(expected.getLevel(2)));
+    }
+
+    @Test
+    void replaceBaseKeepsTheLevels() {
+        BufferedImage base = createNoise(120, 80, TYPE_INT_ARGB);
+        MipmapPyramid pyramid = new MipmapPyramid(base);
+        int[] oldLevel2 = getPixels(pyramid.getLevel(2));
+
+        BufferedImage copy = ImageUtils.copyImage(base);
+        Rectangle changed = new Rectangle(10, 10, 40, 20);
+        fill(copy, changed, 0xFF_AB_CD_EF);
+        pyramid.replaceBase(copy);
+
+        assertThat(pyramid.getBase()).isSameAs(copy);
+        // the copy's changes are not visible until they are reported
+        assertThat(getPixels(pyramid.getLevel(2))).isEqualTo(oldLevel2);
+
+        pyramid.invalidate(changed);
+        MipmapPyramid expected = new MipmapPyramid(copy);
+        assertThat(getPixels(pyramid.getLevel(1)))
+            .isEqualTo(getPixels(expected.getLevel(1)));
+        assertThat(getPixels(pyramid.getLevel(2)))
+            .isEqualTo(getPixels(expected.getLevel(2)));
+    }
+
+    private static BufferedImage createNoise(int width, int height, int type) {
+        BufferedImage img = new BufferedImage(width, height, type);
+        Random random = new Random(width * 31L + height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                img.setRGB(x, y, random.nextInt());
+            }
+        }
+        return img;
+    }
+
+    private static void fill(BufferedImage img, Rectangle r, int argb) {
+        for (int y = r.y; y < r.y + r.height; y++) {
+            for (int x = r.x; x < r.x + r.width; x++) {
+                img.setRGB(x, y, argb);
+            }
+        }
+    }
+
+    private static int[] getPixels(BufferedImage img) {
+        return (int[]) img.getRaster().getDataElements(
+            0, 0, img.getWidth(), img.getHeight(), null);
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.utils;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import static java.awt.image.BufferedImage.TYPE_BYTE_GRAY;
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB_PRE;
+import static java.awt.image.BufferedImage.TYPE_INT_RGB;
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DisplayName("Resampler tests")
+class ResamplerTest {
+    private static final int[] TYPES = {TYPE_INT_ARGB, TYPE_INT_ARGB_PRE, TYPE_INT_RGB, TYPE_BYTE_GRAY};
+
+    @Test
+    void sameSizeKeepsThePixels() {
+        for (int type : TYPES) {
+            BufferedImage src = createNoise(31, 17, type);
+            BufferedImage dst = resample(src, 31, 17);
+
+            assertThat(dst.getType()).isEqualTo(type);
+            assertThat(getData(dst)).isEqualTo(getData(src));
+        }
+    }
+
+    @Test
+    void opaqueImagesHaveNoAlphaBits() {
+        BufferedImage src = createNoise(31, 17, TYPE_INT_RGB);
+        BufferedImage dst = resample(src, 45, 12);
+
+        for (int pixel : (int[]) getData(dst)) {
+            assertThat(pixel >>> 24).isEqualTo(0);
+        }
+    }
+
+    @Test
+    void halvingKeepsUniformColors() {
+        for (int type : TYPES) {
+            BufferedImage src = new BufferedImage(40, 30, type);
+            fill(src, (x, y) -> 0xFF_40_80_C0);
+            int expected = src.getRGB(0, 0);
+
+            BufferedImage dst = resample(src, 20, 15);
+            assertThat(dst.getWidth()).isEqualTo(20);
+            assertThat(dst.getHeight()).isEqualTo(15);
+            for (int y = 0; y < 15; y++) {
+                for (int x = 0; x < 20; x++) {
+                    assertThat(dst.getRGB(x, y)).isEqualTo(expected);
+                }
+            }
+        }
+    }
+
+    @Test
+    void halvingAveragesAlternatingColumns() {
+        // when halving, the even and odd source columns
+        // get the same total weight in every destination pixel
+        BufferedImage src = new BufferedImage(40, 8, TYPE_INT_RGB);
+        fill(src, (x, y) -> x % 2 == 0 ? 0xFF_00_00_00 : 0xFF_C8_64_32);
+
+        BufferedImage dst = resample(src, 20, 4);
+
+        // the pixels near the edges are influenced by the clipped filter
+        for (int y = 0; y < 4; y++) {
+            for (int x = 2; x < 18; x++) {
+                assertThat(dst.getRGB(x, y)).isEqualTo(0xFF_64_32_19);
+            }
+        }
+    }
+
+    @Test
+    void transparentColorsDontBleed() {
+        // opaque red on the left, transparent green on the right
+        for (int type : new int[]{TYPE_INT_ARGB, TYPE_INT_ARGB_PRE}) {
+            BufferedImage src = new BufferedImage(40, 10, TYPE_INT_ARGB);
+            fill(src, (x, y) -> x < 20 ? 0xFF_FF_00_00 : 0x00_00_FF_00);
+            src = ImageUtils.copyTo(type, src);
+
+            for (int dstWidth : new int[]{20, 13, 80}) {
+                BufferedImage dst = resample(src, dstWidth, 10);
+                for (int x = 0; x < dstWidth; x++) {
+                    int argb = dst.getRGB(x, 5);
+                    int alpha = argb >>> 24;
+                    if (alpha > 0) {
+                        // the color of the translucent edge pixels is still pure red
+                        assertThat(argb & 0x00_FF_FF_FF).isEqualTo(0x00_FF_00_00);
+                    }
+                }
+                // the left edge is opaque, the right edge is transparent
+                assertThat(dst.getRGB(0, 5)).isEqualTo(0xFF_FF_00_00);
+                assertThat(dst.getRGB(dstWidth - 1, 5) >>> 24).isEqualTo(0);
+            }
+        }
+    }
+
+    private static BufferedImage resample(BufferedImage src, int width, int height) {
+        assertThat(Resampler.canResample(src)).isTrue();
+        return Resampler.resample(src, width, height, ProgressTracker.NULL_TRACKER);
+    }
+
+    private static BufferedImage createNoise(int width, int height, int type) {
+        Random random = new Random(type);
+        BufferedImage img = new BufferedImage(width, height, type);
+        fill(img, (x, y) -> random.nextInt());
+        return img;
+    }
+
+    private static void fill(BufferedImage img, PixelFunction f) {
+        for (int y = 0; y < img.getHeight(); y++) {
+            for (int x = 0; x < img.getWidth(); x++) {
+                img.setRGB(x, y, f.rgbAt(x, y));
+            }
+        }
+    }
+
+    private static Object getData(BufferedImage img) {
+        return img.getRaster().getDataElements(0, 0, img.getWidth(), img.getHeight(), null);
+    }
+
+    private interface PixelFunction {
+        int rgbAt(int x, int y);
+    }
+}